@@ -0,0 +1,74 @@
+package org.example;
+
+import org.example.core.CacheCommand;
+import org.example.core.Cachebase;
+import org.example.core.CachebaseManager;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * In-process throughput benchmark for the {@link Cachebase} submit path.
+ * <p>
+ * Each client thread behaves like a session: it submits one command and waits for
+ * the reply before sending the next. No sockets are involved, so the numbers show
+ * what the routing and worker hand-off cost on their own.
+ * </p>
+ */
+public class CachebaseBenchmark {
+
+    private static final int OPS_PER_CLIENT = 200_000;
+    private static final int[] CLIENTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws InterruptedException {
+        PrintStream console = System.out;
+        // Keep any per-command logging off the console while measuring
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        CachebaseManager.createCachebase("bench");
+        Cachebase cb = CachebaseManager.getCachebase("bench");
+
+        run(cb, 4, 20_000); // warm-up
+
+        for (int clients : CLIENTS) {
+            double opsPerSec = run(cb, clients, OPS_PER_CLIENT);
+            console.printf("%2d clients : %,12.0f ops/sec%n", clients, opsPerSec);
+        }
+
+        CachebaseManager.removeCachebase("bench");
+        System.setOut(console);
+    }
+
+    private static double run(Cachebase cb, int clients, int opsPerClient) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+
+        for (int c = 0; c < clients; c++) {
+            final String prefix = "c" + c + ":key";
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerClient; i++) {
+                        String key = prefix + (i & 1023);
+                        CacheCommand cmd = (i & 1) == 0
+                                ? new CacheCommand(CacheCommand.Type.SET, key, ("value" + i).getBytes(StandardCharsets.UTF_8))
+                                : new CacheCommand(CacheCommand.Type.GET, key, null);
+                        cb.submit(cmd);
+                        cmd.callback.join();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) clients * opsPerClient / (elapsed / 1_000_000_000.0);
+    }
+}
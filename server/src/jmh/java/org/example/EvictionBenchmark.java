@@ -0,0 +1,118 @@
+package org.example;
+
+import org.example.core.Cachebase;
+import org.example.core.CachebaseManager;
+import org.example.core.EvictionPolicy;
+import org.example.protocol.Reply;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Hit ratio of the eviction policies under a Zipfian workload.
+ * <p>
+ * Replays the same cache-aside trace against a memory-bounded cachebase once per policy:
+ * each batch of keys is read with {@code MGET} and the misses are then filled in with
+ * {@code MSET}, as an application in front of a slower store would. Key popularity
+ * follows a Zipf distribution; the budget holds only a fraction of all keys, so the policy
+ * decides which ones stay. The first fifth of the trace warms the cache and is not counted.
+ * Run it from a scratch directory: it writes under {@code data/}.
+ * </p>
+ *
+ * <p>Usage: {@code EvictionBenchmark [keys] [requests] [budget-percent]}
+ * (defaults 1,000,000 keys, 5,000,000 requests, 10% of the data).</p>
+ */
+public class EvictionBenchmark {
+
+    private static final String CACHEBASE = "eviction-bench";
+    private static final int BATCH = 1000;
+    private static final int VALUE_SIZE = 100;
+    private static final double[] SKEWS = {0.99, 0.8};
+    // Worker's estimate of an entry's fixed cost, used to turn the percentage into bytes
+    private static final int ENTRY_OVERHEAD = 48;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int percent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long budget = (long) keys * (ENTRY_OVERHEAD + 12 + VALUE_SIZE) * percent / 100;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%,d keys, %,d requests, budget %,d bytes (%d%%)%n", keys, requests, budget, percent);
+        for (double skew : SKEWS) {
+            int[] trace = zipfTrace(keys, requests, skew, new SplittableRandom(42));
+            for (EvictionPolicy.Kind policy : EvictionPolicy.Kind.values()) {
+                CachebaseManager.createCachebase(CACHEBASE);
+                Cachebase cb = CachebaseManager.getCachebase(CACHEBASE);
+                cb.setMaxMemory(budget, policy);
+
+                int warmup = requests / 5;
+                run(cb, trace, 0, warmup);
+                long start = System.nanoTime();
+                long hits = run(cb, trace, warmup, requests);
+                long nanos = System.nanoTime() - start;
+
+                int measured = requests - warmup;
+                console.printf("zipf %.2f  %-8s hit ratio %6.2f%%  %,10.0f req/s%n", skew, policy.displayName(),
+                        100.0 * hits / measured, measured / (nanos / 1e9));
+                CachebaseManager.removeCachebase(CACHEBASE);
+            }
+        }
+        System.setOut(console);
+    }
+
+    /** Replays {@code trace[from..to)} cache-aside; returns the number of hits. */
+    private static long run(Cachebase cb, int[] trace, int from, int to) {
+        long hits = 0;
+        byte[] value = new byte[VALUE_SIZE];
+        Arrays.fill(value, (byte) 'v');
+        String[] batch = new String[BATCH];
+        for (int i = from; i < to; i += BATCH) {
+            int n = Math.min(BATCH, to - i);
+            if (n < BATCH) batch = new String[n];
+            for (int j = 0; j < n; j++) {
+                batch[j] = "key:" + trace[i + j];
+            }
+            List<Reply> results = cb.mget(batch).join().items();
+
+            int misses = 0;
+            for (Reply result : results) {
+                if (result.kind() == Reply.Kind.NIL) misses++;
+            }
+            hits += n - misses;
+            if (misses == 0) continue;
+            String[] missKeys = new String[misses];
+            byte[][] missValues = new byte[misses][];
+            for (int j = 0, m = 0; j < n; j++) {
+                if (results.get(j).kind() != Reply.Kind.NIL) continue;
+                missKeys[m] = batch[j];
+                missValues[m++] = value;
+            }
+            cb.mset(missKeys, missValues).join();
+        }
+        return hits;
+    }
+
+    /**
+     * Key ranks drawn from a Zipf distribution: rank {@code r} has probability proportional
+     * to {@code 1 / r^skew}. Sampling is a binary search in the cumulative distribution.
+     */
+    private static int[] zipfTrace(int keys, int requests, double skew, SplittableRandom random) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int r = 0; r < keys; r++) {
+            sum += 1 / Math.pow(r + 1, skew);
+            cumulative[r] = sum;
+        }
+        int[] trace = new int[requests];
+        for (int i = 0; i < requests; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = rank >= 0 ? rank : Math.min(-rank - 1, keys - 1);
+        }
+        return trace;
+    }
+}
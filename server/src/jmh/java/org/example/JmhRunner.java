@@ -0,0 +1,40 @@
+package org.example;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}: JMH's own command line, with the gc profiler
+ * always added so each result also reports allocated bytes per operation
+ * ({@code gc.alloc.rate.norm}).
+ * <p>
+ * The benchmarks that start workers write under {@code data/cachebases/jmh-*} in the
+ * working directory and delete it again when they finish.
+ * </p>
+ *
+ * <p>Usage: {@code java -jar target/benchmarks.jar [regexp] [JMH options]}, e.g.
+ * {@code RoutingBenchmark -f 1} or {@code -l} to list the benchmarks.</p>
+ */
+public class JmhRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build();
+        Runner runner = new Runner(options);
+        if (commandLine.shouldList()) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
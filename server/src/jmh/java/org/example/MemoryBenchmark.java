@@ -0,0 +1,91 @@
+package org.example;
+
+import org.example.core.ByteTable;
+
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Heap bytes per entry of the layouts a worker's store has used.
+ * <p>
+ * Fills each layout with the same {@code N} keys ({@code key:<i>}) and values, then
+ * compares the live heap after a full collection with the heap before. The payload line
+ * is the key and value bytes alone; everything above it is overhead.
+ * </p>
+ *
+ * <ul>
+ *     <li>{@code ConcurrentHashMap<String, String>}: the original store.</li>
+ *     <li>{@code ConcurrentHashMap<String, byte[]>}: binary-safe values.</li>
+ *     <li>{@link ByteTable}: UTF-8 key arrays in an open-addressing table.</li>
+ * </ul>
+ *
+ * <p>Usage: {@code MemoryBenchmark [keys] [value-bytes]} (defaults 1,000,000 and 32).
+ * Run it alone in its JVM, e.g. with {@code -Xmx4g}; other allocation skews the numbers.</p>
+ */
+public class MemoryBenchmark {
+
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        long payload = 0;
+        for (int i = 0; i < keys; i++) {
+            payload += key(i).length() + valueSize;
+        }
+        System.out.printf("%,d entries, %d-byte values%n", keys, valueSize);
+        System.out.printf("payload                            : %6.1f bytes/entry%n", (double) payload / keys);
+
+        report("ConcurrentHashMap<String, String>", keys, n -> {
+            Map<String, String> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < n; i++) {
+                map.put(key(i), new String(value(i, valueSize), StandardCharsets.UTF_8));
+            }
+            return map;
+        });
+        report("ConcurrentHashMap<String, byte[]>", keys, n -> {
+            Map<String, byte[]> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < n; i++) {
+                map.put(key(i), value(i, valueSize));
+            }
+            return map;
+        });
+        report("ByteTable", keys, n -> {
+            ByteTable table = new ByteTable();
+            for (int i = 0; i < n; i++) {
+                table.put(key(i).getBytes(StandardCharsets.UTF_8), value(i, valueSize));
+            }
+            return table;
+        });
+    }
+
+    private static void report(String layout, int keys, IntFunction<Object> build) {
+        long before = liveHeap();
+        Object store = build.apply(keys);
+        long after = liveHeap();
+        System.out.printf("%-35s: %6.1f bytes/entry%n", layout, (double) (after - before) / keys);
+        Reference.reachabilityFence(store); // Keeps the store alive until measured
+    }
+
+    private static long liveHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String key(int i) {
+        return "key:" + i;
+    }
+
+    private static byte[] value(int i, int size) {
+        byte[] value = new byte[size];
+        for (int j = 0; j < size; j++) {
+            value[j] = (byte) ('a' + (i + j) % 26);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.example.core.Cachebase;
+import org.example.core.CachebaseManager;
+import org.example.persistance.WorkerLog;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap footprint and GC pauses of a large cachebase, with values on or off the heap.
+ * <p>
+ * Fills a cachebase with {@code N} keys, forces a full collection and reports the live heap
+ * and how long that collection took, then overwrites random keys for a while and reports
+ * every collection the JVM ran meanwhile: count, total and longest pause. Run it once per
+ * storage kind, each in a fresh JVM with the same collector and heap size, from a scratch
+ * directory (it writes under {@code data/}).
+ * </p>
+ *
+ * <p>Usage: {@code OffHeapBenchmark heap|offheap [keys] [value-bytes] [updates]}
+ * (defaults 5,000,000 keys of 100 bytes, 10,000,000 updates), e.g. with {@code -Xmx8g}.</p>
+ */
+public class OffHeapBenchmark {
+
+    private static final String CACHEBASE = "offheap-bench";
+    private static final int BATCH = 1000;
+
+    private static final AtomicLong collections = new AtomicLong();
+    private static final AtomicLong pauseMillis = new AtomicLong();
+    private static final AtomicLong longestPause = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        String storage = args.length > 0 ? args[0] : "heap";
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int updates = args.length > 3 ? Integer.parseInt(args[3]) : 10_000_000;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        WorkerLog.setFsyncPolicy(WorkerLog.FsyncPolicy.NO);
+        WorkerLog.setRewriteThreshold(0, 0);
+        Cachebase.setValueStorage(storage);
+
+        CachebaseManager.createCachebase(CACHEBASE);
+        Cachebase cb = CachebaseManager.getCachebase(CACHEBASE);
+        SplittableRandom random = new SplittableRandom(7);
+        long start = System.nanoTime();
+        write(cb, keys, valueSize, keys, null);
+        console.printf("%s: %,d keys of %d bytes loaded in %,d ms%n", storage, keys, valueSize,
+                (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - start) / 1_000_000;
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        console.printf("  live heap after full GC : %,d MB (full GC took %,d ms)%n", heapUsed >> 20, fullGcMillis);
+        console.println(indent(new String(cb.stats().join().bulkValue(), StandardCharsets.UTF_8)));
+
+        listenForCollections();
+        start = System.nanoTime();
+        write(cb, keys, valueSize, updates, random);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        console.printf("  %,d random overwrites in %,d ms: %,d collections, %,d ms paused, longest %,d ms%n",
+                updates, millis, collections.get(), pauseMillis.get(), longestPause.get());
+
+        CachebaseManager.removeCachebase(CACHEBASE);
+        System.setOut(console);
+    }
+
+    /** Writes {@code count} values, to keys 0.. in order, or to random keys if {@code random} is set. */
+    private static void write(Cachebase cb, int keys, int valueSize, int count, SplittableRandom random) {
+        String[] batchKeys = new String[BATCH];
+        byte[][] batchValues = new byte[BATCH][];
+        for (int i = 0; i < count; i += BATCH) {
+            int n = Math.min(BATCH, count - i);
+            if (n < BATCH) {
+                batchKeys = new String[n];
+                batchValues = new byte[n][];
+            }
+            for (int j = 0; j < n; j++) {
+                int key = random != null ? random.nextInt(keys) : i + j;
+                batchKeys[j] = "key:" + key;
+                batchValues[j] = new byte[valueSize];
+                batchValues[j][0] = (byte) key;
+            }
+            cb.mset(batchKeys, batchValues).join();
+        }
+    }
+
+    private static void listenForCollections() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getName().endsWith("Cycles")) continue; // ZGC and Shenandoah: whole cycles, not pauses
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long duration = info.getGcInfo().getDuration();
+                collections.incrementAndGet();
+                pauseMillis.addAndGet(duration);
+                longestPause.accumulateAndGet(duration, Math::max);
+            }, null, null);
+        }
+    }
+
+    private static String indent(String report) {
+        return "  " + report.replace("\n", "\n  ");
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import org.example.core.Cachebase;
+import org.example.core.CachebaseManager;
+import org.example.core.MemoryStore;
+import org.example.persistance.FileManager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Restart-time benchmark: how long it takes to get {@code N} keys back into memory.
+ * <p>
+ * Compares the per-client text AOF replayed by {@link FileManager#recoverFromAOF} with
+ * a cachebase coming back from its per-worker logs and from its snapshot files.
+ * Run it from a scratch directory: it writes under {@code data/} and loads every
+ * cachebase it finds there.
+ * </p>
+ *
+ * <p>Usage: {@code RecoveryBenchmark [keys]} (default 10,000,000; give the JVM enough heap,
+ * e.g. {@code -Xmx8g}, since each phase holds all keys in memory).</p>
+ */
+public class RecoveryBenchmark {
+
+    private static final String CACHEBASE = "recovery-bench";
+    private static final int BATCH = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        PrintStream console = System.out;
+        // Keep any per-command logging off the console while measuring
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // 1. Text AOF, one "SET key value" line per key
+        File aof = new File("data/" + CACHEBASE + ".aof");
+        aof.getParentFile().mkdirs();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(aof), 1 << 20)) {
+            for (int i = 0; i < keys; i++) {
+                writer.write("SET " + key(i) + " " + value(i));
+                writer.newLine();
+            }
+        }
+        long aofBytes = aof.length();
+        long start = System.nanoTime();
+        FileManager.recoverFromAOF(new PrintWriter(Writer.nullWriter()), aof);
+        long textMillis = (System.nanoTime() - start) / 1_000_000;
+        MemoryStore.clear();
+        aof.delete();
+        console.printf("recoverFromAOF (text AOF)  : %,8d ms for %,d keys (%,d bytes)%n", textMillis, keys, aofBytes);
+
+        // 2. Cachebase written through the workers, restored from its logs
+        CachebaseManager.createCachebase(CACHEBASE);
+        Cachebase cb = CachebaseManager.getCachebase(CACHEBASE);
+        String[] batchKeys = new String[BATCH];
+        byte[][] batchValues = new byte[BATCH][];
+        for (int i = 0; i < keys; i += BATCH) {
+            int n = Math.min(BATCH, keys - i);
+            if (n < BATCH) {
+                batchKeys = new String[n];
+                batchValues = new byte[n][];
+            }
+            for (int j = 0; j < n; j++) {
+                batchKeys[j] = key(i + j);
+                batchValues[j] = value(i + j).getBytes(StandardCharsets.UTF_8);
+            }
+            cb.mset(batchKeys, batchValues).join();
+        }
+        cb = null; // Let this copy of the data be collected before reloading
+        CachebaseManager.closeAll();
+        console.printf("worker logs                : %,8d ms%n", timeLoad());
+
+        // 3. Same data from snapshot files, with an empty log tail
+        CachebaseManager.getCachebase(CACHEBASE).save(false).join();
+        CachebaseManager.closeAll();
+        console.printf("snapshot (mmap, per worker): %,8d ms%n", timeLoad());
+
+        CachebaseManager.removeCachebase(CACHEBASE);
+        System.setOut(console);
+    }
+
+    private static long timeLoad() throws InterruptedException {
+        System.gc();
+        long start = System.nanoTime();
+        CachebaseManager.loadAll();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static String key(int i) {
+        return "key:" + i;
+    }
+
+    private static String value(int i) {
+        return "value-" + i + "-abcdefghijklmnopqrstuvwxyz";
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens many concurrent sessions against a running ReflexServer and measures handshake
+ * time and command throughput while all of them stay connected.
+ * <p>
+ * Run it once against a server started with {@code --io=blocking} and once against
+ * {@code --io=virtual} to compare platform and virtual session threads.
+ * </p>
+ *
+ * <p>Usage: {@code SessionModeBenchmark [host] [port] [connections] [opsPerConnection]}</p>
+ */
+public class SessionModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int opsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        String cachebase = "sessionbench";
+
+        // Set up the cachebase on a separate connection
+        try (Socket admin = new Socket(host, port)) {
+            PrintWriter out = new PrintWriter(admin.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(admin.getInputStream()));
+            handshake(in, out);
+            command(in, out, "CREATE CACHEBASE " + cachebase);
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong[] latencies = new AtomicLong[]{new AtomicLong(), new AtomicLong()}; // total ns, max ns
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(connections);
+        // Ramp up instead of hitting the listen backlog with every connect at once
+        Semaphore connecting = new Semaphore(256);
+
+        long connectStart = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < connections; c++) {
+                final int id = c;
+                clients.submit(() -> {
+                    connecting.acquireUninterruptibly();
+                    boolean ready = false;
+                    try (Socket socket = new Socket(host, port)) {
+                        socket.setSoTimeout(60_000); // a dropped connection fails instead of hanging the run
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        handshake(in, out);
+                        connecting.release();
+                        ready = true;
+                        connected.countDown();
+                        go.await();
+
+                        for (int i = 0; i < opsPerConnection; i++) {
+                            String key = "conn" + id + ":" + (i % 4);
+                            long start = System.nanoTime();
+                            command(in, out, (i & 1) == 0
+                                    ? "SET " + cachebase + " " + key + " v" + i
+                                    : "GET " + cachebase + " " + key);
+                            long took = System.nanoTime() - start;
+                            latencies[0].addAndGet(took);
+                            latencies[1].accumulateAndGet(took, Math::max);
+                        }
+                        out.println("EXIT");
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        if (!ready) {
+                            connecting.release();
+                            connected.countDown();
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                    return null;
+                });
+            }
+
+            connected.await();
+            long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+            long opsStart = System.nanoTime();
+            go.countDown();
+            finished.await();
+            double opsSeconds = (System.nanoTime() - opsStart) / 1_000_000_000.0;
+
+            int ok = connections - failures.get();
+            long totalOps = (long) ok * opsPerConnection;
+            System.out.printf("Connections      : %d (%d failed)%n", connections, failures.get());
+            System.out.printf("Connect+handshake: %d ms%n", connectMillis);
+            System.out.printf("Throughput       : %.0f ops/sec%n", totalOps / opsSeconds);
+            if (totalOps > 0) {
+                System.out.printf("Latency          : avg %.2f ms, max %.2f ms%n",
+                        latencies[0].get() / 1_000_000.0 / totalOps, latencies[1].get() / 1_000_000.0);
+            }
+        }
+    }
+
+    private static void handshake(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.contains("Enter your unique name:")) {
+                out.println("sessionbench");
+            } else if (line.startsWith("Do you want to open the file")) {
+                out.println("no");
+            } else if (line.contains("You're now connected.")) {
+                in.readLine(); // command hint line
+                return;
+            }
+        }
+        throw new EOFException("Server closed the connection during handshake");
+    }
+
+    private static List<String> command(BufferedReader in, PrintWriter out, String command) throws IOException {
+        out.println(command);
+        List<String> reply = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("<END>")) return reply;
+            reply.add(line);
+        }
+        throw new EOFException("Server closed the connection");
+    }
+}
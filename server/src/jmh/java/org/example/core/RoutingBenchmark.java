@@ -0,0 +1,105 @@
+package org.example.core;
+
+import org.example.protocol.Reply;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Cachebase#submit} round trips from 1, 4 and 16 producer threads, each waiting
+ * for its reply before the next command like a session does; and the key-to-slot hash
+ * on its own, which should allocate nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoutingBenchmark {
+
+    private static final String CACHEBASE = "jmh-routing";
+    private static final int KEYS = 100_000;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        Cachebase cachebase;
+        String[] keys;
+
+        @Setup(Level.Trial)
+        public void start() {
+            CachebaseManager.createCachebase(CACHEBASE);
+            cachebase = CachebaseManager.getCachebase(CACHEBASE);
+            keys = new String[KEYS];
+            byte[] value = new byte[32];
+            Arrays.fill(value, (byte) 'v');
+            CompletableFuture<Reply> last = null;
+            for (int i = 0; i < KEYS; i++) {
+                keys[i] = "key:" + i;
+                last = new CompletableFuture<>();
+                cachebase.submit(new CacheCommand(CacheCommand.Type.SET, keys[i], value, last));
+            }
+            last.join();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            CachebaseManager.removeCachebase(CACHEBASE);
+        }
+    }
+
+    /** Each producer walks the keys from its own starting point. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = (int) (Thread.currentThread().threadId() * 7919 % KEYS);
+
+        String key(Shared shared) {
+            int i = next;
+            next = i + 1 == KEYS ? 0 : i + 1;
+            return shared.keys[i];
+        }
+    }
+
+    private static Reply get(Shared shared, Cursor cursor) {
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        shared.cachebase.submit(new CacheCommand(CacheCommand.Type.GET, cursor.key(shared), null, reply));
+        return reply.join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Reply submit1(Shared shared, Cursor cursor) {
+        return get(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Reply submit4(Shared shared, Cursor cursor) {
+        return get(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Reply submit16(Shared shared, Cursor cursor) {
+        return get(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int slotOf(Shared shared, Cursor cursor) {
+        return SlotTable.slotOf(cursor.key(shared));
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.core;
+
+import org.example.persistance.WorkerLog;
+import org.example.protocol.Reply;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Get and put throughput of a single {@link Worker}, without routing or sockets.
+ * <p>
+ * The {@code get} and {@code put} benchmarks hand one command to the worker and wait for
+ * its reply, so they include the inbox hand-off both ways. The {@code pipelined} variants
+ * queue {@value #PIPELINE} commands before waiting for the last one, which shows what the
+ * worker loop itself sustains. Puts are logged with the default {@code everysec} policy.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WorkerBenchmark {
+
+    private static final String CACHEBASE = "jmh-worker";
+    private static final int KEYS = 100_000;
+    private static final int PIPELINE = 64;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    @Param({"32"})
+    public int valueSize;
+
+    private Worker worker;
+    private String[] keys;
+    private byte[] value;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() {
+        worker = new Worker(CACHEBASE, 0, 0, EvictionPolicy.Kind.LRU, ValueStore.Kind.parse(storage));
+        keys = new String[KEYS];
+        value = new byte[valueSize];
+        Arrays.fill(value, (byte) 'v');
+        CompletableFuture<Reply> last = null;
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key:" + i;
+            last = new CompletableFuture<>();
+            worker.handle(new CacheCommand(CacheCommand.Type.SET, keys[i], value, last));
+        }
+        last.join();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException, IOException {
+        worker.shutdown();
+        worker.awaitTermination();
+        Path dir = WorkerLog.fileFor(CACHEBASE, 0).getParentFile().toPath();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private String nextKey() {
+        int i = next;
+        next = i + 1 == KEYS ? 0 : i + 1;
+        return keys[i];
+    }
+
+    private Reply call(CacheCommand.Type type, byte[] payload) {
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        worker.handle(new CacheCommand(type, nextKey(), payload, reply));
+        return reply.join();
+    }
+
+    @Benchmark
+    public Reply get() {
+        return call(CacheCommand.Type.GET, null);
+    }
+
+    @Benchmark
+    public Reply put() {
+        return call(CacheCommand.Type.SET, value);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public Reply pipelinedGet() {
+        return pipeline(CacheCommand.Type.GET, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public Reply pipelinedPut() {
+        return pipeline(CacheCommand.Type.SET, value);
+    }
+
+    /** A worker runs its commands in order, so the last reply means all are done. */
+    private Reply pipeline(CacheCommand.Type type, byte[] payload) {
+        CompletableFuture<Reply> reply = null;
+        for (int i = 0; i < PIPELINE; i++) {
+            reply = new CompletableFuture<>();
+            worker.handle(new CacheCommand(type, nextKey(), payload, reply));
+        }
+        return reply.join();
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.persistance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The worker log's two hot paths: appending a group of SET records and committing them,
+ * as a worker does once per batch; and replaying a written log at startup, record by
+ * record with {@link WorkerLog#replay} and on the fork-join pool with {@link ParallelReplay}.
+ * <p>
+ * Appends use {@code appendfsync no}, so they measure encoding and the write call rather
+ * than the disk. Each append iteration starts from an empty file.
+ * </p>
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LogBenchmark {
+
+    private static final String[] KEYS = new String[1024];
+    private static final byte[] VALUE = new byte[64];
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = "key:" + i;
+        }
+        Arrays.fill(VALUE, (byte) 'v');
+    }
+
+    @State(Scope.Thread)
+    public static class Append {
+        @Param({"1", "64"})
+        public int recordsPerCommit;
+
+        File file;
+        WorkerLog log;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            WorkerLog.setFsyncPolicy(WorkerLog.FsyncPolicy.NO);
+            file = File.createTempFile("jmh-append", ".aof");
+            log = new WorkerLog(file);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            log.close();
+            Files.delete(file.toPath());
+        }
+    }
+
+    /** A log of {@code records} SETs over 1024 keys, written once per trial. */
+    @State(Scope.Benchmark)
+    public static class Replay {
+        @Param({"1000000"})
+        public int records;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            WorkerLog.setFsyncPolicy(WorkerLog.FsyncPolicy.NO);
+            file = File.createTempFile("jmh-replay", ".aof");
+            try (WorkerLog log = new WorkerLog(file)) {
+                for (int i = 0; i < records; i++) {
+                    log.appendSet(KEYS[i % KEYS.length], VALUE);
+                    if (i % 1024 == 1023) log.commit();
+                }
+                log.commit();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /** One commit of {@code recordsPerCommit} records; throughput is in commits. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void appendAndCommit(Append state) throws IOException {
+        for (int i = 0; i < state.recordsPerCommit; i++) {
+            state.log.appendSet(KEYS[state.next++ & (KEYS.length - 1)], VALUE);
+        }
+        state.log.commit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public long replaySequential(Replay state) throws IOException {
+        long[] count = {0};
+        WorkerLog.replay(state.file, new WorkerLog.RecordHandler() {
+            @Override
+            public void set(String key, byte[] value) {
+                count[0]++;
+            }
+
+            @Override
+            public void expire(String key, long expireAt) {
+            }
+
+            @Override
+            public void delete(String key) {
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public long replayParallel(Replay state) throws IOException {
+        LongAdder count = new LongAdder();
+        ParallelReplay replay = new ParallelReplay(ParallelReplay.Format.RECORDS, 4,
+                key -> (key.hashCode() & Integer.MAX_VALUE) % 4,
+                new ParallelReplay.PartitionSink() {
+                    @Override
+                    public void set(int partition, String key, byte[] value) {
+                        count.increment();
+                    }
+
+                    @Override
+                    public void expire(int partition, String key, long expireAt) {
+                    }
+
+                    @Override
+                    public void delete(int partition, String key) {
+                    }
+                },
+                "jmh");
+        replay.replay(List.of(state.file));
+        return count.sum();
+    }
+}
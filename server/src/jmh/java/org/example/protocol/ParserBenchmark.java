@@ -0,0 +1,64 @@
+package org.example.protocol;
+
+import org.example.core.CommandProcessor;
+import org.example.core.SessionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request tokenization: a {@code SET} parsed from a text line and from a RESP array,
+ * then its key and value pulled out as the command does; and a {@code PING} parsed and
+ * dispatched through {@link CommandProcessor#execute}, which adds the command table lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+
+    private static final byte[] INLINE_SET = "SET bench key:123456 0123456789abcdef0123456789abcdef\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESP_SET = ("*4\r\n$3\r\nSET\r\n$5\r\nbench\r\n$10\r\nkey:123456\r\n"
+            + "$32\r\n0123456789abcdef0123456789abcdef\r\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INLINE_PING = "PING\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private final RequestParser parser = new RequestParser();
+    private final CommandArgs args = new CommandArgs();
+    private final SessionContext session = new SessionContext("bench", null, null);
+
+    private void parseSet(byte[] request, Blackhole blackhole) throws ProtocolException {
+        parser.parse(request, 0, request.length, args);
+        blackhole.consume(args.string(2));
+        blackhole.consume(args.bytes(3));
+    }
+
+    @Benchmark
+    public void inlineSet(Blackhole blackhole) throws ProtocolException {
+        parseSet(INLINE_SET, blackhole);
+    }
+
+    @Benchmark
+    public void respSet(Blackhole blackhole) throws ProtocolException {
+        parseSet(RESP_SET, blackhole);
+    }
+
+    @Benchmark
+    public CompletableFuture<Reply> dispatchPing() throws ProtocolException {
+        parser.parse(INLINE_PING, 0, INLINE_PING.length, args);
+        return CommandProcessor.execute(args, session);
+    }
+}
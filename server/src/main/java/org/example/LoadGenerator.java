@@ -0,0 +1,643 @@
+package org.example;
+
+import org.example.core.LatencyHistogram;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for a running ReflexServer: {@code GET}s and {@code SET}s against one
+ * cachebase over N persistent RESP connections, reporting throughput and latency percentiles.
+ * <p>
+ * Closed loop (the default) keeps {@code --pipeline} requests outstanding per connection and
+ * sends the next batch as soon as the last one is answered, which finds the server's capacity.
+ * Open loop ({@code --rate=<ops/sec>}) schedules requests at a fixed rate spread over the
+ * connections and sends each one when it is due, whether or not earlier ones were answered
+ * (up to {@code --pipeline} outstanding per connection), which is how real clients load a server.
+ * </p>
+ * <p>
+ * Latencies are corrected for coordinated omission, so a stall is charged to every request
+ * that was held up by it, not just the one that saw it. In open loop a request's latency is
+ * measured from the time it was due to be sent rather than the time it went out. In closed
+ * loop there is no schedule, so each round trip slower than the connection's average adds the
+ * samples that requests sent at that average rate would have seen, as HdrHistogram's
+ * {@code recordValueWithExpectedInterval} does. The raw send-to-reply service times are
+ * reported next to the corrected ones.
+ * </p>
+ *
+ * <p>Usage: {@code LoadGenerator [--host=localhost] [--port=8080] [--cachebase=loadgen]
+ * [--connections=50] [--pipeline=1] [--rate=0] [--duration=30] [--warmup=5] [--reads=0.9]
+ * [--keys=100000] [--distribution=uniform|zipfian] [--zipf-theta=0.99] [--value-size=100|min-max]
+ * [--preload]}. A rate of 0 means closed loop; durations are in seconds.</p>
+ */
+public class LoadGenerator {
+
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+    // Marks the last request of an open-loop connection so its reader knows to stop
+    private static final int STOP = 2;
+    private static final int PRELOAD_BATCH = 256;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] PING = "*1\r\n$4\r\nPING\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unknown argument: " + arg);
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        Settings settings = new Settings(options);
+
+        try (Socket admin = connect(settings)) {
+            OutputStream out = admin.getOutputStream();
+            out.write(command("CREATE", "CACHEBASE", settings.cachebase));
+            out.flush();
+            ReplyReader in = new ReplyReader(admin.getInputStream());
+            in.read();
+            in.read(); // an existing cachebase is fine too
+        }
+
+        Workload workload = new Workload(settings);
+        List<Client> clients = new ArrayList<>();
+        for (int c = 0; c < settings.connections; c++) {
+            clients.add(new Client(c, settings, workload, connect(settings)));
+        }
+
+        if (settings.preload) {
+            long start = System.nanoTime();
+            runAll(clients, Client::preload);
+            System.out.printf("Preloaded %,d keys in %,d ms%n", settings.keys, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        long start = System.nanoTime();
+        long from = start + settings.warmupNanos;
+        long until = from + settings.durationNanos;
+        for (Client client : clients) {
+            client.window(start, from, until);
+        }
+        runAll(clients, Client::run);
+        long finished = System.nanoTime();
+        for (Client client : clients) {
+            client.socket.close();
+        }
+
+        report(settings, clients, Math.max(until, finished) - from);
+    }
+
+    private static Socket connect(Settings settings) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(settings.host, settings.port), 10_000);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(30_000); // a stuck server fails the run instead of hanging it
+        // Speaking RESP first skips the server's text handshake, which starts if we stay quiet
+        socket.getOutputStream().write(PING);
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private interface Task {
+        void run(Client client) throws Exception;
+    }
+
+    /** Runs the task on every client, each on its own thread, and waits for all of them. */
+    private static void runAll(List<Client> clients, Task task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (Client client : clients) {
+            threads.add(Thread.ofPlatform().name("loadgen-" + client.id).start(() -> {
+                try {
+                    task.run(client);
+                } catch (Exception e) {
+                    client.failure = e;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void report(Settings settings, List<Client> clients, long elapsedNanos) {
+        LatencyHistogram[] corrected = {new LatencyHistogram(), new LatencyHistogram()};
+        LatencyHistogram[] service = {new LatencyHistogram(), new LatencyHistogram()};
+        long ops = 0, errors = 0, hits = 0, misses = 0;
+        int failed = 0;
+        for (Client client : clients) {
+            if (client.failure != null) {
+                failed++;
+                System.out.printf("Connection %d failed: %s%n", client.id, client.failure);
+            }
+            for (int kind = READ; kind <= WRITE; kind++) {
+                corrected[kind].add(client.corrected[kind]);
+                service[kind].add(client.service[kind]);
+            }
+            ops += client.ops;
+            errors += client.errors;
+            hits += client.hits;
+            misses += client.misses;
+        }
+
+        System.out.printf("Connections : %d (%d failed), %s, pipeline %d%n", settings.connections, failed,
+                settings.rate > 0 ? "open loop" : "closed loop", settings.pipeline);
+        System.out.printf("Workload    : %,d keys %s, %.0f%% GET, values %s bytes%n", settings.keys,
+                settings.zipfTheta > 0 ? "zipfian(" + settings.zipfTheta + ")" : "uniform", settings.readRatio * 100,
+                settings.minValue == settings.maxValue ? settings.minValue : settings.minValue + "-" + settings.maxValue);
+        System.out.printf("Measured    : %.1f s after %d s warm-up%n", elapsedNanos / 1e9, settings.warmupNanos / 1_000_000_000);
+        System.out.printf("Throughput  : %,.0f ops/sec%s%n", ops / (elapsedNanos / 1e9),
+                settings.rate > 0 ? String.format(" (target %,d)", settings.rate) : "");
+        System.out.printf("Errors      : %,d%n", errors);
+        if (hits + misses > 0) {
+            System.out.printf("GET hits    : %.1f%%%n", 100.0 * hits / (hits + misses));
+        }
+        System.out.println();
+        System.out.printf("%-16s %9s %9s %9s %9s %9s %9s %9s%n", "Latency (us)", "count", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+        LatencyHistogram allCorrected = new LatencyHistogram();
+        LatencyHistogram allService = new LatencyHistogram();
+        for (int kind = READ; kind <= WRITE; kind++) {
+            String name = kind == READ ? "GET" : "SET";
+            row(name + " corrected", corrected[kind]);
+            row(name + " service", service[kind]);
+            allCorrected.add(corrected[kind]);
+            allService.add(service[kind]);
+        }
+        row("all corrected", allCorrected);
+        row("all service", allService);
+    }
+
+    private static void row(String name, LatencyHistogram histogram) {
+        if (histogram.count() == 0) return;
+        System.out.printf(Locale.ROOT, "%-16s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, histogram.count(),
+                histogram.percentile(50) / 1000.0, histogram.percentile(90) / 1000.0,
+                histogram.percentile(99) / 1000.0, histogram.percentile(99.9) / 1000.0,
+                histogram.percentile(99.99) / 1000.0, histogram.max() / 1000.0);
+    }
+
+    /** Encodes a RESP array of bulk strings. */
+    private static byte[] command(String... parts) {
+        StringBuilder request = new StringBuilder().append('*').append(parts.length).append("\r\n");
+        for (String part : parts) {
+            request.append('$').append(part.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(part).append("\r\n");
+        }
+        return request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Settings {
+        final String host;
+        final int port;
+        final String cachebase;
+        final int connections;
+        final int pipeline;
+        final long rate;
+        final long durationNanos;
+        final long warmupNanos;
+        final double readRatio;
+        final int keys;
+        final double zipfTheta; // 0 for uniform
+        final int minValue;
+        final int maxValue;
+        final boolean preload;
+
+        Settings(Map<String, String> options) {
+            host = options.getOrDefault("host", "localhost");
+            port = Integer.parseInt(options.getOrDefault("port", "8080"));
+            cachebase = options.getOrDefault("cachebase", "loadgen");
+            connections = Integer.parseInt(options.getOrDefault("connections", "50"));
+            pipeline = Integer.parseInt(options.getOrDefault("pipeline", "1"));
+            rate = Long.parseLong(options.getOrDefault("rate", "0"));
+            durationNanos = Long.parseLong(options.getOrDefault("duration", "30")) * 1_000_000_000L;
+            warmupNanos = Long.parseLong(options.getOrDefault("warmup", "5")) * 1_000_000_000L;
+            readRatio = Double.parseDouble(options.getOrDefault("reads", "0.9"));
+            keys = Integer.parseInt(options.getOrDefault("keys", "100000"));
+            String distribution = options.getOrDefault("distribution", "uniform");
+            zipfTheta = switch (distribution) {
+                case "uniform" -> 0;
+                case "zipfian" -> Double.parseDouble(options.getOrDefault("zipf-theta", "0.99"));
+                default -> throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            };
+            String valueSize = options.getOrDefault("value-size", "100");
+            int dash = valueSize.indexOf('-');
+            minValue = Integer.parseInt(dash < 0 ? valueSize : valueSize.substring(0, dash));
+            maxValue = dash < 0 ? minValue : Integer.parseInt(valueSize.substring(dash + 1));
+            preload = Boolean.parseBoolean(options.getOrDefault("preload", "false"));
+
+            if (connections < 1 || pipeline < 1 || keys < 1 || rate < 0) {
+                throw new IllegalArgumentException("connections, pipeline and keys must be positive");
+            }
+            if (readRatio < 0 || readRatio > 1) throw new IllegalArgumentException("reads must be between 0 and 1");
+            if (distribution.equals("zipfian") && (zipfTheta <= 0 || zipfTheta >= 1)) {
+                throw new IllegalArgumentException("zipf-theta must be between 0 and 1 (exclusive)");
+            }
+            if (minValue < 0 || maxValue < minValue) throw new IllegalArgumentException("Bad value-size: " + valueSize);
+        }
+    }
+
+    /**
+     * What every connection sends, encoded once: the command prefixes, each key as a RESP bulk
+     * string, and a block of random bytes that values are cut from. Immutable and shared.
+     */
+    private static final class Workload {
+        final byte[] getPrefix;
+        final byte[] setPrefix;
+        final byte[][] keys;
+        final byte[] valueBytes;
+        final Zipfian zipfian;
+        final double readRatio;
+        final int minValue;
+        final int maxValue;
+
+        Workload(Settings settings) {
+            byte[] cachebase = settings.cachebase.getBytes(StandardCharsets.UTF_8);
+            getPrefix = prefix("GET", 3, cachebase);
+            setPrefix = prefix("SET", 4, cachebase);
+            keys = new byte[settings.keys][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = bulk(("key:" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            valueBytes = new byte[settings.maxValue];
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < valueBytes.length; i++) {
+                valueBytes[i] = (byte) ('a' + random.nextInt(26));
+            }
+            zipfian = settings.zipfTheta > 0 ? new Zipfian(settings.keys, settings.zipfTheta) : null;
+            readRatio = settings.readRatio;
+            minValue = settings.minValue;
+            maxValue = settings.maxValue;
+        }
+
+        private static byte[] prefix(String name, int arguments, byte[] cachebase) {
+            String head = "*" + arguments + "\r\n$" + name.length() + "\r\n" + name + "\r\n";
+            byte[] start = head.getBytes(StandardCharsets.US_ASCII);
+            byte[] cb = bulk(cachebase);
+            byte[] prefix = new byte[start.length + cb.length];
+            System.arraycopy(start, 0, prefix, 0, start.length);
+            System.arraycopy(cb, 0, prefix, start.length, cb.length);
+            return prefix;
+        }
+
+        private static byte[] bulk(byte[] value) {
+            byte[] head = ("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] bulk = new byte[head.length + value.length + 2];
+            System.arraycopy(head, 0, bulk, 0, head.length);
+            System.arraycopy(value, 0, bulk, head.length, value.length);
+            bulk[bulk.length - 2] = '\r';
+            bulk[bulk.length - 1] = '\n';
+            return bulk;
+        }
+
+        int nextKey(SplittableRandom random) {
+            return zipfian != null ? zipfian.next(random) : random.nextInt(keys.length);
+        }
+
+        int nextKind(SplittableRandom random) {
+            return random.nextDouble() < readRatio ? READ : WRITE;
+        }
+
+        /** Writes one request of the given kind for the key. */
+        void write(OutputStream out, SplittableRandom random, int key, int kind) throws IOException {
+            if (kind == READ) {
+                out.write(getPrefix);
+                out.write(keys[key]);
+                return;
+            }
+            int size = minValue == maxValue ? minValue : random.nextInt(minValue, maxValue + 1);
+            out.write(setPrefix);
+            out.write(keys[key]);
+            out.write('$');
+            out.write(Integer.toString(size).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(valueBytes, random.nextInt(maxValue - size + 1), size);
+            out.write(CRLF);
+        }
+    }
+
+    /**
+     * Zipfian ranks over {@code [0, n)}, rank 0 the most popular, by the rejection-free method of
+     * Gray et al., "Quickly Generating Billion-Record Synthetic Databases" (as used by YCSB).
+     * Keys are spread over slots by the server's hash, so hot ranks need no scrambling here.
+     */
+    private static final class Zipfian {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            double zeta2 = 1 + Math.pow(0.5, theta);
+            double zeta = 0;
+            for (int i = 1; i <= n; i++) {
+                zeta += 1 / Math.pow(i, theta);
+            }
+            this.zetaN = zeta;
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        int next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) return 0;
+            if (uz < 1 + Math.pow(0.5, theta)) return Math.min(1, n - 1);
+            return (int) Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+
+    /** One connection and its results; the histograms and counters have a single writer. */
+    private static final class Client {
+        final int id;
+        final Settings settings;
+        final Workload workload;
+        final Socket socket;
+        final BufferedOutputStream out;
+        final ReplyReader in;
+        final SplittableRandom random;
+
+        final LatencyHistogram[] corrected = {new LatencyHistogram(), new LatencyHistogram()};
+        final LatencyHistogram[] service = {new LatencyHistogram(), new LatencyHistogram()};
+        long ops;
+        long errors;
+        long hits;
+        long misses;
+        volatile Exception failure;
+
+        private long start;
+        private long from;
+        private long until;
+
+        // Open loop: the requests in flight, by sequence number modulo the pipeline depth
+        private long[] dueAt;
+        private long[] sentAt;
+        private int[] kinds;
+        private final AtomicLong published = new AtomicLong();
+
+        Client(int id, Settings settings, Workload workload, Socket socket) throws IOException {
+            this.id = id;
+            this.settings = settings;
+            this.workload = workload;
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            this.in = new ReplyReader(socket.getInputStream());
+            in.read(); // the PING sent on connect
+            this.random = new SplittableRandom(1_000_003L * (id + 1));
+        }
+
+        void window(long start, long from, long until) {
+            this.start = start;
+            this.from = from;
+            this.until = until;
+        }
+
+        /** Sets this connection's share of the keys, {@value #PRELOAD_BATCH} at a time. */
+        void preload() throws IOException {
+            int pending = 0;
+            for (int key = id; key < settings.keys; key += settings.connections) {
+                workload.write(out, random, key, WRITE);
+                if (++pending == PRELOAD_BATCH) {
+                    drain(pending);
+                    pending = 0;
+                }
+            }
+            drain(pending);
+        }
+
+        private void drain(int replies) throws IOException {
+            out.flush();
+            for (int i = 0; i < replies; i++) {
+                in.read();
+            }
+        }
+
+        void run() throws Exception {
+            if (settings.rate > 0) {
+                openLoop();
+            } else {
+                closedLoop();
+            }
+        }
+
+        private void closedLoop() throws IOException {
+            int depth = settings.pipeline;
+            int[] batch = new int[depth];
+            long roundTrips = 0;
+            long roundTripNanos = 0;
+            while (true) {
+                long sent = System.nanoTime();
+                if (sent >= until) return;
+                for (int i = 0; i < depth; i++) {
+                    batch[i] = workload.nextKind(random);
+                    workload.write(out, random, workload.nextKey(random), batch[i]);
+                }
+                out.flush();
+                long expected = roundTrips == 0 ? 0 : roundTripNanos / roundTrips;
+                long now = sent;
+                for (int i = 0; i < depth; i++) {
+                    int type = in.read();
+                    now = System.nanoTime();
+                    if (sent >= from) {
+                        record(batch[i], type, now - sent, now - sent);
+                        backfill(corrected[batch[i]], now - sent, expected);
+                    }
+                }
+                roundTrips++;
+                roundTripNanos += now - sent;
+            }
+        }
+
+        /**
+         * Adds the latencies that requests issued every {@code interval} during a slow round
+         * trip would have seen had the connection not been stuck waiting for it.
+         */
+        private static void backfill(LatencyHistogram histogram, long latency, long interval) {
+            if (interval <= 0) return;
+            for (long missed = latency - interval; missed >= interval; missed -= interval) {
+                histogram.record(missed);
+            }
+        }
+
+        /**
+         * Sends on this thread and reads replies on another. Requests are due every
+         * {@code connections / rate} seconds, each connection offset by a fraction of that so
+         * they don't all fire together; a request that cannot go out on time because
+         * {@code pipeline} requests are already outstanding is sent late but keeps its due time.
+         */
+        private void openLoop() throws Exception {
+            int depth = settings.pipeline;
+            dueAt = new long[depth];
+            sentAt = new long[depth];
+            kinds = new int[depth];
+            Semaphore window = new Semaphore(depth);
+            double interval = 1e9 * settings.connections / settings.rate;
+            long first = start + (long) (interval * id / settings.connections);
+
+            Thread reader = Thread.ofPlatform().name("loadgen-" + id + "-reader").start(() -> {
+                try {
+                    for (long n = 0; ; n++) {
+                        int type = in.read();
+                        long now = System.nanoTime();
+                        while (published.get() <= n) {
+                            Thread.onSpinWait();
+                        }
+                        int slot = (int) (n % depth);
+                        int kind = kinds[slot];
+                        if (kind == STOP) return;
+                        if (dueAt[slot] >= from) {
+                            record(kind, type, now - dueAt[slot], now - sentAt[slot]);
+                        }
+                        window.release();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                    window.release(depth); // unblock the sender so it notices
+                }
+            });
+
+            try {
+                for (long seq = 0; ; seq++) {
+                    long due = first + (long) (seq * interval);
+                    if (due >= until) {
+                        window.acquireUninterruptibly();
+                        if (failure != null) break;
+                        publish(seq, due, System.nanoTime(), STOP);
+                        out.write(PING);
+                        out.flush();
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    if (now < due) {
+                        out.flush();
+                        while ((now = System.nanoTime()) < due) {
+                            LockSupport.parkNanos(due - now);
+                        }
+                    }
+                    if (!window.tryAcquire()) {
+                        out.flush();
+                        window.acquireUninterruptibly();
+                    }
+                    if (failure != null) break;
+                    // Published before it is written: a full socket buffer can send part of it
+                    // early, and the reader must know what it is when the reply comes back
+                    int kind = workload.nextKind(random);
+                    publish(seq, due, System.nanoTime(), kind);
+                    workload.write(out, random, workload.nextKey(random), kind);
+                }
+            } catch (IOException e) {
+                socket.close(); // the reader would otherwise wait for replies that never come
+                throw e;
+            } finally {
+                reader.join();
+            }
+        }
+
+        private void publish(long seq, long due, long sent, int kind) {
+            int slot = (int) (seq % settings.pipeline);
+            dueAt[slot] = due;
+            sentAt[slot] = sent;
+            kinds[slot] = kind;
+            published.set(seq + 1);
+        }
+
+        private void record(int kind, int type, long latency, long serviceTime) {
+            corrected[kind].record(latency);
+            service[kind].record(serviceTime);
+            ops++;
+            if (type == '-') {
+                errors++;
+            } else if (kind == READ) {
+                if (type == ReplyReader.NIL) misses++;
+                else hits++;
+            }
+        }
+    }
+
+    /**
+     * Reads RESP replies off a stream and skips their contents, returning only the type.
+     * Buffered by hand so a pipelined burst of small replies costs one socket read.
+     */
+    private static final class ReplyReader {
+        static final int NIL = 0;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+
+        ReplyReader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Reads one whole reply and returns its type byte, or {@link #NIL} for a null bulk or array. */
+        int read() throws IOException {
+            int type = next();
+            long length = line();
+            switch (type) {
+                case '$' -> {
+                    if (length < 0) return NIL;
+                    skip(length + 2);
+                }
+                case '*' -> {
+                    if (length < 0) return NIL;
+                    for (long i = 0; i < length; i++) {
+                        read();
+                    }
+                }
+                case '+', '-', ':' -> { }
+                default -> throw new IOException("Unexpected reply type '" + (char) type + "'");
+            }
+            return type;
+        }
+
+        /** Consumes the rest of a line; returns it as a number for length-prefixed types. */
+        private long line() throws IOException {
+            long value = 0;
+            boolean negative = false;
+            boolean numeric = true;
+            int b;
+            while ((b = next()) != '\r') {
+                if (b == '-' && value == 0) negative = true;
+                else if (b >= '0' && b <= '9') value = value * 10 + (b - '0');
+                else numeric = false;
+            }
+            if (next() != '\n') throw new IOException("Malformed reply line");
+            return numeric && negative ? -value : value;
+        }
+
+        private void skip(long bytes) throws IOException {
+            while (bytes > 0) {
+                if (position == limit) fill();
+                int n = (int) Math.min(bytes, limit - position);
+                position += n;
+                bytes -= n;
+            }
+        }
+
+        private int next() throws IOException {
+            if (position == limit) fill();
+            return buffer[position++];
+        }
+
+        private void fill() throws IOException {
+            int n = in.read(buffer);
+            if (n < 0) throw new EOFException("Server closed the connection");
+            position = 0;
+            limit = n;
+        }
+    }
+}
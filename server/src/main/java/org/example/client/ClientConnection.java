@@ -0,0 +1,179 @@
+package org.example.client;
+
+import org.example.protocol.ProtocolException;
+import org.example.protocol.Reply;
+import org.example.protocol.ReplyParser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * <p><strong>ClientConnection.java</strong></p>
+ *
+ * One multiplexed connection of a {@link ReflexAsyncClient}. Any thread may queue a
+ * request; the client's I/O thread sends everything queued with one write, and matches
+ * the replies to the requests in order, since the server answers a connection in order.
+ * Pushes, such as key invalidations, answer no request and go to a handler instead.
+ *
+ * <p>Apart from {@link #enqueue} and {@link #isConnected}, every method runs on the I/O
+ * thread.</p>
+ */
+final class ClientConnection {
+
+    // Largest amount of queued requests copied into one write
+    private static final int MAX_WRITE_BYTES = 4 * 1024 * 1024;
+
+    /** An encoded request, its reply, and when it times out ({@link System#nanoTime()}). */
+    record Request(byte[] bytes, CompletableFuture<Reply> reply, long deadline) {}
+
+    final int id;
+    private final Consumer<Reply> pushes;
+    // Requests not written yet; they wait here across a reconnect
+    private final Queue<Request> queued = new ConcurrentLinkedQueue<>();
+    // Written, waiting for their reply, in the order sent
+    private final ArrayDeque<Request> inFlight = new ArrayDeque<>();
+    private final ReplyParser parser = new ReplyParser();
+    private ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+    private volatile SocketChannel channel;
+    private SelectionKey key;
+    // Failed connection attempts in a row, for the reconnect backoff
+    int failedAttempts;
+
+    ClientConnection(int id, Consumer<Reply> pushes) {
+        this.id = id;
+        this.pushes = pushes;
+    }
+
+    boolean isConnected() {
+        return channel != null;
+    }
+
+    void enqueue(Request request) {
+        queued.add(request);
+    }
+
+    boolean hasQueued() {
+        return !queued.isEmpty();
+    }
+
+    /** Starts using a connected, handshaken channel. */
+    void attach(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+        failedAttempts = 0;
+    }
+
+    /**
+     * Moves the queued requests into the output buffer and writes as much as the socket
+     * takes; the rest goes out when the socket is writable again.
+     */
+    void flush() throws IOException {
+        if (channel == null) return;
+        Request request;
+        while (out.position() < MAX_WRITE_BYTES && (request = queued.poll()) != null) {
+            if (request.reply().isDone()) continue; // Timed out before it could be sent
+            if (out.remaining() < request.bytes().length) {
+                out = grow(out, request.bytes().length);
+            }
+            out.put(request.bytes());
+            inFlight.add(request);
+        }
+        if (out.position() == 0) return;
+        out.flip();
+        channel.write(out);
+        out.compact();
+        key.interestOps(out.position() > 0 || !queued.isEmpty()
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads what has arrived and completes the requests whose replies are whole.
+     *
+     * @throws IOException If the connection closed or the server sent something unexpected.
+     */
+    void read() throws IOException {
+        int count = channel.read(in);
+        if (count < 0) throw new IOException("connection closed by the server");
+        byte[] buffer = in.array();
+        int start = 0;
+        int end = in.position();
+        int next;
+        while ((next = parser.parse(buffer, start, end)) != ReplyParser.INCOMPLETE) {
+            if (parser.isPush()) {
+                pushes.accept(parser.reply());
+                start = next;
+                continue;
+            }
+            Request request = inFlight.poll();
+            if (request == null) throw new ProtocolException("reply without a request");
+            request.reply().complete(parser.reply()); // No effect if it timed out
+            start = next;
+        }
+        in.position(start);
+        in.limit(end);
+        in.compact();
+        if (!in.hasRemaining()) in = grow(in, in.capacity()); // A reply larger than the buffer
+    }
+
+    /** Fails the requests whose time is up; a late reply to a sent one is then dropped. */
+    void expire(long now) {
+        Request request;
+        while ((request = queued.peek()) != null && request.deadline() - now <= 0) {
+            queued.poll();
+            request.reply().completeExceptionally(new TimeoutException("no reply within the timeout"));
+        }
+        for (Request sent : inFlight) {
+            if (sent.deadline() - now > 0) break;
+            if (!sent.reply().isDone()) sent.reply().completeExceptionally(new TimeoutException("no reply within the timeout"));
+        }
+    }
+
+    /**
+     * Closes the channel after a failure. Requests already sent fail, since it is unknown
+     * whether the server ran them; queued ones wait for the next connection.
+     */
+    void disconnect(IOException cause) {
+        SocketChannel current = channel;
+        channel = null;
+        if (key != null) key.cancel();
+        key = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+        out.clear();
+        in.clear();
+        Request request;
+        while ((request = inFlight.poll()) != null) {
+            request.reply().completeExceptionally(cause);
+        }
+    }
+
+    /** Fails everything, sent or not; the client is closing. */
+    void failQueued(IOException cause) {
+        disconnect(cause);
+        Request request;
+        while ((request = queued.poll()) != null) {
+            request.reply().completeExceptionally(cause);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int more) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + more));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
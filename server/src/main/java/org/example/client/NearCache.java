@@ -0,0 +1,124 @@
+package org.example.client;
+
+import org.example.protocol.Reply;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p><strong>NearCache.java</strong></p>
+ *
+ * Values a {@link ReflexAsyncClient} read, kept locally until the server reports that they
+ * changed. Its connections have {@code CLIENT TRACKING ON}, so the server pushes an
+ * invalidation for each key they read once it is written, deleted, expired or evicted.
+ *
+ * <p>A read that goes to the server first leaves a reservation under its key. An
+ * invalidation that arrives before the reply removes the reservation, and the reply,
+ * possibly stale by then, is not cached. The cache holds at most {@code maxKeys} entries
+ * and drops the least recently used one past that.</p>
+ *
+ * <p>Any thread may call it; each call holds the lock for one map operation.</p>
+ */
+final class NearCache {
+
+    private record Key(String cachebase, String key) {}
+
+    /** Stands for a read in flight; only that read's reply may replace it. */
+    private static final class Reservation {}
+
+    private final LinkedHashMap<Key, Object> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidationMessages = new LongAdder();
+    private final LongAdder invalidatedKeys = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    NearCache(int maxKeys) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() <= maxKeys) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /** The cached value, or {@code null} if the server has to be asked. */
+    String get(String cachebase, String key) {
+        Object value;
+        synchronized (this) {
+            value = entries.get(new Key(cachebase, key));
+        }
+        if (value instanceof String cached) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Called before a read is sent.
+     *
+     * @return What to pass to {@link #fill} with the reply, or {@code null} if the reply
+     * must not be cached.
+     */
+    synchronized Object reserve(String cachebase, String key) {
+        Key k = new Key(cachebase, key);
+        Object current = entries.get(k);
+        if (current instanceof Reservation) return current; // Another read in flight: either reply will do
+        if (current != null) return null;
+        Reservation reservation = new Reservation();
+        entries.put(k, reservation);
+        return reservation;
+    }
+
+    /** Caches a read's reply unless the key was invalidated meanwhile; {@code null} for none. */
+    synchronized void fill(String cachebase, String key, Object reservation, String value) {
+        if (reservation == null) return;
+        Key k = new Key(cachebase, key);
+        if (entries.get(k) != reservation) return;
+        if (value == null) {
+            entries.remove(k); // Missing keys are not cached
+        } else {
+            entries.put(k, value);
+        }
+    }
+
+    synchronized void remove(String cachebase, String key) {
+        entries.remove(new Key(cachebase, key));
+    }
+
+    /** Applies an invalidation push: {@code [invalidate, cachebase, [key, ...]]}. */
+    void invalidate(Reply push) {
+        List<Reply> items = push.items();
+        if (items == null || items.size() != 3 || !"invalidate".equals(items.get(0).toString())) return;
+        String cachebase = items.get(1).toString();
+        List<Reply> keys = items.get(2).items();
+        invalidationMessages.increment();
+        invalidatedKeys.add(keys.size());
+        synchronized (this) {
+            for (Reply key : keys) {
+                entries.remove(new Key(cachebase, new String(key.bulkValue(), StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    /** Forgets everything: invalidations may have been lost with a connection. */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    NearCacheStats stats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new NearCacheStats(hits.sum(), misses.sum(), invalidationMessages.sum(), invalidatedKeys.sum(),
+                evictions.sum(), size);
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.client;
+
+/**
+ * Counters of a {@link ReflexAsyncClient}'s near cache, since the client was created.
+ *
+ * @param hits                 {@code get} calls answered locally.
+ * @param misses               {@code get} calls that went to the server.
+ * @param invalidationMessages Invalidation pushes received from the server.
+ * @param invalidatedKeys      Keys named in them, cached or not.
+ * @param evictions            Values dropped to stay within the size limit.
+ * @param size                 Values cached now, reads in flight included.
+ */
+public record NearCacheStats(long hits, long misses, long invalidationMessages, long invalidatedKeys,
+                             long evictions, int size) {
+
+    /** Share of {@code get} calls answered locally, between 0 and 1. */
+    public double hitRate() {
+        long reads = hits + misses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+}
@@ -0,0 +1,515 @@
+package org.example.client;
+
+import org.example.protocol.Reply;
+import org.example.protocol.ReplyParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p><strong>ReflexAsyncClient.java</strong></p>
+ *
+ * Non-blocking client for applications talking to a ReflexCache server. Every call returns a
+ * {@link CompletableFuture} at once; requests from any number of threads are spread over a
+ * small pool of connections and pipelined on each of them.
+ *
+ * <ul>
+ *     <li>One I/O thread owns every connection: it sends all requests queued since its last
+ *     pass with one write per connection, and completes futures as replies arrive, in order.
+ *     Callbacks without an executor of their own run on that thread, so they must not block.</li>
+ *     <li>A request without a reply within {@link Options#timeout()} fails with a
+ *     {@link java.util.concurrent.TimeoutException}.</li>
+ *     <li>A lost connection fails the requests it had sent with an {@link IOException}, and is
+ *     reconnected in the background with growing delays; requests not sent yet wait for it.</li>
+ *     <li>The handshake happens once per connection: a PING in RESP, or, with a
+ *     {@link Options#clientName()}, the name prompt and log prompt of a named session.</li>
+ *     <li>Error replies fail the typed methods with a {@link ReflexException};
+ *     {@link #execute} hands them back as replies.</li>
+ *     <li>With {@link Options#nearCacheKeys()} set, every connection turns on
+ *     {@code CLIENT TRACKING}, and {@link #get} answers from a local {@link NearCache} that
+ *     the server's invalidations keep correct. Reads of a key then always use the same
+ *     connection, so its replies and invalidations arrive in the order the server produced
+ *     them. A lost connection empties the near cache, since
+ *     invalidations may have been lost with it. {@link #set} drops the key locally as well,
+ *     so a thread reads its own writes; writes through {@link #execute} rely on the
+ *     invalidation alone.</li>
+ * </ul>
+ *
+ * <pre>{@code
+ * try (ReflexAsyncClient client = new ReflexAsyncClient("localhost", 8080)) {
+ *     client.set("users", "42", "alice").join();
+ *     client.get("users", "42").thenAccept(System.out::println);
+ * }
+ * }</pre>
+ */
+public final class ReflexAsyncClient implements AutoCloseable {
+
+    // How often the I/O thread looks for requests past their deadline
+    private static final long TICK_MS = 10;
+    private static final long MAX_RECONNECT_DELAY_MS = 5000;
+
+    /**
+     * Client settings.
+     *
+     * @param connections    Connections kept open to the server.
+     * @param timeout        How long a request may wait for its reply, queueing included.
+     * @param reconnectDelay Delay before the first reconnection attempt; doubled after each
+     *                       failure, up to five seconds.
+     * @param clientName     Opens named sessions, each with its own log file on the server, if
+     *                       set; connections after the first add {@code -2}, {@code -3}, ... to it.
+     * @param nearCacheKeys  Values kept in the near cache, 0 for no near cache.
+     */
+    public record Options(int connections, Duration timeout, Duration reconnectDelay, String clientName,
+                          int nearCacheKeys) {
+
+        public Options {
+            if (connections < 1) throw new IllegalArgumentException("connections must be at least 1");
+            if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("timeout must be positive");
+            if (nearCacheKeys < 0) throw new IllegalArgumentException("nearCacheKeys must not be negative");
+        }
+
+        public static Options defaults() {
+            return new Options(2, Duration.ofSeconds(5), Duration.ofMillis(100), null, 0);
+        }
+
+        public Options withConnections(int connections) {
+            return new Options(connections, timeout, reconnectDelay, clientName, nearCacheKeys);
+        }
+
+        public Options withTimeout(Duration timeout) {
+            return new Options(connections, timeout, reconnectDelay, clientName, nearCacheKeys);
+        }
+
+        public Options withReconnectDelay(Duration reconnectDelay) {
+            return new Options(connections, timeout, reconnectDelay, clientName, nearCacheKeys);
+        }
+
+        public Options withClientName(String clientName) {
+            return new Options(connections, timeout, reconnectDelay, clientName, nearCacheKeys);
+        }
+
+        public Options withNearCache(int keys) {
+            return new Options(connections, timeout, reconnectDelay, clientName, keys);
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Options options;
+    private final ClientConnection[] connections;
+    // Null without a near cache
+    private final NearCache nearCache;
+    private final Selector selector;
+    private final Thread ioThread;
+    // Connects and reconnects, away from the I/O thread
+    private final ScheduledExecutorService connector;
+    // Work handed to the I/O thread, such as registering a new connection
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Set by the first request after a pass of the I/O thread; later ones skip the wakeup
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ReflexAsyncClient(String host, int port) throws IOException {
+        this(host, port, Options.defaults());
+    }
+
+    /**
+     * Opens the connections; those that fail keep retrying in the background.
+     *
+     * @throws IOException If none of them can be opened.
+     */
+    public ReflexAsyncClient(String host, int port, Options options) throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.options = options;
+        this.connections = new ClientConnection[options.connections()];
+        this.nearCache = options.nearCacheKeys() > 0 ? new NearCache(options.nearCacheKeys()) : null;
+        this.selector = Selector.open();
+        this.connector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "reflex-client-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ioThread = new Thread(this::runIoLoop, "reflex-client-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        IOException lastFailure = null;
+        int connected = 0;
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new ClientConnection(i, this::onPush);
+            try {
+                SocketChannel channel = openChannel(connections[i]);
+                register(connections[i], channel);
+                connected++;
+            } catch (IOException e) {
+                lastFailure = e;
+                scheduleReconnect(connections[i]);
+            }
+        }
+        if (connected == 0) {
+            close();
+            throw lastFailure;
+        }
+    }
+
+    /**
+     * The value of a key, or {@code null} if it does not exist. With a near cache, a value
+     * read before and not changed since is returned without asking the server.
+     */
+    public CompletableFuture<String> get(String cachebase, String key) {
+        if (nearCache == null) return fetch(cachebase, key);
+        String cached = nearCache.get(cachebase, key);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+        Object reservation = nearCache.reserve(cachebase, key);
+        return fetch(cachebase, key).whenComplete((value, error) ->
+                nearCache.fill(cachebase, key, reservation, error == null ? value : null));
+    }
+
+    /**
+     * Stores a value; completes with the server's {@code OK}.
+     */
+    public CompletableFuture<String> set(String cachebase, String key, String value) {
+        return written(cachebase, key, execute("SET", cachebase, key, value));
+    }
+
+    /**
+     * Stores a value that expires after {@code ttl}, to the millisecond.
+     */
+    public CompletableFuture<String> set(String cachebase, String key, String value, Duration ttl) {
+        return written(cachebase, key, execute("SET", cachebase, key, value, "PX", Long.toString(Math.max(1, ttl.toMillis()))));
+    }
+
+    /**
+     * Adds {@code delta} to the integer a key holds, 0 if it is missing, on the server;
+     * completes with the new value.
+     */
+    public CompletableFuture<Long> incrBy(String cachebase, String key, long delta) {
+        return written(cachebase, key, execute("INCRBY", cachebase, key, Long.toString(delta))).thenApply(Long::parseLong);
+    }
+
+    /** Adds {@code delta} to the number a key holds, 0 if it is missing; completes with the new value. */
+    public CompletableFuture<Double> incrByFloat(String cachebase, String key, double delta) {
+        return written(cachebase, key, execute("INCRBYFLOAT", cachebase, key, Double.toString(delta))).thenApply(Double::parseDouble);
+    }
+
+    /** Hit rate and invalidation traffic of the near cache; all zero without one. */
+    public NearCacheStats nearCacheStats() {
+        return nearCache != null ? nearCache.stats() : new NearCacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Sends any command, e.g. {@code execute("MGET", "users", "1", "2")}. Error replies
+     * complete the future normally; only timeouts and connection failures fail it.
+     */
+    public CompletableFuture<Reply> execute(String... command) {
+        List<Reply> parts = new ArrayList<>(command.length);
+        for (String part : command) {
+            parts.add(Reply.bulk(part));
+        }
+        return execute(parts);
+    }
+
+    /** Sends a command whose parts are bulk replies, for binary values. */
+    public CompletableFuture<Reply> execute(List<Reply> command) {
+        return send(pickConnection(), command);
+    }
+
+    private CompletableFuture<Reply> send(ClientConnection connection, List<Reply> command) {
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        if (closed) {
+            reply.completeExceptionally(new IOException("client is closed"));
+            return reply;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(64);
+        try {
+            Reply.array(command).writeResp(encoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by a ByteArrayOutputStream
+        }
+        long deadline = System.nanoTime() + options.timeout().toNanos();
+        connection.enqueue(new ClientConnection.Request(encoded.toByteArray(), reply, deadline));
+        if (closed) {
+            // Closed while queueing: the I/O thread may already have failed its queues
+            reply.completeExceptionally(new IOException("client is closed"));
+        } else if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return reply;
+    }
+
+    /**
+     * Fails every pending request and closes the connections.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        connector.shutdownNow();
+        selector.wakeup();
+        try {
+            ioThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Round-robin over the open connections; any connection if none is open
+    private ClientConnection pickConnection() {
+        int start = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+        for (int i = 0; i < connections.length; i++) {
+            ClientConnection connection = connections[(start + i) % connections.length];
+            if (connection != null && connection.isConnected()) return connection;
+        }
+        for (int i = 0; i < connections.length; i++) {
+            ClientConnection connection = connections[(start + i) % connections.length];
+            if (connection != null) return connection;
+        }
+        return connections[0];
+    }
+
+    private CompletableFuture<String> fetch(String cachebase, String key) {
+        CompletableFuture<Reply> request = nearCache != null
+                ? send(connectionFor(key), List.of(Reply.bulk("GET"), Reply.bulk(cachebase), Reply.bulk(key)))
+                : execute("GET", cachebase, key);
+        return request.thenApply(reply -> {
+            checkError(reply);
+            byte[] value = reply.bulkValue();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        });
+    }
+
+    // Drops the key from the near cache when the write is sent and once it is done, so the
+    // old value is not read back while the invalidation is on its way
+    private CompletableFuture<String> written(String cachebase, String key, CompletableFuture<Reply> reply) {
+        if (nearCache == null) return reply.thenApply(ReflexAsyncClient::statusOf);
+        nearCache.remove(cachebase, key);
+        return reply.thenApply(result -> {
+            nearCache.remove(cachebase, key);
+            return statusOf(result);
+        });
+    }
+
+    // The connection that reads a key while it is open, so its invalidations are never
+    // overtaken by the reply to a later read of it
+    private ClientConnection connectionFor(String key) {
+        ClientConnection connection = connections[Math.floorMod(key.hashCode(), connections.length)];
+        return connection != null && connection.isConnected() ? connection : pickConnection();
+    }
+
+    private static String statusOf(Reply reply) {
+        checkError(reply);
+        return reply.toString();
+    }
+
+    private static void checkError(Reply reply) {
+        if (reply.isError()) throw new ReflexException(reply.toString());
+    }
+
+    // --- I/O thread ---
+
+    private void runIoLoop() {
+        long lastTick = System.nanoTime();
+        try {
+            while (!closed) {
+                selector.select(TICK_MS);
+                wakeupPending.set(false);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (IOException e) {
+                        lost(connection, e);
+                    }
+                }
+
+                // One write per connection for everything queued since the last pass
+                for (ClientConnection connection : connections) {
+                    if (connection == null || !connection.isConnected() || !connection.hasQueued()) continue;
+                    try {
+                        connection.flush();
+                    } catch (IOException e) {
+                        lost(connection, e);
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastTick >= TimeUnit.MILLISECONDS.toNanos(TICK_MS)) {
+                    lastTick = now;
+                    for (ClientConnection connection : connections) {
+                        if (connection != null) connection.expire(now);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            closed = true;
+        } finally {
+            IOException cause = new IOException("client is closed");
+            for (ClientConnection connection : connections) {
+                if (connection != null) connection.failQueued(cause);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void onPush(Reply push) {
+        if (nearCache != null) nearCache.invalidate(push);
+    }
+
+    private void lost(ClientConnection connection, IOException cause) {
+        if (nearCache != null) nearCache.clear();
+        connection.disconnect(cause);
+        scheduleReconnect(connection);
+    }
+
+    // --- Connecting ---
+
+    private void scheduleReconnect(ClientConnection connection) {
+        if (closed) return;
+        long delay = Math.min(MAX_RECONNECT_DELAY_MS,
+                options.reconnectDelay().toMillis() << Math.min(connection.failedAttempts, 16));
+        connection.failedAttempts++;
+        try {
+            connector.schedule(() -> reconnect(connection), delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException rejected) {
+            // Closing
+        }
+    }
+
+    private void reconnect(ClientConnection connection) {
+        if (closed) return;
+        try {
+            register(connection, openChannel(connection));
+        } catch (IOException e) {
+            scheduleReconnect(connection);
+        }
+    }
+
+    // Hands a handshaken channel to the I/O thread, which owns the selector
+    private void register(ClientConnection connection, SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        tasks.add(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(channel, key);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                scheduleReconnect(connection);
+            }
+        });
+        selector.wakeup();
+    }
+
+    /**
+     * Connects and completes the handshake in blocking mode, which is simpler and only
+     * happens once per connection.
+     */
+    private SocketChannel openChannel(ClientConnection connection) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            int timeoutMs = (int) Math.min(Integer.MAX_VALUE, options.timeout().toMillis());
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.socket().connect(address, timeoutMs);
+            channel.socket().setSoTimeout(timeoutMs);
+            InputStream in = channel.socket().getInputStream();
+            OutputStream out = channel.socket().getOutputStream();
+            if (options.clientName() == null) {
+                // A RESP request straight away skips the text greeting
+                Reply.array(List.of(Reply.bulk("PING"))).writeResp(out);
+                out.flush();
+                readReply(in);
+            } else {
+                namedHandshake(in, out, connection);
+            }
+            if (nearCache != null) {
+                Reply.array(List.of(Reply.bulk("CLIENT"), Reply.bulk("TRACKING"), Reply.bulk("ON"))).writeResp(out);
+                out.flush();
+                readReply(in);
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void namedHandshake(InputStream in, OutputStream out, ClientConnection connection) throws IOException {
+        String name = connection.id == 0 ? options.clientName() : options.clientName() + "-" + (connection.id + 1);
+        String line;
+        do {
+            line = readLine(in);
+        } while (!line.contains("Enter your unique name:"));
+        writeLine(out, name);
+        do {
+            line = readLine(in);
+            if (line.startsWith("Do you want to open the file")) writeLine(out, "no");
+        } while (!line.contains("You're now connected."));
+        readLine(in); // The list of commands
+    }
+
+    // Reads byte by byte so that nothing after the handshake is consumed
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) throw new IOException("connection closed during the handshake");
+            if (b != '\r') line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void readReply(InputStream in) throws IOException {
+        ReplyParser parser = new ReplyParser();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        while (parser.parse(buffer.array(), 0, buffer.position()) == ReplyParser.INCOMPLETE) {
+            int b = in.read();
+            if (b < 0) throw new IOException("connection closed during the handshake");
+            if (!buffer.hasRemaining()) throw new IOException("unexpected handshake reply");
+            buffer.put((byte) b);
+        }
+        if (parser.reply().isError()) throw new IOException("handshake failed: " + parser.reply());
+    }
+}
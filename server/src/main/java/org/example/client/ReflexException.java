@@ -0,0 +1,14 @@
+package org.example.client;
+
+/**
+ * An error reply from the server, such as a usage message or {@code Cachebase not found},
+ * raised by the typed methods of {@link ReflexAsyncClient}.
+ */
+public class ReflexException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReflexException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,184 @@
+package org.example.core;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * <p><strong>ByteKeyTable.java</strong></p>
+ *
+ * Open-addressing hash table keyed on byte arrays, the common part of {@link ByteTable}
+ * and {@link HandleTable}; subclasses keep the values in a parallel array of their own.
+ * <p>
+ * Keys sit directly in an array of slots with their hash cached next to them, so a lookup
+ * is one probe sequence over flat arrays: no entry objects, no boxing, and the key bytes
+ * are only compared when the cached hashes match. Collisions use linear probing and
+ * removal shifts the following entries back, so there are no tombstones and lookups never
+ * slow down with churn. The table doubles once it is three-quarters full.
+ * </p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe; every worker owns its own table.</p>
+ */
+abstract class ByteKeyTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    byte[][] keys;
+    int[] hashes;
+    int mask;
+    private int size;
+    private int resizeAt;
+
+    ByteKeyTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /** Copies another table's slots; the subclass copies its values. */
+    ByteKeyTable(ByteKeyTable other) {
+        this.keys = other.keys.clone();
+        this.hashes = other.hashes.clone();
+        this.mask = other.mask;
+        this.size = other.size;
+        this.resizeAt = other.resizeAt;
+    }
+
+    // newValues() runs from this class's constructor, before any subclass field initializer:
+    // subclasses must declare their values array without one.
+
+    /** The values array of the current capacity. */
+    abstract Object values();
+
+    /** Allocates an empty values array for {@code capacity} slots. */
+    abstract void newValues(int capacity);
+
+    /** Copies the value at {@code from} in {@code oldValues} (from before a resize) to {@code to}. */
+    abstract void copyValue(Object oldValues, int from, int to);
+
+    abstract void moveValue(int from, int to);
+
+    abstract void clearValue(int slot);
+
+    private void allocate(int capacity) {
+        keys = new byte[capacity][];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity / 4 * 3;
+        newValues(capacity);
+    }
+
+    /** The key's hash: the array hash, mixed so that nearby keys do not land in nearby slots. */
+    static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    /** The first occupied slot at or after {@code slot}, or -1 if there is none. */
+    final int nextSlot(int slot) {
+        for (; slot < keys.length; slot++) {
+            if (keys[slot] != null) return slot;
+        }
+        return -1;
+    }
+
+    final byte[] keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Passes the keys of a few home slots to {@code action}, starting at {@code cursor}, and
+     * returns the cursor to continue from; 0 starts a scan and, returned, ends it. It stops
+     * once {@code count} keys were passed or {@code 10 * count} home slots were visited.
+     * <p>
+     * Home slots are visited in the order of their bit-reversed index, as Redis's SCAN does:
+     * when the table doubles, every slot splits into two whose reversed indexes follow each
+     * other, so a scan across resizes still sees each key present throughout at least once,
+     * at the cost of an occasional duplicate. A key is looked for from its home slot up to
+     * the next empty one, which is where backward-shift removal keeps it.
+     * </p>
+     */
+    final int scan(int cursor, int count, Consumer<byte[]> action) {
+        int found = 0;
+        int visited = 0;
+        do {
+            int home = cursor & mask;
+            for (int slot = home; keys[slot] != null; slot = (slot + 1) & mask) {
+                if ((hashes[slot] & mask) == home) {
+                    action.accept(keys[slot]);
+                    found++;
+                }
+            }
+            // Next home slot in reversed-bit order
+            cursor = Integer.reverse(Integer.reverse(cursor | ~mask) + 1);
+            visited++;
+        } while (cursor != 0 && found < count && visited < 10 * count);
+        return cursor;
+    }
+
+    /** The slot holding {@code key}, or -1. */
+    final int indexOf(byte[] key, int hash) {
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] candidate = keys[slot];
+            if (candidate == null) return -1;
+            if (hashes[slot] == hash && Arrays.equals(candidate, key)) return slot;
+        }
+    }
+
+    /**
+     * The slot holding {@code key} or, if it is absent, {@code ~slot} for the empty slot
+     * that now holds it. The caller then stores the value in that slot.
+     */
+    final int insert(byte[] key, int hash) {
+        if (size >= resizeAt) grow();
+        int slot = hash & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && Arrays.equals(keys[slot], key)) return slot;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        size++;
+        return ~slot;
+    }
+
+    /** Empties a slot and shifts back the entries probed past it, so none becomes unreachable. */
+    final void removeAt(int slot) {
+        size--;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hashes[next] & mask;
+            // Move it unless its home slot lies after the hole, between the hole and it
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hashes[hole] = hashes[next];
+                moveValue(next, hole);
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        hashes[hole] = 0;
+        clearValue(hole);
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object oldValues = values();
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            copyValue(oldValues, i, slot);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.core;
+
+import java.util.function.BiConsumer;
+
+/**
+ * <p><strong>ByteTable.java</strong></p>
+ *
+ * Map from byte-array keys to byte-array values, laid out as flat arrays (see
+ * {@link ByteKeyTable}). It is what a {@link Worker} stores its partition in on the heap.
+ * <p>
+ * An entry costs its two arrays plus a 12-byte slot (key, hash and value) in a table at
+ * most three-quarters full, against a map node, a {@code String} and its array for a
+ * {@code ConcurrentHashMap<String, byte[]>}.
+ * Keys and values are kept as given and must not be modified afterwards.
+ * </p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe. {@link #copy()} gives another thread
+ * a private table to read.</p>
+ */
+public final class ByteTable extends ByteKeyTable {
+
+    private byte[][] values;
+
+    public ByteTable() {
+    }
+
+    private ByteTable(ByteTable other) {
+        super(other);
+        this.values = other.values.clone();
+    }
+
+    /** The value stored under {@code key}, or {@code null}. */
+    public byte[] get(byte[] key) {
+        int slot = indexOf(key, hash(key));
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    /** Stores a value; returns the one it replaced, or {@code null}. */
+    public byte[] put(byte[] key, byte[] value) {
+        int slot = insert(key, hash(key));
+        if (slot < 0) {
+            values[~slot] = value;
+            return null;
+        }
+        byte[] previous = values[slot];
+        values[slot] = value;
+        return previous;
+    }
+
+    /** Removes a key; returns its value, or {@code null} if it was not stored. */
+    public byte[] remove(byte[] key) {
+        int slot = indexOf(key, hash(key));
+        if (slot < 0) return null;
+        byte[] previous = values[slot];
+        removeAt(slot);
+        return previous;
+    }
+
+    byte[] valueAt(int slot) {
+        return values[slot];
+    }
+
+    public void forEach(BiConsumer<byte[], byte[]> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) action.accept(keys[slot], values[slot]);
+        }
+    }
+
+    /**
+     * An independent table with the same entries. Only the slot arrays are copied; both
+     * tables share the key and value arrays, which are never modified.
+     */
+    public ByteTable copy() {
+        return new ByteTable(this);
+    }
+
+    @Override
+    Object values() {
+        return values;
+    }
+
+    @Override
+    void newValues(int capacity) {
+        values = new byte[capacity][];
+    }
+
+    @Override
+    void copyValue(Object oldValues, int from, int to) {
+        values[to] = ((byte[][]) oldValues)[from];
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void clearValue(int slot) {
+        values[slot] = null;
+    }
+}
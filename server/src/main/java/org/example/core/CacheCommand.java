@@ -1,25 +1,64 @@
 package org.example.core;
 
+import org.example.protocol.Reply;
+
 import java.util.concurrent.CompletableFuture;
 
 public class CacheCommand {
-    public enum Type { SET, GET }
+    public enum Type { SET, GET, MSET, MGET, EXPIRE, TTL, PERSIST, INCR, REWRITELOG, SAVE, BGSAVE, STATS, JSONSET, JSONGET, FIND, SCAN, INDEX, DELETE }
 
     public final Type type;
     public final String key;
-    public final String value;
-    public final CompletableFuture<String> callback;
+    public final byte[] value;
+    // SET and EXPIRE: when the key expires (epoch milliseconds), 0 for never
+    public final long expireAt;
+    public final CompletableFuture<Reply> callback;
+    // System.nanoTime() when the command entered a worker's inbox, for the latency histograms
+    long enqueuedAt;
+    // GET, MGET and JSONGET from a connection with CLIENT TRACKING ON: the worker remembers
+    // that it read the keys, to tell it when they change
+    ClientTracking tracking;
+
+    // Batch commands (MSET/MGET): every key here belongs to the same worker. Reply i is
+    // stored at results[positions[i]], which is shared with the other workers' batches.
+    public final String[] keys;
+    public final byte[][] values;
+    public final int[] positions;
+    public final Reply[] results;
 
     // Main constructor
-    public CacheCommand(Type type, String key, String value) {
+    public CacheCommand(Type type, String key, byte[] value) {
         this(type, key, value, new CompletableFuture<>());
     }
 
     // Extra constructor for external CompletableFuture
-    public CacheCommand(Type type, String key, String value, CompletableFuture<String> callback) {
+    public CacheCommand(Type type, String key, byte[] value, CompletableFuture<Reply> callback) {
+        this(type, key, value, 0, callback);
+    }
+
+    public CacheCommand(Type type, String key, byte[] value, long expireAt, CompletableFuture<Reply> callback) {
         this.type = type;
         this.key = key;
         this.value = value;
+        this.expireAt = expireAt;
+        this.callback = callback;
+        this.keys = null;
+        this.values = null;
+        this.positions = null;
+        this.results = null;
+    }
+
+    // Batch constructor; the callback completes once all of this batch's results are stored
+    public CacheCommand(Type type, String[] keys, byte[][] values, int[] positions,
+                        Reply[] results, CompletableFuture<Reply> callback) {
+        this.type = type;
+        this.key = keys[0];
+        this.value = null;
+        this.expireAt = 0;
+        this.keys = keys;
+        this.values = values;
+        this.positions = positions;
+        this.results = results;
         this.callback = callback;
     }
 }
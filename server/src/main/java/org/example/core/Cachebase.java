@@ -1,53 +1,251 @@
 package org.example.core;
 
-import java.util.concurrent.*;
+import org.example.persistance.ParallelReplay;
+import org.example.persistance.WorkerLog;
+import org.example.protocol.Reply;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Cachebase {
     private final String name;
-    private final ExecutorService dispatcher;
-    private final Worker[] workers;
-    private final int NUM_WORKERS = 4;
+    public static final int DEFAULT_WORKERS = 4;
+
+    // Which worker owns each key slot, and the workers themselves. Both are replaced, never
+    // modified, and only while holding routing's write lock, when resharding.
+    private volatile SlotTable slots;
+    private volatile Worker[] workers;
+    // Held for reading from looking up a key's owner until the command is in its inbox, so a
+    // reshard step knows no command is still on its way to a worker that gave up the slot
+    private final StampedLock routing = new StampedLock();
+    private final AtomicBoolean resharding = new AtomicBoolean();
+    private final ReentrantLock settingsLock = new ReentrantLock();
+    // When the last STATS report was made and the command count it saw, for ops_per_sec
+    private final AtomicReference<long[]> lastReport = new AtomicReference<>(new long[]{System.nanoTime(), 0});
+
+    // Budget and policy for cachebases without their own settings (--maxmemory, --maxmemory-policy)
+    private static volatile long defaultMaxMemory = 0;
+    private static volatile EvictionPolicy.Kind defaultPolicy = EvictionPolicy.Kind.LRU;
+    // Where workers of new cachebases keep their values (--value-storage)
+    private static volatile ValueStore.Kind valueStorage = ValueStore.Kind.HEAP;
 
-    private final BlockingQueue<CacheCommand> queue = new LinkedBlockingQueue<>();
+    // This cachebase's budget across all workers (0 = unlimited); each worker gets an equal share
+    private volatile long maxMemory;
+    private volatile EvictionPolicy.Kind policy;
+    // Indexed JSON fields; replaced, never modified, under settingsLock and routing's read lock.
+    // Each worker keeps the entries for its own keys.
+    private volatile Map<JsonPath, SecondaryIndex.Kind> indexes = Map.of();
 
     public Cachebase(String name) {
+        this(name, DEFAULT_WORKERS);
+    }
+
+    /**
+     * @param workerCount Number of workers of a new cachebase, at most {@link SlotTable#MAX_WORKERS};
+     *                    one saved before keeps the workers and slot table it had.
+     */
+    public Cachebase(String name, int workerCount) {
         this.name = name;
-        this.dispatcher = Executors.newSingleThreadExecutor();
-        this.workers = new Worker[NUM_WORKERS];
+        this.maxMemory = defaultMaxMemory;
+        this.policy = defaultPolicy;
+        this.slots = SlotTable.even(workerCount);
+        int count = workerCount;
+        Integer saved = loadSettings();
+        if (saved != null) count = saved;
 
-        for (int i = 0; i < NUM_WORKERS; i++) {
-            workers[i] = new Worker(i); // Assign worker ID
+        Worker[] created = new Worker[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = new Worker(name, i, workerShare(maxMemory, count), policy, valueStorage); // Assign worker ID
+            created[i].defineIndexes(indexes);
+            created[i].start();
         }
+        this.workers = created;
     }
 
-    public void startDispatcher() {
-        dispatcher.submit(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    CacheCommand cmd = queue.take(); // Blocking call
+    /**
+     * Sets the memory budget and eviction policy of cachebases that have not been given
+     * their own with {@code MAXMEMORY}.
+     */
+    public static void setDefaultEviction(long maxMemory, EvictionPolicy.Kind policy) {
+        defaultMaxMemory = maxMemory;
+        defaultPolicy = policy;
+    }
+
+    /**
+     * Chooses where the workers of cachebases created or loaded from now on keep their
+     * values: {@code heap} or {@code offheap}. Anything else means heap.
+     */
+    public static void setValueStorage(String storage) {
+        try {
+            valueStorage = ValueStore.Kind.parse(storage);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown value-storage '" + storage + "', using heap.");
+            valueStorage = ValueStore.Kind.HEAP;
+        }
+    }
 
-                    int hash = stableHash(cmd.key);
-                    int workerIndex = hash % NUM_WORKERS;
+    /**
+     * Parses a memory size: a byte count with an optional {@code kb}, {@code mb} or
+     * {@code gb} suffix (case-insensitive, powers of 1024).
+     *
+     * @throws NumberFormatException If the size is malformed or negative.
+     */
+    public static long parseMemory(String value) {
+        String s = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (s.endsWith("kb")) unit = 1024L;
+        else if (s.endsWith("mb")) unit = 1024L * 1024;
+        else if (s.endsWith("gb")) unit = 1024L * 1024 * 1024;
+        if (unit != 1) s = s.substring(0, s.length() - 2).trim();
+        long amount = Long.parseLong(s);
+        if (amount < 0 || amount > Long.MAX_VALUE / unit) throw new NumberFormatException(value);
+        return amount * unit;
+    }
 
-                    System.out.printf("[Dispatcher] Key '%s' | hash=%d | routed to Worker-%d%n",
-                            cmd.key, hash, workerIndex);
+    private static long workerShare(long maxMemory, int workerCount) {
+        return maxMemory > 0 ? Math.max(1, maxMemory / workerCount) : 0;
+    }
 
-                    workers[workerIndex].handle(cmd);
+    private File settingsFile() {
+        return new File(WorkerLog.fileFor(name, 0).getParentFile(), "cachebase.properties");
+    }
 
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt(); // Restore interrupt status
-                    break; // Exit dispatcher loop on shutdown
-                }
+    /**
+     * Reads the settings saved by {@link #saveSettings}, if there are any.
+     *
+     * @return The saved worker count, with {@link #slots} set to the saved table; null if
+     * none was saved (a new cachebase, or files from before slot tables, with four workers).
+     */
+    private Integer loadSettings() {
+        File file = settingsFile();
+        if (!file.exists()) return null;
+        Properties settings = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            settings.load(in);
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable settings of cachebase '" + name + "': " + e.getMessage());
+            return null;
+        }
+        try {
+            maxMemory = parseMemory(settings.getProperty("maxmemory", Long.toString(maxMemory)));
+            policy = EvictionPolicy.Kind.parse(settings.getProperty("maxmemory-policy", policy.name()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring bad memory settings of cachebase '" + name + "': " + e.getMessage());
+        }
+        Map<JsonPath, SecondaryIndex.Kind> savedIndexes = new LinkedHashMap<>();
+        for (String property : new TreeSet<>(settings.stringPropertyNames())) {
+            if (!property.startsWith("index.")) continue;
+            try {
+                savedIndexes.put(JsonPath.parse(property.substring("index.".length())),
+                        SecondaryIndex.Kind.parse(settings.getProperty(property)));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring bad index " + property + " of cachebase '" + name + "': " + e.getMessage());
             }
-        });
+        }
+        indexes = Collections.unmodifiableMap(savedIndexes);
+
+        String count = settings.getProperty("workers");
+        if (count == null) return null;
+        int workerCount;
+        try {
+            workerCount = Integer.parseInt(count.trim());
+            if (workerCount < 1 || workerCount > SlotTable.MAX_WORKERS) throw new NumberFormatException(count);
+        } catch (NumberFormatException e) {
+            System.err.println("Bad worker count of cachebase '" + name + "': " + count);
+            return null;
+        }
+        try {
+            slots = SlotTable.parse(settings.getProperty("slots", ""), workerCount);
+        } catch (IllegalArgumentException e) {
+            // Recovery moves every key to its owner under whatever table is in use
+            System.err.println("Bad slot table of cachebase '" + name + "', spreading the slots evenly: "
+                    + e.getMessage());
+            slots = SlotTable.even(workerCount);
+        }
+        return workerCount;
+    }
+
+    /**
+     * Saves the budget, policy, worker count, slot table and indexed fields. The file is replaced in one
+     * step, so a crash leaves either the old settings or the new ones.
+     */
+    void saveSettings() throws IOException {
+        settingsLock.lock();
+        try {
+            Properties settings = new Properties();
+            settings.setProperty("maxmemory", Long.toString(maxMemory));
+            settings.setProperty("maxmemory-policy", policy.displayName());
+            settings.setProperty("workers", Integer.toString(workers.length));
+            settings.setProperty("slots", slots.encode());
+            indexes.forEach((field, kind) -> settings.setProperty("index." + field, kind.displayName()));
+            File file = settingsFile();
+            file.getParentFile().mkdirs();
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                settings.store(out, "Settings of cachebase " + name);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            settingsLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the memory budget (0 for unlimited) and eviction policy and keeps them for
+     * later restarts. Workers over their new share start evicting once they reach this
+     * change in their inbox.
+     *
+     * @throws IOException If the settings could not be saved; the change still applies until restart.
+     */
+    public void setMaxMemory(long maxMemory, EvictionPolicy.Kind policy) throws IOException {
+        this.maxMemory = maxMemory;
+        this.policy = policy;
+        Worker[] current = workers;
+        for (Worker worker : current) {
+            worker.configureEviction(workerShare(maxMemory, current.length), policy);
+        }
+        saveSettings();
+    }
+
+    public long maxMemory() {
+        return maxMemory;
     }
 
-    private int stableHash(String key) {
-        return Math.abs(key.chars().reduce(0, (a, b) -> 31 * a + b));
+    public EvictionPolicy.Kind evictionPolicy() {
+        return policy;
+    }
+
+    public int workerCount() {
+        return workers.length;
     }
 
     public void shutdown() {
-        dispatcher.shutdownNow();
         for (Worker worker : workers) {
             worker.shutdown();
         }
@@ -57,7 +255,633 @@ public class Cachebase {
         return name;
     }
 
+    /**
+     * Routes a command to the worker that owns its key. The partition is computed on
+     * the calling thread and the command goes straight into that worker's inbox, so
+     * there is no shared dispatcher queue; per-key ordering follows from each key
+     * always mapping to the same worker, or, while its slot moves, from the new owner
+     * holding it back until the old one has handed the slot over.
+     */
     public void submit(CacheCommand cmd) {
-        queue.offer(cmd);
+        long stamp = routing.readLock();
+        try {
+            workers[slots.ownerOfKey(cmd.key)].handle(cmd);
+        } finally {
+            routing.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stores several keys with one command per owning worker instead of one per key.
+     * Replies OK once every worker has applied its share.
+     */
+    public CompletableFuture<Reply> mset(String[] keys, byte[][] values) {
+        return fanOut(CacheCommand.Type.MSET, keys, values, null, null).thenApply(refused -> refused != null ? refused : Reply.OK);
+    }
+
+    /**
+     * Reads several keys with one command per owning worker. The reply array keeps
+     * the order of {@code keys}, with NIL for missing keys.
+     */
+    public CompletableFuture<Reply> mget(String[] keys) {
+        return mget(keys, null);
+    }
+
+    /** {@link #mget(String[])} for a connection with tracking on, or null. */
+    CompletableFuture<Reply> mget(String[] keys, ClientTracking tracking) {
+        Reply[] results = new Reply[keys.length];
+        return fanOut(CacheCommand.Type.MGET, keys, null, results, tracking)
+                .thenApply(refused -> refused != null ? refused : Reply.array(Arrays.asList(results)));
+    }
+
+    /**
+     * Asks every worker to rewrite its log from live data in the background.
+     * Completes once each worker has started (or was already running) its rewrite.
+     */
+    public CompletableFuture<Reply> rewriteLog() {
+        return broadcast(CacheCommand.Type.REWRITELOG, "Background log rewrite started.");
+    }
+
+    /**
+     * Writes a snapshot of every partition. With {@code background} each worker copies its
+     * store and keeps serving while another thread writes the file; otherwise each worker
+     * writes its own snapshot and the reply waits until all are on disk.
+     */
+    public CompletableFuture<Reply> save(boolean background) {
+        return background
+                ? broadcast(CacheCommand.Type.BGSAVE, "Background saving started.")
+                : broadcast(CacheCommand.Type.SAVE, "OK");
+    }
+
+    /**
+     * Collects every worker's counters into an INFO-style report: keys, parsed JSON documents and
+     * indexes, estimated memory
+     * use against the budget, keyspace hits and misses with the hit ratio, and how many
+     * keys were evicted or expired since start. Also the throughput, averaged since the
+     * previous report, each worker's queue depth, and latency percentiles in microseconds
+     * of the time commands waited in an inbox, ran, and took from inbox to reply.
+     */
+    public CompletableFuture<Reply> stats() {
+        Worker[] current = workers;
+        StringBuilder depths = new StringBuilder();
+        List<CompletableFuture<Worker.Stats>> replies = new ArrayList<>(current.length);
+        for (Worker worker : current) {
+            if (!depths.isEmpty()) depths.append(',');
+            depths.append(worker.queueDepth());
+            replies.add(worker.stats());
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            long keys = 0, documents = 0, used = 0, offHeap = 0, commands = 0, hits = 0, misses = 0, evicted = 0, expired = 0;
+            LatencyHistogram queueWait = new LatencyHistogram();
+            LatencyHistogram execution = new LatencyHistogram();
+            LatencyHistogram endToEnd = new LatencyHistogram();
+            for (CompletableFuture<Worker.Stats> reply : replies) {
+                Worker.Stats stats = reply.join();
+                keys += stats.keys();
+                documents += stats.documents();
+                used += stats.usedBytes();
+                offHeap += stats.offHeapBytes();
+                commands += stats.commands();
+                hits += stats.hits();
+                misses += stats.misses();
+                evicted += stats.evictions();
+                expired += stats.expiredKeys();
+                queueWait.add(stats.queueWait());
+                execution.add(stats.execution());
+                endToEnd.add(stats.endToEnd());
+            }
+
+            long now = System.nanoTime();
+            long[] previous = lastReport.getAndSet(new long[]{now, commands});
+            double seconds = (now - previous[0]) / 1e9;
+            double opsPerSec = seconds > 0 ? Math.max(0, commands - previous[1]) / seconds : 0;
+            double hitRatio = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+            String report = "# " + name + "\n"
+                    + "workers:" + current.length + "\n"
+                    + "resharding:" + (resharding.get() ? 1 : 0) + "\n"
+                    + "keys:" + keys + "\n"
+                    + "documents:" + documents + "\n"
+                    + "indexes:" + indexes.entrySet().stream()
+                            .map(index -> index.getKey() + "=" + index.getValue().displayName())
+                            .collect(Collectors.joining(",")) + "\n"
+                    + "used_memory:" + used + "\n"
+                    + "used_memory_offheap:" + offHeap + "\n"
+                    + "maxmemory:" + maxMemory + "\n"
+                    + "maxmemory_policy:" + policy.displayName() + "\n"
+                    + "keyspace_hits:" + hits + "\n"
+                    + "keyspace_misses:" + misses + "\n"
+                    + "hit_ratio:" + String.format(Locale.ROOT, "%.4f", hitRatio) + "\n"
+                    + "evicted_keys:" + evicted + "\n"
+                    + "expired_keys:" + expired + "\n"
+                    + "total_commands_processed:" + commands + "\n"
+                    + "ops_per_sec:" + String.format(Locale.ROOT, "%.1f", opsPerSec) + "\n"
+                    + "queue_depth:" + depths + "\n"
+                    + "latency_queue_us:" + percentiles(queueWait) + "\n"
+                    + "latency_exec_us:" + percentiles(execution) + "\n"
+                    + "latency_total_us:" + percentiles(endToEnd);
+            return Reply.bulk(report);
+        });
+    }
+
+    /**
+     * Indexes a JSON field of every document, replacing any index of it, and keeps the index
+     * across restarts. Each worker indexes its own documents; replies with how many had the field.
+     */
+    CompletableFuture<Reply> createIndex(JsonPath field, SecondaryIndex.Kind kind) {
+        return changeIndex(field, kind).thenApply(replies -> {
+            long indexed = 0;
+            for (Reply reply : replies) {
+                indexed += reply.integerValue();
+            }
+            return Reply.status("Indexed " + indexed + " documents on " + field + ".");
+        });
+    }
+
+    CompletableFuture<Reply> dropIndex(JsonPath field) {
+        if (!indexes.containsKey(field)) return CompletableFuture.completedFuture(Reply.error("Error: no index on " + field + "."));
+        return changeIndex(field, null).thenApply(replies -> Reply.OK);
+    }
+
+    /**
+     * Records the change and hands it to every worker under routing's read lock, so a worker
+     * a reshard adds meanwhile either starts with it or gets it here.
+     */
+    private CompletableFuture<Reply[]> changeIndex(JsonPath field, SecondaryIndex.Kind kind) {
+        CompletableFuture<?>[] replies;
+        long stamp = routing.readLock();
+        try {
+            settingsLock.lock();
+            try {
+                Map<JsonPath, SecondaryIndex.Kind> changed = new LinkedHashMap<>(indexes);
+                if (kind != null) changed.put(field, kind);
+                else changed.remove(field);
+                indexes = Collections.unmodifiableMap(changed);
+            } finally {
+                settingsLock.unlock();
+            }
+            if (kind != null) ReplicationFeed.publish("INDEX", name, field.toString(), kind.displayName());
+            else ReplicationFeed.publish("INDEX", name, field.toString());
+            Worker[] current = workers;
+            replies = new CompletableFuture<?>[current.length];
+            for (int w = 0; w < current.length; w++) {
+                CompletableFuture<Reply> reply = new CompletableFuture<>();
+                current[w].handle(new Worker.IndexChange(field, kind, reply));
+                replies[w] = reply;
+            }
+        } finally {
+            routing.unlockRead(stamp);
+        }
+        try {
+            saveSettings();
+        } catch (IOException e) {
+            System.err.println("Could not save the indexes of cachebase '" + name + "': " + e.getMessage());
+        }
+        return CompletableFuture.allOf(replies).thenApply(done -> {
+            Reply[] results = new Reply[replies.length];
+            for (int w = 0; w < replies.length; w++) {
+                results[w] = (Reply) replies[w].join();
+            }
+            return results;
+        });
+    }
+
+    /** The indexed fields and their kind, in the order they were created. */
+    Map<JsonPath, SecondaryIndex.Kind> indexes() {
+        return indexes;
+    }
+
+    /**
+     * A page of one worker's live entries as replication records, for a follower's full sync,
+     * from {@code cursor} (0 for the first page). The reply is {@code [worker count, next
+     * cursor, records]}, the cursor being 0 after the worker's last page; the count may grow
+     * while a follower walks the workers, if a reshard runs meanwhile.
+     */
+    public CompletableFuture<Reply> dump(int worker, int cursor) {
+        Worker[] current = workers;
+        if (worker < 0 || worker >= current.length) {
+            return CompletableFuture.completedFuture(Reply.error("Error: no worker " + worker + " in cachebase " + name + "."));
+        }
+        Worker.ReplicaDump page = current[worker].dump(cursor);
+        return page.callback.thenApply(records -> Reply.array(List.of(Reply.integer(workers.length),
+                Reply.bulk(Integer.toUnsignedString(page.next)), records)));
+    }
+
+    /**
+     * The keys of the documents meeting every condition, in key order, at most {@code limit}.
+     * All workers search their own documents at once, using their indexes where they can.
+     */
+    CompletableFuture<Reply> find(List<JsonPredicate> conditions, int limit) {
+        List<Worker.Find> searches = new ArrayList<>();
+        long stamp = routing.readLock();
+        try {
+            for (Worker worker : workers) {
+                Worker.Find search = new Worker.Find(conditions, new CompletableFuture<>());
+                searches.add(search);
+                worker.handle(search);
+            }
+        } finally {
+            routing.unlockRead(stamp);
+        }
+        CompletableFuture<?>[] replies = searches.stream().map(search -> search.callback).toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(replies).thenApply(done -> {
+            TreeSet<String> keys = new TreeSet<>();
+            for (Worker.Find search : searches) {
+                keys.addAll(search.matches);
+            }
+            List<Reply> found = new ArrayList<>();
+            for (String key : keys) {
+                if (found.size() == limit) break;
+                found.add(Reply.bulk(key));
+            }
+            return Reply.array(found);
+        });
+    }
+
+    /**
+     * One step of a {@code SCAN}: {@code [next cursor, [key, ...]]}, the cursor being 0 once
+     * every worker was walked. The cursor holds the worker in its low 16 bits and the position
+     * in that worker's table above them (see {@link ByteKeyTable#scan}). Each worker does a
+     * bounded part of the walk; the step moves on to the next worker only while it has found
+     * fewer than {@code count} keys. A reshard meanwhile only moves keys to workers added
+     * after the existing ones, which the scan reaches later.
+     */
+    CompletableFuture<Reply> scan(long cursor, int count, Pattern pattern) {
+        return scan((int) (cursor & 0xFFFF), (int) (cursor >>> 16), count, pattern, new ArrayList<>());
+    }
+
+    private CompletableFuture<Reply> scan(int worker, int position, int count, Pattern pattern, List<Reply> found) {
+        Worker[] current = workers;
+        if (worker >= current.length) return CompletableFuture.completedFuture(scanReply(0, found));
+        Worker.Scan step = new Worker.Scan(position, count - found.size(), pattern, new CompletableFuture<>());
+        current[worker].handle(step);
+        return step.callback.thenCompose(reply -> {
+            if (reply.isError()) return CompletableFuture.completedFuture(reply);
+            for (String key : step.keys) {
+                found.add(Reply.bulk(key));
+            }
+            if (step.next != 0) {
+                return CompletableFuture.completedFuture(scanReply(Integer.toUnsignedLong(step.next) << 16 | worker, found));
+            }
+            if (worker + 1 >= workers.length) return CompletableFuture.completedFuture(scanReply(0, found));
+            if (found.size() >= count) return CompletableFuture.completedFuture(scanReply(worker + 1, found));
+            return scan(worker + 1, 0, count, pattern, found);
+        });
+    }
+
+    private static Reply scanReply(long cursor, List<Reply> keys) {
+        return Reply.array(List.of(Reply.bulk(Long.toUnsignedString(cursor)), Reply.array(keys)));
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "p50=%.1f,p99=%.1f,p999=%.1f,max=%.1f",
+                histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+    }
+
+    /**
+     * Sends the same command to every worker and replies with {@code success} once all
+     * have answered, or with the first error.
+     */
+    private CompletableFuture<Reply> broadcast(CacheCommand.Type type, String success) {
+        return askAll(type).thenApply(replies -> {
+            for (Reply result : replies) {
+                if (result.isError()) return result;
+            }
+            return Reply.status(success);
+        });
+    }
+
+    /** Sends the same command to every worker; completes with their replies in worker order. */
+    private CompletableFuture<Reply[]> askAll(CacheCommand.Type type) {
+        Worker[] current = workers;
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[current.length];
+        for (int w = 0; w < current.length; w++) {
+            CompletableFuture<Reply> reply = new CompletableFuture<>();
+            current[w].handle(new CacheCommand(type, "", null, reply));
+            replies[w] = reply;
+        }
+        return CompletableFuture.allOf(replies).thenApply(done -> {
+            Reply[] results = new Reply[current.length];
+            for (int w = 0; w < current.length; w++) {
+                results[w] = (Reply) replies[w].join();
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Creates a cachebase and loads what it persisted before the last shutdown: each
+     * worker's snapshot, then the log it wrote after it.
+     * <p>
+     * Snapshots load with one loader thread per worker. The logs are replayed by a
+     * {@link ParallelReplay} routing by file: chunks are parsed on the fork-join pool and
+     * each worker gets back the records of its own log, in order. A worker may then hold
+     * keys whose slot belongs to another one, if a reshard was cut short or the files
+     * predate slot tables; those are handed to their owner before the cachebase serves.
+     * </p>
+     *
+     * @return The cachebase, ready to serve.
+     */
+    static Cachebase restore(String name) throws InterruptedException {
+        Cachebase cb = new Cachebase(name);
+        Worker[] workers = cb.workers;
+        long[] loaded = new long[workers.length];
+        Thread[] loaders = new Thread[workers.length];
+        for (int w = 0; w < workers.length; w++) {
+            int partition = w;
+            loaders[w] = Thread.ofPlatform().name(name + "-loader-" + w).start(() -> {
+                try {
+                    loaded[partition] = workers[partition].restoreSnapshot();
+                } catch (IOException e) {
+                    System.err.println("Failed to load snapshot " + partition + " of cachebase '" + name
+                            + "', it starts with what was read so far: " + e.getMessage());
+                }
+            });
+        }
+        long snapshotRecords = 0;
+        for (int w = 0; w < workers.length; w++) {
+            loaders[w].join();
+            snapshotRecords += loaded[w];
+        }
+
+        List<File> logs = new ArrayList<>();
+        for (int w = 0; w < workers.length; w++) {
+            logs.add(WorkerLog.fileFor(name, w));
+        }
+        ParallelReplay replay = new ParallelReplay(ParallelReplay.Format.RECORDS,
+                new ParallelReplay.PartitionSink() {
+                    @Override
+                    public void set(int partition, String key, byte[] value) {
+                        workers[partition].restoreEntry(key, value);
+                    }
+
+                    @Override
+                    public void expire(int partition, String key, long expireAt) {
+                        workers[partition].restoreExpiry(key, expireAt);
+                    }
+
+                    @Override
+                    public void delete(int partition, String key) {
+                        workers[partition].restoreDelete(key);
+                    }
+                },
+                "cachebase '" + name + "'");
+        long logRecords;
+        try {
+            logRecords = replay.replay(logs);
+        } catch (IOException e) {
+            System.err.println("Failed to replay the logs of cachebase '" + name + "': " + e.getMessage());
+            logRecords = 0;
+        }
+        for (Worker worker : workers) {
+            worker.finishRestore();
+        }
+        long moved = cb.moveStrays();
+
+        System.out.println("Cachebase '" + name + "' loaded: " + snapshotRecords + " snapshot records, "
+                + logRecords + " log records" + (moved > 0 ? ", " + moved + " keys moved to their owners." : "."));
+        return cb;
+    }
+
+    /**
+     * Hands every key to the worker owning its slot, which keeps it unless it has that key
+     * itself. If any key moved, a snapshot drops the moved keys from their old worker's files.
+     *
+     * @return The number of keys moved.
+     */
+    private long moveStrays() {
+        Worker[] current = workers;
+        CompletableFuture<?>[] exports = new CompletableFuture<?>[current.length];
+        for (int w = 0; w < current.length; w++) {
+            CompletableFuture<Reply> done = new CompletableFuture<>();
+            current[w].exportSlots(slots, current, null, done);
+            exports[w] = done;
+        }
+        long moved = 0;
+        for (CompletableFuture<?> export : exports) {
+            moved += ((Reply) export.join()).integerValue();
+        }
+        // Queued behind the imports, so it also waits until every moved key is installed
+        if (moved > 0) save(true).join();
+        return moved;
+    }
+
+    /**
+     * Grows the cachebase to {@code workerCount} workers, or evens out the slots of the
+     * current ones, while it keeps serving. Runs in the background; STATS shows
+     * {@code resharding:1} until it is done.
+     * <p>
+     * The new workers start out owning nothing. Then, one old worker at a time, the slots it
+     * gives up change owner in the table, which is saved first; the old worker sends the
+     * keys of those slots to their new owners. Commands on a moving slot are routed to the
+     * new owner at once and wait there until the keys have arrived. Finally every worker
+     * gets its share of the memory budget, and a snapshot drops the moved keys from the
+     * old workers' files.
+     * </p>
+     *
+     * @return A status message, or an error message starting with {@code Error:}.
+     */
+    public String reshard(int workerCount) {
+        if (workerCount < workers.length || workerCount > SlotTable.MAX_WORKERS) {
+            return "Error: the worker count can only grow, from " + workers.length + " up to " + SlotTable.MAX_WORKERS + ".";
+        }
+        if (!resharding.compareAndSet(false, true)) return "Error: a reshard is already in progress.";
+        Thread.ofPlatform().daemon().name(name + "-reshard").start(() -> {
+            try {
+                long start = System.nanoTime();
+                int moved = migrate(workerCount);
+                System.out.printf("Cachebase '%s' resharded to %d workers: %d slots moved in %d ms%n",
+                        name, workerCount, moved, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Reshard of cachebase '" + name + "' stopped: " + e.getMessage());
+            } finally {
+                resharding.set(false);
+            }
+        });
+        return "Resharding to " + workerCount + " workers started.";
+    }
+
+    /**
+     * Hands this cachebase's keys of {@code slots} to another cluster node, one worker and
+     * one batch at a time (see {@link ClusterState#migrate}). Excludes a reshard meanwhile,
+     * since keys moving between workers could be missed. Blocks until done.
+     *
+     * @return The number of keys moved.
+     * @throws IOException If the target failed or refused a batch; the keys not moved stay here.
+     */
+    long migrateSlots(BitSet slots, NodeLink target) throws IOException {
+        if (!resharding.compareAndSet(false, true)) throw new IOException("cachebase '" + name + "' is resharding");
+        try {
+            long moved = 0;
+            for (Worker worker : workers) {
+                Worker.Handoff handoff = new Worker.Handoff(slots, target);
+                while (!handoff.isDone()) {
+                    Reply batch = worker.migrateBatch(handoff).join();
+                    if (batch.isError()) throw new IOException(batch.toString());
+                }
+                moved += handoff.moved;
+            }
+            return moved;
+        } finally {
+            resharding.set(false);
+        }
+    }
+
+    /** @return The number of slots that changed owner. */
+    private int migrate(int workerCount) throws IOException {
+        long stamp = routing.writeLock();
+        try {
+            Worker[] current = workers;
+            if (workerCount > current.length) {
+                Worker[] grown = Arrays.copyOf(current, workerCount);
+                for (int w = current.length; w < workerCount; w++) {
+                    grown[w] = new Worker(name, w, workerShare(maxMemory, workerCount), policy, valueStorage);
+                    grown[w].defineIndexes(indexes);
+                    grown[w].start();
+                }
+                workers = grown;
+                saveSettings();
+            }
+        } finally {
+            routing.unlockWrite(stamp);
+        }
+
+        Worker[] all = workers;
+        SlotTable target = slots.rebalanced(workerCount);
+        int moved = 0;
+        for (int source = 0; source < workerCount; source++) {
+            BitSet leaving = slots.leaving(source, target);
+            if (leaving.isEmpty()) continue;
+            BitSet[] incoming = new BitSet[workerCount];
+            boolean[] expected = new boolean[workerCount];
+            for (int slot = leaving.nextSetBit(0); slot >= 0; slot = leaving.nextSetBit(slot + 1)) {
+                int owner = target.ownerOf(slot);
+                if (incoming[owner] == null) incoming[owner] = new BitSet(SlotTable.SLOTS);
+                incoming[owner].set(slot);
+                expected[owner] = true;
+            }
+
+            List<CompletableFuture<Reply>> installed = new ArrayList<>();
+            stamp = routing.writeLock();
+            try {
+                slots = slots.withOwners(leaving, target);
+                saveSettings();
+                for (int w = 0; w < workerCount; w++) {
+                    if (incoming[w] == null) continue;
+                    CompletableFuture<Reply> done = new CompletableFuture<>();
+                    all[w].beginImport(incoming[w], done);
+                    installed.add(done);
+                }
+                all[source].exportSlots(slots, all, expected, new CompletableFuture<>());
+            } finally {
+                routing.unlockWrite(stamp);
+            }
+            CompletableFuture.allOf(installed.toArray(new CompletableFuture<?>[0])).join();
+            moved += leaving.cardinality();
+        }
+
+        for (Worker worker : all) {
+            worker.configureEviction(workerShare(maxMemory, workerCount), policy);
+        }
+        save(true).join();
+        return moved;
+    }
+
+    /**
+     * Stops the workers and waits until each has committed and closed its log.
+     */
+    void close() throws InterruptedException {
+        shutdown();
+        for (Worker worker : workers) {
+            worker.awaitTermination();
+        }
+    }
+
+    /**
+     * Stops the workers and deletes everything the cachebase persisted, so it does not
+     * come back on the next start. Only a directory directly under {@code data/cachebases}
+     * is deleted, whatever the name resolves to.
+     *
+     * @throws IOException If the files could not be deleted, or the directory is not one a
+     *                     cachebase may have.
+     */
+    void drop() throws IOException, InterruptedException {
+        close();
+        Path root = Path.of("data/cachebases").toAbsolutePath().normalize();
+        Path dir = WorkerLog.fileFor(name, 0).getParentFile().toPath().toAbsolutePath().normalize();
+        if (!root.equals(dir.getParent())) {
+            throw new IOException("refusing to delete " + dir + ", which is not a cachebase directory");
+        }
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups keys by owning worker (keeping their relative order, so per-key ordering
+     * with single-key commands still holds) and submits one batch to each worker involved.
+     * Completes with the first error a worker answered instead of running its share, or null.
+     */
+    private CompletableFuture<Reply> fanOut(CacheCommand.Type type, String[] keys, byte[][] values, Reply[] results,
+                                            ClientTracking tracking) {
+        long stamp = routing.readLock();
+        try {
+            return fanOut(workers, slots, type, keys, values, results, tracking);
+        } finally {
+            routing.unlockRead(stamp);
+        }
+    }
+
+    private static CompletableFuture<Reply> fanOut(Worker[] workers, SlotTable slots, CacheCommand.Type type,
+                                                  String[] keys, byte[][] values, Reply[] results,
+                                                  ClientTracking tracking) {
+        int workerCount = workers.length;
+        int[] owner = new int[keys.length];
+        int[] counts = new int[workerCount];
+        for (int i = 0; i < keys.length; i++) {
+            owner[i] = slots.ownerOfKey(keys[i]);
+            counts[owner[i]]++;
+        }
+
+        String[][] groupKeys = new String[workerCount][];
+        byte[][][] groupValues = new byte[workerCount][][];
+        int[][] groupPositions = new int[workerCount][];
+        int involved = 0;
+        for (int w = 0; w < workerCount; w++) {
+            if (counts[w] == 0) continue;
+            groupKeys[w] = new String[counts[w]];
+            groupValues[w] = values != null ? new byte[counts[w]][] : null;
+            groupPositions[w] = new int[counts[w]];
+            counts[w] = 0; // reused as the fill index below
+            involved++;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            int w = owner[i];
+            int slot = counts[w]++;
+            groupKeys[w][slot] = keys[i];
+            if (values != null) groupValues[w][slot] = values[i];
+            groupPositions[w][slot] = i;
+        }
+
+        List<CompletableFuture<Reply>> parts = new ArrayList<>(involved);
+        for (int w = 0; w < workerCount; w++) {
+            if (groupKeys[w] == null) continue;
+            CompletableFuture<Reply> done = new CompletableFuture<>();
+            CacheCommand batch = new CacheCommand(type, groupKeys[w], groupValues[w], groupPositions[w], results, done);
+            batch.tracking = tracking;
+            workers[w].handle(batch);
+            parts.add(done);
+        }
+        if (parts.size() == 1) return parts.get(0).thenApply(reply -> reply.isError() ? reply : null);
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture<?>[]::new)).thenApply(done -> {
+            for (CompletableFuture<Reply> reply : parts) {
+                if (reply.join().isError()) return reply.join();
+            }
+            return null;
+        });
     }
 }
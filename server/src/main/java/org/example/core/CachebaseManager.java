@@ -1,27 +1,101 @@
 package org.example.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class CachebaseManager {
     private static final ConcurrentHashMap<String, Cachebase> cachebases = new ConcurrentHashMap<>();
 
-    public static synchronized String createCachebase(String name) {
+    // No method-level locks: sessions may run on virtual threads, and a synchronized
+    // section would pin the carrier. The map's atomic operations decide the races instead.
+    public static String createCachebase(String name) {
+        return createCachebase(name, Cachebase.DEFAULT_WORKERS);
+    }
+
+    public static String createCachebase(String name, int workers) {
+        if (!isValidName(name)) return "Invalid cachebase name: " + name;
         if (cachebases.containsKey(name)) return "Cachebase already exists.";
-        Cachebase cb = new Cachebase(name);
-        cachebases.put(name, cb);
-        cb.startDispatcher(); // Start dispatcher after creation
+        // Before it can take writes, so followers create it before they see any
+        ReplicationFeed.publish("CREATECB", name, Integer.toString(workers));
+        Cachebase cb = new Cachebase(name, workers);
+        if (cachebases.putIfAbsent(name, cb) != null) {
+            cb.shutdown(); // Another session created it first
+            return "Cachebase already exists.";
+        }
+        try {
+            cb.saveSettings(); // Only now: the loser of a race must not overwrite the winner's
+        } catch (IOException e) {
+            System.err.println("Cannot save the settings of cachebase '" + name + "': " + e.getMessage());
+        }
         return "Cachebase '" + name + "' created.";
     }
 
-    public static synchronized String removeCachebase(String name) {
+    /**
+     * Whether a name can be used for a cachebase. It names the cachebase's directory under
+     * {@code data/cachebases}, so it must not be empty, {@code .} or {@code ..}, nor contain
+     * a path separator, {@code ..} or a control character.
+     */
+    public static boolean isValidName(String name) {
+        if (name.isEmpty() || name.equals(".") || name.contains("..")) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '/' || c == '\\' || Character.isISOControl(c)) return false;
+        }
+        return true;
+    }
+
+    public static String removeCachebase(String name) {
         Cachebase cb = cachebases.remove(name);
         if (cb == null) return "Cachebase does not exist.";
-        cb.shutdown(); // Gracefully stop workers and dispatcher
+        try {
+            cb.drop(); // Gracefully stop workers, then delete its files
+            ReplicationFeed.publish("DROPCB", name);
+        } catch (IOException e) {
+            return "Cachebase '" + name + "' removed, but its files could not be deleted: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Cachebase '" + name + "' removed; interrupted while deleting its files.";
+        }
         return "Cachebase '" + name + "' removed.";
     }
 
+    /**
+     * Stops every cachebase and forgets it, keeping its files for the next {@link #loadAll()}.
+     * Writes submitted before this call are committed before the workers stop.
+     */
+    public static void closeAll() throws InterruptedException {
+        for (String name : cachebases.keySet()) {
+            Cachebase cb = cachebases.remove(name);
+            if (cb != null) {
+                cb.close();
+            }
+        }
+    }
+
+    /**
+     * Recreates every cachebase found under {@code data/cachebases/} with its persisted
+     * data. Called once at server start, before clients are accepted.
+     */
+    public static void loadAll() throws InterruptedException {
+        File[] dirs = new File("data/cachebases").listFiles(File::isDirectory);
+        if (dirs == null) return;
+
+        long start = System.nanoTime();
+        for (File dir : dirs) {
+            cachebases.put(dir.getName(), Cachebase.restore(dir.getName()));
+        }
+        System.out.printf("Loaded %d cachebase(s) in %d ms%n", dirs.length, (System.nanoTime() - start) / 1_000_000);
+    }
+
     public static Cachebase getCachebase(String name) {
         return cachebases.get(name);
     }
 
+    /** Names of the open cachebases, sorted. */
+    public static List<String> names() {
+        return cachebases.keySet().stream().sorted().toList();
+    }
+
 }
@@ -0,0 +1,108 @@
+package org.example.core;
+
+import org.example.protocol.Reply;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * <p><strong>ClientTracking.java</strong></p>
+ *
+ * A connection that sent {@code CLIENT TRACKING ON}, so that clients can keep the values
+ * they read in a local near cache. Each {@link Worker} remembers the tracking connections
+ * that read a key (see {@link TrackingTable}). Once the key changes (written, deleted,
+ * expired, evicted or moved away), the worker tells them at the end of its batch, and
+ * forgets them until they read the key again.
+ *
+ * <p>The message is a RESP3-style push, which a client tells apart from replies by its
+ * first byte and which may arrive between any two replies:</p>
+ * <pre>
+ * &gt;3
+ * $10 invalidate
+ * $&lt;n&gt; &lt;cachebase&gt;
+ * *&lt;k&gt; &lt;key&gt; ...
+ * </pre>
+ *
+ * <p>The session supplies how a push reaches its socket; that must not block the worker.
+ * A closed session turns tracking off, and workers drop its entries lazily.</p>
+ */
+public final class ClientTracking {
+
+    private static final byte[] PUSH_HEADER = ">3\r\n$10\r\ninvalidate\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Keys each worker may track before it invalidates the oldest ones to make room
+    private static volatile int maxKeysPerWorker = 100_000;
+
+    private static final AtomicInteger clients = new AtomicInteger();
+    private static final AtomicLong trackedKeys = new AtomicLong();
+    private static final LongAdder messagesSent = new LongAdder();
+    private static final LongAdder keysInvalidated = new LongAdder();
+
+    private final Consumer<byte[]> pushes;
+    private volatile boolean enabled = true;
+
+    ClientTracking(Consumer<byte[]> pushes) {
+        this.pushes = pushes;
+        clients.incrementAndGet();
+    }
+
+    /** Sets how many keys each worker tracks at most ({@code tracking-max-keys}). */
+    public static void setMaxKeysPerWorker(int keys) {
+        maxKeysPerWorker = Math.max(1, keys);
+    }
+
+    static int maxKeysPerWorker() {
+        return maxKeysPerWorker;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void disable() {
+        if (enabled) {
+            enabled = false;
+            clients.decrementAndGet();
+        }
+    }
+
+    /** Sends one invalidation message for keys of a cachebase; called by worker threads. */
+    void invalidate(String cachebase, List<String> keys) {
+        if (!enabled) return;
+        List<Reply> items = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            items.add(Reply.bulk(key));
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream(32 + 16 * keys.size());
+        try {
+            message.write(PUSH_HEADER);
+            Reply.bulk(cachebase).writeResp(message);
+            Reply.array(items).writeResp(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream does not throw
+        }
+        pushes.accept(message.toByteArray());
+        messagesSent.increment();
+        keysInvalidated.add(keys.size());
+    }
+
+    static void keysTracked(int delta) {
+        trackedKeys.addAndGet(delta);
+    }
+
+    /** The lines of INFO's tracking section. */
+    static String info() {
+        return "tracking_clients:" + clients.get() + "\n"
+                + "tracked_keys:" + trackedKeys.get() + "\n"
+                + "invalidation_messages:" + messagesSent.sum() + "\n"
+                + "invalidated_keys:" + keysInvalidated.sum() + "\n";
+    }
+}
@@ -0,0 +1,485 @@
+package org.example.core;
+
+import org.example.protocol.CommandArgs;
+import org.example.protocol.Reply;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * <p><strong>ClusterState.java</strong></p>
+ *
+ * Cluster mode: the {@link SlotTable#SLOTS} hash slots of the key space are shared out
+ * between several ReflexServer nodes, each one serving the keys of its own slots in every
+ * cachebase. The slot of a key is {@link SlotTable#slotOf}, the same slot that picks its
+ * worker inside a node.
+ *
+ * <p><strong>Redirections:</strong> a key command for a slot another node owns is answered
+ * with {@code MOVED <slot> <host:port>}, so clients learn the slot map as they go. While a
+ * slot moves to another node, its keys still here are served here and the others are sent
+ * on with {@code ASK <slot> <host:port>}: the client asks that node once, prefixed with
+ * {@code ASKING}, without changing its slot map. A multi-key command that touches a moving
+ * slot is served if all its keys are still here and sent on if none is; a command split
+ * between here and the target, or an {@code MSET} spread over a moving slot and others, is
+ * answered with {@code TRYAGAIN}.</p>
+ *
+ * <p><strong>Migration</strong> ({@code CLUSTER MIGRATE}) runs on the node giving the slots
+ * away: it marks them importing on the target and migrating here, and then every worker
+ * sends the target its keys of those slots in batches, deleting each batch once the target
+ * has stored it. A worker does this on its own thread, so no command on a key runs between
+ * its copy and its deletion. Then the slots belong to the target, and every known node is
+ * told so.</p>
+ *
+ * <p>Each node keeps its own view of the slot map in {@code data/cluster.properties}. A new
+ * cluster shares the slots out evenly between the {@code --cluster-nodes}, in the order
+ * given, so every node must be started with the same list.</p>
+ */
+public final class ClusterState {
+
+    private static final File FILE = new File("data/cluster.properties");
+
+    private static volatile boolean enabled;
+    private static volatile String self;
+    // Which node owns each slot (null if none), and the slots moving away from or to this
+    // node with the node on the other end (null arrays when none). Replaced, never
+    // modified, under lock.
+    private static volatile String[] owners = new String[SlotTable.SLOTS];
+    private static volatile String[] migrating;
+    private static volatile String[] importing;
+    private static final ReentrantLock lock = new ReentrantLock();
+    // Every node this one has heard of, told about ownership changes; guarded by lock
+    private static final Set<String> nodes = new LinkedHashSet<>();
+    private static final AtomicBoolean migrationRunning = new AtomicBoolean();
+    private static volatile String lastMigration = "none";
+
+    private ClusterState() {}
+
+    /**
+     * Turns cluster mode on, with the slot map saved by an earlier run or, the first time,
+     * the slots shared out evenly between {@code members}.
+     *
+     * @param address This node's {@code host:port}, as the other nodes and the clients reach it.
+     * @param members Every node of the cluster, this one included, in the same order on every node.
+     */
+    public static void start(String address, List<String> members) {
+        lock.lock();
+        try {
+            self = address;
+            nodes.addAll(members);
+            if (!load()) {
+                String[] initial = new String[SlotTable.SLOTS];
+                for (int i = 0; i < members.size(); i++) {
+                    Arrays.fill(initial, i * SlotTable.SLOTS / members.size(),
+                            (i + 1) * SlotTable.SLOTS / members.size(), members.get(i));
+                }
+                owners = initial;
+                save();
+            }
+            nodes.remove(self);
+            enabled = true;
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("Cluster node " + address + " serving " + ownedSlots() + " of " + SlotTable.SLOTS + " slots");
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Called with the lock held
+    private static boolean load() {
+        if (!FILE.exists()) return false;
+        Properties saved = new Properties();
+        try (InputStream in = new FileInputStream(FILE)) {
+            saved.load(in);
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable " + FILE + ": " + e.getMessage());
+            return false;
+        }
+        String[] loaded = new String[SlotTable.SLOTS];
+        String[] moving = new String[SlotTable.SLOTS];
+        boolean anyMoving = false;
+        try {
+            for (String property : saved.stringPropertyNames()) {
+                String value = saved.getProperty(property);
+                if (property.startsWith("slots.")) {
+                    String node = property.substring("slots.".length()).intern();
+                    nodes.add(node);
+                    forEachSlot(value, slot -> loaded[slot] = node);
+                } else if (property.startsWith("migrating.")) {
+                    String node = property.substring("migrating.".length()).intern();
+                    forEachSlot(value, slot -> moving[slot] = node);
+                    anyMoving = true;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring bad " + FILE + ": " + e.getMessage());
+            return false;
+        }
+        owners = loaded;
+        // A migration cut short keeps sending ASKs for the keys it moved; CLUSTER MIGRATE finishes it
+        migrating = anyMoving ? moving : null;
+        return true;
+    }
+
+    /**
+     * Saves the slot map, replaced in one step like the cachebase settings. Called with the
+     * lock held. Slots being imported are not saved: the node giving them away still owns them.
+     */
+    private static void save() {
+        Properties saved = new Properties();
+        ranges(owners).forEach((node, text) -> saved.setProperty("slots." + node, text));
+        if (migrating != null) ranges(migrating).forEach((node, text) -> saved.setProperty("migrating." + node, text));
+        try {
+            FILE.getParentFile().mkdirs();
+            File temp = new File(FILE.getParentFile(), FILE.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                saved.store(out, "Slot map of cluster node " + self);
+            }
+            Files.move(temp.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Cannot save the cluster slot map: " + e.getMessage());
+        }
+    }
+
+    /** Each node of {@code map} with its slots as ranges, e.g. {@code 0-5460,9000}. */
+    private static Map<String, String> ranges(String[] map) {
+        Map<String, StringBuilder> text = new LinkedHashMap<>();
+        for (int start = 0; start < map.length; ) {
+            int end = start;
+            while (end + 1 < map.length && map[end + 1] != null && map[end + 1].equals(map[start])) end++;
+            if (map[start] != null) {
+                StringBuilder ranges = text.computeIfAbsent(map[start], node -> new StringBuilder());
+                if (!ranges.isEmpty()) ranges.append(',');
+                ranges.append(start);
+                if (end > start) ranges.append('-').append(end);
+            }
+            start = end + 1;
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        text.forEach((node, ranges) -> result.put(node, ranges.toString()));
+        return result;
+    }
+
+    private static void forEachSlot(String ranges, IntConsumer action) {
+        for (String range : ranges.split(",")) {
+            if (range.isBlank()) continue;
+            int[] bounds = parseRange(range);
+            for (int slot = bounds[0]; slot <= bounds[1]; slot++) action.accept(slot);
+        }
+    }
+
+    /**
+     * Parses {@code slot} or {@code first-last}.
+     *
+     * @throws IllegalArgumentException If it is neither, or a slot is out of range.
+     */
+    static int[] parseRange(String range) {
+        int dash = range.indexOf('-');
+        try {
+            int first = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+            if (first < 0 || last >= SlotTable.SLOTS || first > last) throw new NumberFormatException();
+            return new int[]{first, last};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid slot range " + range + " (0-" + (SlotTable.SLOTS - 1) + ")");
+        }
+    }
+
+    private static int ownedSlots() {
+        int owned = 0;
+        for (String owner : owners) {
+            if (self.equals(owner)) owned++;
+        }
+        return owned;
+    }
+
+    /**
+     * Checks the keys of a command against the slot map before it goes to a worker.
+     *
+     * @param step   0 for a command with one key, at index 2; otherwise the distance between
+     *               the keys that start at index 2 ({@code MGET} 1, {@code MSET} 2).
+     * @param asking Whether the client sent {@code ASKING} right before.
+     * @return A {@code MOVED} or {@code TRYAGAIN} error, or null if the command may run here.
+     */
+    static Reply route(CommandArgs args, int step, boolean asking) {
+        String[] owned = owners;
+        String[] moving = migrating;
+        String[] incoming = importing;
+        int end = step == 0 ? 3 : args.count();
+        int first = -1;
+        boolean split = false, migrating = false;
+        for (int i = 2; i < end; i += Math.max(step, 1)) {
+            int slot = SlotTable.slotOf(args.string(i));
+            if (first < 0) first = slot;
+            split |= slot != first;
+            if (self.equals(owned[slot])) {
+                migrating |= moving != null && moving[slot] != null;
+                continue;
+            }
+            if (asking && incoming != null && incoming[slot] != null) continue;
+            return owned[slot] == null ? Reply.error("CLUSTERDOWN Hash slot " + slot + " is not served")
+                    : Reply.error("MOVED " + slot + " " + owned[slot]);
+        }
+        // The worker of a moving slot serves the keys still here (see Worker#redirected). An
+        // MSET over several slots reaches several workers, though, and one of them could
+        // store its keys while another sends the client on: the client falls back to single keys
+        if (migrating && split && step == 2) return tryAgain();
+        return null;
+    }
+
+    /**
+     * What a worker answers instead of running a command on a key of {@code slot} that it
+     * does not have, or null if it runs the command: the slot is served here, or is being
+     * imported. For a slot migrating away the answer is {@code ASK}; for a slot owned by
+     * another node (the map changed after the command was routed) {@code MOVED}.
+     */
+    static Reply redirect(int slot) {
+        String[] moving = migrating;
+        if (moving != null && moving[slot] != null) return Reply.error("ASK " + slot + " " + moving[slot]);
+        String owner = owners[slot];
+        if (self.equals(owner)) return null;
+        String[] incoming = importing;
+        if (incoming != null && incoming[slot] != null) return null;
+        return owner == null ? Reply.error("CLUSTERDOWN Hash slot " + slot + " is not served")
+                : Reply.error("MOVED " + slot + " " + owner);
+    }
+
+    /** Whether keys of {@code slot} that are still here are served here during a migration. */
+    static boolean isMigrating(int slot) {
+        String[] moving = migrating;
+        return moving != null && moving[slot] != null;
+    }
+
+    static Reply tryAgain() {
+        return Reply.error("TRYAGAIN Multiple keys request during a slot migration; retry or send the keys one at a time");
+    }
+
+    /** {@code CLUSTER SLOTS}: {@code [first, last, host:port]} for each run of slots with one owner. */
+    static Reply slots() {
+        String[] owned = owners;
+        List<Reply> ranges = new ArrayList<>();
+        for (int start = 0; start < owned.length; ) {
+            int end = start;
+            while (end + 1 < owned.length && owned[end + 1] != null && owned[end + 1].equals(owned[start])) end++;
+            if (owned[start] != null) {
+                ranges.add(Reply.array(List.of(Reply.integer(start), Reply.integer(end), Reply.bulk(owned[start]))));
+            }
+            start = end + 1;
+        }
+        return Reply.array(ranges);
+    }
+
+    /** INFO lines of the cluster section. */
+    static String info() {
+        if (!enabled) return "cluster_enabled:0\n";
+        lock.lock();
+        try {
+            return "cluster_enabled:1\n"
+                    + "cluster_node:" + self + "\n"
+                    + "cluster_known_nodes:" + (nodes.size() + 1) + "\n"
+                    + "cluster_slots_owned:" + ownedSlots() + "\n"
+                    + "cluster_slots_migrating:" + count(migrating) + "\n"
+                    + "cluster_slots_importing:" + count(importing) + "\n"
+                    + "cluster_last_migration:" + lastMigration + "\n";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int count(String[] map) {
+        if (map == null) return 0;
+        int n = 0;
+        for (String node : map) {
+            if (node != null) n++;
+        }
+        return n;
+    }
+
+    /**
+     * {@code CLUSTER SETSLOT}: records a change of the slots {@code first..last}. {@code NODE}
+     * gives them to a node, ending any import or migration of them here; {@code IMPORTING}
+     * lets ASKING clients use them here while {@code node} hands them over; {@code STABLE}
+     * cancels an import or migration.
+     */
+    static Reply setSlot(int first, int last, String state, String node) {
+        lock.lock();
+        try {
+            switch (state) {
+                case "NODE" -> {
+                    String owner = node.intern();
+                    String[] changed = owners.clone();
+                    Arrays.fill(changed, first, last + 1, owner);
+                    owners = changed;
+                    importing = without(importing, first, last);
+                    migrating = without(migrating, first, last);
+                    if (!owner.equals(self)) nodes.add(owner);
+                }
+                case "IMPORTING" -> {
+                    for (int slot = first; slot <= last; slot++) {
+                        if (self.equals(owners[slot])) return Reply.error("Error: slot " + slot + " is already served here.");
+                    }
+                    String[] changed = importing != null ? importing.clone() : new String[SlotTable.SLOTS];
+                    Arrays.fill(changed, first, last + 1, node.intern());
+                    importing = changed;
+                }
+                case "STABLE" -> {
+                    importing = without(importing, first, last);
+                    migrating = without(migrating, first, last);
+                }
+                default -> {
+                    return Reply.error("Usage: CLUSTER SETSLOT <slot|first-last> NODE|IMPORTING <host:port> | STABLE");
+                }
+            }
+            save();
+            return Reply.OK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A copy of map without the slots first..last, or null if nothing is left
+    private static String[] without(String[] map, int first, int last) {
+        if (map == null) return null;
+        String[] changed = map.clone();
+        Arrays.fill(changed, first, last + 1, null);
+        return count(changed) == 0 ? null : changed;
+    }
+
+    /**
+     * {@code CLUSTER MIGRATE}: starts moving the slots {@code first..last}, all owned here, to
+     * {@code target} in the background. Progress and the outcome show in INFO. A migration
+     * that failed part way leaves the slots migrating; running it again finishes it.
+     */
+    static Reply migrate(int first, int last, String target) {
+        if (!enabled) return Reply.error("Error: this server is not in cluster mode.");
+        if (target.equals(self)) return Reply.error("Error: the slots are already here.");
+        lock.lock();
+        try {
+            for (int slot = first; slot <= last; slot++) {
+                if (!self.equals(owners[slot])) {
+                    return Reply.error("Error: slot " + slot + " is not served here but by " + owners[slot] + ".");
+                }
+                if (migrating != null && migrating[slot] != null && !migrating[slot].equals(target)) {
+                    return Reply.error("Error: slot " + slot + " is migrating to " + migrating[slot] + ".");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!migrationRunning.compareAndSet(false, true)) {
+            return Reply.error("Error: a migration is already in progress.");
+        }
+        lastMigration = "running:" + first + "-" + last + "->" + target;
+        Thread.ofPlatform().daemon().name("slot-migration").start(() -> {
+            try {
+                long start = System.nanoTime();
+                long moved = runMigration(first, last, target.intern());
+                lastMigration = "ok:" + first + "-" + last + "->" + target + ",keys=" + moved;
+                System.out.printf("Slots %d-%d migrated to %s: %d keys in %d ms%n",
+                        first, last, target, moved, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                lastMigration = "failed:" + first + "-" + last + "->" + target;
+                System.err.println("Migration of slots " + first + "-" + last + " to " + target + " stopped: " + e.getMessage());
+            } finally {
+                migrationRunning.set(false);
+            }
+        });
+        return Reply.status("Migrating slots " + first + "-" + last + " to " + target + " in the background.");
+    }
+
+    private static long runMigration(int first, int last, String target) throws IOException {
+        String range = first + "-" + last;
+        long moved = 0;
+        try (NodeLink link = NodeLink.open(target)) {
+            check(link.call("CLUSTER", "SETSLOT", range, "IMPORTING", self), target);
+            lock.lock();
+            try {
+                String[] changed = migrating != null ? migrating.clone() : new String[SlotTable.SLOTS];
+                Arrays.fill(changed, first, last + 1, target);
+                migrating = changed;
+                save();
+            } finally {
+                lock.unlock();
+            }
+
+            BitSet slots = new BitSet(SlotTable.SLOTS);
+            slots.set(first, last + 1);
+            for (String name : CachebaseManager.names()) {
+                Cachebase cb = CachebaseManager.getCachebase(name);
+                if (cb != null) moved += cb.migrateSlots(slots, link);
+            }
+
+            // The target first, so a client sent there by the MOVED below is served
+            check(link.call("CLUSTER", "SETSLOT", range, "NODE", target), target);
+        }
+        setSlot(first, last, "NODE", target);
+        List<String> others;
+        lock.lock();
+        try {
+            others = new ArrayList<>(nodes);
+        } finally {
+            lock.unlock();
+        }
+        for (String node : others) {
+            if (node.equals(target)) continue;
+            try (NodeLink link = NodeLink.open(node)) {
+                check(link.call("CLUSTER", "SETSLOT", range, "NODE", target), node);
+            } catch (IOException e) {
+                // It learns from the MOVED of whichever node it sends clients to
+                System.err.println("Could not tell " + node + " about slots " + range + ": " + e.getMessage());
+            }
+        }
+        return moved;
+    }
+
+    private static void check(Reply reply, String node) throws IOException {
+        if (reply.isError()) throw new IOException(node + " answered " + reply);
+    }
+
+    /**
+     * {@code CLUSTER IMPORT}: stores entries handed over by a migration, with their absolute
+     * expiry times (0 for none), creating the cachebase if this node does not have it yet.
+     * Replies once they are all committed.
+     */
+    static CompletableFuture<Reply> importEntries(String cachebase, List<String> keys, List<byte[]> values, long[] expireAt) {
+        Cachebase cb = CachebaseManager.getCachebase(cachebase);
+        if (cb == null) {
+            CachebaseManager.createCachebase(cachebase);
+            cb = CachebaseManager.getCachebase(cachebase);
+            if (cb == null) return CompletableFuture.completedFuture(Reply.error("Cachebase not found: " + cachebase));
+        }
+        CompletableFuture<?>[] stored = new CompletableFuture<?>[keys.size()];
+        for (int i = 0; i < stored.length; i++) {
+            CompletableFuture<Reply> reply = new CompletableFuture<>();
+            cb.submit(new CacheCommand(CacheCommand.Type.SET, keys.get(i), values.get(i), expireAt[i], reply));
+            stored[i] = reply;
+        }
+        return CompletableFuture.allOf(stored).thenApply(done -> {
+            for (CompletableFuture<?> reply : stored) {
+                if (((Reply) reply.join()).isError()) return (Reply) reply.join();
+            }
+            return Reply.integer(stored.length);
+        });
+    }
+}
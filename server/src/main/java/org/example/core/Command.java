@@ -0,0 +1,31 @@
+package org.example.core;
+
+import org.example.protocol.CommandArgs;
+import org.example.protocol.Reply;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One entry of the {@link CommandTable}.
+ * <p>
+ * Implementations read what they need from {@code args} before returning, because the
+ * buffer behind it is reused for the next request. Commands executed by a cachebase
+ * worker return a future that completes on the worker thread; everything else returns
+ * an already-completed future.
+ * </p>
+ *
+ * <p>A command that does file or network I/O, or waits for other threads, before it returns
+ * says so with {@link #blocks}; an event loop runs it on another thread rather than stall
+ * every connection it serves.</p>
+ */
+@FunctionalInterface
+public interface Command {
+
+    CompletableFuture<Reply> execute(CommandArgs args, SessionContext session) throws IOException;
+
+    /** Whether {@link #execute} may block the calling thread. */
+    default boolean blocks() {
+        return false;
+    }
+}
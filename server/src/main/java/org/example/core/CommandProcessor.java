@@ -1,16 +1,20 @@
 package org.example.core;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
-import org.example.persistance.FileManager;
-import org.example.core.*;
+import org.example.protocol.CommandArgs;
+import org.example.protocol.Reply;
 
-import static org.example.core.Databases.createDatabase;
-import static org.example.core.Databases.listDatabases;
 import static org.example.persistance.FileManager.recoverFromAOF;
 
 /**
@@ -19,14 +23,15 @@ import static org.example.persistance.FileManager.recoverFromAOF;
  * The {@code CommandProcessor} class is responsible for handling all
  * commands issued by a client during a ReflexDB session. It interprets,
  * processes, and executes the commands, while interacting with
- * {@link MemoryStore} and persistence mechanisms (AOF file).
+ * {@link MemoryStore}, the cachebases and persistence mechanisms (AOF file).
  *
  * <p><strong>Responsibilities:</strong></p>
  * <ul>
- *     <li>Parse and execute commands such as {@code SET}, {@code GET}, {@code FLUSHFULL}, etc.</li>
- *     <li>Write commands to the Append Only File (AOF) for persistence.</li>
+ *     <li>Dispatch parsed requests through a precomputed {@link CommandTable}.</li>
+ *     <li>Execute commands such as {@code SET}, {@code GET}, {@code FLUSHFULL}, etc.</li>
  *     <li>Log client commands and manage session closure.</li>
- *     <li>Communicate appropriate responses back to the client via {@code PrintWriter}.</li>
+ *     <li>Return a typed {@link Reply}; the session decides how to encode it
+ *         (text protocol or RESP).</li>
  * </ul>
  *
  * <p><strong>Supported Commands:</strong></p>
@@ -35,238 +40,990 @@ import static org.example.persistance.FileManager.recoverFromAOF;
  *     <li><strong>TIME</strong>: Returns the current server time.</li>
  *     <li><strong>EXIT</strong>: Terminates the session gracefully.</li>
  *     <li><strong>FILE</strong>: Displays contents of the AOF file.</li>
- *     <li><strong>SET key value</strong>: Stores a key-value pair.</li>
- *     <li><strong>GET key</strong>: Retrieves a value by key.</li>
+ *     <li><strong>SET cachebase key value [EX seconds | PX milliseconds]</strong>: Stores a
+ *         key-value pair, optionally expiring it. A SET without an expiry removes the old one.</li>
+ *     <li><strong>GET cachebase key</strong>: Retrieves a value by key.</li>
+ *     <li><strong>EXPIRE cachebase key seconds</strong>: Sets a key's time to live.</li>
+ *     <li><strong>TTL cachebase key</strong>: Remaining seconds to live, -1 without expiry, -2 if missing.</li>
+ *     <li><strong>PERSIST cachebase key</strong>: Removes a key's expiry.</li>
+ *     <li><strong>INCR / DECR cachebase key, INCRBY / DECRBY cachebase key n, INCRBYFLOAT cachebase key x</strong>:
+ *         Adds to the number a key holds, 0 if missing, on the key's worker; returns the new value.</li>
+ *     <li><strong>MSET cachebase key value [key value ...]</strong>: Stores several pairs,
+ *         one worker task per owning worker.</li>
+ *     <li><strong>MGET cachebase key [key ...]</strong>: Retrieves several values in request order.</li>
+ *     <li><strong>JSON.SET cachebase key path json</strong>: Stores a JSON object or array at the
+ *         root path ({@code $}), or sets one value inside a stored document; the key keeps its expiry.</li>
+ *     <li><strong>JSON.GET cachebase key [path]</strong>: Retrieves a document, or the value at a path in it.</li>
+ *     <li><strong>FIND cachebase condition [condition ...] [LIMIT n]</strong>: Keys of the documents
+ *         meeting every condition ({@code field=value}, {@code field>=value}, ...), in key order.</li>
+ *     <li><strong>CREATE INDEX cachebase field [HASH|SORTED] / REMOVE INDEX cachebase field</strong>:
+ *         Manages the indexes FIND uses; a sorted index also serves ranges.</li>
+ *     <li><strong>SCAN cachebase cursor [MATCH pattern] [COUNT n]</strong>: The next cursor and a
+ *         few keys, from cursor 0 until the cursor returned is 0 again; each call does a
+ *         bounded amount of work on the workers. MATCH takes a glob.</li>
+ *     <li><strong>REWRITELOG cachebase</strong>: Compacts the cachebase's logs in the background.</li>
+ *     <li><strong>SAVE / BGSAVE cachebase</strong>: Writes a snapshot of the cachebase, in the
+ *         foreground or in the background.</li>
+ *     <li><strong>MAXMEMORY cachebase [size [lru|lfu|tinylfu]]</strong>: Shows or sets the
+ *         cachebase's memory budget (0 for unlimited) and eviction policy.</li>
+ *     <li><strong>STATS cachebase</strong>: Keys, memory use, hit ratio, evictions and expiries,
+ *         throughput, queue depths and latency percentiles.</li>
+ *     <li><strong>INFO [cachebase]</strong>: Server uptime and carrier pinning, then the STATS of
+ *         every cachebase, or of the named one only.</li>
+ *     <li><strong>RESHARD cachebase workers</strong>: Grows the cachebase to more workers,
+ *         moving key slots in the background.</li>
+ *     <li><strong>REPLICAOF host port / REPLICAOF NO ONE</strong>: Makes this server a read-only
+ *         follower of another one, which replaces its data, or ends that and makes it writable.
+ *         Followers use {@code REPLSYNC}, {@code REPLDUMP} and {@code REPLFEED} on the leader.</li>
+ *     <li><strong>CLUSTER INFO | SLOTS | KEYSLOT key | MIGRATE slots host:port | SETSLOT ...</strong>:
+ *         Cluster mode (see {@link ClusterState}): key commands for slots of other nodes are
+ *         answered with {@code MOVED}, and {@code ASKING} lets the next one use a slot being imported.</li>
+ *     <li><strong>CLIENT TRACKING ON | OFF</strong>: The connection is told, by a push message,
+ *         when keys it read with GET, MGET or JSON.GET change (see {@link ClientTracking}).</li>
  *     <li><strong>DISPLAY</strong>: Displays all stored key-value pairs in a table format.</li>
  *     <li><strong>FLUSH</strong>: Clears only in-memory data.</li>
  *     <li><strong>RECOVER</strong>: Recovers in-memory data from AOF file.</li>
  *     <li><strong>FLUSHFULL</strong>: Clears both in-memory and AOF file.</li>
+ *     <li><strong>CREATE CACHEBASE name [WORKERS n] / REMOVE CACHEBASE name</strong>: Manages
+ *         cachebases; a new one has {@value Cachebase#DEFAULT_WORKERS} workers unless told otherwise.</li>
  * </ul>
  *
  * <p><strong>Input:</strong></p>
  * <ul>
- *     <li>Command line string input from the client</li>
- *     <li>Socket-based {@code BufferedReader} for additional confirmations (if required)</li>
+ *     <li>A {@link CommandArgs} parsed from a text line or a RESP array</li>
+ *     <li>The {@link SessionContext} of the calling connection</li>
  * </ul>
  *
  * <p><strong>Output:</strong></p>
  * <ul>
- *     <li>Result of command execution sent via {@code PrintWriter}</li>
- *     <li>AOF persistence for data-modifying commands</li>
- *     <li>Optional logging of command activity through {@code BufferedWriter}</li>
+ *     <li>A future {@link Reply}; completed immediately unless a cachebase worker runs the command</li>
+ *     <li>Optional logging of command activity through the session's {@code BufferedWriter}</li>
  * </ul>
  *
  * @author Raghavendra R
  * @since 10-04-2025
-
- * Processes a single command input from the client.
- * Based on the command keyword, the method performs the appropriate action,
- * such as reading/writing from memory store, persisting to AOF, or sending responses.
- *
- *
  */
+public class CommandProcessor {
 
+    private static final CommandTable COMMANDS = new CommandTable();
+    // Lines the running server adds to INFO's server section, e.g. its I/O mode
+    private static volatile Supplier<String> serverInfo = () -> "";
 
+    static {
+        COMMANDS.register("PING", (args, session) -> done(Reply.status("pong")));
+        COMMANDS.register("TIME", (args, session) -> done(Reply.status("time : " + LocalTime.now())));
+        COMMANDS.register("EXIT", CommandProcessor::exit);
+        COMMANDS.register("FILE", blocking(CommandProcessor::file));
+        COMMANDS.register("SET", writes(routed(CommandProcessor::set, 0)));
+        COMMANDS.register("GET", routed(CommandProcessor::get, 0));
+        COMMANDS.register("EXPIRE", writes(routed(CommandProcessor::expire, 0)));
+        COMMANDS.register("TTL", routed((args, session) -> keyCommand(args, CacheCommand.Type.TTL, "TTL"), 0));
+        COMMANDS.register("PERSIST", writes(routed((args, session) -> keyCommand(args, CacheCommand.Type.PERSIST, "PERSIST"), 0)));
+        COMMANDS.register("INCR", writes(routed((args, session) -> increment(args, 1, "INCR"), 0)));
+        COMMANDS.register("DECR", writes(routed((args, session) -> increment(args, -1, "DECR"), 0)));
+        COMMANDS.register("INCRBY", writes(routed((args, session) -> incrementBy(args, false), 0)));
+        COMMANDS.register("DECRBY", writes(routed((args, session) -> incrementBy(args, true), 0)));
+        COMMANDS.register("INCRBYFLOAT", writes(routed(CommandProcessor::incrementByFloat, 0)));
+        COMMANDS.register("MSET", writes(routed(CommandProcessor::mset, 2)));
+        COMMANDS.register("MGET", routed(CommandProcessor::mget, 1));
+        COMMANDS.register("JSON.SET", writes(routed(CommandProcessor::jsonSet, 0)));
+        COMMANDS.register("JSON.GET", routed(CommandProcessor::jsonGet, 0));
+        COMMANDS.register("FIND", CommandProcessor::find);
+        COMMANDS.register("SCAN", CommandProcessor::scan);
+        COMMANDS.register("REWRITELOG", CommandProcessor::rewriteLog);
+        COMMANDS.register("SAVE", (args, session) -> save(args, false));
+        COMMANDS.register("BGSAVE", (args, session) -> save(args, true));
+        COMMANDS.register("MAXMEMORY", blocking(CommandProcessor::maxMemory));
+        COMMANDS.register("STATS", CommandProcessor::stats);
+        COMMANDS.register("INFO", CommandProcessor::info);
+        COMMANDS.register("RESHARD", CommandProcessor::reshard);
+        COMMANDS.register("REPLICAOF", blocking(CommandProcessor::replicaOf));
+        COMMANDS.register("REPLSYNC", CommandProcessor::replSync);
+        COMMANDS.register("REPLDUMP", CommandProcessor::replDump);
+        COMMANDS.register("REPLFEED", CommandProcessor::replFeed);
+        COMMANDS.register("CLUSTER", blocking(CommandProcessor::cluster));
+        COMMANDS.register("CLIENT", CommandProcessor::client);
+        COMMANDS.register("ASKING", (args, session) -> {
+            session.setAsking();
+            return done(Reply.OK);
+        });
+        COMMANDS.register("DISPLAY", CommandProcessor::display);
+        COMMANDS.register("FLUSH", CommandProcessor::flush);
+        COMMANDS.register("RECOVER", blocking(CommandProcessor::recover));
+        COMMANDS.register("FLUSHFULL", blocking(CommandProcessor::flushFull));
+        COMMANDS.register("LISTDB", CommandProcessor::listDb);
+        COMMANDS.register("USE", CommandProcessor::use);
+        COMMANDS.register("CREATE", blocking(writes(CommandProcessor::create)));
+        COMMANDS.register("REMOVE", blocking(writes(CommandProcessor::remove)));
+    }
 
-public class CommandProcessor {
+    /**
+     * A command that blocks before it returns: it reads or writes files (cachebase logs and
+     * settings, the slot map, the legacy AOF), deletes a cachebase, or waits for a worker or
+     * the replication link to stop. See {@link #blocks}.
+     */
+    private static Command blocking(Command command) {
+        return new Command() {
+            @Override
+            public CompletableFuture<Reply> execute(CommandArgs args, SessionContext session) throws IOException {
+                return command.execute(args, session);
+            }
+
+            @Override
+            public boolean blocks() {
+                return true;
+            }
+        };
+    }
+
+    /** A command that changes cachebase data, refused while this server follows a leader. */
+    private static Command writes(Command command) {
+        return (args, session) -> ReplicaLink.isFollowing()
+                ? done(Reply.error("READONLY You can't write against a read only replica."))
+                : command.execute(args, session);
+    }
+
+    /**
+     * A key command, answered with {@code MOVED} in cluster mode if its keys belong to another
+     * node. {@code step} says where the keys are, see {@link ClusterState#route}.
+     */
+    private static Command routed(Command command, int step) {
+        return (args, session) -> {
+            if (!ClusterState.isEnabled() || args.count() < 3) return command.execute(args, session);
+            Reply redirect = ClusterState.route(args, step, session.takeAsking());
+            return redirect != null ? done(redirect) : command.execute(args, session);
+        };
+    }
 
     /**
-     * Processes a single command input from the client.
-     * Based on the command keyword, the method performs the appropriate action,
-     * such as reading/writing from memory store, persisting to AOF, or sending responses.
+     * Executes a single parsed request from the client.
+     * <p>
+     * Never blocks on a cachebase worker: worker commands return a pending future and
+     * the caller decides whether to wait for it. All arguments are consumed before
+     * this method returns, so the caller may reuse {@code args} and its buffer.
+     * </p>
      *
-     * @param input      The raw command input from the client.
-     * @param toClient   The writer used to send responses back to the client.
-     * @param fromClient The reader used to get additional input (e.g., confirmations).
-     * @param aofFile    The Append Only File used for persistence of SET operations.
-     * @param logWriter  The writer used to log client commands with timestamps.
-     * @throws IOException If the client issues EXIT or IO operations fail.
+     * @param args    The parsed request.
+     * @param session The calling session.
+     * @return The reply, possibly not yet completed.
      */
+    public static CompletableFuture<Reply> execute(CommandArgs args, SessionContext session) {
+        if (args.count() == 0) {
+            return done(Reply.error("Error: Empty command."));
+        }
 
-    public static void process(String input, PrintWriter toClient, BufferedReader fromClient,
-                               File aofFile, BufferedWriter logWriter, String clientName) throws IOException {
+        Command command = COMMANDS.lookup(args);
+        if (command == null) {
+            return done(Reply.error("Unknown command: " + args.string(0).toUpperCase()));
+        }
 
-        String[] tokens = input.trim().split("\\s+", 4);  // At most 3 parts to capture SET value with spaces
-        if (tokens.length == 0 || tokens[0].isEmpty()) {
-            toClient.println("Error: Empty command.");
-            return;
+        try {
+            return command.execute(args, session);
+        } catch (IOException e) {
+            return done(Reply.error("Error: " + e.getMessage()));
         }
+    }
 
-        String command = tokens[0].toUpperCase();
+    /**
+     * Whether the request names a command that may block the calling thread. An event loop
+     * thread hands such a request, {@linkplain CommandArgs#copy copied}, to another thread.
+     */
+    public static boolean blocks(CommandArgs args) {
+        if (args.count() == 0) return false;
+        Command command = COMMANDS.lookup(args);
+        return command != null && command.blocks();
+    }
 
-        switch (command) {
-            case "PING" -> toClient.println("pong");
+    private static CompletableFuture<Reply> done(Reply reply) {
+        return CompletableFuture.completedFuture(reply);
+    }
 
-            case "TIME" -> toClient.println("time : " + LocalTime.now());
+    private static CompletableFuture<Reply> exit(CommandArgs args, SessionContext session) throws IOException {
+        BufferedWriter logWriter = session.getLogWriter();
+        if (logWriter != null) {
+            logWriter.write("=== End of session ===");
+            logWriter.newLine();
+            logWriter.flush();
+        }
+        session.requestClose();
+        return done(Reply.status("Goodbye!"));
+    }
+
+    private static CompletableFuture<Reply> file(CommandArgs args, SessionContext session) throws IOException {
+        File aofFile = session.getAofFile();
+        if (aofFile == null) {
+            return done(Reply.error("Error: This session has no client AOF file."));
+        }
+        if (!aofFile.exists()) {
+            return done(Reply.status("No AOF file found."));
+        }
 
-            case "EXIT" -> {
-                toClient.println("Goodbye!");
-                logWriter.write("=== End of session ===");
-                logWriter.newLine();
-                logWriter.flush();
-                throw new IOException("Client exit requested");
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("--- Begin AOF Log ---");
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(aofFile))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                out.println(line);
             }
+        }
+        out.print("--- End AOF Log ---");
+        out.flush();
+        return done(Reply.bulk(text.toString()));
+    }
 
-            case "FILE" -> {
-                if (aofFile.exists()) {
-                    toClient.println("--- Begin AOF Log ---");
-                    try (BufferedReader fileReader = new BufferedReader(new FileReader(aofFile))) {
-                        String line;
-                        while ((line = fileReader.readLine()) != null) {
-                            toClient.println(line);
-                        }
-                    }
-                    toClient.println("--- End AOF Log ---");
-                } else {
-                    toClient.println("No AOF file found.");
-                }
+    private static CompletableFuture<Reply> set(CommandArgs args, SessionContext session) {
+        // Format: SET <cachebase> <key> <value> [EX <seconds> | PX <milliseconds>]; a text-protocol
+        // value runs to the end of the line, or up to a trailing EX/PX followed by an integer, so
+        // text that merely ends in "ex <word>" is still stored whole
+        int count = args.count();
+        boolean hasExpiry = count >= 6 && (args.equalsIgnoreCase(count - 2, "EX") || args.equalsIgnoreCase(count - 2, "PX"))
+                && (!args.isInline() || isInteger(args, count - 1));
+        if (args.isInline() ? count < 4 : count != 4 && !(count == 6 && hasExpiry)) {
+            return done(Reply.error("Usage: SET <cachebase> <key> <value> [EX <seconds> | PX <milliseconds>]"));
+        }
+        if (!hasExpiry) {
+            return submit(args.string(1), CacheCommand.Type.SET, args.string(2), args.rest(3), 0);
+        }
+
+        long expireAt;
+        try {
+            expireAt = expireAt(args.longValue(count - 1), args.equalsIgnoreCase(count - 2, "EX") ? 1000 : 1);
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Error: expire time is not an integer: " + args.string(count - 1)));
+        }
+        if (expireAt <= System.currentTimeMillis()) {
+            return done(Reply.error("Error: invalid expire time in SET"));
+        }
+        return submit(args.string(1), CacheCommand.Type.SET, args.string(2), args.range(3, count - 3), expireAt);
+    }
+
+    private static boolean isInteger(CommandArgs args, int index) {
+        try {
+            args.longValue(index);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static CompletableFuture<Reply> expire(CommandArgs args, SessionContext session) {
+        if (args.count() != 4) {
+            return done(Reply.error("Usage: EXPIRE <cachebase> <key> <seconds>"));
+        }
+        long expireAt;
+        try {
+            expireAt = expireAt(args.longValue(3), 1000);
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Error: expire time is not an integer: " + args.string(3)));
+        }
+        return submit(args.string(1), CacheCommand.Type.EXPIRE, args.string(2), null, expireAt);
+    }
+
+    /**
+     * Converts a relative expire time to an absolute one in epoch milliseconds. Never
+     * returns 0, which means "no expiry": a time in the past stays in the past.
+     */
+    private static long expireAt(long amount, long unitMillis) {
+        long millis;
+        try {
+            millis = Math.addExact(System.currentTimeMillis(), Math.multiplyExact(amount, unitMillis));
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("out of range");
+        }
+        return millis == 0 ? -1 : millis;
+    }
+
+    /** {@code INCR} and {@code DECR}: adds {@code delta}, 1 or -1, to the key's integer. */
+    private static CompletableFuture<Reply> increment(CommandArgs args, long delta, String name) {
+        if (args.count() != 3) {
+            return done(Reply.error("Usage: " + name + " <cachebase> <key>"));
+        }
+        return submitIncrement(args.string(1), new Worker.Increment(args.string(2), delta, new CompletableFuture<>()));
+    }
+
+    /** {@code INCRBY}, or {@code DECRBY} if {@code decrement}: adds or subtracts the given integer. */
+    private static CompletableFuture<Reply> incrementBy(CommandArgs args, boolean decrement) {
+        String name = decrement ? "DECRBY" : "INCRBY";
+        if (args.count() != 4) {
+            return done(Reply.error("Usage: " + name + " <cachebase> <key> <increment>"));
+        }
+        long delta;
+        try {
+            delta = args.longValue(3);
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Error: value is not an integer or out of range."));
+        }
+        if (decrement && delta == Long.MIN_VALUE) {
+            return done(Reply.error("Error: increment or decrement would overflow.")); // -delta does not fit a long
+        }
+        return submitIncrement(args.string(1), new Worker.Increment(args.string(2), decrement ? -delta : delta, new CompletableFuture<>()));
+    }
+
+    /** {@code INCRBYFLOAT}: adds a finite decimal number to the key's number. */
+    private static CompletableFuture<Reply> incrementByFloat(CommandArgs args, SessionContext session) {
+        if (args.count() != 4) {
+            return done(Reply.error("Usage: INCRBYFLOAT <cachebase> <key> <increment>"));
+        }
+        double delta;
+        try {
+            delta = Double.parseDouble(args.string(3));
+        } catch (NumberFormatException e) {
+            delta = Double.NaN;
+        }
+        if (!Double.isFinite(delta)) {
+            return done(Reply.error("Error: value is not a valid float."));
+        }
+        return submitIncrement(args.string(1), new Worker.Increment(args.string(2), delta, new CompletableFuture<>()));
+    }
+
+    /** Queues an increment on the worker that owns its key. */
+    private static CompletableFuture<Reply> submitIncrement(String cachebase, Worker.Increment increment) {
+        Cachebase cb = CachebaseManager.getCachebase(cachebase);
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + cachebase));
+        }
+        cb.submit(increment);
+        return increment.callback;
+    }
+
+    /** Commands of the form {@code NAME <cachebase> <key>}. */
+    private static CompletableFuture<Reply> keyCommand(CommandArgs args, CacheCommand.Type type, String name) {
+        if (args.count() != 3) {
+            return done(Reply.error("Usage: " + name + " <cachebase> <key>"));
+        }
+        return submit(args.string(1), type, args.string(2), null, 0);
+    }
+
+    private static CompletableFuture<Reply> get(CommandArgs args, SessionContext session) {
+        if (args.count() < 3) {
+            return done(Reply.error("Usage: GET <cachebase> <key>"));
+        }
+        return submit(args.string(1), CacheCommand.Type.GET, args.string(2), null, 0, session.tracking());
+    }
+
+    private static CompletableFuture<Reply> mset(CommandArgs args, SessionContext session) {
+        // Format: MSET <cachebase> <key> <value> [<key> <value> ...]; text-protocol values are single tokens
+        if (args.count() < 4 || args.count() % 2 != 0) {
+            return done(Reply.error("Usage: MSET <cachebase> <key> <value> [<key> <value> ...]"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+
+        int pairs = (args.count() - 2) / 2;
+        String[] keys = new String[pairs];
+        byte[][] values = new byte[pairs][];
+        for (int i = 0; i < pairs; i++) {
+            keys[i] = args.string(2 + 2 * i);
+            values[i] = args.bytes(3 + 2 * i);
+        }
+        return cb.mset(keys, values);
+    }
+
+    private static CompletableFuture<Reply> mget(CommandArgs args, SessionContext session) {
+        if (args.count() < 3) {
+            return done(Reply.error("Usage: MGET <cachebase> <key> [<key> ...]"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+
+        String[] keys = new String[args.count() - 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = args.string(2 + i);
+        }
+        return cb.mget(keys, session.tracking());
+    }
+
+    private static CompletableFuture<Reply> jsonSet(CommandArgs args, SessionContext session) {
+        // Format: JSON.SET <cachebase> <key> <path> <json>; a text-protocol document runs to the end of the line
+        if (args.isInline() ? args.count() < 5 : args.count() != 5) {
+            return done(Reply.error("Usage: JSON.SET <cachebase> <key> <path> <json>"));
+        }
+        JsonPath path;
+        byte[] text = args.rest(4);
+        JsonDocument document;
+        try {
+            path = JsonPath.parse(args.string(3));
+            document = JsonDocument.parse(text);
+        } catch (IllegalArgumentException e) {
+            return done(Reply.error("Error: " + e.getMessage()));
+        }
+        if (path.isRoot() && document.rootKind() != JsonDocument.OBJECT && document.rootKind() != JsonDocument.ARRAY) {
+            return done(Reply.error("Error: a document must be a JSON object or array."));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        CompletableFuture<Reply> result = new CompletableFuture<>();
+        cb.submit(new Worker.JsonSet(args.string(2), path, text, document, result));
+        return result;
+    }
+
+    private static CompletableFuture<Reply> jsonGet(CommandArgs args, SessionContext session) {
+        if (args.count() != 3 && args.count() != 4) {
+            return done(Reply.error("Usage: JSON.GET <cachebase> <key> [<path>]"));
+        }
+        JsonPath path = JsonPath.ROOT;
+        if (args.count() == 4) {
+            try {
+                path = JsonPath.parse(args.string(3));
+            } catch (IllegalArgumentException e) {
+                return done(Reply.error("Error: " + e.getMessage()));
             }
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        CompletableFuture<Reply> result = new CompletableFuture<>();
+        Worker.JsonGet get = new Worker.JsonGet(args.string(2), path, result);
+        get.tracking = session.tracking();
+        cb.submit(get);
+        return result;
+    }
 
-            // case "SET" -> {
-            //     if (tokens.length < 3) {
-            //         toClient.println("Error: SET requires a key and a value.");
-            //     } else {
-            //         MemoryStore.put(tokens[1], tokens[2]);
-            //         try (BufferedWriter writer = new BufferedWriter(new FileWriter(aofFile, true))) {
-            //             writer.write("SET " + tokens[1] + " " + tokens[2]);
-            //             writer.newLine();
-            //         }
-            //         toClient.println("OK");
-            //     }
-            // }
-
-            // case "GET" -> {
-            //     if (tokens.length < 2) {
-            //         toClient.println("Error: GET requires a key.");
-            //     } else {
-            //         String value = MemoryStore.get(tokens[1]);
-            //         toClient.println(value != null ? value : "(nil)");
-            //     }
-            // }
-
-            case "SET" -> {
-                String cachebase, key, value;
-
-                // System.out.println("Tokens: " + Arrays.toString(tokens));
-
-
-                if (tokens.length == 4) {
-                    // Format: SET <cachebase> <key> <value>
-                    cachebase = tokens[1];
-                    key = tokens[2];
-                    value = tokens[3];
-                } else {
-                    toClient.println("Usage: SET <cachebase> <key> <value>");
-                    return;
-                }
+    private static CompletableFuture<Reply> find(CommandArgs args, SessionContext session) {
+        // Format: FIND <cachebase> <condition> [<condition> ...] [LIMIT <n>]
+        int end = args.count();
+        int limit = Integer.MAX_VALUE;
+        if (end >= 5 && args.equalsIgnoreCase(end - 2, "LIMIT")) {
+            try {
+                limit = Integer.parseInt(args.string(end - 1));
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 0) {
+                return done(Reply.error("Invalid limit: " + args.string(end - 1)));
+            }
+            end -= 2;
+        }
+        if (end < 3) {
+            return done(Reply.error("Usage: FIND <cachebase> <condition> [<condition> ...] [LIMIT <n>]"));
+        }
+        List<JsonPredicate> conditions = new ArrayList<>();
+        try {
+            for (int i = 2; i < end; i++) {
+                conditions.add(JsonPredicate.parse(args.string(i)));
+            }
+        } catch (IllegalArgumentException e) {
+            return done(Reply.error("Error: " + e.getMessage()));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        return cb.find(conditions, limit);
+    }
 
-                // Get the specified cachebase directly
-                Cachebase cb = CachebaseManager.getCachebase(cachebase);
-                if (cb == null) {
-                    toClient.println("Cachebase not found: " + cachebase);
-                } else {
-                    CompletableFuture<String> result = new CompletableFuture<>();
-                    cb.submit(new CacheCommand(CacheCommand.Type.SET, key, value, result));
-                    toClient.println(result.join());
+    private static CompletableFuture<Reply> scan(CommandArgs args, SessionContext session) {
+        // Format: SCAN <cachebase> <cursor> [MATCH <pattern>] [COUNT <n>]
+        if (args.count() < 3 || args.count() % 2 == 0) {
+            return done(Reply.error("Usage: SCAN <cachebase> <cursor> [MATCH <pattern>] [COUNT <n>]"));
+        }
+        long cursor;
+        try {
+            cursor = Long.parseUnsignedLong(args.string(2));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Invalid cursor: " + args.string(2)));
+        }
+        Pattern pattern = null;
+        int count = 10;
+        for (int i = 3; i < args.count(); i += 2) {
+            if (args.equalsIgnoreCase(i, "MATCH")) {
+                try {
+                    pattern = glob(args.string(i + 1));
+                } catch (IllegalArgumentException e) {
+                    return done(Reply.error("Invalid pattern: " + args.string(i + 1)));
                 }
+            } else if (args.equalsIgnoreCase(i, "COUNT")) {
+                try {
+                    count = Integer.parseInt(args.string(i + 1));
+                } catch (NumberFormatException e) {
+                    count = 0;
+                }
+                if (count < 1) {
+                    return done(Reply.error("Invalid count: " + args.string(i + 1)));
+                }
+            } else {
+                return done(Reply.error("Usage: SCAN <cachebase> <cursor> [MATCH <pattern>] [COUNT <n>]"));
             }
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        return cb.scan(cursor, count, pattern);
+    }
 
-            case "GET" -> {
-                if (tokens.length < 3) {
-                    toClient.println("Usage: GET <cachebase> <key>");
-                } else {
-                    String cachebase = tokens[1];
-                    String key = tokens[2];
-
-                    // Get the specified cachebase directly
-                    Cachebase cb = CachebaseManager.getCachebase(cachebase);
-                    if (cb == null) {
-                        toClient.println("Cachebase not found: " + cachebase);
-                    } else {
-                        CompletableFuture<String> result = new CompletableFuture<>();
-                        cb.submit(new CacheCommand(CacheCommand.Type.GET, key, null, result));
-                        toClient.println(result.join());
+    /**
+     * Compiles a glob as SCAN's MATCH takes it: {@code *}, {@code ?}, {@code [abc]},
+     * {@code [a-z]}, {@code [^a]} or {@code [!a]}, and {@code \} before a character to take it
+     * as it is.
+     *
+     * @throws IllegalArgumentException If a bracket is not closed or the glob ends with {@code \}.
+     */
+    private static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                case '\\' -> {
+                    if (++i == glob.length()) throw new IllegalArgumentException("trailing backslash");
+                    literal(regex, glob.charAt(i));
+                }
+                case '[' -> {
+                    int j = i + 1;
+                    regex.append('[');
+                    if (j < glob.length() && (glob.charAt(j) == '^' || glob.charAt(j) == '!')) {
+                        regex.append('^');
+                        j++;
+                    }
+                    int first = j;
+                    for (; j < glob.length() && (glob.charAt(j) != ']' || j == first); j++) {
+                        char d = glob.charAt(j);
+                        if (d == '\\' && j + 1 < glob.length()) {
+                            literal(regex, glob.charAt(++j));
+                        } else if (d == '-' && j > first && j + 1 < glob.length() && glob.charAt(j + 1) != ']') {
+                            regex.append('-');
+                        } else {
+                            literal(regex, d);
+                        }
                     }
+                    if (j == glob.length()) throw new IllegalArgumentException("unclosed bracket");
+                    regex.append(']');
+                    i = j;
                 }
+                default -> literal(regex, c);
             }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
 
+    private static void literal(StringBuilder regex, char c) {
+        if (!Character.isLetterOrDigit(c)) regex.append('\\');
+        regex.append(c);
+    }
 
-            case "DISPLAY" -> {
-                Map<String, String> allData = MemoryStore.getAll();
-                if (allData.isEmpty()) {
-                    toClient.println("(empty)");
-                } else {
-                    toClient.println("+----------------------+----------------------+");
-                    toClient.println("|        KEY           |        VALUE         |");
-                    toClient.println("+----------------------+----------------------+");
-                    for (Map.Entry<String, String> entry : allData.entrySet()) {
-                        toClient.printf("| %-20s | %-20s |%n", entry.getKey(), entry.getValue());
-                    }
-                    toClient.println("+----------------------+----------------------+");
-                }
-            }
+    private static CompletableFuture<Reply> rewriteLog(CommandArgs args, SessionContext session) {
+        if (args.count() != 2) {
+            return done(Reply.error("Usage: REWRITELOG <cachebase>"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        return cb.rewriteLog();
+    }
+
+    private static CompletableFuture<Reply> save(CommandArgs args, boolean background) {
+        if (args.count() != 2) {
+            return done(Reply.error("Usage: " + (background ? "BGSAVE" : "SAVE") + " <cachebase>"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        return cb.save(background);
+    }
+
+    private static CompletableFuture<Reply> maxMemory(CommandArgs args, SessionContext session) {
+        if (args.count() < 2 || args.count() > 4) {
+            return done(Reply.error("Usage: MAXMEMORY <cachebase> [<size> [lru|lfu|tinylfu]]"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        if (args.count() == 2) {
+            return done(Reply.status(cb.maxMemory() + " " + cb.evictionPolicy().displayName()));
+        }
 
-            case "FLUSH" -> {
-                MemoryStore.clear();
-                toClient.println("In-memory data cleared.");
+        long bytes;
+        try {
+            bytes = Cachebase.parseMemory(args.string(2));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Invalid size: " + args.string(2)));
+        }
+        EvictionPolicy.Kind policy = cb.evictionPolicy();
+        if (args.count() == 4) {
+            try {
+                policy = EvictionPolicy.Kind.parse(args.string(3));
+            } catch (IllegalArgumentException e) {
+                return done(Reply.error("Unknown policy: " + args.string(3)));
             }
+        }
+        try {
+            cb.setMaxMemory(bytes, policy);
+        } catch (IOException e) {
+            return done(Reply.error("Applied, but could not be saved: " + e.getMessage()));
+        }
+        return done(Reply.OK);
+    }
+
+    private static CompletableFuture<Reply> stats(CommandArgs args, SessionContext session) {
+        if (args.count() != 2) {
+            return done(Reply.error("Usage: STATS <cachebase>"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        return cb.stats();
+    }
+
+    /**
+     * Sets the lines, each ending in a newline, that the server adds to INFO's server section.
+     */
+    public static void setServerInfo(Supplier<String> info) {
+        serverInfo = info;
+    }
 
-            case "RECOVER" -> {
-                recoverFromAOF(toClient, aofFile);
-                toClient.println("Recovery complete.");
+    private static CompletableFuture<Reply> info(CommandArgs args, SessionContext session) {
+        if (args.count() > 2) {
+            return done(Reply.error("Usage: INFO [<cachebase>]"));
+        }
+        if (args.count() == 2) {
+            return stats(args, session);
+        }
+        List<String> names = CachebaseManager.names();
+        String server = "# Server\n"
+                + "uptime_seconds:" + ManagementFactory.getRuntimeMXBean().getUptime() / 1000 + "\n"
+                + serverInfo.get()
+                + "cachebases:" + names.size() + "\n\n"
+                + "# Replication\n"
+                + ReplicaLink.info() + "\n"
+                + "# Cluster\n"
+                + ClusterState.info() + "\n"
+                + "# Tracking\n"
+                + ClientTracking.info().stripTrailing();
+        List<CompletableFuture<Reply>> reports = new ArrayList<>();
+        for (String name : names) {
+            Cachebase cb = CachebaseManager.getCachebase(name);
+            if (cb != null) reports.add(cb.stats());
+        }
+        return CompletableFuture.allOf(reports.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            StringBuilder text = new StringBuilder(server);
+            for (CompletableFuture<Reply> report : reports) {
+                text.append("\n\n").append(new String(report.join().bulkValue(), StandardCharsets.UTF_8));
             }
+            return Reply.bulk(text.toString());
+        });
+    }
+
+    private static CompletableFuture<Reply> reshard(CommandArgs args, SessionContext session) {
+        if (args.count() != 3) {
+            return done(Reply.error("Usage: RESHARD <cachebase> <workers>"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        int workers;
+        try {
+            workers = Integer.parseInt(args.string(2));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Invalid worker count: " + args.string(2)));
+        }
+        String status = cb.reshard(workers);
+        return done(status.startsWith("Error:") ? Reply.error(status) : Reply.status(status));
+    }
+
+    private static CompletableFuture<Reply> replicaOf(CommandArgs args, SessionContext session) {
+        if (args.count() != 3) {
+            return done(Reply.error("Usage: REPLICAOF <host> <port> | REPLICAOF NO ONE"));
+        }
+        if (args.equalsIgnoreCase(1, "NO") && args.equalsIgnoreCase(2, "ONE")) {
+            return done(Reply.status(ReplicaLink.stopFollowing()));
+        }
+        int port;
+        try {
+            port = Integer.parseInt(args.string(2));
+        } catch (NumberFormatException e) {
+            port = 0;
+        }
+        if (port < 1 || port > 65535) {
+            return done(Reply.error("Invalid port: " + args.string(2)));
+        }
+        return done(Reply.status(ReplicaLink.follow(args.string(1), port)));
+    }
 
-            case "FLUSHFULL" -> {
-                MemoryStore.clear();
-                try (FileWriter writer = new FileWriter(aofFile, false)) {
-                    writer.write(""); // Clear AOF
-                    writer.flush();
+    private static CompletableFuture<Reply> replSync(CommandArgs args, SessionContext session) {
+        // Format: REPLSYNC <follower>; replies [replication id, feed offset, cachebase and index records]
+        if (args.count() != 2) {
+            return done(Reply.error("Usage: REPLSYNC <follower>"));
+        }
+        long offset = ReplicationFeed.beginSync(args.string(1));
+        ReplicationFeed.Records catalog = new ReplicationFeed.Records(null);
+        for (String name : CachebaseManager.names()) {
+            Cachebase cb = CachebaseManager.getCachebase(name);
+            if (cb == null) continue;
+            catalog.append("CREATECB", name, Integer.toString(cb.workerCount()));
+            cb.indexes().forEach((field, kind) -> catalog.append("INDEX", name, field.toString(), kind.displayName()));
+        }
+        return done(Reply.array(List.of(Reply.bulk(ReplicationFeed.replicationId()), Reply.integer(offset),
+                Reply.bulk(catalog.toByteArray()))));
+    }
+
+    private static CompletableFuture<Reply> replDump(CommandArgs args, SessionContext session) {
+        // Format: REPLDUMP <cachebase> <worker> <cursor>; replies [worker count, next cursor, records]
+        if (args.count() != 4) {
+            return done(Reply.error("Usage: REPLDUMP <cachebase> <worker> <cursor>"));
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(1)));
+        }
+        int worker;
+        try {
+            worker = Integer.parseInt(args.string(2));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Invalid worker: " + args.string(2)));
+        }
+        try {
+            return cb.dump(worker, Integer.parseUnsignedInt(args.string(3)));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Invalid cursor: " + args.string(3)));
+        }
+    }
+
+    private static CompletableFuture<Reply> replFeed(CommandArgs args, SessionContext session) {
+        // Format: REPLFEED <follower> <replication id> <offset> <wait ms>
+        if (args.count() != 5) {
+            return done(Reply.error("Usage: REPLFEED <follower> <replication-id> <offset> <wait-ms>"));
+        }
+        try {
+            return ReplicationFeed.poll(args.string(1), args.string(2), args.longValue(3), args.longValue(4));
+        } catch (NumberFormatException e) {
+            return done(Reply.error("Error: offset and wait must be integers."));
+        }
+    }
+
+    private static CompletableFuture<Reply> client(CommandArgs args, SessionContext session) {
+        // Format: CLIENT TRACKING ON|OFF
+        if (args.count() != 3 || !args.equalsIgnoreCase(1, "TRACKING")
+                || !(args.equalsIgnoreCase(2, "ON") || args.equalsIgnoreCase(2, "OFF"))) {
+            return done(Reply.error("Usage: CLIENT TRACKING ON|OFF"));
+        }
+        boolean on = args.equalsIgnoreCase(2, "ON");
+        if (on && args.isInline()) {
+            // Invalidations are RESP pushes; they would break up text replies
+            return done(Reply.error("Error: CLIENT TRACKING needs RESP requests."));
+        }
+        if (!session.setTracking(on)) {
+            return done(Reply.error("Error: this connection cannot receive invalidations."));
+        }
+        return done(Reply.OK);
+    }
+
+    private static CompletableFuture<Reply> cluster(CommandArgs args, SessionContext session) {
+        String usage = "Usage: CLUSTER INFO | SLOTS | KEYSLOT <key> | MIGRATE <slot|first-last> <host:port>"
+                + " | SETSLOT <slot|first-last> NODE|IMPORTING <host:port> | SETSLOT <slot|first-last> STABLE";
+        if (args.count() < 2) {
+            return done(Reply.error(usage));
+        }
+        String subcommand = args.string(1).toUpperCase(Locale.ROOT);
+        if (subcommand.equals("INFO") && args.count() == 2) {
+            return done(Reply.bulk(ClusterState.info()));
+        }
+        if (subcommand.equals("SLOTS") && args.count() == 2) {
+            return done(ClusterState.slots());
+        }
+        if (subcommand.equals("KEYSLOT") && args.count() == 3) {
+            return done(Reply.integer(SlotTable.slotOf(args.string(2))));
+        }
+        if (subcommand.equals("IMPORT") && args.count() >= 3 && (args.count() - 3) % 3 == 0) {
+            // Format: CLUSTER IMPORT <cachebase> [<key> <value> <expire-at-ms> ...], sent by a migrating node
+            List<String> keys = new ArrayList<>();
+            List<byte[]> values = new ArrayList<>();
+            long[] expireAt = new long[(args.count() - 3) / 3];
+            try {
+                for (int i = 3, n = 0; i < args.count(); i += 3, n++) {
+                    keys.add(args.string(i));
+                    values.add(args.bytes(i + 1));
+                    expireAt[n] = args.longValue(i + 2);
                 }
-                toClient.println("In-memory store and AOF file cleared.");
+            } catch (NumberFormatException e) {
+                return done(Reply.error("Error: expire times must be integers."));
             }
+            return ClusterState.importEntries(args.string(2), keys, values, expireAt);
+        }
+        int[] range;
+        try {
+            range = args.count() >= 3 ? ClusterState.parseRange(args.string(2)) : null;
+        } catch (IllegalArgumentException e) {
+            return done(Reply.error("Error: " + e.getMessage()));
+        }
+        if (subcommand.equals("MIGRATE") && args.count() == 4) {
+            return done(ClusterState.migrate(range[0], range[1], args.string(3)));
+        }
+        if (subcommand.equals("SETSLOT") && (args.count() == 5 || (args.count() == 4 && args.equalsIgnoreCase(3, "STABLE")))) {
+            return done(ClusterState.setSlot(range[0], range[1], args.string(3).toUpperCase(Locale.ROOT),
+                    args.count() == 5 ? args.string(4) : null));
+        }
+        return done(Reply.error(usage));
+    }
 
-            // case "CREATE" -> {
-            //     if (tokens.length != 3 && !tokens[1].equalsIgnoreCase("CACHEBASE")) {
-            //         toClient.println("Usage: CREATE CACHEBASE <databaseName>");
-            //     } else {
-            //         toClient.println(createDatabase(clientName, tokens[2]));
-            //     }
-            // }
-
-            case "LISTDB" -> {
-                if (tokens.length != 1) {
-                    toClient.println("Usage: LISTDB");
-                } else {
-                    toClient.println(CachebaseManager.getCachebase(clientName));
-                }
+    /**
+     * Hands a key command to the worker that owns the key in the named cachebase.
+     */
+    private static CompletableFuture<Reply> submit(String cachebase, CacheCommand.Type type, String key, byte[] value, long expireAt) {
+        return submit(cachebase, type, key, value, expireAt, null);
+    }
+
+    private static CompletableFuture<Reply> submit(String cachebase, CacheCommand.Type type, String key, byte[] value,
+                                                   long expireAt, ClientTracking tracking) {
+        // Get the specified cachebase directly
+        Cachebase cb = CachebaseManager.getCachebase(cachebase);
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + cachebase));
+        }
+
+        CompletableFuture<Reply> result = new CompletableFuture<>();
+        CacheCommand cmd = new CacheCommand(type, key, value, expireAt, result);
+        cmd.tracking = tracking;
+        cb.submit(cmd);
+        return result;
+    }
+
+    private static CompletableFuture<Reply> display(CommandArgs args, SessionContext session) {
+        Map<String, String> allData = MemoryStore.getAll();
+        if (allData.isEmpty()) {
+            return done(Reply.status("(empty)"));
+        }
+
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("+----------------------+----------------------+");
+        out.println("|        KEY           |        VALUE         |");
+        out.println("+----------------------+----------------------+");
+        for (Map.Entry<String, String> entry : allData.entrySet()) {
+            out.printf("| %-20s | %-20s |%n", entry.getKey(), entry.getValue());
+        }
+        out.print("+----------------------+----------------------+");
+        out.flush();
+        return done(Reply.bulk(text.toString()));
+    }
+
+    private static CompletableFuture<Reply> flush(CommandArgs args, SessionContext session) {
+        MemoryStore.clear();
+        return done(Reply.status("In-memory data cleared."));
+    }
+
+    private static CompletableFuture<Reply> recover(CommandArgs args, SessionContext session) throws IOException {
+        if (session.getAofFile() == null) {
+            return done(Reply.error("Error: This session has no client AOF file."));
+        }
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        recoverFromAOF(out, session.getAofFile());
+        out.print("Recovery complete.");
+        out.flush();
+        return done(Reply.bulk(text.toString()));
+    }
+
+    private static CompletableFuture<Reply> flushFull(CommandArgs args, SessionContext session) throws IOException {
+        if (session.getAofFile() == null) {
+            return done(Reply.error("Error: This session has no client AOF file."));
+        }
+        MemoryStore.clear();
+        try (FileWriter writer = new FileWriter(session.getAofFile(), false)) {
+            writer.write(""); // Clear AOF
+            writer.flush();
+        }
+        return done(Reply.status("In-memory store and AOF file cleared."));
+    }
+
+    private static CompletableFuture<Reply> listDb(CommandArgs args, SessionContext session) {
+        if (args.count() != 1) {
+            return done(Reply.error("Usage: LISTDB"));
+        }
+        String clientName = session.getClientName();
+        return done(Reply.status(String.valueOf(clientName == null ? null : CachebaseManager.getCachebase(clientName))));
+    }
+
+    private static CompletableFuture<Reply> use(CommandArgs args, SessionContext session) {
+        if (args.count() != 2) {
+            return done(Reply.error("Usage: USE <CachebaseName>"));
+        }
+        return done(Reply.status(""));
+    }
+
+    private static CompletableFuture<Reply> create(CommandArgs args, SessionContext session) {
+        if (args.count() >= 2 && args.equalsIgnoreCase(1, "INDEX")) {
+            return createIndex(args);
+        }
+        boolean withWorkers = args.count() == 5 && args.equalsIgnoreCase(3, "WORKERS");
+        if ((args.count() != 3 && !withWorkers) || !args.equalsIgnoreCase(1, "CACHEBASE")) {
+            return done(Reply.error("Usage: CREATE CACHEBASE <name> [WORKERS <n>]"));
+        }
+        int workers = Cachebase.DEFAULT_WORKERS;
+        if (withWorkers) {
+            try {
+                workers = Integer.parseInt(args.string(4));
+            } catch (NumberFormatException e) {
+                workers = 0;
+            }
+            if (workers < 1 || workers > SlotTable.MAX_WORKERS) {
+                return done(Reply.error("Invalid worker count: " + args.string(4)));
             }
+        }
+        if (!CachebaseManager.isValidName(args.string(2))) {
+            return done(Reply.error("Invalid cachebase name: " + args.string(2)));
+        }
+        return done(Reply.status(CachebaseManager.createCachebase(args.string(2), workers)));
+    }
 
-            case "USE" -> {
-                if(tokens.length != 2) {
-                    toClient.println("Usage: USE <CachebaseName>");
-                } else {
-                    toClient.println();
-                }
+    private static CompletableFuture<Reply> createIndex(CommandArgs args) {
+        // Format: CREATE INDEX <cachebase> <field> [HASH|SORTED]
+        if (args.count() != 4 && args.count() != 5) {
+            return done(Reply.error("Usage: CREATE INDEX <cachebase> <field> [HASH|SORTED]"));
+        }
+        JsonPath field;
+        try {
+            field = JsonPath.parse(args.string(3));
+        } catch (IllegalArgumentException e) {
+            return done(Reply.error("Error: " + e.getMessage()));
+        }
+        if (field.isRoot()) {
+            return done(Reply.error("Error: an index needs a field, not the whole document."));
+        }
+        SecondaryIndex.Kind kind = SecondaryIndex.Kind.HASH;
+        if (args.count() == 5) {
+            try {
+                kind = SecondaryIndex.Kind.parse(args.string(4));
+            } catch (IllegalArgumentException e) {
+                return done(Reply.error("Unknown index type: " + args.string(4)));
             }
+        }
+        Cachebase cb = CachebaseManager.getCachebase(args.string(2));
+        if (cb == null) {
+            return done(Reply.error("Cachebase not found: " + args.string(2)));
+        }
+        return cb.createIndex(field, kind);
+    }
 
-            case "CREATE" -> {
-                if (tokens.length != 3 || !tokens[1].equalsIgnoreCase("CACHEBASE")) {
-                    toClient.println("Usage: CREATE CACHEBASE <name>");
-                } else {
-                    toClient.println(CachebaseManager.createCachebase(tokens[2]));
-                }
+    private static CompletableFuture<Reply> remove(CommandArgs args, SessionContext session) {
+        if (args.count() == 4 && args.equalsIgnoreCase(1, "INDEX")) {
+            Cachebase cb = CachebaseManager.getCachebase(args.string(2));
+            if (cb == null) {
+                return done(Reply.error("Cachebase not found: " + args.string(2)));
             }
-            
-            case "REMOVE" -> {
-                if (tokens.length != 3 || !tokens[1].equalsIgnoreCase("CACHEBASE")) {
-                    toClient.println("Usage: REMOVE CACHEBASE <name>");
-                } else {
-                    toClient.println(CachebaseManager.removeCachebase(tokens[2]));
-                }
+            try {
+                return cb.dropIndex(JsonPath.parse(args.string(3)));
+            } catch (IllegalArgumentException e) {
+                return done(Reply.error("Error: " + e.getMessage()));
             }
-            
-
-            default -> toClient.println("Unknown command: " + command);
         }
+        if (args.count() != 3 || !args.equalsIgnoreCase(1, "CACHEBASE")) {
+            return done(Reply.error("Usage: REMOVE CACHEBASE <name> | REMOVE INDEX <cachebase> <field>"));
+        }
+        return done(Reply.status(CachebaseManager.removeCachebase(args.string(2))));
     }
 }
@@ -0,0 +1,108 @@
+package org.example.core;
+
+import org.example.protocol.CommandArgs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Case-insensitive command lookup that works directly on the request bytes.
+ * <p>
+ * Names are stored upper-cased in a small open-addressing table. A lookup hashes the
+ * argument bytes in place and compares them byte by byte, so dispatching a request
+ * never builds a {@code String} for the command name.
+ * </p>
+ */
+public final class CommandTable {
+
+    private static final class Entry {
+        final byte[] name;
+        final int hash;
+        final Command command;
+
+        Entry(byte[] name, int hash, Command command) {
+            this.name = name;
+            this.hash = hash;
+            this.command = command;
+        }
+    }
+
+    private Entry[] slots = new Entry[64];
+    private int size;
+
+    /**
+     * Adds a command. Not thread-safe; the table is filled once during class initialisation.
+     */
+    public void register(String name, Command command) {
+        byte[] upper = name.toUpperCase().getBytes(StandardCharsets.US_ASCII);
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        insert(new Entry(upper, hash(upper, 0, upper.length), command));
+        size++;
+    }
+
+    /**
+     * Finds the command named by argument 0.
+     *
+     * @return The command, or {@code null} if there is none by that name.
+     */
+    public Command lookup(CommandArgs args) {
+        return lookup(args.buffer(), args.start(0), args.length(0));
+    }
+
+    public Command lookup(byte[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; slots[i] != null; i = (i + 1) & mask) {
+            Entry entry = slots[i];
+            if (entry.hash == hash && matches(entry.name, buffer, offset, length)) {
+                return entry.command;
+            }
+        }
+        return null;
+    }
+
+    private void insert(Entry entry) {
+        int mask = slots.length - 1;
+        int i = entry.hash & mask;
+        while (slots[i] != null) {
+            if (slots[i].hash == entry.hash && matches(slots[i].name, entry.name, 0, entry.name.length)) {
+                slots[i] = entry; // re-registering replaces
+                size--;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = entry;
+    }
+
+    private void resize() {
+        Entry[] old = slots;
+        slots = new Entry[old.length * 2];
+        for (Entry entry : old) {
+            if (entry != null) insert(entry);
+        }
+    }
+
+    private static boolean matches(byte[] name, byte[] buffer, int offset, int length) {
+        if (name.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name[i] != upper(buffer[offset + i])) return false;
+        }
+        return true;
+    }
+
+    // FNV-1a over the upper-cased bytes
+    private static int hash(byte[] buffer, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= upper(buffer[i]);
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static byte upper(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.core;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p><strong>Counter.java</strong></p>
+ *
+ * The number a value holds once {@code INCR}, {@code INCRBY}, {@code DECR} or
+ * {@code INCRBYFLOAT} has changed it. The worker keeps it next to the stored text, as it
+ * does a document's parsed tree, so later increments add to a {@code long} or
+ * {@code double} instead of parsing the text again. The text is still what GET, the log,
+ * snapshots and followers see; each increment writes it out anew, straight from the number.
+ *
+ * <p>A value is an integer if its text is one that fits a {@code long}, as Redis has it:
+ * an optional minus sign and digits, without a leading zero or plus sign. Otherwise it is
+ * a float if its text is a finite decimal number. A float result that is a whole number
+ * within the {@code long} range becomes an integer again, because that is how its text
+ * reads.</p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe; only its worker touches it.</p>
+ */
+final class Counter {
+
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private boolean integral;
+    private long integer;
+    private double real;
+
+    private Counter(long integer) {
+        this.integral = true;
+        this.integer = integer;
+    }
+
+    private Counter(double real) {
+        this.real = real;
+    }
+
+    /** The counter of a missing key. */
+    static Counter zero() {
+        return new Counter(0L);
+    }
+
+    /** The number a stored value holds, or {@code null} if it is not one. */
+    static Counter parse(byte[] value) {
+        if (value.length == 0 || value.length > 512) return null;
+        Counter counter = parseInteger(value);
+        return counter != null ? counter : parseFloat(value);
+    }
+
+    private static Counter parseInteger(byte[] value) {
+        boolean negative = value[0] == '-';
+        int i = negative ? 1 : 0;
+        if (i == value.length || (value[i] == '0' && value.length > i + 1)) return null;
+        if (negative && value[i] == '0') return null;
+        long n = 0;
+        for (; i < value.length; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9) return null;
+            // Accumulated negatively, so Long.MIN_VALUE fits too
+            if (n < (Long.MIN_VALUE + digit) / 10) return null;
+            n = n * 10 - digit;
+        }
+        if (!negative) {
+            if (n == Long.MIN_VALUE) return null;
+            n = -n;
+        }
+        return new Counter(n);
+    }
+
+    private static Counter parseFloat(byte[] value) {
+        // Only a plain decimal number: Double.parseDouble would also take "NaN", "0x1p3" or "1d"
+        for (byte b : value) {
+            if ((b < '0' || b > '9') && b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E') return null;
+        }
+        double real;
+        try {
+            real = Double.parseDouble(new String(value, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return Double.isFinite(real) ? new Counter(real) : null;
+    }
+
+    boolean isInteger() {
+        return integral;
+    }
+
+    /**
+     * Adds to an integer counter.
+     *
+     * @throws ArithmeticException If the result does not fit a {@code long}; the counter is unchanged.
+     */
+    long add(long delta) {
+        integer = Math.addExact(integer, delta);
+        return integer;
+    }
+
+    /**
+     * Adds to the counter as a float.
+     *
+     * @throws ArithmeticException If the result is not finite; the counter is unchanged.
+     */
+    void add(double delta) {
+        double result = (integral ? integer : real) + delta;
+        if (!Double.isFinite(result)) throw new ArithmeticException("increment would produce NaN or Infinity");
+        integral = result == Math.rint(result) && Math.abs(result) < 0x1p63;
+        if (integral) {
+            integer = (long) result;
+        } else {
+            real = result;
+        }
+    }
+
+    /** The text of the value. */
+    byte[] encode() {
+        if (!integral) {
+            // The shortest decimal that reads back as the same double, without an exponent
+            return BigDecimal.valueOf(real).stripTrailingZeros().toPlainString().getBytes(StandardCharsets.US_ASCII);
+        }
+        if (integer == Long.MIN_VALUE) return LONG_MIN.clone();
+        long n = Math.abs(integer);
+        int digits = 1;
+        for (long rest = n / 10; rest != 0; rest /= 10) digits++;
+        int length = integer < 0 ? digits + 1 : digits;
+        byte[] text = new byte[length];
+        for (int i = length - 1; i >= length - digits; i--) {
+            text[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        if (integer < 0) text[0] = '-';
+        return text;
+    }
+}
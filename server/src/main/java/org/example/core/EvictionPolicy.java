@@ -0,0 +1,78 @@
+package org.example.core;
+
+import java.util.Locale;
+
+/**
+ * <p><strong>EvictionPolicy.java</strong></p>
+ *
+ * Chooses which key a {@link Worker} drops when its partition is over its memory budget.
+ * <p>
+ * Every worker owns its own policy and calls it only from the worker thread, so the
+ * bookkeeping is plain field updates with no locks or atomics on the command path.
+ * A worker without a budget has no policy at all and pays nothing.
+ * </p>
+ *
+ * <p><strong>Policies:</strong></p>
+ * <ul>
+ *     <li><strong>lru</strong>: approximate LRU. Each eviction samples a few keys and drops
+ *         the least recently used of them, as Redis does, instead of keeping a linked list
+ *         in exact recency order.</li>
+ *     <li><strong>lfu</strong>: approximate LFU with the same sampling. Each key has an 8-bit
+ *         logarithmic access counter that decays while the key is idle.</li>
+ *     <li><strong>tinylfu</strong>: W-TinyLFU. New keys enter a small LRU window (1% of the
+ *         budget); a key leaving the window is only admitted to the main segmented LRU if a
+ *         count-min sketch says it is used more often than the key it would replace.</li>
+ * </ul>
+ */
+public interface EvictionPolicy {
+
+    /** Available policies, named as in {@code --maxmemory-policy} and {@code MAXMEMORY}. */
+    enum Kind {
+        LRU, LFU, TINYLFU;
+
+        /**
+         * @throws IllegalArgumentException If {@code name} is not a policy.
+         */
+        public static Kind parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+
+        public String displayName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Creates an empty policy for a partition allowed {@code maxBytes}.
+     */
+    static EvictionPolicy create(Kind kind, long maxBytes) {
+        return switch (kind) {
+            case LRU -> new SampledPolicy(false);
+            case LFU -> new SampledPolicy(true);
+            case TINYLFU -> new TinyLfuPolicy(maxBytes);
+        };
+    }
+
+    /** A key was added; {@code size} is its estimated footprint in bytes. */
+    void onInsert(String key, long size);
+
+    /** An existing key was overwritten; counts as a use. */
+    void onUpdate(String key, long size);
+
+    /** A read found the key. */
+    void onAccess(String key);
+
+    /** A read did not find the key; policies that learn from misses override this. */
+    default void onMiss(String key) {
+    }
+
+    /** The key was removed (deleted, expired or evicted). */
+    void onRemove(String key);
+
+    /**
+     * Picks the next key to evict. The caller removes it and calls {@link #onRemove}.
+     *
+     * @return The key, or {@code null} if the policy tracks no keys.
+     */
+    String victim();
+}
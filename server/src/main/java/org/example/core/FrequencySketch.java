@@ -0,0 +1,94 @@
+package org.example.core;
+
+/**
+ * <p><strong>FrequencySketch.java</strong></p>
+ *
+ * Count-min sketch of recent key popularity for {@link TinyLfuPolicy}.
+ * <p>
+ * Counters are 4 bits wide, sixteen to a {@code long}; a key updates one counter in each of
+ * four rows and its estimate is the smallest of the four. Once the number of increments
+ * reaches ten times the table size, every counter is halved, so old popularity fades and
+ * the sketch follows a changing workload. Memory is 8 bytes per tracked key.
+ * </p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe; owned by one worker.</p>
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table = new long[0];
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    /**
+     * Sizes the table for about {@code keys} keys. Growing it starts counting afresh.
+     */
+    void ensureCapacity(int keys) {
+        int wanted = Integer.highestOneBit(Math.max(8, Math.min(keys, 1 << 26)) - 1) << 1;
+        if (table.length >= wanted) return;
+        table = new long[wanted];
+        tableMask = wanted - 1;
+        sampleSize = 10 * wanted;
+        additions = 0;
+    }
+
+    /** Estimated number of recent uses of {@code key}, at most 15. */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = 15;
+        for (int row = 0; row < 4; row++) {
+            long word = table[indexOf(hash, row)];
+            frequency = Math.min(frequency, (int) ((word >>> ((start + row) << 2)) & 0xF));
+        }
+        return frequency;
+    }
+
+    /** Records one use of {@code key}. */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            added |= incrementAt(indexOf(hash, row), start + row);
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) == mask) return false; // Saturated
+        table[index] += 1L << offset;
+        return true;
+    }
+
+    /** Halves every counter: the aging step that lets the sketch forget. */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = (additions - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.core;
+
+/**
+ * <p><strong>HandleTable.java</strong></p>
+ *
+ * The index of {@link OffHeapValueStore}: byte-array keys to {@link SlabAllocator} chunk
+ * handles, laid out as flat arrays (see {@link ByteKeyTable}). An entry costs its key
+ * array plus 16 bytes of slots, with no boxed handles.
+ */
+final class HandleTable extends ByteKeyTable {
+
+    private long[] handles;
+
+    HandleTable() {
+    }
+
+    private HandleTable(HandleTable other) {
+        super(other);
+        this.handles = other.handles.clone();
+    }
+
+    /** The handle stored under {@code key}, or {@link SlabAllocator#NO_CHUNK}. */
+    long get(byte[] key) {
+        int slot = indexOf(key, hash(key));
+        return slot >= 0 ? handles[slot] : SlabAllocator.NO_CHUNK;
+    }
+
+    boolean containsKey(byte[] key) {
+        return indexOf(key, hash(key)) >= 0;
+    }
+
+    /** Stores a handle; returns the one it replaced, or {@link SlabAllocator#NO_CHUNK}. */
+    long put(byte[] key, long handle) {
+        int slot = insert(key, hash(key));
+        if (slot < 0) {
+            handles[~slot] = handle;
+            return SlabAllocator.NO_CHUNK;
+        }
+        long previous = handles[slot];
+        handles[slot] = handle;
+        return previous;
+    }
+
+    /** Removes a key; returns its handle, or {@link SlabAllocator#NO_CHUNK}. */
+    long remove(byte[] key) {
+        int slot = indexOf(key, hash(key));
+        if (slot < 0) return SlabAllocator.NO_CHUNK;
+        long previous = handles[slot];
+        removeAt(slot);
+        return previous;
+    }
+
+    long handleAt(int slot) {
+        return handles[slot];
+    }
+
+    /** Receives one entry of {@link #forEach}. */
+    interface EntryConsumer {
+        void accept(byte[] key, long handle);
+    }
+
+    void forEach(EntryConsumer action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) action.accept(keys[slot], handles[slot]);
+        }
+    }
+
+    /** An independent table with the same entries, sharing the key arrays. */
+    HandleTable copy() {
+        return new HandleTable(this);
+    }
+
+    @Override
+    Object values() {
+        return handles;
+    }
+
+    @Override
+    void newValues(int capacity) {
+        handles = new long[capacity];
+    }
+
+    @Override
+    void copyValue(Object oldValues, int from, int to) {
+        handles[to] = ((long[]) oldValues)[from];
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        handles[to] = handles[from];
+    }
+
+    @Override
+    void clearValue(int slot) {
+        handles[slot] = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * <p><strong>HeapValueStore.java</strong></p>
+ *
+ * The default {@link ValueStore}: a {@link ByteTable} from UTF-8 key to value array.
+ * Stored arrays are never modified, so a copy of the table can share them with the live store.
+ */
+final class HeapValueStore implements ValueStore {
+
+    private final ByteTable table = new ByteTable();
+
+    private static byte[] encode(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return table.get(encode(key));
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return table.get(encode(key)) != null;
+    }
+
+    @Override
+    public int put(String key, byte[] value) {
+        byte[] previous = table.put(encode(key), value);
+        return previous != null ? previous.length : -1;
+    }
+
+    @Override
+    public int remove(String key) {
+        byte[] previous = table.remove(encode(key));
+        return previous != null ? previous.length : -1;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public void forEachLength(ObjIntConsumer<String> action) {
+        table.forEach((key, value) -> action.accept(new String(key, StandardCharsets.UTF_8), value.length));
+    }
+
+    @Override
+    public int scan(int cursor, int count, Consumer<String> action) {
+        return table.scan(cursor, count, key -> action.accept(new String(key, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public Map<String, byte[]> view() {
+        return view(table);
+    }
+
+    @Override
+    public Map<String, byte[]> copy() {
+        return view(table.copy());
+    }
+
+    private static Map<String, byte[]> view(ByteTable table) {
+        return new TableView(table) {
+            @Override
+            byte[] valueAt(int slot) {
+                return table.valueAt(slot);
+            }
+        };
+    }
+
+    @Override
+    public void releaseCopy() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
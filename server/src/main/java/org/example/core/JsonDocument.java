@@ -0,0 +1,499 @@
+package org.example.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p><strong>JsonDocument.java</strong></p>
+ *
+ * A JSON value parsed once, when it is written, into a compact tree over its text.
+ * <p>
+ * The tree is a flat {@code int} array with three entries per node: where the node's text
+ * starts and ends, and its kind packed with the index of the node after its subtree.
+ * Children follow their parent directly (an object's as key, value, key, value...), so
+ * looking up a path walks the array and skips whole subtrees in one step; nothing is
+ * decoded except the member names compared on the way and the value found. The tree does
+ * not keep the text: the worker's store has it, exactly as it was written, and every
+ * lookup is handed that same text.
+ * </p>
+ *
+ * <p>Immutable.</p>
+ */
+final class JsonDocument {
+
+    static final int OBJECT = 0;
+    static final int ARRAY = 1;
+    static final int STRING = 2;
+    static final int NUMBER = 3;
+    static final int TRUE = 4;
+    static final int FALSE = 5;
+    static final int NULL = 6;
+
+    // Deeper nesting is rejected rather than risking the parser's stack
+    private static final int MAX_DEPTH = 256;
+    private static final int KIND_BITS = 3;
+
+    private final int[] tape;
+
+    private JsonDocument(int[] tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * Parses any JSON value.
+     *
+     * @throws IllegalArgumentException If {@code text} is not valid JSON.
+     */
+    static JsonDocument parse(byte[] text) {
+        Parser parser = new Parser(text);
+        parser.skipWhitespace();
+        parser.value(0);
+        parser.skipWhitespace();
+        if (parser.pos != text.length) throw parser.error("unexpected data after the value");
+        return new JsonDocument(Arrays.copyOf(parser.tape, parser.nodes * 3));
+    }
+
+    /**
+     * Parses a stored value if it is a JSON object or array, which is what counts as a
+     * document. Anything else, including malformed JSON, is an ordinary value: null.
+     */
+    static JsonDocument tryParse(byte[] value) {
+        int i = 0;
+        while (i < value.length && isWhitespace(value[i])) i++;
+        if (i == value.length || (value[i] != '{' && value[i] != '[')) return null;
+        try {
+            return parse(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    int rootKind() {
+        return kind(0);
+    }
+
+    /** Estimated heap taken by the tree, on top of the text. */
+    int treeBytes() {
+        return 32 + tape.length * 4;
+    }
+
+    private int kind(int node) {
+        return tape[node * 3 + 2] & ((1 << KIND_BITS) - 1);
+    }
+
+    private int start(int node) {
+        return tape[node * 3];
+    }
+
+    private int end(int node) {
+        return tape[node * 3 + 1];
+    }
+
+    /** The node after this node's subtree: its next sibling, if it has one. */
+    private int next(int node) {
+        return tape[node * 3 + 2] >>> KIND_BITS;
+    }
+
+    /** The node at {@code path}, or -1 if there is none. */
+    private int find(byte[] text, JsonPath path) {
+        int node = 0;
+        for (int s = 0; s < path.size() && node >= 0; s++) {
+            node = path.isName(s) ? member(text, node, path.nameBytes(s)) : element(node, path.index(s));
+        }
+        return node;
+    }
+
+    private int member(byte[] text, int object, byte[] name) {
+        if (kind(object) != OBJECT) return -1;
+        for (int key = object + 1; key < next(object); key = next(key + 1)) {
+            if (keyEquals(text, key, name)) return key + 1;
+        }
+        return -1;
+    }
+
+    private int element(int array, int index) {
+        if (kind(array) != ARRAY) return -1;
+        int child = array + 1;
+        for (int i = 0; i < index && child < next(array); i++) {
+            child = next(child);
+        }
+        return child < next(array) ? child : -1;
+    }
+
+    private int childCount(int node) {
+        int count = 0;
+        for (int child = node + 1; child < next(node); child = next(child)) {
+            count++;
+        }
+        return kind(node) == OBJECT ? count / 2 : count;
+    }
+
+    private boolean keyEquals(byte[] text, int key, byte[] name) {
+        int from = start(key) + 1;
+        int to = end(key) - 1;
+        for (int i = from; i < to; i++) {
+            if (text[i] == '\\') return decodeString(text, key).equals(new String(name, StandardCharsets.UTF_8));
+        }
+        return Arrays.equals(text, from, to, name, 0, name.length);
+    }
+
+    /** The text of the value at {@code path} in the document's {@code text}, or null if there is none. */
+    byte[] get(byte[] text, JsonPath path) {
+        int node = find(text, path);
+        return node < 0 ? null : Arrays.copyOfRange(text, start(node), end(node));
+    }
+
+    /** The scalar at {@code path}, for indexing and matching; null if missing or an object or array. */
+    Scalar scalarAt(byte[] text, JsonPath path) {
+        int node = find(text, path);
+        if (node < 0) return null;
+        return switch (kind(node)) {
+            case STRING -> Scalar.string(decodeString(text, node));
+            case NUMBER -> Scalar.number(Double.parseDouble(
+                    new String(text, start(node), end(node) - start(node), StandardCharsets.ISO_8859_1)));
+            case TRUE -> Scalar.TRUE;
+            case FALSE -> Scalar.FALSE;
+            case NULL -> Scalar.NULL;
+            default -> null;
+        };
+    }
+
+    /**
+     * The document's {@code text} with the value at {@code path} replaced by {@code value},
+     * which must be valid JSON. A missing last member of an existing object is added, and
+     * an index one past the end of an existing array appends.
+     *
+     * @throws IllegalArgumentException If the path cannot be set.
+     */
+    byte[] with(byte[] text, JsonPath path, byte[] value) {
+        if (path.isRoot()) return value;
+        int node = find(text, path);
+        if (node >= 0) return splice(text, start(node), end(node), value, null);
+
+        int parent = find(text, path.parent());
+        int last = path.size() - 1;
+        if (parent < 0) throw new IllegalArgumentException("path " + path.parent() + " does not exist");
+        boolean empty = next(parent) == parent + 1;
+        if (path.isName(last) && kind(parent) == OBJECT) {
+            byte[] member = (quote(path.name(last)) + ":").getBytes(StandardCharsets.UTF_8);
+            return splice(text, end(parent) - 1, end(parent) - 1, value, empty ? member : concat(new byte[]{','}, member));
+        }
+        if (!path.isName(last) && kind(parent) == ARRAY && path.index(last) == childCount(parent)) {
+            return splice(text, end(parent) - 1, end(parent) - 1, value, empty ? new byte[0] : new byte[]{','});
+        }
+        throw new IllegalArgumentException("path " + path + " does not exist");
+    }
+
+    /** {@code text} with {@code [from, to)} replaced by {@code prefix} (if any) and {@code value}. */
+    private static byte[] splice(byte[] text, int from, int to, byte[] value, byte[] prefix) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length - (to - from) + value.length + 16);
+        out.write(text, 0, from);
+        if (prefix != null) out.writeBytes(prefix);
+        out.writeBytes(value);
+        out.write(text, to, text.length - to);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    /** A JSON string literal for {@code s}. */
+    static String quote(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private String decodeString(byte[] text, int node) {
+        int from = start(node) + 1;
+        int to = end(node) - 1;
+        StringBuilder out = new StringBuilder(to - from);
+        int run = from; // start of the bytes not yet decoded
+        for (int i = from; i < to; i++) {
+            if (text[i] != '\\') continue;
+            out.append(new String(text, run, i - run, StandardCharsets.UTF_8));
+            char c = (char) text[++i];
+            if (c == 'u') {
+                out.append((char) Integer.parseInt(new String(text, i + 1, 4, StandardCharsets.ISO_8859_1), 16));
+                i += 4;
+            } else {
+                out.append(switch (c) {
+                    case 'b' -> '\b';
+                    case 'f' -> '\f';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    case 't' -> '\t';
+                    default -> c; // '"', '\\' and '/'
+                });
+            }
+            run = i + 1;
+        }
+        return out.append(new String(text, run, to - run, StandardCharsets.UTF_8)).toString();
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * A scalar JSON value as it is indexed and compared: by kind first (null, false, true,
+     * numbers, strings), then numbers by value and strings by their characters.
+     */
+    record Scalar(int kind, double number, String string) implements Comparable<Scalar> {
+
+        static final Scalar NULL = new Scalar(JsonDocument.NULL, 0, "");
+        static final Scalar FALSE = new Scalar(JsonDocument.FALSE, 0, "");
+        static final Scalar TRUE = new Scalar(JsonDocument.TRUE, 0, "");
+
+        static Scalar number(double value) {
+            return new Scalar(NUMBER, value + 0.0, ""); // no separate -0.0
+        }
+
+        static Scalar string(String value) {
+            return new Scalar(STRING, 0, value);
+        }
+
+        /**
+         * Reads a value written in a query: a JSON literal or number, a quoted string, or
+         * else the text itself as a string ({@code gender=female}).
+         */
+        static Scalar parse(String text) {
+            switch (text) {
+                case "null" -> { return NULL; }
+                case "true" -> { return TRUE; }
+                case "false" -> { return FALSE; }
+                default -> { }
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (text.startsWith("\"") || (!text.isEmpty() && (text.charAt(0) == '-' || Character.isDigit(text.charAt(0))))) {
+                try {
+                    Scalar scalar = JsonDocument.parse(bytes).scalarAt(bytes, JsonPath.ROOT);
+                    if (scalar != null) return scalar;
+                } catch (IllegalArgumentException e) {
+                    // not JSON: a plain string
+                }
+            }
+            return string(text);
+        }
+
+        /** A scalar no greater than any other of its kind, for range bounds. */
+        static Scalar lowest(int kind) {
+            return new Scalar(kind, Double.NEGATIVE_INFINITY, "");
+        }
+
+        /** A scalar no smaller than any other of its kind, for range bounds. */
+        static Scalar highest(int kind) {
+            return new Scalar(kind, Double.POSITIVE_INFINITY, "");
+        }
+
+        @Override
+        public int compareTo(Scalar other) {
+            if (kind != other.kind) return Integer.compare(kindOrder(kind), kindOrder(other.kind));
+            int byNumber = Double.compare(number, other.number);
+            return byNumber != 0 ? byNumber : string.compareTo(other.string);
+        }
+
+        /** Where a kind sorts: null, false, true, numbers, strings, then anything else. */
+        static int kindOrder(int kind) {
+            return switch (kind) {
+                case JsonDocument.NULL -> 0;
+                case JsonDocument.FALSE -> 1;
+                case JsonDocument.TRUE -> 2;
+                case NUMBER -> 3;
+                case STRING -> 4;
+                default -> 5;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return switch (kind) {
+                case NUMBER -> number == Math.rint(number) && Math.abs(number) < 1e15
+                        ? Long.toString((long) number) : Double.toString(number);
+                case STRING -> quote(string);
+                case JsonDocument.TRUE -> "true";
+                case JsonDocument.FALSE -> "false";
+                default -> "null";
+            };
+        }
+    }
+
+    /** Recursive descent over the bytes, appending a node to the tape per value. */
+    private static final class Parser {
+        final byte[] text;
+        int pos;
+        int[] tape = new int[48];
+        int nodes;
+
+        Parser(byte[] text) {
+            this.text = text;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("invalid JSON at byte " + pos + ": " + message);
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length && isWhitespace(text[pos])) pos++;
+        }
+
+        private int open(int start) {
+            if (nodes * 3 == tape.length) tape = Arrays.copyOf(tape, tape.length * 2);
+            tape[nodes * 3] = start;
+            return nodes++;
+        }
+
+        private void close(int node, int kind) {
+            tape[node * 3 + 1] = pos;
+            tape[node * 3 + 2] = (nodes << KIND_BITS) | kind;
+        }
+
+        void value(int depth) {
+            if (pos >= text.length) throw error("unexpected end");
+            switch (text[pos]) {
+                case '{' -> object(depth + 1);
+                case '[' -> array(depth + 1);
+                case '"' -> string();
+                case 't' -> literal("true", TRUE);
+                case 'f' -> literal("false", FALSE);
+                case 'n' -> literal("null", NULL);
+                default -> number();
+            }
+        }
+
+        private void object(int depth) {
+            if (depth > MAX_DEPTH) throw error("nested too deeply");
+            int node = open(pos++);
+            skipWhitespace();
+            if (pos < text.length && text[pos] == '}') {
+                pos++;
+                close(node, OBJECT);
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (pos >= text.length || text[pos] != '"') throw error("expected a member name");
+                string();
+                skipWhitespace();
+                if (pos >= text.length || text[pos] != ':') throw error("expected ':'");
+                pos++;
+                skipWhitespace();
+                value(depth);
+                skipWhitespace();
+                if (pos < text.length && text[pos] == ',') {
+                    pos++;
+                } else if (pos < text.length && text[pos] == '}') {
+                    pos++;
+                    close(node, OBJECT);
+                    return;
+                } else {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        private void array(int depth) {
+            if (depth > MAX_DEPTH) throw error("nested too deeply");
+            int node = open(pos++);
+            skipWhitespace();
+            if (pos < text.length && text[pos] == ']') {
+                pos++;
+                close(node, ARRAY);
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                value(depth);
+                skipWhitespace();
+                if (pos < text.length && text[pos] == ',') {
+                    pos++;
+                } else if (pos < text.length && text[pos] == ']') {
+                    pos++;
+                    close(node, ARRAY);
+                    return;
+                } else {
+                    throw error("expected ',' or ']'");
+                }
+            }
+        }
+
+        private void string() {
+            int node = open(pos++);
+            while (true) {
+                if (pos >= text.length) throw error("unterminated string");
+                byte b = text[pos];
+                if (b == '"') break;
+                if ((b & 0xff) < 0x20) throw error("control character in string");
+                if (b == '\\') {
+                    if (++pos >= text.length) throw error("unterminated string");
+                    switch (text[pos]) {
+                        case '"', '\\', '/', 'b', 'f', 'n', 'r', 't' -> { }
+                        case 'u' -> {
+                            for (int i = 1; i <= 4; i++) {
+                                if (pos + i >= text.length || Character.digit(text[pos + i], 16) < 0) {
+                                    throw error("bad \\u escape");
+                                }
+                            }
+                            pos += 4;
+                        }
+                        default -> throw error("bad escape");
+                    }
+                }
+                pos++;
+            }
+            pos++;
+            close(node, STRING);
+        }
+
+        private void literal(String word, int kind) {
+            int node = open(pos);
+            for (int i = 0; i < word.length(); i++, pos++) {
+                if (pos >= text.length || text[pos] != word.charAt(i)) throw error("expected " + word);
+            }
+            close(node, kind);
+        }
+
+        private void number() {
+            int node = open(pos);
+            if (pos < text.length && text[pos] == '-') pos++;
+            if (pos < text.length && text[pos] == '0') {
+                pos++;
+            } else if (!digits()) {
+                throw error("unexpected character");
+            }
+            if (pos < text.length && text[pos] == '.') {
+                pos++;
+                if (!digits()) throw error("expected digits after '.'");
+            }
+            if (pos < text.length && (text[pos] == 'e' || text[pos] == 'E')) {
+                pos++;
+                if (pos < text.length && (text[pos] == '+' || text[pos] == '-')) pos++;
+                if (!digits()) throw error("expected exponent digits");
+            }
+            close(node, NUMBER);
+        }
+
+        private boolean digits() {
+            int from = pos;
+            while (pos < text.length && text[pos] >= '0' && text[pos] <= '9') pos++;
+            return pos > from;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p><strong>JsonPath.java</strong></p>
+ *
+ * A path to a value inside a JSON document: a sequence of object member names and array
+ * indexes, as used by {@code JSON.SET}, {@code JSON.GET}, {@code CREATE INDEX} and {@code FIND}.
+ *
+ * <p><strong>Syntax:</strong> {@code $} (or {@code .}) is the document itself; members follow as
+ * {@code .name} or {@code ["name"]}, array elements as {@code [index]}, e.g.
+ * {@code $.address.city} or {@code $.tags[0]}. The leading {@code $} may be left out, so
+ * {@code address.city} is the same path.</p>
+ *
+ * <p>Immutable. Two paths are equal if they name the same members and indexes, however they
+ * were written; {@link #toString()} gives the canonical spelling.</p>
+ */
+final class JsonPath {
+
+    static final JsonPath ROOT = new JsonPath(new Object[0]);
+
+    // Each segment is a String (member name) or an Integer (array index)
+    private final Object[] segments;
+    // UTF-8 of each member name, compared against the raw document bytes; null for indexes
+    private final byte[][] names;
+    private final String text;
+
+    private JsonPath(Object[] segments) {
+        this.segments = segments;
+        this.names = new byte[segments.length][];
+        StringBuilder canonical = new StringBuilder("$");
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] instanceof String name) {
+                names[i] = name.getBytes(StandardCharsets.UTF_8);
+                if (isIdentifier(name)) {
+                    canonical.append('.').append(name);
+                } else {
+                    canonical.append("[\"").append(name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"]");
+                }
+            } else {
+                canonical.append('[').append(segments[i]).append(']');
+            }
+        }
+        this.text = canonical.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException If the path is malformed.
+     */
+    static JsonPath parse(String path) {
+        String p = path.trim();
+        int i = 0;
+        if (p.startsWith("$")) {
+            i = 1;
+        } else if (!p.isEmpty() && p.charAt(0) != '.' && p.charAt(0) != '[') {
+            p = "." + p; // "a.b" for "$.a.b"
+        }
+        if (p.equals(".")) return ROOT;
+
+        List<Object> segments = new ArrayList<>();
+        while (i < p.length()) {
+            char c = p.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < p.length() && p.charAt(end) != '.' && p.charAt(end) != '[') end++;
+                if (end == i + 1) throw new IllegalArgumentException("empty member name in path: " + path);
+                segments.add(p.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                int close;
+                if (i + 1 < p.length() && (p.charAt(i + 1) == '"' || p.charAt(i + 1) == '\'')) {
+                    char quote = p.charAt(i + 1);
+                    StringBuilder name = new StringBuilder();
+                    int j = i + 2;
+                    while (j < p.length() && p.charAt(j) != quote) {
+                        if (p.charAt(j) == '\\' && j + 1 < p.length()) j++;
+                        name.append(p.charAt(j++));
+                    }
+                    close = j + 1;
+                    if (j >= p.length() || close >= p.length() || p.charAt(close) != ']') {
+                        throw new IllegalArgumentException("unterminated member name in path: " + path);
+                    }
+                    segments.add(name.toString());
+                } else {
+                    close = p.indexOf(']', i);
+                    if (close < 0) throw new IllegalArgumentException("missing ']' in path: " + path);
+                    int index;
+                    try {
+                        index = Integer.parseInt(p.substring(i + 1, close).trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad array index in path: " + path);
+                    }
+                    if (index < 0) throw new IllegalArgumentException("negative array index in path: " + path);
+                    segments.add(index);
+                }
+                i = close + 1;
+            } else {
+                throw new IllegalArgumentException("unexpected '" + c + "' in path: " + path);
+            }
+        }
+        return segments.isEmpty() ? ROOT : new JsonPath(segments.toArray());
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) return false;
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-')) return false;
+        }
+        return true;
+    }
+
+    boolean isRoot() {
+        return segments.length == 0;
+    }
+
+    int size() {
+        return segments.length;
+    }
+
+    /** Whether segment {@code i} is a member name rather than an array index. */
+    boolean isName(int i) {
+        return names[i] != null;
+    }
+
+    String name(int i) {
+        return (String) segments[i];
+    }
+
+    byte[] nameBytes(int i) {
+        return names[i];
+    }
+
+    int index(int i) {
+        return (Integer) segments[i];
+    }
+
+    /** This path without its last segment. Not valid on the root. */
+    JsonPath parent() {
+        return segments.length == 1 ? ROOT : new JsonPath(Arrays.copyOf(segments, segments.length - 1));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JsonPath path && path.text.equals(text);
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.core;
+
+/**
+ * <p><strong>JsonPredicate.java</strong></p>
+ *
+ * One condition of a {@code FIND}: a document field compared with a value, written as
+ * {@code field=value}, {@code field>value}, {@code field>=value}, {@code field<value} or
+ * {@code field<=value}, e.g. {@code gender=female} or {@code $.age>=30}.
+ * <p>
+ * The value is read by {@link JsonDocument.Scalar#parse}: {@code 30} is a number, so it
+ * only matches the number 30, and {@code "30"} the string. A field matches only a value of
+ * the same kind; ranges on strings compare them character by character.
+ * </p>
+ */
+record JsonPredicate(JsonPath field, Op op, JsonDocument.Scalar value) {
+
+    enum Op { EQ, LT, LE, GT, GE }
+
+    /**
+     * @throws IllegalArgumentException If there is no operator or the field is not a valid path.
+     */
+    static JsonPredicate parse(String condition) {
+        int depth = 0;
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (c == '[') depth++;
+            else if (c == ']') depth--;
+            else if (depth == 0 && (c == '=' || c == '<' || c == '>')) {
+                Op op;
+                int valueAt = i + 1;
+                if (c == '=') {
+                    op = Op.EQ;
+                } else if (valueAt < condition.length() && condition.charAt(valueAt) == '=') {
+                    op = c == '<' ? Op.LE : Op.GE;
+                    valueAt++;
+                } else {
+                    op = c == '<' ? Op.LT : Op.GT;
+                }
+                if (i == 0) throw new IllegalArgumentException("missing field in condition: " + condition);
+                return new JsonPredicate(JsonPath.parse(condition.substring(0, i)), op,
+                        JsonDocument.Scalar.parse(condition.substring(valueAt)));
+            }
+        }
+        throw new IllegalArgumentException("expected field=value, field>value, field<value, field>=value "
+                + "or field<=value: " + condition);
+    }
+
+    /** Whether the document, of {@code text}, meets the condition. */
+    boolean matches(JsonDocument document, byte[] text) {
+        JsonDocument.Scalar actual = document.scalarAt(text, field);
+        if (actual == null || actual.kind() != value.kind()) return false;
+        int order = actual.compareTo(value);
+        return switch (op) {
+            case EQ -> order == 0;
+            case LT -> order < 0;
+            case LE -> order <= 0;
+            case GT -> order > 0;
+            case GE -> order >= 0;
+        };
+    }
+}
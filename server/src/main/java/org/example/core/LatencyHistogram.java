@@ -0,0 +1,95 @@
+package org.example.core;
+
+/**
+ * <p><strong>LatencyHistogram.java</strong></p>
+ *
+ * Counts durations in nanoseconds in log-linear buckets, the way HdrHistogram does: every
+ * power of two is split into {@value #SUB_BUCKETS} equal buckets, so a reported value is
+ * within about 3% of the true one at any scale, from nanoseconds to minutes, in a fixed
+ * array of about 9 KB.
+ *
+ * <p>Not thread-safe: each histogram has a single writer, such as a worker thread or a
+ * load generator connection, and is only read through a {@link #copy()} taken on that
+ * thread or after the writer has finished.</p>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Longer durations are counted as this one (about 18 minutes)
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final long[] counts;
+    private long total;
+    private long max;
+
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    private LatencyHistogram(long[] counts, long total, long max) {
+        this.counts = counts;
+        this.total = total;
+        this.max = max;
+    }
+
+    /** Values below {@code 2 * SUB_BUCKETS} have a bucket each; above, a bucket per 1/32 of an octave. */
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /** The largest value that falls into a bucket. */
+    private static long highestIn(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        long sub = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts[index(value)]++;
+        total++;
+        if (value > max) max = value;
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(counts.clone(), total, max);
+    }
+
+    /** Adds another histogram's counts to this one, e.g. to merge the workers of a cachebase. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * The value at a percentile (0-100): the upper end of the bucket holding the sample at
+     * that rank, capped at the largest value recorded. 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestIn(i), max);
+        }
+        return max;
+    }
+}
@@ -20,8 +20,9 @@ import java.util.Map;
  *
  * <p>This is a static utility class and does not support instantiation.</p>
  *
- * <p><strong>Thread Safety:</strong> This implementation is <em>not</em> thread-safe.
- * In future versions, synchronization or concurrent data structures may be introduced.</p>
+ * <p><strong>Thread Safety:</strong> Every operation holds the map's lock for a single
+ * map call, so sessions and startup recovery may use it concurrently. {@link #getAll()}
+ * returns a copy.</p>
  *
  * @author Raghavendra R
  * @since 10-04-2025
@@ -29,7 +30,7 @@ import java.util.Map;
 public class MemoryStore {
 
     /** Internal map storing all key-value pairs in memory. */
-    private static final LinkedHashMap<String, String> store = new LinkedHashMap<>();
+    private static final Map<String, String> store = Collections.synchronizedMap(new LinkedHashMap<>());
 
     /**
      * Inserts or updates a key-value pair in the in-memory store.
@@ -52,12 +53,14 @@ public class MemoryStore {
     }
 
     /**
-     * Returns an unmodifiable view of the current in-memory store.
+     * Returns an unmodifiable copy of the current in-memory store.
      *
      * @return A {@code Map} of all key-value pairs.
      */
     public static Map<String, String> getAll() {
-        return Collections.unmodifiableMap(store);
+        synchronized (store) { // Iterating a synchronized map requires its lock
+            return Collections.unmodifiableMap(new LinkedHashMap<>(store));
+        }
     }
 
     /**
@@ -0,0 +1,83 @@
+package org.example.core;
+
+import org.example.protocol.Reply;
+import org.example.protocol.ReplyReader;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p><strong>NodeLink.java</strong></p>
+ *
+ * A blocking RESP connection from this server to another cluster node, for requests one
+ * at a time: slot ownership changes and the entries of migrating slots. Not thread-safe.
+ */
+final class NodeLink implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final String address;
+    private final Socket socket;
+    private final ReplyReader in;
+    private final OutputStream out;
+
+    private NodeLink(String address, Socket socket) throws IOException {
+        this.address = address;
+        this.socket = socket;
+        this.in = new ReplyReader(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Connects to a node given as {@code host:port}.
+     *
+     * @throws IOException If the node cannot be reached.
+     */
+    static NodeLink open(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1))), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            NodeLink link = new NodeLink(address, socket);
+            link.call("PING"); // A RESP request first: no handshake
+            return link;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e instanceof IOException io ? io : new IOException("bad node address " + address, e);
+        }
+    }
+
+    String address() {
+        return address;
+    }
+
+    Reply call(String... request) throws IOException {
+        List<Reply> items = new ArrayList<>(request.length);
+        for (String part : request) {
+            items.add(Reply.bulk(part));
+        }
+        return call(items);
+    }
+
+    /** Sends a request whose parts are already bulk replies, binary values included. */
+    Reply call(List<Reply> request) throws IOException {
+        Reply.array(request).writeResp(out);
+        out.flush();
+        return in.read();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
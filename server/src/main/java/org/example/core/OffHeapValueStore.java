@@ -0,0 +1,131 @@
+package org.example.core;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * <p><strong>OffHeapValueStore.java</strong></p>
+ *
+ * A {@link ValueStore} that keeps values outside the Java heap, in slabs of a
+ * {@link SlabAllocator}. The heap holds only the index from key to chunk handle, a
+ * {@link HandleTable}, so the garbage collector has one small array per key to trace
+ * instead of every value.
+ * <p>
+ * A stored chunk is never written again: an update takes a new chunk and frees the old
+ * one. While a background rewrite or snapshot is reading a {@link #copy()}, freed chunks
+ * are held back instead, so every handle in the copy stays valid until it is released.
+ * </p>
+ *
+ * <p>Reads copy the value back into a new array, which the reply then owns.</p>
+ */
+final class OffHeapValueStore implements ValueStore {
+
+    private final HandleTable index = new HandleTable();
+    private final SlabAllocator allocator = new SlabAllocator();
+    // Set while a copy is out; chunks freed meanwhile wait in deferred
+    private boolean copyOut;
+    private long[] deferred = new long[64];
+    private int deferredCount;
+
+    private static byte[] encode(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        long handle = index.get(encode(key));
+        return handle != SlabAllocator.NO_CHUNK ? allocator.read(handle) : null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return index.containsKey(encode(key));
+    }
+
+    @Override
+    public int put(String key, byte[] value) {
+        long previous = index.put(encode(key), allocator.allocate(value));
+        return previous != SlabAllocator.NO_CHUNK ? release(previous) : -1;
+    }
+
+    @Override
+    public int remove(String key) {
+        long previous = index.remove(encode(key));
+        return previous != SlabAllocator.NO_CHUNK ? release(previous) : -1;
+    }
+
+    /** Frees a chunk that is no longer indexed, now or once the copy is released; returns its length. */
+    private int release(long handle) {
+        int length = allocator.length(handle);
+        if (copyOut) {
+            if (deferredCount == deferred.length) deferred = Arrays.copyOf(deferred, deferredCount * 2);
+            deferred[deferredCount++] = handle;
+        } else {
+            allocator.free(handle);
+        }
+        return length;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void forEachLength(ObjIntConsumer<String> action) {
+        index.forEach((key, handle) -> action.accept(new String(key, StandardCharsets.UTF_8), allocator.length(handle)));
+    }
+
+    @Override
+    public int scan(int cursor, int count, Consumer<String> action) {
+        return index.scan(cursor, count, key -> action.accept(new String(key, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public Map<String, byte[]> view() {
+        return view(index, allocator.slabs());
+    }
+
+    @Override
+    public Map<String, byte[]> copy() {
+        copyOut = true;
+        return view(index.copy(), allocator.slabs());
+    }
+
+    /** Values are copied out of the slabs as the entries are iterated. */
+    private static Map<String, byte[]> view(HandleTable handles, MemorySegment[] slabs) {
+        return new TableView(handles) {
+            @Override
+            byte[] valueAt(int slot) {
+                return SlabAllocator.read(slabs, handles.handleAt(slot));
+            }
+        };
+    }
+
+    @Override
+    public void releaseCopy() {
+        copyOut = false;
+        for (int i = 0; i < deferredCount; i++) {
+            allocator.free(deferred[i]);
+        }
+        deferredCount = 0;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return allocator.reservedBytes();
+    }
+
+    /**
+     * Leaves the large values of a copy still being written alone; they are only reclaimed
+     * when the process exits.
+     */
+    @Override
+    public void close() {
+        if (!copyOut) allocator.close();
+    }
+}
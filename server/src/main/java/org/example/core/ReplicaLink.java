@@ -0,0 +1,298 @@
+package org.example.core;
+
+import org.example.protocol.CommandArgs;
+import org.example.protocol.ProtocolException;
+import org.example.protocol.Reply;
+import org.example.protocol.ReplyReader;
+import org.example.protocol.RequestParser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p><strong>ReplicaLink.java</strong></p>
+ *
+ * The follower side of replication: one thread that keeps this server a copy of a leader.
+ * <p>
+ * The link speaks RESP on the leader's ordinary port. A full sync ({@code REPLSYNC})
+ * drops every local cachebase, recreates the leader's with their indexes, and loads each
+ * leader worker's entries ({@code REPLDUMP}), a bounded page at a time. From then on the link polls the leader's
+ * {@link ReplicationFeed} with {@code REPLFEED} from the offset it has applied, and applies
+ * the records through the local workers, which log them as usual. After a lost connection
+ * it carries on from that offset if the leader still has it, and syncs in full otherwise.
+ * </p>
+ *
+ * <p>While a link exists the server is read-only for clients: commands that write answer
+ * {@code READONLY}. {@code REPLICAOF NO ONE} ends the link and keeps the data.</p>
+ */
+public final class ReplicaLink implements Runnable {
+
+    // How long the leader may hold a REPLFEED when there is nothing new
+    private static final long POLL_WAIT_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private static volatile ReplicaLink current;
+    // Serializes REPLICAOF calls; not synchronized, since sessions may run on virtual threads
+    private static final ReentrantLock changing = new ReentrantLock();
+    // This server's port, announced to the leader so it can tell its followers apart
+    private static volatile int listeningPort;
+
+    private final String host;
+    private final int port;
+    private final Thread thread;
+    private volatile boolean stopped;
+    private volatile Socket socket;
+
+    // Where the link is: "connecting", "sync" or "online"
+    private volatile String state = "connecting";
+    // The leader's replication id and the feed offset applied here; null until a full sync
+    private volatile String replicationId;
+    private volatile long offset;
+    private volatile long leaderOffset;
+    // When this server last had everything the leader had, and how many full syncs it took
+    private volatile long caughtUpAt;
+    private volatile long fullSyncs;
+
+    private ReplicaLink(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.thread = Thread.ofPlatform().daemon().name("replica-link").unstarted(this);
+    }
+
+    public static void setListeningPort(int port) {
+        listeningPort = port;
+    }
+
+    /**
+     * Makes this server a follower of {@code host:port}, replacing any current link. The
+     * first sync happens in the background and replaces all local data.
+     */
+    public static String follow(String host, int port) {
+        changing.lock();
+        try {
+            stopCurrent();
+            ReplicaLink link = new ReplicaLink(host, port);
+            current = link;
+            link.thread.start();
+            return "Following " + host + ":" + port + ".";
+        } finally {
+            changing.unlock();
+        }
+    }
+
+    /** Ends the link, if any, and makes this server writable again with the data it has. */
+    public static String stopFollowing() {
+        changing.lock();
+        try {
+            return stopCurrent() ? "Replication stopped; this server now accepts writes." : "Not a follower.";
+        } finally {
+            changing.unlock();
+        }
+    }
+
+    private static boolean stopCurrent() {
+        ReplicaLink link = current;
+        if (link == null) return false;
+        current = null;
+        link.stopped = true;
+        link.closeSocket();
+        try {
+            link.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /** Whether this server follows a leader, and so refuses writes from clients. */
+    public static boolean isFollowing() {
+        return current != null;
+    }
+
+    /** INFO lines of this server's role and, for a follower, how far behind the leader it is. */
+    static String info() {
+        ReplicaLink link = current;
+        if (link == null) return "role:leader\n" + ReplicationFeed.info();
+        long lag = Math.max(0, link.leaderOffset - link.offset);
+        long lagMillis = link.caughtUpAt == 0 ? -1
+                : lag == 0 && link.state.equals("online") ? 0 : System.currentTimeMillis() - link.caughtUpAt;
+        return "role:follower\n"
+                + "leader_host:" + link.host + "\n"
+                + "leader_port:" + link.port + "\n"
+                + "link_status:" + link.state + "\n"
+                + "leader_replication_id:" + (link.replicationId != null ? link.replicationId : "") + "\n"
+                + "leader_offset:" + link.leaderOffset + "\n"
+                + "applied_offset:" + link.offset + "\n"
+                + "lag_bytes:" + lag + "\n"
+                + "lag_ms:" + lagMillis + "\n"
+                + "full_syncs:" + link.fullSyncs + "\n"
+                + ReplicationFeed.info();
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                if (stopped) return;
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                connection.setTcpNoDelay(true);
+                connection.setSoTimeout((int) (POLL_WAIT_MS * 30));
+                ReplyReader in = new ReplyReader(connection.getInputStream());
+                OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+                String name = connection.getLocalAddress().getHostAddress() + ":" + listeningPort;
+                call(in, out, "PING"); // A RESP request first: no handshake
+                System.out.println("Connected to leader " + host + ":" + port);
+                follow(in, out, name);
+            } catch (IOException | RuntimeException e) {
+                if (stopped) return;
+                state = "connecting";
+                System.err.println("Replication link to " + host + ":" + port + " lost: " + e.getMessage());
+                sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private void follow(ReplyReader in, OutputStream out, String name) throws IOException {
+        while (!stopped) {
+            if (replicationId == null) fullSync(in, out, name);
+            state = "online";
+            Reply reply = call(in, out, "REPLFEED", name, replicationId, Long.toString(offset), Long.toString(POLL_WAIT_MS));
+            if (reply.isError()) {
+                System.out.println("Leader cannot continue the feed (" + reply + "), syncing in full");
+                replicationId = null;
+                continue;
+            }
+            byte[] records = reply.items().get(1).bulkValue();
+            apply(records);
+            offset += records.length;
+            leaderOffset = reply.items().get(0).integerValue();
+            if (offset >= leaderOffset) caughtUpAt = System.currentTimeMillis();
+        }
+    }
+
+    private void fullSync(ReplyReader in, OutputStream out, String name) throws IOException {
+        state = "sync";
+        long start = System.nanoTime();
+        Reply sync = call(in, out, "REPLSYNC", name);
+        if (sync.isError()) throw new IOException("REPLSYNC refused: " + sync);
+        String id = new String(sync.items().get(0).bulkValue(), StandardCharsets.UTF_8);
+        long from = sync.items().get(1).integerValue();
+
+        for (String cachebase : CachebaseManager.names()) {
+            CachebaseManager.removeCachebase(cachebase);
+        }
+        apply(sync.items().get(2).bulkValue());
+        long entries = 0;
+        for (String cachebase : CachebaseManager.names()) {
+            // Page by page, so neither side holds a whole worker's data in one reply
+            for (int worker = 0; ; worker++) {
+                String cursor = "0";
+                Reply dump;
+                do {
+                    dump = call(in, out, "REPLDUMP", cachebase, Integer.toString(worker), cursor);
+                    if (dump.isError()) throw new IOException("REPLDUMP refused: " + dump);
+                    cursor = new String(dump.items().get(1).bulkValue(), StandardCharsets.US_ASCII);
+                    entries += apply(dump.items().get(2).bulkValue());
+                } while (!cursor.equals("0"));
+                if (worker + 1 >= dump.items().get(0).integerValue()) break;
+            }
+        }
+        replicationId = id;
+        offset = from;
+        leaderOffset = from;
+        fullSyncs++;
+        System.out.printf("Full sync from %s:%d: %d records in %d ms, continuing from offset %d%n",
+                host, port, entries, (System.nanoTime() - start) / 1_000_000, from);
+    }
+
+    /**
+     * Applies replication records in order and waits until the workers have them. Records
+     * of one key go to the same worker in order, so they need not wait for each other.
+     *
+     * @return The number of records.
+     */
+    private static long apply(byte[] records) throws IOException {
+        RequestParser parser = new RequestParser();
+        CommandArgs args = new CommandArgs();
+        List<CompletableFuture<Reply>> pending = new ArrayList<>();
+        long count = 0;
+        int at = 0;
+        while (at < records.length) {
+            int next = parser.parse(records, at, records.length, args);
+            if (next == RequestParser.INCOMPLETE) throw new ProtocolException("truncated replication record");
+            at = next;
+            count++;
+            String type = args.string(0).toUpperCase(Locale.ROOT);
+            Cachebase cb = CachebaseManager.getCachebase(args.string(1));
+            switch (type) {
+                case "SET" -> submit(cb, pending, CacheCommand.Type.SET, args.string(2), args.bytes(3), 0);
+                case "EXPIREAT" -> submit(cb, pending, CacheCommand.Type.EXPIRE, args.string(2), null, args.longValue(3));
+                case "DEL" -> submit(cb, pending, CacheCommand.Type.DELETE, args.string(2), null, 0);
+                case "CREATECB" -> {
+                    if (cb == null) CachebaseManager.createCachebase(args.string(1), (int) args.longValue(2));
+                }
+                case "DROPCB" -> {
+                    if (cb != null) CachebaseManager.removeCachebase(args.string(1));
+                }
+                case "INDEX" -> {
+                    if (cb == null) break;
+                    JsonPath field = JsonPath.parse(args.string(2));
+                    pending.add(args.count() > 3
+                            ? cb.createIndex(field, SecondaryIndex.Kind.parse(args.string(3)))
+                            : cb.dropIndex(field));
+                }
+                default -> System.err.println("Ignoring unknown replication record " + type);
+            }
+        }
+        for (CompletableFuture<Reply> reply : pending) {
+            reply.join();
+        }
+        return count;
+    }
+
+    private static void submit(Cachebase cb, List<CompletableFuture<Reply>> pending, CacheCommand.Type type,
+                               String key, byte[] value, long expireAt) {
+        if (cb == null) return;
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        cb.submit(new CacheCommand(type, key, value, expireAt, reply));
+        pending.add(reply);
+    }
+
+    private static Reply call(ReplyReader in, OutputStream out, String... request) throws IOException {
+        List<Reply> items = new ArrayList<>(request.length);
+        for (String part : request) {
+            items.add(Reply.bulk(part));
+        }
+        Reply.array(items).writeResp(out);
+        out.flush();
+        return in.read();
+    }
+
+    private void closeSocket() {
+        Socket connection = socket;
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
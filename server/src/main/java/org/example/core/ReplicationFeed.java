@@ -0,0 +1,343 @@
+package org.example.core;
+
+import org.example.protocol.Reply;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p><strong>ReplicationFeed.java</strong></p>
+ *
+ * The leader side of replication: the stream of writes that followers copy.
+ * <p>
+ * Workers record what they append to their logs, in the same order, as RESP-encoded
+ * records naming the cachebase ({@code SET cb key value}, {@code EXPIREAT cb key ms},
+ * {@code DEL cb key}); cachebase and index changes add {@code CREATECB}, {@code DROPCB}
+ * and {@code INDEX} records. Each worker publishes its batch when it commits, as one chunk
+ * at the end of the feed. A byte offset counts everything published since this process
+ * started; together with a replication id drawn at startup, it tells a follower where it is.
+ * </p>
+ *
+ * <p><strong>Backlog:</strong> the latest chunks, up to {@code repl-backlog-mb}, stay in
+ * memory. A follower that reconnects within the backlog carries on where it stopped;
+ * otherwise it syncs in full again. Followers poll with {@code REPLFEED}, which waits a
+ * little for new chunks when they are caught up, so the offset in each request is also
+ * their acknowledgement and the leader can report their lag.</p>
+ *
+ * <p>Nothing is recorded until the first follower syncs, so a server without followers
+ * pays one volatile read per write.</p>
+ */
+public final class ReplicationFeed {
+
+    // Largest reply to one REPLFEED; a single bigger chunk is still sent whole
+    private static final int MAX_FEED_BYTES = 1024 * 1024;
+    // Followers not heard from for this long are no longer reported
+    private static final long FOLLOWER_EXPIRY_MS = 60_000;
+
+    private static final String REPLICATION_ID = UUID.randomUUID().toString().replace("-", "");
+    private static volatile boolean enabled;
+    private static volatile long backlogBytes = 64L * 1024 * 1024;
+
+    // Guards everything below; workers publish, follower requests read
+    private static final ReentrantLock lock = new ReentrantLock();
+    // Chunks by their start offset
+    private static final NavigableMap<Long, byte[]> backlog = new TreeMap<>();
+    private static long backlogSize;
+    private static long endOffset;
+    // Requests of caught-up followers, completed by the next publish or by a timeout
+    private static final List<Waiting> waiting = new ArrayList<>();
+    private static final Map<String, FollowerState> followers = new HashMap<>();
+    private static ScheduledExecutorService timer;
+
+    private record Waiting(String follower, long offset, CompletableFuture<Reply> reply) {}
+
+    private static final class FollowerState {
+        long offset;
+        long lastSeen;
+    }
+
+    private ReplicationFeed() {}
+
+    /** Sets how many bytes of recent writes are kept for followers that fall behind. */
+    public static void setBacklogBytes(long bytes) {
+        backlogBytes = Math.max(1024 * 1024, bytes);
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String replicationId() {
+        return REPLICATION_ID;
+    }
+
+    /**
+     * Appends a chunk of whole records to the feed and wakes the followers waiting for it.
+     */
+    static void publish(byte[] chunk) {
+        List<Waiting> woken;
+        lock.lock();
+        try {
+            backlog.put(endOffset, chunk);
+            endOffset += chunk.length;
+            backlogSize += chunk.length;
+            while (backlogSize > backlogBytes && backlog.size() > 1) {
+                backlogSize -= backlog.pollFirstEntry().getValue().length;
+            }
+            if (waiting.isEmpty()) return;
+            woken = new ArrayList<>(waiting);
+            waiting.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Waiting request : woken) {
+            request.reply().complete(feed(request.follower(), request.offset()));
+        }
+    }
+
+    /** Publishes a single record, outside any worker: a cachebase or index change. */
+    static void publish(String... record) {
+        if (!enabled) return;
+        Records records = new Records(null);
+        records.append(record);
+        records.publish();
+    }
+
+    /**
+     * Starts a full sync: turns recording on, if this is the first follower, and returns
+     * the offset the follower's feed starts at. Everything a worker commits after this
+     * call is in the feed from that offset, so a dump taken from the worker afterwards,
+     * with the feed replayed on top, gives the follower the leader's data.
+     */
+    public static long beginSync(String follower) {
+        lock.lock();
+        try {
+            enabled = true;
+            acknowledge(follower, endOffset);
+            return endOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Answers a follower's {@code REPLFEED}: the chunks from {@code offset} on, or, if there
+     * are none yet, whatever arrives within {@code waitMillis}. The reply is
+     * {@code [leader end offset, records]}, or an error if the offset is not in the backlog.
+     */
+    public static CompletableFuture<Reply> poll(String follower, String replicationId, long offset, long waitMillis) {
+        if (!REPLICATION_ID.equals(replicationId)) {
+            return CompletableFuture.completedFuture(Reply.error("Error: unknown replication id " + replicationId + "."));
+        }
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (offset != endOffset || waitMillis <= 0) {
+                return CompletableFuture.completedFuture(feed(follower, offset));
+            }
+            acknowledge(follower, offset);
+            waiting.add(new Waiting(follower, offset, reply));
+        } finally {
+            lock.unlock();
+        }
+        timer().schedule(() -> {
+            boolean stillWaiting;
+            lock.lock();
+            try {
+                stillWaiting = waiting.removeIf(request -> request.reply() == reply);
+            } finally {
+                lock.unlock();
+            }
+            // Otherwise publish() answered it already, and acknowledged a newer offset
+            if (stillWaiting) reply.complete(feed(follower, offset));
+        }, waitMillis, TimeUnit.MILLISECONDS);
+        return reply;
+    }
+
+    private static Reply feed(String follower, long offset) {
+        lock.lock();
+        try {
+            acknowledge(follower, offset);
+            if (offset > endOffset || (offset < endOffset && !backlog.containsKey(offset))) {
+                return Reply.error("Error: offset " + offset + " is not in the replication backlog.");
+            }
+            int size = 0;
+            List<byte[]> chunks = new ArrayList<>();
+            for (byte[] chunk : backlog.tailMap(offset, true).values()) {
+                if (size > 0 && size + chunk.length > MAX_FEED_BYTES) break;
+                chunks.add(chunk);
+                size += chunk.length;
+            }
+            byte[] records = new byte[size];
+            int at = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, records, at, chunk.length);
+                at += chunk.length;
+            }
+            return Reply.array(List.of(Reply.integer(endOffset), Reply.bulk(records)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private static void acknowledge(String follower, long offset) {
+        FollowerState state = followers.computeIfAbsent(follower, name -> new FollowerState());
+        state.offset = offset;
+        state.lastSeen = System.currentTimeMillis();
+    }
+
+    private static ScheduledExecutorService timer() {
+        lock.lock();
+        try {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(r -> Thread.ofPlatform().daemon().name("replication-timer").unstarted(r));
+            }
+            return timer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** INFO lines of the leader side: the feed's offsets and each follower's lag in bytes. */
+    static String info() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            followers.values().removeIf(state -> now - state.lastSeen > FOLLOWER_EXPIRY_MS);
+            StringBuilder text = new StringBuilder()
+                    .append("replication_id:").append(REPLICATION_ID).append('\n')
+                    .append("replication_offset:").append(endOffset).append('\n')
+                    .append("backlog_first_offset:").append(backlog.isEmpty() ? endOffset : backlog.firstKey()).append('\n')
+                    .append("backlog_bytes:").append(backlogSize).append('\n')
+                    .append("connected_followers:").append(followers.size()).append('\n');
+            int i = 0;
+            for (Map.Entry<String, FollowerState> entry : followers.entrySet()) {
+                FollowerState state = entry.getValue();
+                text.append(String.format(Locale.ROOT, "follower%d:addr=%s,offset=%d,lag_bytes=%d,last_seen_ms=%d%n",
+                        i++, entry.getKey(), state.offset, endOffset - state.offset, now - state.lastSeen));
+            }
+            return text.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records of one producer (a worker, for one batch), encoded as RESP arrays until
+     * {@link #publish()} hands them to the feed as one chunk. Not thread-safe.
+     */
+    static final class Records {
+        private static final byte[] CRLF = {'\r', '\n'};
+
+        private final byte[] cachebase;
+        private byte[] buffer = new byte[256];
+        private int size;
+
+        Records(String cachebase) {
+            this.cachebase = cachebase != null ? cachebase.getBytes(StandardCharsets.UTF_8) : null;
+        }
+
+        void set(String key, byte[] value) {
+            header(4);
+            bulk(new byte[]{'S', 'E', 'T'});
+            bulk(cachebase);
+            bulk(key.getBytes(StandardCharsets.UTF_8));
+            bulk(value);
+        }
+
+        void expire(String key, long expireAt) {
+            header(4);
+            bulk("EXPIREAT".getBytes(StandardCharsets.US_ASCII));
+            bulk(cachebase);
+            bulk(key.getBytes(StandardCharsets.UTF_8));
+            bulk(Long.toString(expireAt).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void delete(String key) {
+            header(3);
+            bulk(new byte[]{'D', 'E', 'L'});
+            bulk(cachebase);
+            bulk(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void append(String... fields) {
+            header(fields.length);
+            for (String field : fields) {
+                bulk(field.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /** The bytes recorded so far. */
+        int size() {
+            return size;
+        }
+
+        /** The records so far, without publishing them; used for a full sync's dump. */
+        byte[] toByteArray() {
+            byte[] records = new byte[size];
+            System.arraycopy(buffer, 0, records, 0, size);
+            return records;
+        }
+
+        /** Publishes the records recorded since the last call, if any. */
+        void publish() {
+            if (size == 0) return;
+            ReplicationFeed.publish(toByteArray());
+            size = 0;
+            if (buffer.length > 64 * 1024) buffer = new byte[256]; // Let a large batch's buffer go
+        }
+
+        private void header(int fields) {
+            put((byte) '*');
+            decimal(fields);
+            put(CRLF);
+        }
+
+        private void bulk(byte[] value) {
+            put((byte) '$');
+            decimal(value.length);
+            put(CRLF);
+            put(value);
+            put(CRLF);
+        }
+
+        private void decimal(long value) {
+            put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            buffer[size++] = b;
+        }
+
+        private void put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensure(int more) {
+            if (size + more <= buffer.length) return;
+            long needed = Math.max((long) buffer.length * 2, (long) size + more);
+            buffer = Arrays.copyOf(buffer, (int) Math.min(needed, Integer.MAX_VALUE - 8));
+        }
+    }
+}
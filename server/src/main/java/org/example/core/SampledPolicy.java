@@ -0,0 +1,133 @@
+package org.example.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * <p><strong>SampledPolicy.java</strong></p>
+ *
+ * Approximate LRU or LFU by random sampling, the way Redis evicts.
+ * <p>
+ * Keys sit in a dense array so a random slot is a random key; removal moves the last key
+ * into the hole. To evict, {@link #SAMPLES} random keys are compared and the worst one
+ * goes. A read only updates a field of the key's node, so hits never reorder anything.
+ * </p>
+ *
+ * <ul>
+ *     <li><strong>LRU</strong> compares a logical clock stamped on every use.</li>
+ *     <li><strong>LFU</strong> compares an 8-bit logarithmic counter: each use increments it with
+ *         probability {@code 1 / ((counter - 5) * 10 + 1)}, so it saturates after about a
+ *         million uses, and it loses one point per minute the key is not used. New keys
+ *         start at 5 so they are not evicted before their second use.</li>
+ * </ul>
+ */
+final class SampledPolicy implements EvictionPolicy {
+
+    private static final int SAMPLES = 5;
+    private static final int LFU_INIT = 5;
+    private static final int LFU_LOG_FACTOR = 10;
+    private static final long LFU_DECAY_MILLIS = 60_000;
+
+    private static final class Node {
+        final String key;
+        int slot;
+        long lastUse;       // LRU: logical clock; LFU: time of the last decay (ms)
+        int counter;        // LFU only
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+
+    private final boolean lfu;
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private Node[] slots = new Node[16];
+    private int count;
+    private long clock;
+
+    SampledPolicy(boolean lfu) {
+        this.lfu = lfu;
+    }
+
+    @Override
+    public void onInsert(String key, long size) {
+        Node node = new Node(key);
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        node.slot = count;
+        slots[count++] = node;
+        nodes.put(key, node);
+        if (lfu) {
+            node.counter = LFU_INIT;
+            node.lastUse = System.currentTimeMillis();
+        } else {
+            node.lastUse = ++clock;
+        }
+    }
+
+    @Override
+    public void onUpdate(String key, long size) {
+        onAccess(key);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        Node node = nodes.get(key);
+        if (node == null) return;
+        if (!lfu) {
+            node.lastUse = ++clock;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int counter = decayed(node, now);
+        if (counter < 255) {
+            double base = Math.max(0, counter - LFU_INIT);
+            if (random.nextDouble() < 1.0 / (base * LFU_LOG_FACTOR + 1)) counter++;
+        }
+        node.counter = counter;
+        node.lastUse = now;
+    }
+
+    /** The LFU counter after subtracting one for every idle minute. */
+    private static int decayed(Node node, long now) {
+        long periods = (now - node.lastUse) / LFU_DECAY_MILLIS;
+        return periods <= 0 ? node.counter : (int) Math.max(0, node.counter - periods);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Node node = nodes.remove(key);
+        if (node == null) return;
+        Node last = slots[--count];
+        slots[node.slot] = last;
+        last.slot = node.slot;
+        slots[count] = null;
+    }
+
+    @Override
+    public String victim() {
+        if (count == 0) return null;
+        long now = lfu ? System.currentTimeMillis() : 0;
+        Node worst = null;
+        for (int i = 0; i < SAMPLES; i++) {
+            Node candidate = slots[random.nextInt(count)];
+            if (worst == null || worse(candidate, worst, now)) {
+                worst = candidate;
+            }
+        }
+        return worst.key;
+    }
+
+    private boolean worse(Node a, Node b, long now) {
+        if (lfu) {
+            int countA = decayed(a, now);
+            int countB = decayed(b, now);
+            if (countA != countB) return countA < countB;
+        }
+        return a.lastUse < b.lastUse;
+    }
+}
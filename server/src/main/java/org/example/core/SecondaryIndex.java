@@ -0,0 +1,95 @@
+package org.example.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p><strong>SecondaryIndex.java</strong></p>
+ *
+ * One worker's index of one JSON field: which of its documents have which value there.
+ * <p>
+ * A {@code hash} index answers equality conditions; a {@code sorted} index keeps its
+ * values in order and also answers ranges. Documents without the field, or with an
+ * object or array there, are not in the index. Every worker keeps its own indexes over
+ * its own keys, so they need no locking and a {@code FIND} runs on all workers at once.
+ * </p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe; only its worker thread uses it.</p>
+ */
+final class SecondaryIndex {
+
+    enum Kind {
+        HASH, SORTED;
+
+        /**
+         * @throws IllegalArgumentException If {@code name} is not {@code hash} or {@code sorted}.
+         */
+        static Kind parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+
+        String displayName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    final JsonPath field;
+    final Kind kind;
+    private final Map<JsonDocument.Scalar, Set<String>> entries;
+
+    SecondaryIndex(JsonPath field, Kind kind) {
+        this.field = field;
+        this.kind = kind;
+        this.entries = kind == Kind.SORTED ? new TreeMap<>() : new HashMap<>();
+    }
+
+    /** @return Whether the document, of {@code text}, has a value to index at the field. */
+    boolean add(String key, JsonDocument document, byte[] text) {
+        JsonDocument.Scalar value = document.scalarAt(text, field);
+        if (value == null) return false;
+        entries.computeIfAbsent(value, v -> new HashSet<>()).add(key);
+        return true;
+    }
+
+    void remove(String key, JsonDocument document, byte[] text) {
+        JsonDocument.Scalar value = document.scalarAt(text, field);
+        if (value == null) return;
+        Set<String> keys = entries.get(value);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) entries.remove(value);
+    }
+
+    /**
+     * The keys whose field satisfies the condition, or null if this index cannot tell: a
+     * range on a hash index. The set may be the index's own and must not be modified.
+     */
+    Set<String> lookup(JsonPredicate condition) {
+        JsonDocument.Scalar value = condition.value();
+        if (condition.op() == JsonPredicate.Op.EQ) {
+            return entries.getOrDefault(value, Collections.emptySet());
+        }
+        if (kind != Kind.SORTED) return null;
+
+        NavigableMap<JsonDocument.Scalar, Set<String>> sorted = (NavigableMap<JsonDocument.Scalar, Set<String>>) entries;
+        JsonDocument.Scalar lowest = JsonDocument.Scalar.lowest(value.kind());
+        JsonDocument.Scalar highest = JsonDocument.Scalar.highest(value.kind());
+        Collection<Set<String>> range = switch (condition.op()) {
+            case LT -> sorted.subMap(lowest, true, value, false).values();
+            case LE -> sorted.subMap(lowest, true, value, true).values();
+            case GT -> sorted.subMap(value, false, highest, true).values();
+            case GE -> sorted.subMap(value, true, highest, true).values();
+            case EQ -> throw new AssertionError();
+        };
+        Set<String> keys = new HashSet<>();
+        for (Set<String> matching : range) {
+            keys.addAll(matching);
+        }
+        return keys;
+    }
+}
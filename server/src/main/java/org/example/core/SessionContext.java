@@ -0,0 +1,100 @@
+package org.example.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * Per-connection state that commands may need: who the client is, where its files
+ * live, and whether the session should end after the current reply.
+ * <p>
+ * Sessions that skipped the name handshake (RESP clients such as {@code redis-cli})
+ * have no AOF file and no command log; commands that need them report an error.
+ * </p>
+ */
+public class SessionContext {
+
+    private final String clientName;
+    private final File aofFile;
+    private final BufferedWriter logWriter;
+    private boolean closeRequested;
+    private boolean asking;
+    // How pushes reach this connection's socket without blocking the caller; null if they cannot
+    private Consumer<byte[]> pushChannel;
+    private ClientTracking tracking;
+
+    public SessionContext(String clientName, File aofFile, BufferedWriter logWriter) {
+        this.clientName = clientName;
+        this.aofFile = aofFile;
+        this.logWriter = logWriter;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    /** The client's AOF file, or {@code null} for anonymous sessions. */
+    public File getAofFile() {
+        return aofFile;
+    }
+
+    /** The client's command log, or {@code null} for anonymous sessions. */
+    public BufferedWriter getLogWriter() {
+        return logWriter;
+    }
+
+    /** Asks the session to close once the current reply has been sent. */
+    public void requestClose() {
+        closeRequested = true;
+    }
+
+    public boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    /**
+     * Lets this connection receive pushes between its replies, such as the invalidations of
+     * {@code CLIENT TRACKING}. The channel is called from worker threads and must not block.
+     */
+    public void setPushChannel(Consumer<byte[]> channel) {
+        pushChannel = channel;
+    }
+
+    /**
+     * Turns key tracking on or off ({@code CLIENT TRACKING}).
+     *
+     * @return {@code false} if this connection cannot receive pushes.
+     */
+    boolean setTracking(boolean on) {
+        if (!on) {
+            if (tracking != null) tracking.disable();
+            tracking = null;
+            return true;
+        }
+        if (pushChannel == null) return false;
+        if (tracking == null) tracking = new ClientTracking(pushChannel);
+        return true;
+    }
+
+    /** This connection's tracking, or {@code null} if it is off. */
+    ClientTracking tracking() {
+        return tracking;
+    }
+
+    /** Called by the session once the connection is gone. */
+    public void close() {
+        setTracking(false);
+    }
+
+    /** Lets the next key command use a slot this cluster node is importing ({@code ASKING}). */
+    public void setAsking() {
+        asking = true;
+    }
+
+    /** Whether {@code ASKING} came before this command; clears it, as it holds for one command. */
+    public boolean takeAsking() {
+        boolean was = asking;
+        asking = false;
+        return was;
+    }
+}
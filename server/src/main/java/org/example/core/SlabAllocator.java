@@ -0,0 +1,194 @@
+package org.example.core;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * <p><strong>SlabAllocator.java</strong></p>
+ *
+ * Off-heap chunk allocator for {@link OffHeapValueStore}, in the style of memcached's slabs.
+ * <p>
+ * Memory is reserved in 1 MB slabs. Every slab is cut into equal chunks of one size class;
+ * classes start at 64 bytes and grow by a factor of 1.25, so a value wastes at most about
+ * a fifth of its chunk. A freed chunk goes on its class's free list, which is threaded
+ * through the free chunks themselves and costs no heap. Values too large for the biggest
+ * class get a segment of their own that is returned to the OS when freed; slabs are kept
+ * for reuse until the allocator is dropped.
+ * </p>
+ *
+ * <p>A chunk is addressed by a handle: the slab number in the high 32 bits and the
+ * offset in the low 32. It holds the value's length followed by its bytes.</p>
+ *
+ * <p><strong>Thread Safety:</strong> allocating and freeing belong to one thread. Other
+ * threads may {@link #read} chunks that are not freed while they read them, through a
+ * slab table obtained from {@link #slabs()} on the owning thread.</p>
+ */
+final class SlabAllocator {
+
+    static final long NO_CHUNK = -1;
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final int MIN_CHUNK = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    // Marks a slab that holds one large value in its own arena
+    private static final byte LARGE = -1;
+    private static final int[] CHUNK_SIZES = chunkSizes();
+
+    // Slabs are only released with the allocator itself, when nothing can reach them anymore
+    private final Arena slabArena = Arena.ofAuto();
+    private MemorySegment[] slabs = new MemorySegment[16];
+    private Arena[] largeArenas = new Arena[16];
+    private byte[] slabClass = new byte[16];
+    private int slabCount;
+    // Slab numbers of freed large values, for reuse
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+
+    // Per class: first chunk of the free list, and the next never-used chunk of the newest slab
+    private final long[] freeList = new long[CHUNK_SIZES.length];
+    private final long[] fresh = new long[CHUNK_SIZES.length];
+    private long reservedBytes;
+
+    SlabAllocator() {
+        Arrays.fill(freeList, NO_CHUNK);
+        Arrays.fill(fresh, NO_CHUNK);
+    }
+
+    private static int[] chunkSizes() {
+        int[] sizes = new int[64];
+        int count = 0;
+        for (double size = MIN_CHUNK; size <= SLAB_SIZE / 2; size *= GROWTH_FACTOR) {
+            int aligned = ((int) Math.ceil(size) + 7) & ~7; // Keeps every chunk 8-byte aligned
+            if (count == 0 || aligned > sizes[count - 1]) sizes[count++] = aligned;
+        }
+        sizes[count++] = SLAB_SIZE; // One chunk per slab
+        return Arrays.copyOf(sizes, count);
+    }
+
+    /** Copies {@code value} into a new chunk and returns the chunk's handle. */
+    long allocate(byte[] value) {
+        int needed = LENGTH_SIZE + value.length;
+        int sizeClass = classOf(needed);
+        long handle = sizeClass >= 0 ? takeChunk(sizeClass) : allocateLarge(needed);
+        MemorySegment slab = slabs[slabOf(handle)];
+        long offset = offsetOf(handle);
+        slab.set(ValueLayout.JAVA_INT, offset, value.length);
+        MemorySegment.copy(value, 0, slab, ValueLayout.JAVA_BYTE, offset + LENGTH_SIZE, value.length);
+        return handle;
+    }
+
+    /** The size class whose chunks fit {@code needed} bytes, or -1 if none does. */
+    private static int classOf(int needed) {
+        if (needed > CHUNK_SIZES[CHUNK_SIZES.length - 1]) return -1;
+        int i = Arrays.binarySearch(CHUNK_SIZES, needed);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private long takeChunk(int sizeClass) {
+        long handle = freeList[sizeClass];
+        if (handle != NO_CHUNK) {
+            freeList[sizeClass] = slabs[slabOf(handle)].get(ValueLayout.JAVA_LONG, offsetOf(handle));
+            return handle;
+        }
+        handle = fresh[sizeClass];
+        if (handle == NO_CHUNK) {
+            int slab = newSlot();
+            slabs[slab] = slabArena.allocate(SLAB_SIZE, Long.BYTES);
+            slabClass[slab] = (byte) sizeClass;
+            reservedBytes += SLAB_SIZE;
+            handle = handle(slab, 0);
+        }
+        int chunkSize = CHUNK_SIZES[sizeClass];
+        long next = offsetOf(handle) + chunkSize;
+        fresh[sizeClass] = next + chunkSize <= SLAB_SIZE ? handle(slabOf(handle), next) : NO_CHUNK;
+        return handle;
+    }
+
+    private long allocateLarge(int needed) {
+        int slab = newSlot();
+        Arena arena = Arena.ofShared();
+        largeArenas[slab] = arena;
+        slabs[slab] = arena.allocate(needed, Long.BYTES);
+        slabClass[slab] = LARGE;
+        reservedBytes += needed;
+        return handle(slab, 0);
+    }
+
+    private int newSlot() {
+        if (freeSlotCount > 0) return freeSlots[--freeSlotCount];
+        if (slabCount == slabs.length) {
+            slabs = Arrays.copyOf(slabs, slabCount * 2);
+            largeArenas = Arrays.copyOf(largeArenas, slabCount * 2);
+            slabClass = Arrays.copyOf(slabClass, slabCount * 2);
+        }
+        return slabCount++;
+    }
+
+    /** Returns a chunk to its free list, or a large value's memory to the OS. */
+    void free(long handle) {
+        int slab = slabOf(handle);
+        byte sizeClass = slabClass[slab];
+        if (sizeClass == LARGE) {
+            reservedBytes -= slabs[slab].byteSize();
+            largeArenas[slab].close();
+            largeArenas[slab] = null;
+            slabs[slab] = null;
+            if (freeSlotCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+            freeSlots[freeSlotCount++] = slab;
+            return;
+        }
+        slabs[slab].set(ValueLayout.JAVA_LONG, offsetOf(handle), freeList[sizeClass]);
+        freeList[sizeClass] = handle;
+    }
+
+    int length(long handle) {
+        return slabs[slabOf(handle)].get(ValueLayout.JAVA_INT, offsetOf(handle));
+    }
+
+    byte[] read(long handle) {
+        return read(slabs, handle);
+    }
+
+    /** Copies a chunk's value back onto the heap. */
+    static byte[] read(MemorySegment[] slabs, long handle) {
+        MemorySegment slab = slabs[slabOf(handle)];
+        long offset = offsetOf(handle);
+        byte[] value = new byte[slab.get(ValueLayout.JAVA_INT, offset)];
+        MemorySegment.copy(slab, ValueLayout.JAVA_BYTE, offset + LENGTH_SIZE, value, 0, value.length);
+        return value;
+    }
+
+    /** The current slab table, for reading from another thread; see the class comment. */
+    MemorySegment[] slabs() {
+        return slabs;
+    }
+
+    /** Off-heap bytes reserved: all slabs plus the large values. */
+    long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /** Releases the large values now; the slabs go once the allocator is unreachable. */
+    void close() {
+        for (int slab = 0; slab < slabCount; slab++) {
+            if (largeArenas[slab] != null) {
+                largeArenas[slab].close();
+                largeArenas[slab] = null;
+            }
+        }
+    }
+
+    private static long handle(int slab, long offset) {
+        return ((long) slab << 32) | offset;
+    }
+
+    private static int slabOf(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static long offsetOf(long handle) {
+        return handle & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,205 @@
+package org.example.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p><strong>SlotTable.java</strong></p>
+ *
+ * Which worker of a cachebase owns a key, in two steps: the key hashes to one of
+ * {@link #SLOTS} fixed slots, and the table names the worker owning each slot. Adding
+ * workers only hands whole slots to them; every other key stays where it is.
+ *
+ * <p>Tables are immutable: a migration step builds a new one and publishes it.</p>
+ */
+public final class SlotTable {
+
+    public static final int SLOTS = 16384;
+    public static final int MAX_WORKERS = 1024;
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private final short[] owners;
+
+    private SlotTable(short[] owners) {
+        this.owners = owners;
+    }
+
+    /**
+     * The slot of a key: MurmurHash3 (x86, 32-bit, seed 0) of its UTF-8 bytes. The bytes
+     * are produced from the chars on the fly, so routing a command allocates nothing.
+     */
+    public static int slotOf(String key) {
+        int hash = 0;
+        int block = 0; // Bytes not mixed in yet, little-endian
+        int filled = 0;
+        int length = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int bytes;
+            int count;
+            if (c < 0x80) {
+                bytes = c;
+                count = 1;
+            } else if (c < 0x800) {
+                bytes = (0xC0 | c >> 6) | (0x80 | c & 0x3F) << 8;
+                count = 2;
+            } else if (!Character.isSurrogate(c)) {
+                bytes = (0xE0 | c >> 12) | (0x80 | c >> 6 & 0x3F) << 8 | (0x80 | c & 0x3F) << 16;
+                count = 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < key.length()
+                    && Character.isLowSurrogate(key.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, key.charAt(++i));
+                bytes = (0xF0 | cp >> 18) | (0x80 | cp >> 12 & 0x3F) << 8
+                        | (0x80 | cp >> 6 & 0x3F) << 16 | (0x80 | cp & 0x3F) << 24;
+                count = 4;
+            } else {
+                bytes = '?'; // What String.getBytes makes of a lone surrogate
+                count = 1;
+            }
+            for (int b = 0; b < count; b++, bytes >>>= 8) {
+                block |= (bytes & 0xFF) << (filled << 3);
+                length++;
+                if (++filled == 4) {
+                    hash ^= mixK(block);
+                    hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+                    block = 0;
+                    filled = 0;
+                }
+            }
+        }
+        if (filled > 0) hash ^= mixK(block);
+
+        hash ^= length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash & (SLOTS - 1);
+    }
+
+    private static int mixK(int k) {
+        return Integer.rotateLeft(k * C1, 15) * C2;
+    }
+
+    /** Spreads the slots over {@code workers} workers in contiguous, equal ranges. */
+    public static SlotTable even(int workers) {
+        short[] owners = new short[SLOTS];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            owners[slot] = (short) ((long) slot * workers / SLOTS);
+        }
+        return new SlotTable(owners);
+    }
+
+    public int ownerOf(int slot) {
+        return owners[slot];
+    }
+
+    /** The worker owning a key's slot. */
+    public int ownerOfKey(String key) {
+        return owners[slotOf(key)];
+    }
+
+    /**
+     * The table spreading the slots evenly over {@code workers} workers with the fewest
+     * moves from this one: every worker keeps its lowest slots up to its new share, and the
+     * rest go, in slot order, to the workers below theirs.
+     *
+     * @throws IllegalArgumentException If this table uses a worker at or beyond {@code workers}.
+     */
+    public SlotTable rebalanced(int workers) {
+        int[] share = new int[workers];
+        for (int w = 0; w < workers; w++) {
+            share[w] = SLOTS / workers + (w < SLOTS % workers ? 1 : 0);
+        }
+        int[] held = new int[workers];
+        int[] freed = new int[SLOTS];
+        int freedCount = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int owner = owners[slot];
+            if (owner >= workers) throw new IllegalArgumentException("Slot " + slot + " is owned by worker " + owner);
+            if (held[owner] < share[owner]) {
+                held[owner]++;
+            } else {
+                freed[freedCount++] = slot;
+            }
+        }
+
+        short[] next = owners.clone();
+        int taker = 0;
+        for (int i = 0; i < freedCount; i++) {
+            while (held[taker] >= share[taker]) taker++;
+            next[freed[i]] = (short) taker;
+            held[taker]++;
+        }
+        return new SlotTable(next);
+    }
+
+    /** The slots {@code worker} owns here but not in {@code target}. */
+    public BitSet leaving(int worker, SlotTable target) {
+        BitSet slots = new BitSet(SLOTS);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (owners[slot] == worker && target.owners[slot] != worker) slots.set(slot);
+        }
+        return slots;
+    }
+
+    /** This table with the given slots owned as in {@code target}. */
+    public SlotTable withOwners(BitSet slots, SlotTable target) {
+        short[] next = owners.clone();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            next[slot] = target.owners[slot];
+        }
+        return new SlotTable(next);
+    }
+
+    /** Number of slots each of {@code workers} workers owns. */
+    public int[] counts(int workers) {
+        int[] counts = new int[workers];
+        for (short owner : owners) {
+            if (owner < workers) counts[owner]++;
+        }
+        return counts;
+    }
+
+    /** Runs of slots with the same owner, e.g. {@code 0-4095:0,4096-8191:1}. */
+    public String encode() {
+        StringBuilder text = new StringBuilder();
+        int start = 0;
+        for (int slot = 1; slot <= SLOTS; slot++) {
+            if (slot < SLOTS && owners[slot] == owners[start]) continue;
+            if (!text.isEmpty()) text.append(',');
+            text.append(start).append('-').append(slot - 1).append(':').append(owners[start]);
+            start = slot;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads a table written by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException If a slot is left out or owned by a worker at or beyond {@code workers}.
+     */
+    public static SlotTable parse(String text, int workers) {
+        short[] owners = new short[SLOTS];
+        Arrays.fill(owners, (short) -1);
+        for (String run : text.split(",")) {
+            int dash = run.indexOf('-');
+            int colon = run.indexOf(':');
+            if (dash < 0 || colon < dash) throw new IllegalArgumentException("Bad slot range: " + run);
+            int from = Integer.parseInt(run.substring(0, dash).trim());
+            int to = Integer.parseInt(run.substring(dash + 1, colon).trim());
+            int owner = Integer.parseInt(run.substring(colon + 1).trim());
+            if (from < 0 || to >= SLOTS || from > to || owner < 0 || owner >= workers) {
+                throw new IllegalArgumentException("Bad slot range: " + run);
+            }
+            Arrays.fill(owners, from, to + 1, (short) owner);
+        }
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (owners[slot] < 0) throw new IllegalArgumentException("Slot " + slot + " has no owner");
+        }
+        return new SlotTable(owners);
+    }
+}
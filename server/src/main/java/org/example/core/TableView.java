@@ -0,0 +1,58 @@
+package org.example.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p><strong>TableView.java</strong></p>
+ *
+ * Read-only {@code Map<String, byte[]>} over a {@link ByteKeyTable}, which is what the
+ * log rewrite and snapshot writers take. Keys are decoded from UTF-8 and values fetched
+ * with {@link #valueAt} as the entries are iterated; nothing is copied up front.
+ */
+abstract class TableView extends AbstractMap<String, byte[]> {
+
+    private final ByteKeyTable table;
+
+    TableView(ByteKeyTable table) {
+        this.table = table;
+    }
+
+    /** The value in an occupied slot of the table. */
+    abstract byte[] valueAt(int slot);
+
+    @Override
+    public Set<Entry<String, byte[]>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, byte[]>> iterator() {
+                return new Iterator<>() {
+                    private int slot = table.nextSlot(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot >= 0;
+                    }
+
+                    @Override
+                    public Entry<String, byte[]> next() {
+                        if (slot < 0) throw new NoSuchElementException();
+                        String key = new String(table.keyAt(slot), StandardCharsets.UTF_8);
+                        Entry<String, byte[]> entry = new SimpleImmutableEntry<>(key, valueAt(slot));
+                        slot = table.nextSlot(slot + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+}
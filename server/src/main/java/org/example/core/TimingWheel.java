@@ -0,0 +1,194 @@
+package org.example.core;
+
+/**
+ * <p><strong>TimingWheel.java</strong></p>
+ *
+ * Hierarchical timing wheel for key expiry, owned by one {@link Worker}.
+ * <p>
+ * Time is cut into ticks of {@link #TICK_MILLIS}. Level 0 has one slot per tick for the
+ * next 64 ticks; each higher level has 64 slots that each cover a whole turn of the level
+ * below. A timer goes into the lowest level whose range reaches its deadline, so adding
+ * or cancelling a timer is O(1). When a lower level completes a turn, the next slot of the
+ * level above is cascaded: its timers are re-inserted closer to their deadline. A timer
+ * moves down at most once per level, and six levels reach further than any sensible TTL.
+ * </p>
+ *
+ * <p>Slots are intrusive doubly linked lists, so a key whose expiry changes simply unlinks
+ * its old timer instead of leaving it behind until it fires.</p>
+ *
+ * <p><strong>Thread Safety:</strong> not thread-safe; only the owning worker thread uses it.</p>
+ */
+final class TimingWheel {
+
+    static final long TICK_MILLIS = 10;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    private static final int DUE = -1;
+    private static final int UNLINKED = -2;
+
+    /** The expiry of one key: the key expires once {@code deadline} (epoch milliseconds) has passed. */
+    static final class Timer {
+        final String key;
+        final long deadline;
+        private final long tick;
+        // Where the timer is linked: a level and slot, DUE or UNLINKED
+        private int level = UNLINKED;
+        private int slot;
+        private Timer prev;
+        private Timer next;
+
+        Timer(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+            this.tick = Math.ceilDiv(deadline, TICK_MILLIS);
+        }
+    }
+
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    // Timers whose tick has passed, waiting for the worker; oldest first
+    private Timer dueHead;
+    private Timer dueTail;
+    // Next tick to process; every earlier tick has been moved to the due list
+    private long currentTick;
+    private int scheduled;
+    private int dueCount;
+
+    TimingWheel(long nowMillis) {
+        this.currentTick = nowMillis / TICK_MILLIS;
+    }
+
+    /**
+     * Adds a timer that is not in the wheel yet. A deadline that has already passed is
+     * due right away.
+     */
+    void add(Timer timer) {
+        long delta = timer.tick - currentTick;
+        if (delta <= 0) {
+            timer.level = DUE;
+            timer.prev = dueTail;
+            if (dueTail != null) dueTail.next = timer; else dueHead = timer;
+            dueTail = timer;
+            dueCount++;
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        // Deadlines beyond the top level wait in its furthest slot and cascade again
+        long tick = Math.min(timer.tick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & MASK;
+        timer.level = level;
+        timer.slot = slot;
+        timer.next = slots[level][slot];
+        if (timer.next != null) timer.next.prev = timer;
+        slots[level][slot] = timer;
+        scheduled++;
+    }
+
+    /**
+     * Removes a timer from the wheel; does nothing if it is not in it.
+     */
+    void cancel(Timer timer) {
+        if (timer.level == UNLINKED) return;
+        if (timer.level == DUE) {
+            if (timer.prev != null) timer.prev.next = timer.next; else dueHead = timer.next;
+            if (timer.next != null) timer.next.prev = timer.prev; else dueTail = timer.prev;
+            dueCount--;
+        } else {
+            if (timer.prev != null) timer.prev.next = timer.next; else slots[timer.level][timer.slot] = timer.next;
+            if (timer.next != null) timer.next.prev = timer.prev;
+            scheduled--;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.level = UNLINKED;
+    }
+
+    /**
+     * Moves every timer whose tick has been reached by {@code nowMillis} to the due list.
+     * Costs one step per elapsed tick, plus the timers moved.
+     */
+    void advance(long nowMillis) {
+        long target = nowMillis / TICK_MILLIS;
+        while (currentTick <= target) {
+            if (scheduled == 0) {
+                currentTick = target + 1; // Nothing to find in the ticks in between
+                return;
+            }
+            cascade();
+            int slot = (int) currentTick & MASK;
+            Timer timer = slots[0][slot];
+            slots[0][slot] = null;
+            currentTick++;
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.level = UNLINKED;
+                timer.prev = null;
+                timer.next = null;
+                scheduled--;
+                add(timer); // Its tick is now in the past, so it goes to the due list
+                timer = next;
+            }
+        }
+    }
+
+    /** At the start of a level's turn, pulls the matching slot of each level above down. */
+    private void cascade() {
+        int top = 0;
+        while (top < LEVELS - 1 && (currentTick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        // Highest first, so timers can fall through several levels in one tick
+        for (int level = top; level >= 1; level--) {
+            int slot = (int) (currentTick >>> (SLOT_BITS * level)) & MASK;
+            Timer timer = slots[level][slot];
+            slots[level][slot] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.level = UNLINKED;
+                timer.prev = null;
+                timer.next = null;
+                scheduled--;
+                add(timer);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest due timer out of the wheel.
+     *
+     * @return The timer, or {@code null} if none is due.
+     */
+    Timer poll() {
+        Timer timer = dueHead;
+        if (timer != null) cancel(timer);
+        return timer;
+    }
+
+    /**
+     * Milliseconds until the wheel next has work: the next non-empty level 0 slot, or the
+     * end of the current level 0 turn, where a cascade may bring timers down.
+     *
+     * @return 0 if timers are already due, -1 if the wheel is empty.
+     */
+    long millisUntilNextTick(long nowMillis) {
+        if (dueHead != null) return 0;
+        if (scheduled == 0) return -1;
+        long tick = currentTick;
+        // Stops at the next turn boundary at the latest: the cascade there is work too
+        while ((tick & MASK) != 0 && slots[0][(int) tick & MASK] == null) {
+            tick++;
+        }
+        return Math.max(0, tick * TICK_MILLIS - nowMillis);
+    }
+
+    /** Number of timers in the wheel, due or not. */
+    int size() {
+        return scheduled + dueCount;
+    }
+}
@@ -0,0 +1,179 @@
+package org.example.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p><strong>TinyLfuPolicy.java</strong></p>
+ *
+ * W-TinyLFU eviction, sized in bytes.
+ * <p>
+ * The budget is split into an admission window (1%) and a main region, which is a
+ * segmented LRU: probation (20% of main) and protected (80% of main). New keys enter the
+ * window. When the partition has to shrink and the window is over its share, the window's
+ * oldest key moves to the main region if it has room. Once it is full, that key becomes a
+ * candidate instead and is compared with the main region's next victim, the oldest
+ * probation key: whichever the {@link FrequencySketch} has seen used more often stays. A hit in probation promotes the key to protected;
+ * protected overflow is demoted back to probation.
+ * </p>
+ *
+ * <p>The window lets a burst of new keys build up a frequency before they must compete;
+ * the sketch keeps one-hit wonders from pushing out keys that are used all the time.</p>
+ */
+final class TinyLfuPolicy implements EvictionPolicy {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        final String key;
+        long size;
+        int region;
+        Node prev;
+        Node next;
+
+        Node(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    /** An LRU list: most recently used at the head. */
+    private static final class Queue {
+        Node head;
+        Node tail;
+        long bytes;
+
+        void addFirst(Node node) {
+            node.prev = null;
+            node.next = head;
+            if (head != null) head.prev = node; else tail = node;
+            head = node;
+            bytes += node.size;
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) node.prev.next = node.next; else head = node.next;
+            if (node.next != null) node.next.prev = node.prev; else tail = node.prev;
+            node.prev = null;
+            node.next = null;
+            bytes -= node.size;
+        }
+    }
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final long windowMax;
+    private final long mainMax;
+    private final long protectedMax;
+
+    TinyLfuPolicy(long maxBytes) {
+        this.windowMax = Math.max(1, maxBytes / 100);
+        this.mainMax = maxBytes - windowMax;
+        this.protectedMax = mainMax * 80 / 100;
+        sketch.ensureCapacity(16);
+    }
+
+    @Override
+    public void onInsert(String key, long size) {
+        Node node = new Node(key, size);
+        node.region = WINDOW;
+        nodes.put(key, node);
+        queues[WINDOW].addFirst(node);
+        sketch.ensureCapacity(nodes.size());
+        sketch.increment(key);
+    }
+
+    @Override
+    public void onUpdate(String key, long size) {
+        Node node = nodes.get(key);
+        if (node == null) return;
+        Queue queue = queues[node.region];
+        queue.bytes += size - node.size;
+        node.size = size;
+        onAccess(key);
+    }
+
+    /** Misses count too: a key that keeps being asked for deserves its place once it is stored. */
+    @Override
+    public void onMiss(String key) {
+        sketch.increment(key);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        sketch.increment(key);
+        Node node = nodes.get(key);
+        if (node == null) return;
+        switch (node.region) {
+            case WINDOW, PROTECTED -> {
+                Queue queue = queues[node.region];
+                queue.remove(node);
+                queue.addFirst(node);
+            }
+            case PROBATION -> {
+                queues[PROBATION].remove(node);
+                node.region = PROTECTED;
+                queues[PROTECTED].addFirst(node);
+                demoteProtectedOverflow();
+            }
+        }
+    }
+
+    private void demoteProtectedOverflow() {
+        Queue protectedQueue = queues[PROTECTED];
+        while (protectedQueue.bytes > protectedMax && protectedQueue.tail != null) {
+            Node node = protectedQueue.tail;
+            protectedQueue.remove(node);
+            node.region = PROBATION;
+            queues[PROBATION].addFirst(node);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            queues[node.region].remove(node);
+        }
+    }
+
+    @Override
+    public String victim() {
+        Queue window = queues[WINDOW];
+        while (window.bytes > windowMax && window.tail != null) {
+            Node candidate = window.tail;
+            Node victim = mainVictim();
+            if (victim == null || mainBytes() + candidate.size <= mainMax) {
+                admit(candidate); // Main region has room: nothing to compete with
+                continue;
+            }
+            // Admission: the candidate only gets in if it is more popular than what it replaces
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                admit(candidate);
+                return victim.key;
+            }
+            return candidate.key;
+        }
+        Node victim = mainVictim();
+        if (victim == null) victim = window.tail;
+        return victim != null ? victim.key : null;
+    }
+
+    private long mainBytes() {
+        return queues[PROBATION].bytes + queues[PROTECTED].bytes;
+    }
+
+    private Node mainVictim() {
+        Node victim = queues[PROBATION].tail;
+        return victim != null ? victim : queues[PROTECTED].tail;
+    }
+
+    private void admit(Node candidate) {
+        queues[WINDOW].remove(candidate);
+        candidate.region = PROBATION;
+        queues[PROBATION].addFirst(candidate);
+    }
+}
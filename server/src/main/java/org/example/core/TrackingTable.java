@@ -0,0 +1,94 @@
+package org.example.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p><strong>TrackingTable.java</strong></p>
+ *
+ * One worker's record of which {@link ClientTracking} connections read which keys.
+ * Only the worker thread touches it, so it needs no locks. Changes found during a batch
+ * are collected per connection and sent as one message each by {@link #flush}, when the
+ * worker commits.
+ *
+ * <p>Most keys are read by a single connection, so a key maps to that connection itself
+ * and only gets a set once a second one reads it. At most
+ * {@link ClientTracking#maxKeysPerWorker()} keys are tracked; past that, the oldest are
+ * invalidated as if they had changed, so clients drop them too.</p>
+ */
+final class TrackingTable {
+
+    // Key -> ClientTracking, or Set<ClientTracking> if several; oldest first
+    private final LinkedHashMap<String, Object> readers = new LinkedHashMap<>();
+    // Keys that changed in the current batch, per connection to tell
+    private final Map<ClientTracking, List<String>> pending = new HashMap<>();
+
+    /** Remembers that a connection read a key. */
+    @SuppressWarnings("unchecked")
+    void track(String key, ClientTracking client) {
+        if (!client.isEnabled()) return;
+        Object current = readers.get(key);
+        if (current == null) {
+            readers.put(key, client);
+            ClientTracking.keysTracked(1);
+            if (readers.size() > ClientTracking.maxKeysPerWorker()) {
+                Iterator<Map.Entry<String, Object>> oldest = readers.entrySet().iterator();
+                Map.Entry<String, Object> entry = oldest.next();
+                oldest.remove();
+                ClientTracking.keysTracked(-1);
+                notify(entry.getKey(), entry.getValue());
+            }
+        } else if (current instanceof Set<?> set) {
+            ((Set<ClientTracking>) set).add(client);
+        } else if (current != client) {
+            Set<ClientTracking> set = new HashSet<>(4);
+            set.add((ClientTracking) current);
+            set.add(client);
+            readers.put(key, set);
+        }
+    }
+
+    /** A key was written or removed: its readers will be told at the next {@link #flush}. */
+    void changed(String key) {
+        if (readers.isEmpty()) return;
+        Object current = readers.remove(key);
+        if (current == null) return;
+        ClientTracking.keysTracked(-1);
+        notify(key, current);
+    }
+
+    /** Every tracked key is invalidated, e.g. because the worker is going away. */
+    void changedAll() {
+        readers.forEach(this::notify);
+        ClientTracking.keysTracked(-readers.size());
+        readers.clear();
+    }
+
+    /** Sends the invalidations of the batch, one message per connection. */
+    void flush(String cachebase) {
+        if (pending.isEmpty()) return;
+        pending.forEach((client, keys) -> client.invalidate(cachebase, keys));
+        pending.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notify(String key, Object current) {
+        if (current instanceof Set<?> set) {
+            for (ClientTracking client : (Set<ClientTracking>) set) {
+                addPending(client, key);
+            }
+        } else {
+            addPending((ClientTracking) current, key);
+        }
+    }
+
+    private void addPending(ClientTracking client, String key) {
+        if (client.isEnabled()) pending.computeIfAbsent(client, c -> new ArrayList<>()).add(key);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.core;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * <p><strong>ValueStore.java</strong></p>
+ *
+ * The key-value storage behind one {@link Worker}.
+ * <p>
+ * Only the worker thread (and, before it serves, the recovery threads) calls it, so
+ * implementations need no locking. Values go in and come out as byte arrays; where they
+ * live in between is up to the implementation.
+ * </p>
+ *
+ * <p><strong>Storage kinds:</strong></p>
+ * <ul>
+ *     <li><strong>heap</strong>: values are the byte arrays themselves, held in a {@link ByteTable}.</li>
+ *     <li><strong>offheap</strong>: values are copied into off-heap slabs, see
+ *         {@link OffHeapValueStore}; the Java heap only holds the key index, so a large
+ *         cache no longer makes garbage collection slower.</li>
+ * </ul>
+ */
+interface ValueStore {
+
+    /** Available storage kinds, named as in {@code --value-storage}. */
+    enum Kind {
+        HEAP, OFFHEAP;
+
+        /**
+         * @throws IllegalArgumentException If {@code name} is not a storage kind.
+         */
+        public static Kind parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    static ValueStore create(Kind kind) {
+        return switch (kind) {
+            case HEAP -> new HeapValueStore();
+            case OFFHEAP -> new OffHeapValueStore();
+        };
+    }
+
+    /** The value, or {@code null} if the key is not stored. */
+    byte[] get(String key);
+
+    boolean containsKey(String key);
+
+    /**
+     * Stores a value; the caller must not modify the array afterwards.
+     *
+     * @return The length of the value it replaced, or -1 if the key was new.
+     */
+    int put(String key, byte[] value);
+
+    /**
+     * @return The length of the removed value, or -1 if the key was not stored.
+     */
+    int remove(String key);
+
+    int size();
+
+    /** Calls {@code action} with every key and the length of its value. */
+    void forEachLength(ObjIntConsumer<String> action);
+
+    /**
+     * Passes a few keys to {@code action}, continuing a scan from {@code cursor}, and returns
+     * where the next call continues; 0 starts and ends a scan (see {@link ByteKeyTable#scan}).
+     */
+    int scan(int cursor, int count, Consumer<String> action);
+
+    /**
+     * The live contents as a read-only map, for writing a snapshot on the worker thread.
+     * Only valid until the store is next modified.
+     */
+    Map<String, byte[]> view();
+
+    /**
+     * A read-only map of the current contents that stays unchanged while the store keeps
+     * being modified, for a background rewrite or snapshot on another thread. It must be
+     * given back with {@link #releaseCopy} once the background write is done.
+     */
+    Map<String, byte[]> copy();
+
+    /** Ends the use of the map returned by {@link #copy}. */
+    void releaseCopy();
+
+    /** Bytes reserved outside the Java heap. */
+    default long offHeapBytes() {
+        return 0;
+    }
+
+    /** Frees what the store holds outside the heap. The store must not be used afterwards. */
+    void close();
+}
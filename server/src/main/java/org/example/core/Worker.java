@@ -1,46 +1,1369 @@
 package org.example.core;
 
+import org.example.persistance.SnapshotFile;
+import org.example.persistance.WorkerLog;
+import org.example.protocol.Reply;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+public class Worker implements Runnable {
+    // Upper bound on commands pulled off the inbox in one go
+    private static final int MAX_BATCH = 256;
+    // Upper bound on keys actively expired per loop, so a mass expiry cannot stall commands
+    private static final int MAX_EXPIRIES_PER_ROUND = 200;
+    // Upper bounds on one batch of keys sent to another cluster node, see migrateBatch
+    private static final int MIGRATE_BATCH_KEYS = 1000;
+    private static final int MIGRATE_BATCH_BYTES = 1024 * 1024;
+    // Size a page of a follower's full sync grows to, see dumpRecords
+    private static final int DUMP_PAGE_BYTES = 1024 * 1024;
+    // Estimated fixed cost of an entry beyond its key and value bytes: its table slot and
+    // the two array headers
+    private static final int ENTRY_OVERHEAD = 48;
+    // Queued by shutdown() so the worker finishes and commits what was submitted before it
+    private static final CacheCommand SHUTDOWN = new CacheCommand(CacheCommand.Type.GET, "", null);
+    // Queued by the background rewrite/snapshot thread once its file is written
+    private static final CacheCommand BACKGROUND_WRITTEN = new CacheCommand(CacheCommand.Type.REWRITELOG, "", null);
+    // Queued once startup recovery is done, so the restored expiries enter the wheel on this thread
+    private static final CacheCommand RESTORED = new CacheCommand(CacheCommand.Type.PERSIST, "", null);
+    // Queued by configureEviction() so the new budget and policy are applied on this thread
+    private static final CacheCommand RECONFIGURE = new CacheCommand(CacheCommand.Type.STATS, "", null);
 
-public class Worker {
+    private final String cachebaseName;
     private final int workerId;
-    private final Map<String, String> store = new ConcurrentHashMap<>();
-    private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    // Values are raw bytes so binary data round-trips; on or off the heap, see ValueStore
+    private final ValueStore store;
+    // Keys with a TTL and their timer; only touched by the worker thread (and recovery before it serves)
+    private final Map<String, TimingWheel.Timer> expires = new HashMap<>();
+    private final TimingWheel wheel = new TimingWheel(System.currentTimeMillis());
+    // Parsed trees of the values written with JSON.SET and, while there is an index, of every
+    // value that is a JSON object or array, and this worker's indexes over their fields. Other
+    // JSON values are parsed when a command needs them. Only touched by the worker thread
+    // (see defineIndexes for the start)
+    private final Map<String, JsonDocument> documents = new HashMap<>();
+    private final List<SecondaryIndex> indexes = new ArrayList<>();
+    // Numbers of the values INCR and the like changed, so the next one need not parse the
+    // text again (see Counter); dropped whenever the value is otherwise written or removed
+    private final Map<String, Counter> counters = new HashMap<>();
+    // Connections with CLIENT TRACKING ON that read each key; only touched by the worker thread
+    private final TrackingTable tracking = new TrackingTable();
+
+    // Multi-producer, single-consumer: any session thread may offer, only this worker's thread takes
+    private final BlockingQueue<CacheCommand> inbox = new LinkedBlockingQueue<>();
+    // Set by start(), so the worker is not handed to its thread before it is constructed
+    private volatile Thread workerThread;
+
+    // Null if the log could not be opened; writes are then kept in memory only
+    private final WorkerLog log;
+    // This batch's log records in replication form, published to the feed at commit once a
+    // follower has synced (see ReplicationFeed)
+    private final ReplicationFeed.Records replicated;
+    // Writes of the current batch, acknowledged only once the batch is committed to the log
+    private final List<Unacknowledged> awaitingCommit = new ArrayList<>();
+
+    private record Unacknowledged(CacheCommand cmd, Reply reply) {}
+
+    // Slots this worker is taking over whose entries have not arrived yet (see Cachebase#reshard).
+    // Commands on them wait in held, in arrival order, until the import is installed.
+    private BitSet importing;
+    private CacheCommand importStarted;
+    private final List<CacheCommand> held = new ArrayList<>();
+
+    // Memory budget of this partition (0 = unlimited) and the policy enforcing it. Only the
+    // worker thread touches these; there is no policy at all without a budget.
+    private long maxBytes;
+    private EvictionPolicy.Kind policyKind;
+    private EvictionPolicy policy;
+    private volatile long requestedMaxBytes;
+    private volatile EvictionPolicy.Kind requestedPolicy;
+    // Estimated footprint of the store, see entrySize()
+    private long usedBytes;
+    // Reported by STATS; written by the worker thread only
+    private long commands;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expiredKeys;
+    // Time in the inbox, running the command, and from entering the inbox until the reply
+    // (after the commit, for writes); recorded and copied on the worker thread only
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+
+    // Background rewrite or snapshot in progress: the file being written and, once done, the failure if any
+    private File backgroundFile;
+    private boolean backgroundSnapshot;
+    private volatile IOException backgroundFailure;
 
-    public Worker(int workerId) {
+    public Worker(String cachebaseName, int workerId, long maxBytes, EvictionPolicy.Kind policyKind,
+                  ValueStore.Kind storage) {
+        this.cachebaseName = cachebaseName;
         this.workerId = workerId;
+        this.store = ValueStore.create(storage);
+        this.maxBytes = maxBytes;
+        this.policyKind = policyKind;
+        this.policy = maxBytes > 0 ? EvictionPolicy.create(policyKind, maxBytes) : null;
+        this.log = openLog(cachebaseName, workerId);
+        this.replicated = new ReplicationFeed.Records(cachebaseName);
     }
 
+    /** Starts the worker thread; called once, after {@link #defineIndexes}. */
+    void start() {
+        workerThread = new Thread(this, cachebaseName + "-worker-" + workerId);
+        workerThread.start();
+    }
+
+    private static WorkerLog openLog(String cachebaseName, int workerId) {
+        try {
+            return new WorkerLog(WorkerLog.fileFor(cachebaseName, workerId));
+        } catch (IOException e) {
+            System.err.println("Cannot open log for " + cachebaseName + " worker " + workerId
+                    + ", writes will not be persisted: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Enqueues a command for this worker. Safe to call from any thread; commands
+     * offered by the same thread are executed in the order they were offered.
+     */
     public void handle(CacheCommand cmd) {
-        workerThread.submit(() -> {
-            long start = System.nanoTime();
-            String result;
+        cmd.enqueuedAt = System.nanoTime();
+        inbox.offer(cmd);
+    }
+
+    /** Commands waiting in the inbox. */
+    int queueDepth() {
+        return inbox.size();
+    }
 
-            switch (cmd.type) {
-                case SET -> {
-                    store.put(cmd.key, cmd.value);
-                    result = "OK";
+    /** What a worker reports to STATS; the histograms are copies. */
+    record Stats(long keys, long documents, long usedBytes, long maxBytes, long offHeapBytes, long commands, long hits, long misses,
+                 long evictions, long expiredKeys, LatencyHistogram queueWait, LatencyHistogram execution,
+                 LatencyHistogram endToEnd) {}
+
+    private static final class StatsRequest extends CacheCommand {
+        final CompletableFuture<Stats> result = new CompletableFuture<>();
+
+        StatsRequest() {
+            super(Type.STATS, "", null, null);
+        }
+    }
+
+    /** This worker's counters, taken on its thread after the commands already queued. */
+    CompletableFuture<Stats> stats() {
+        StatsRequest request = new StatsRequest();
+        inbox.offer(request);
+        return request.result;
+    }
+
+    /**
+     * Changes this partition's memory budget (0 for none) and eviction policy. Safe to call
+     * from any thread; the worker applies it, evicting if needed, after the commands already queued.
+     */
+    void configureEviction(long maxBytes, EvictionPolicy.Kind kind) {
+        requestedMaxBytes = maxBytes;
+        requestedPolicy = kind;
+        inbox.offer(RECONFIGURE);
+    }
+
+    @Override
+    public void run() {
+        List<CacheCommand> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping && !Thread.currentThread().isInterrupted()) {
+            try {
+                // Sleep until the next command, or until the timing wheel has work
+                long wait = wheel.millisUntilNextTick(System.currentTimeMillis());
+                CacheCommand first = wait < 0 ? inbox.take() : inbox.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    inbox.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Restore interrupt status
+                break; // Exit worker loop on shutdown
+            }
+
+            for (CacheCommand cmd : batch) {
+                if (cmd == SHUTDOWN) {
+                    // An import that never came: run what waited for it rather than leave it unanswered
+                    held.forEach(this::execute);
+                    held.clear();
+                    // Whatever happens to this cachebase next, near caches must not keep its keys
+                    tracking.changedAll();
+                    tracking.flush(cachebaseName);
+                    stopping = true;
+                    break;
+                }
+                if (cmd == BACKGROUND_WRITTEN) {
+                    finishBackgroundWrite();
+                    continue;
+                }
+                if (cmd == RESTORED) {
+                    afterRestore();
+                    continue;
+                }
+                if (cmd == RECONFIGURE) {
+                    applyEvictionConfig();
+                    continue;
                 }
-                case GET -> {
-                    result = store.getOrDefault(cmd.key, "(nil)");
+                if (cmd instanceof StatsRequest request) {
+                    request.result.complete(new Stats(store.size(), documents.size(), usedBytes, maxBytes, store.offHeapBytes(),
+                            commands, hits, misses, evictions, expiredKeys,
+                            queueWait.copy(), execution.copy(), endToEnd.copy()));
+                    continue;
                 }
-                default -> {
-                    result = "Invalid command";
+                if (cmd instanceof ReplicaDump dump) {
+                    dump.callback.complete(Reply.bulk(dumpRecords(dump)));
+                    continue;
                 }
+                if (cmd instanceof BeginImport begin) {
+                    importing = begin.slots;
+                    importStarted = begin;
+                    continue;
+                }
+                if (cmd instanceof ExportSlots export) {
+                    exportSlots(export);
+                    continue;
+                }
+                if (cmd instanceof ImportEntries entries) {
+                    importEntries(entries);
+                    continue;
+                }
+                if (cmd instanceof MigrateBatch migration) {
+                    migrateBatch(migration);
+                    continue;
+                }
+                if (ClusterState.isEnabled() && redirected(cmd)) {
+                    continue;
+                }
+                if (importing != null && waitsForImport(cmd)) {
+                    held.add(cmd);
+                    continue;
+                }
+                execute(cmd);
             }
+            batch.clear();
+            expireDue();
+            commit();
+        }
+        closeLog();
+        store.close();
+    }
+
+    /**
+     * Group commit: one log write (and fsync, under {@code always}) for every write in the
+     * batch, after which the batch's writes are acknowledged.
+     */
+    private void commit() {
+        replicated.publish();
+        tracking.flush(cachebaseName);
+        if (awaitingCommit.isEmpty() && (log == null || !log.hasPending())) return;
 
-            long end = System.nanoTime();
-            long durationMicros = (end - start) / 1_000;
+        Reply failure = null;
+        try {
+            log.commit();
+        } catch (IOException e) {
+            failure = Reply.error("Error: write was applied in memory but not persisted: " + e.getMessage());
+        }
+        long now = System.nanoTime();
+        for (Unacknowledged write : awaitingCommit) {
+            write.cmd().callback.complete(failure != null ? failure : write.reply());
+            if (!(write.cmd() instanceof BeginImport)) endToEnd.record(now - write.cmd().enqueuedAt);
+        }
+        awaitingCommit.clear();
+
+        if (log.shouldRewrite()) {
+            startBackgroundWrite(false);
+        }
+    }
+
+    /**
+     * Active expiry: advances the timing wheel and removes at most
+     * {@link #MAX_EXPIRIES_PER_ROUND} keys whose time has come. Any left over stay due, so
+     * the next loop round handles them right after the commands that arrived meanwhile.
+     * Expiring a key writes nothing to the log: replay drops keys whose expiry has passed.
+     */
+    private void expireDue() {
+        wheel.advance(System.currentTimeMillis());
+        for (int i = 0; i < MAX_EXPIRIES_PER_ROUND; i++) {
+            TimingWheel.Timer timer = wheel.poll();
+            if (timer == null) return;
+            remove(timer.key);
+            expiredKeys++;
+        }
+    }
+
+    /**
+     * Returns a key's value, or {@code null} if it is missing. A key whose expiry has passed
+     * is removed here (lazy expiry), even if the wheel has not reached it yet.
+     */
+    private byte[] lookup(String key) {
+        byte[] value = store.get(key);
+        if (value != null) {
+            TimingWheel.Timer timer = expires.get(key);
+            if (timer != null && timer.deadline <= System.currentTimeMillis()) {
+                remove(key);
+                expiredKeys++;
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /** A read command's lookup: also counts the hit or miss and tells the policy. */
+    private byte[] read(String key) {
+        byte[] value = lookup(key);
+        if (value == null) {
+            misses++;
+            if (policy != null) policy.onMiss(key);
+        } else {
+            hits++;
+            if (policy != null) policy.onAccess(key);
+        }
+        return value;
+    }
+
+    /**
+     * Estimated heap footprint of one entry, with its document tree if it has one. Keys are
+     * usually Latin-1, one byte per char.
+     */
+    private static long entrySize(String key, int valueLength, JsonDocument document) {
+        return ENTRY_OVERHEAD + key.length() + valueLength + (document != null ? document.treeBytes() : 0);
+    }
+
+    /** Stores a value, keeping the memory estimate, the policy and the indexes up to date. */
+    private void put(String key, byte[] value) {
+        // A plain SET needs a tree only for the indexes to see
+        put(key, value, indexes.isEmpty() ? null : JsonDocument.tryParse(value));
+    }
+
+    /** {@link #put(String, byte[])} of a value whose document tree is already parsed (or null if none). */
+    private void put(String key, byte[] value, JsonDocument document) {
+        put(key, value, document, null);
+    }
+
+    /** Stores a value with its document tree or, for a counter's text, its number; either may be null. */
+    private void put(String key, byte[] value, JsonDocument document, Counter counter) {
+        JsonDocument replaced = documents.get(key);
+        // The indexes find the old entry by the old text
+        byte[] replacedText = replaced != null && !indexes.isEmpty() ? store.get(key) : null;
+        int previous = store.put(key, value);
+        tracking.changed(key);
+        if (counter != null) {
+            counters.put(key, counter);
+        } else if (!counters.isEmpty()) {
+            counters.remove(key);
+        }
+        if (document != null) {
+            documents.put(key, document);
+        } else if (replaced != null) {
+            documents.remove(key);
+        }
+        reindex(key, replaced, replacedText, document, value);
+        long size = entrySize(key, value.length, document);
+        if (previous < 0) {
+            usedBytes += size;
+            if (policy != null) policy.onInsert(key, size);
+        } else {
+            usedBytes += size - entrySize(key, previous, replaced);
+            if (policy != null) policy.onUpdate(key, size);
+        }
+    }
+
+    /** Moves a key from its old document's index entries to its new one's; either may be null. */
+    private void reindex(String key, JsonDocument before, byte[] beforeText, JsonDocument after, byte[] afterText) {
+        for (SecondaryIndex index : indexes) {
+            if (before != null) index.remove(key, before, beforeText);
+            if (after != null) index.add(key, after, afterText);
+        }
+    }
+
+    /** Removes a key with its expiry. */
+    private void remove(String key) {
+        JsonDocument document = documents.get(key);
+        byte[] text = document != null && !indexes.isEmpty() ? store.get(key) : null;
+        int previous = store.remove(key);
+        if (previous < 0) return;
+        tracking.changed(key);
+        counters.remove(key);
+        documents.remove(key);
+        reindex(key, document, text, null, null);
+        usedBytes -= entrySize(key, previous, document);
+        if (policy != null) policy.onRemove(key);
+        TimingWheel.Timer timer = expires.remove(key);
+        if (timer != null) wheel.cancel(timer);
+    }
 
-            System.out.printf("[Worker-%d] %s key='%s' | time=%dµs | result=%s%n",
-                    workerId, cmd.type, cmd.key, durationMicros, result);
+    // Every write goes to the log and, once a follower has synced, to the replication feed
 
+    private void logSet(String key, byte[] value) {
+        if (log != null) log.appendSet(key, value);
+        if (ReplicationFeed.isEnabled()) replicated.set(key, value);
+    }
+
+    private void logExpire(String key, long expireAt) {
+        if (log != null) log.appendExpire(key, expireAt);
+        if (ReplicationFeed.isEnabled()) replicated.expire(key, expireAt);
+    }
+
+    private void logDelete(String key) {
+        if (log != null) log.appendDelete(key);
+        if (ReplicationFeed.isEnabled()) replicated.delete(key);
+    }
+
+    /**
+     * Evicts keys chosen by the policy until the partition fits its budget again. Each
+     * eviction is logged as a delete so the key does not come back on restart.
+     */
+    private void evictIfNeeded() {
+        if (policy == null) return;
+        while (usedBytes > maxBytes) {
+            String victim = policy.victim();
+            if (victim == null) return;
+            remove(victim);
+            logDelete(victim);
+            evictions++;
+        }
+    }
+
+    private void applyEvictionConfig() {
+        long newMax = requestedMaxBytes;
+        EvictionPolicy.Kind newKind = requestedPolicy;
+        if (newMax != maxBytes || newKind != policyKind) {
+            maxBytes = newMax;
+            policyKind = newKind;
+            rebuildPolicy();
+        }
+        evictIfNeeded();
+    }
+
+    /** Starts a fresh policy that knows every key, in no particular order. */
+    private void rebuildPolicy() {
+        policy = maxBytes > 0 ? EvictionPolicy.create(policyKind, maxBytes) : null;
+        if (policy == null) return;
+        EvictionPolicy fresh = policy;
+        store.forEachLength((key, length) -> fresh.onInsert(key, entrySize(key, length, documents.get(key))));
+    }
+
+    /**
+     * Sets when a key expires, replacing its previous expiry; 0 means never.
+     *
+     * @return {@code true} if the key had an expiry before.
+     */
+    private boolean setExpiry(String key, long expireAt) {
+        TimingWheel.Timer timer = expireAt != 0 ? new TimingWheel.Timer(key, expireAt) : null;
+        TimingWheel.Timer previous = timer != null ? expires.put(key, timer) : expires.remove(key);
+        if (previous != null) wheel.cancel(previous);
+        if (timer != null) wheel.add(timer);
+        return previous != null;
+    }
+
+    private Map<String, Long> copyExpiries() {
+        Map<String, Long> copy = new HashMap<>(expires.size() * 4 / 3 + 1);
+        for (TimingWheel.Timer timer : expires.values()) {
+            copy.put(timer.key, timer.deadline);
+        }
+        return copy;
+    }
+
+    /**
+     * Starts rewriting the log, or writing a snapshot, from the live data. The store is
+     * copied here, on the worker thread, so the copy is consistent; the copy only shares
+     * the immutable value arrays. Writing the file happens on a background thread while
+     * this worker keeps serving.
+     *
+     * @return {@code false} if there is no log or a rewrite or snapshot is already running.
+     */
+    private boolean startBackgroundWrite(boolean snapshot) {
+        if (log == null || log.isRewriting()) return false;
+
+        Map<String, byte[]> copy = store.copy();
+        Map<String, Long> expiries = copyExpiries();
+        File target = snapshot
+                ? log.beginSnapshot(SnapshotFile.fileFor(cachebaseName, workerId))
+                : log.beginRewrite();
+        backgroundFile = target;
+        backgroundSnapshot = snapshot;
+        backgroundFailure = null;
+        Thread.ofPlatform().daemon().name(workerThread.getName() + (snapshot ? "-bgsave" : "-rewrite")).start(() -> {
+            try {
+                if (snapshot) {
+                    SnapshotFile.write(target, copy, expiries);
+                } else {
+                    WorkerLog.writeRecords(target, copy, expiries);
+                }
+            } catch (IOException e) {
+                backgroundFailure = e;
+            }
+            inbox.offer(BACKGROUND_WRITTEN);
+        });
+        return true;
+    }
+
+    private void finishBackgroundWrite() {
+        store.releaseCopy();
+        File target = backgroundFile;
+        backgroundFile = null;
+        IOException failure = backgroundFailure;
+        if (failure == null) {
+            try {
+                if (backgroundSnapshot) {
+                    log.finishSnapshot(target, SnapshotFile.fileFor(cachebaseName, workerId));
+                } else {
+                    log.finishRewrite(target);
+                }
+                return;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        log.abortRewrite(target);
+        System.err.println((backgroundSnapshot ? "Snapshot" : "Log rewrite") + " of " + cachebaseName
+                + " worker " + workerId + " failed, keeping the old files: " + failure.getMessage());
+    }
+
+    /**
+     * Writes a snapshot on the worker thread itself; commands queue up until it is done.
+     */
+    private Reply save() {
+        if (log == null) return Reply.error("Error: worker " + workerId + " has no log.");
+        if (log.isRewriting()) return Reply.error("Error: a rewrite or snapshot is already in progress.");
+
+        File snapshot = SnapshotFile.fileFor(cachebaseName, workerId);
+        File target = log.beginSnapshot(snapshot);
+        try {
+            SnapshotFile.write(target, store.view(), copyExpiries());
+            log.finishSnapshot(target, snapshot);
+            return Reply.OK;
+        } catch (IOException e) {
+            log.abortRewrite(target);
+            return Reply.error("Error: snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads this partition's snapshot. Runs on a loader thread before the cachebase is
+     * visible to clients, so nothing else touches the store.
+     *
+     * @return The number of records loaded.
+     */
+    long restoreSnapshot() throws IOException {
+        return SnapshotFile.load(SnapshotFile.fileFor(cachebaseName, workerId), new WorkerLog.RecordHandler() {
+            @Override
+            public void set(String key, byte[] value) {
+                restoreEntry(key, value);
+            }
+
+            @Override
+            public void expire(String key, long expireAt) {
+                restoreExpiry(key, expireAt);
+            }
+
+            @Override
+            public void delete(String key) {
+                restoreDelete(key);
+            }
+        });
+    }
+
+    /**
+     * Applies one replayed SET record during startup recovery, before clients are served.
+     */
+    void restoreEntry(String key, byte[] value) {
+        store.put(key, value);
+        expires.remove(key);
+    }
+
+    /**
+     * Applies one replayed DELETE record during startup recovery.
+     */
+    void restoreDelete(String key) {
+        store.remove(key);
+        expires.remove(key);
+    }
+
+    /**
+     * Applies one replayed EXPIRE record during startup recovery. The timer only enters
+     * the wheel in {@link #finishRestore()}, on the worker thread.
+     */
+    void restoreExpiry(String key, long expireAt) {
+        if (expireAt == 0) {
+            expires.remove(key);
+        } else {
+            expires.put(key, new TimingWheel.Timer(key, expireAt));
+        }
+    }
+
+    /**
+     * Called once recovery is done: before it runs any command, the worker schedules the
+     * restored expiries, measures what it loaded and evicts down to its budget. Keys that
+     * expired while the server was down go at once, in bounded rounds.
+     */
+    void finishRestore() {
+        inbox.offer(RESTORED);
+    }
+
+    private void afterRestore() {
+        expires.values().removeIf(timer -> !store.containsKey(timer.key));
+        for (TimingWheel.Timer timer : expires.values()) {
+            wheel.add(timer);
+        }
+        // The log does not tell JSON.SET from SET: with indexes, every document needs its tree
+        if (!indexes.isEmpty()) {
+            for (Map.Entry<String, byte[]> entry : store.view().entrySet()) {
+                JsonDocument document = JsonDocument.tryParse(entry.getValue());
+                if (document == null) continue;
+                documents.put(entry.getKey(), document);
+                for (SecondaryIndex index : indexes) {
+                    index.add(entry.getKey(), document, entry.getValue());
+                }
+            }
+        }
+        long[] total = {0};
+        store.forEachLength((key, length) -> total[0] += entrySize(key, length, documents.get(key)));
+        usedBytes = total[0];
+        rebuildPolicy();
+        evictIfNeeded();
+    }
+
+    /**
+     * Sets up this worker's indexes, still empty, before it runs any command: after
+     * construction and before {@link #start()}, from the thread that built it.
+     */
+    void defineIndexes(Map<JsonPath, SecondaryIndex.Kind> fields) {
+        fields.forEach((field, kind) -> indexes.add(new SecondaryIndex(field, kind)));
+    }
+
+    /** {@code JSON.SET}: puts {@code document} at {@code path} of the key's document. */
+    static final class JsonSet extends CacheCommand {
+        final JsonPath path;
+        final JsonDocument document;
+
+        JsonSet(String key, JsonPath path, byte[] text, JsonDocument document, CompletableFuture<Reply> callback) {
+            super(Type.JSONSET, key, text, callback);
+            this.path = path;
+            this.document = document;
+        }
+    }
+
+    /**
+     * {@code INCR}, {@code INCRBY}, {@code DECR} and {@code DECRBY} add {@code delta};
+     * {@code INCRBYFLOAT} adds {@code floatDelta} ({@code isFloat}).
+     */
+    static final class Increment extends CacheCommand {
+        final long delta;
+        final double floatDelta;
+        final boolean isFloat;
+
+        Increment(String key, long delta, CompletableFuture<Reply> callback) {
+            super(Type.INCR, key, null, callback);
+            this.delta = delta;
+            this.floatDelta = 0;
+            this.isFloat = false;
+        }
+
+        Increment(String key, double floatDelta, CompletableFuture<Reply> callback) {
+            super(Type.INCR, key, null, callback);
+            this.delta = 0;
+            this.floatDelta = floatDelta;
+            this.isFloat = true;
+        }
+    }
+
+    /** {@code JSON.GET}: the value at {@code path} of the key's document. */
+    static final class JsonGet extends CacheCommand {
+        final JsonPath path;
+
+        JsonGet(String key, JsonPath path, CompletableFuture<Reply> callback) {
+            super(Type.JSONGET, key, null, callback);
+            this.path = path;
+        }
+    }
+
+    /** {@code FIND} on one worker; its matching keys are in {@code matches} once the callback completes. */
+    static final class Find extends CacheCommand {
+        final List<JsonPredicate> conditions;
+        final List<String> matches = new ArrayList<>();
+
+        Find(List<JsonPredicate> conditions, CompletableFuture<Reply> callback) {
+            super(Type.FIND, "", null, callback);
+            this.conditions = conditions;
+        }
+    }
+
+    /**
+     * One step of {@code SCAN} on one worker; once the callback completes, {@code keys} holds
+     * the live keys found that match {@code pattern} (null for all) and {@code next} the cursor
+     * to continue from, 0 once the worker is done.
+     */
+    static final class Scan extends CacheCommand {
+        final int cursor;
+        final int count;
+        final Pattern pattern;
+        final List<String> keys = new ArrayList<>();
+        int next;
+
+        Scan(int cursor, int count, Pattern pattern, CompletableFuture<Reply> callback) {
+            super(Type.SCAN, "", null, callback);
+            this.cursor = cursor;
+            this.count = count;
+            this.pattern = pattern;
+        }
+    }
+
+    /** Builds an index of {@code field}, replacing any there is, or drops it if {@code kind} is null. */
+    static final class IndexChange extends CacheCommand {
+        final JsonPath field;
+        final SecondaryIndex.Kind kind;
+
+        IndexChange(JsonPath field, SecondaryIndex.Kind kind, CompletableFuture<Reply> callback) {
+            super(Type.INDEX, "", null, callback);
+            this.field = field;
+            this.kind = kind;
+        }
+    }
+
+    /** Asks for this worker's live entries as replication records, for a follower's full sync. */
+    static final class ReplicaDump extends CacheCommand {
+        final int cursor;
+        int next;
+
+        ReplicaDump(int cursor, CompletableFuture<Reply> callback) {
+            super(Type.GET, "", null, callback);
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * A page of this worker's live entries as {@code SET} and {@code EXPIREAT} records, taken
+     * on its thread after the commands already queued. Completes with a bulk reply; the
+     * command's {@code next} is the cursor of the following page, 0 after the last one.
+     */
+    ReplicaDump dump(int cursor) {
+        ReplicaDump page = new ReplicaDump(cursor, new CompletableFuture<>());
+        inbox.offer(page);
+        return page;
+    }
+
+    /**
+     * Walks the store from the page's cursor, as SCAN does, until the records pass
+     * {@link #DUMP_PAGE_BYTES}. A key may come twice if the table grew between pages, and a
+     * key changed meanwhile may be missed or stale; the follower gets both right from the
+     * feed, which it reads from before the first page.
+     */
+    private byte[] dumpRecords(ReplicaDump page) {
+        ReplicationFeed.Records records = new ReplicationFeed.Records(cachebaseName);
+        long now = System.currentTimeMillis();
+        int cursor = page.cursor;
+        do {
+            cursor = store.scan(cursor, 1, key -> {
+                TimingWheel.Timer timer = expires.get(key);
+                if (timer != null && timer.deadline <= now) return;
+                records.set(key, store.get(key));
+                if (timer != null) records.expire(key, timer.deadline);
+            });
+        } while (cursor != 0 && records.size() < DUMP_PAGE_BYTES);
+        page.next = cursor;
+        return records.toByteArray();
+    }
+
+    /** Announces slots this worker takes over; commands on them wait for the {@link ImportEntries}. */
+    private static final class BeginImport extends CacheCommand {
+        final BitSet slots;
+
+        BeginImport(BitSet slots, CompletableFuture<Reply> installed) {
+            super(Type.SET, "", null, installed);
+            this.slots = slots;
+        }
+    }
+
+    /** Asks a worker to hand every key it no longer owns under {@code table} to the owner. */
+    private static final class ExportSlots extends CacheCommand {
+        final SlotTable table;
+        final Worker[] owners;
+        // Owners waiting for an import from this worker, which get one even if it is empty; null if none wait
+        final boolean[] expected;
+
+        ExportSlots(SlotTable table, Worker[] owners, boolean[] expected, CompletableFuture<Reply> done) {
+            super(Type.SET, "", null, done);
+            this.table = table;
+            this.owners = owners;
+            this.expected = expected;
+        }
+    }
+
+    /** Entries handed over by another worker, with their expiry times (0 for none). */
+    private static final class ImportEntries extends CacheCommand {
+        final List<String> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        final List<Long> expiries = new ArrayList<>();
+        // Ends this worker's wait for the slots it was told about in a BeginImport
+        final boolean awaited;
+
+        ImportEntries(boolean awaited) {
+            super(Type.SET, "", null, null);
+            this.awaited = awaited;
+        }
+    }
+
+    /**
+     * Tells this worker it now owns {@code slots}. Their entries come later from the previous
+     * owner; until then, commands on those slots are held back in arrival order.
+     * {@code installed} completes once the entries are stored and logged.
+     */
+    void beginImport(BitSet slots, CompletableFuture<Reply> installed) {
+        inbox.offer(new BeginImport(slots, installed));
+    }
+
+    /**
+     * Has this worker move every key whose slot {@code table} gives to another worker to
+     * that worker. {@code done} completes with the number of keys moved once they are all
+     * queued at their owners.
+     *
+     * @param expected Workers waiting for this worker's import after a {@link #beginImport}, or null.
+     */
+    void exportSlots(SlotTable table, Worker[] owners, boolean[] expected, CompletableFuture<Reply> done) {
+        inbox.offer(new ExportSlots(table, owners, expected, done));
+    }
+
+    /** Whether a command touches a slot whose entries are still on their way here. */
+    private boolean waitsForImport(CacheCommand cmd) {
+        if (cmd.keys != null) {
+            for (String key : cmd.keys) {
+                if (importing.get(SlotTable.slotOf(key))) return true;
+            }
+            return false;
+        }
+        return switch (cmd.type) {
+            case SET, GET, EXPIRE, TTL, PERSIST, INCR, JSONSET, JSONGET, DELETE -> importing.get(SlotTable.slotOf(cmd.key));
+            case FIND, SCAN -> true; // Its answer must include the keys on their way
+            default -> false;
+        };
+    }
+
+    /**
+     * Removes the keys this worker gives up and sends them to their new owners. The removals
+     * are not logged: until a snapshot replaces this worker's files the keys are still in
+     * them, so a crash before the new owner has committed them loses nothing; recovery then
+     * hands such keys to their owner again (see Cachebase#restore).
+     */
+    private void exportSlots(ExportSlots export) {
+        ImportEntries[] outgoing = new ImportEntries[export.owners.length];
+        List<String> leaving = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, byte[]> entry : store.view().entrySet()) {
+            String key = entry.getKey();
+            int owner = export.table.ownerOfKey(key);
+            if (owner == workerId) continue;
+            leaving.add(key);
+            TimingWheel.Timer timer = expires.get(key);
+            long expireAt = timer != null ? timer.deadline : 0;
+            if (expireAt != 0 && expireAt <= now) continue; // Expired: dropped, not moved
+            if (outgoing[owner] == null) outgoing[owner] = new ImportEntries(export.expected != null);
+            outgoing[owner].keys.add(key);
+            outgoing[owner].values.add(entry.getValue());
+            outgoing[owner].expiries.add(expireAt);
+        }
+        for (String key : leaving) {
+            remove(key);
+        }
+        // The new owners' records of these keys must follow this worker's in the feed
+        replicated.publish();
+        for (int w = 0; w < outgoing.length; w++) {
+            if (outgoing[w] == null && export.expected != null && export.expected[w]) {
+                outgoing[w] = new ImportEntries(true);
+            }
+            if (outgoing[w] != null) export.owners[w].handle(outgoing[w]);
+        }
+        export.callback.complete(Reply.integer(leaving.size()));
+    }
+
+    /**
+     * Stores handed-over entries this worker does not have yet; a key already here is
+     * newer. If this import was awaited, the commands held back meanwhile run next.
+     */
+    private void importEntries(ImportEntries entries) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < entries.keys.size(); i++) {
+            String key = entries.keys.get(i);
+            long expireAt = entries.expiries.get(i);
+            if (store.containsKey(key) || (expireAt != 0 && expireAt <= now)) continue;
+            byte[] value = entries.values.get(i);
+            put(key, value);
+            setExpiry(key, expireAt);
+            logSet(key, value);
+            if (expireAt != 0) logExpire(key, expireAt);
+        }
+        evictIfNeeded();
+        if (!entries.awaited || importing == null) return;
+
+        if (log != null) {
+            awaitingCommit.add(new Unacknowledged(importStarted, Reply.OK));
+        } else {
+            importStarted.callback.complete(Reply.OK);
+        }
+        importing = null;
+        importStarted = null;
+        List<CacheCommand> waiting = new ArrayList<>(held);
+        held.clear();
+        for (CacheCommand cmd : waiting) {
+            execute(cmd);
+        }
+    }
+
+    /**
+     * Answers a command with {@code ASK}, {@code MOVED} or {@code TRYAGAIN} instead of running
+     * it if its key belongs to another cluster node (see {@link ClusterState#redirect}). A key
+     * of a migrating slot that is still here is served here.
+     */
+    private boolean redirected(CacheCommand cmd) {
+        if (cmd.keys != null) {
+            // As for one key: a key of a migrating slot that is still here is served here. Keys
+            // that are all gone to the same target get ASK; only a real split gets TRYAGAIN.
+            boolean anyHere = false;
+            Reply ask = null;
+            for (String key : cmd.keys) {
+                int slot = SlotTable.slotOf(key);
+                Reply redirect = ClusterState.redirect(slot);
+                if (redirect == null) {
+                    anyHere = true;
+                } else if (!ClusterState.isMigrating(slot)) {
+                    cmd.callback.complete(redirect); // MOVED or CLUSTERDOWN
+                    return true;
+                } else if (lookup(key) != null) {
+                    anyHere = true;
+                } else if (ask == null) {
+                    ask = redirect;
+                } else if (!ask.toString().equals(redirect.toString())) {
+                    anyHere = true; // Keys of different migrating slots: a split as well
+                }
+            }
+            if (ask == null) return false;
+            cmd.callback.complete(anyHere ? ClusterState.tryAgain() : ask);
+            return true;
+        }
+        switch (cmd.type) {
+            case SET, GET, EXPIRE, TTL, PERSIST, INCR, JSONSET, JSONGET, DELETE -> {
+                int slot = SlotTable.slotOf(cmd.key);
+                Reply redirect = ClusterState.redirect(slot);
+                if (redirect == null || (ClusterState.isMigrating(slot) && lookup(cmd.key) != null)) return false;
+                cmd.callback.complete(redirect);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * This worker's progress in handing the keys of some slots to another cluster node,
+     * kept between batches. Only the worker thread touches it while a batch runs.
+     */
+    static final class Handoff {
+        final BitSet slots;
+        final NodeLink target;
+        // The keys to send, collected by the first batch; keys created later in these slots go
+        // to the target directly (ASK), so no others appear here
+        List<String> keys;
+        int next;
+        long moved;
+
+        Handoff(BitSet slots, NodeLink target) {
+            this.slots = slots;
+            this.target = target;
+        }
+
+        boolean isDone() {
+            return keys != null && next >= keys.size();
+        }
+    }
+
+    private static final class MigrateBatch extends CacheCommand {
+        final Handoff handoff;
+
+        MigrateBatch(Handoff handoff, CompletableFuture<Reply> done) {
+            super(Type.SET, "", null, done);
+            this.handoff = handoff;
+        }
+    }
+
+    /**
+     * Sends the target node the next batch of this worker's keys in the handoff's slots, and
+     * deletes them here once the target has them. {@code done} completes with the number of
+     * keys sent, or with the error that stopped the batch; keys not sent stay here.
+     */
+    CompletableFuture<Reply> migrateBatch(Handoff handoff) {
+        CompletableFuture<Reply> done = new CompletableFuture<>();
+        inbox.offer(new MigrateBatch(handoff, done));
+        return done;
+    }
+
+    /**
+     * Runs a batch of a handoff. The worker waits for the target's reply, like a Redis
+     * {@code MIGRATE}: holding every other command back until the batch is deleted is what
+     * keeps a write from landing on a copy that is about to go.
+     */
+    private void migrateBatch(MigrateBatch batch) {
+        Handoff handoff = batch.handoff;
+        if (handoff.keys == null) {
+            handoff.keys = new ArrayList<>();
+            for (String key : store.view().keySet()) {
+                if (handoff.slots.get(SlotTable.slotOf(key))) handoff.keys.add(key);
+            }
+        }
+        List<Reply> request = new ArrayList<>();
+        request.add(Reply.bulk("CLUSTER"));
+        request.add(Reply.bulk("IMPORT"));
+        request.add(Reply.bulk(cachebaseName));
+        List<String> sent = new ArrayList<>();
+        long bytes = 0;
+        long now = System.currentTimeMillis();
+        while (handoff.next < handoff.keys.size() && sent.size() < MIGRATE_BATCH_KEYS && bytes < MIGRATE_BATCH_BYTES) {
+            String key = handoff.keys.get(handoff.next++);
+            byte[] value = lookup(key);
+            if (value == null) continue; // Deleted or expired since the keys were collected
+            TimingWheel.Timer timer = expires.get(key);
+            request.add(Reply.bulk(key));
+            request.add(Reply.bulk(value));
+            request.add(Reply.bulk(Long.toString(timer != null ? timer.deadline : 0)));
+            sent.add(key);
+            bytes += key.length() + value.length;
+        }
+        if (!sent.isEmpty()) {
+            Reply reply;
+            try {
+                reply = handoff.target.call(request);
+            } catch (IOException e) {
+                reply = Reply.error("Error: " + handoff.target.address() + " unreachable: " + e.getMessage());
+            }
+            if (reply.isError()) {
+                handoff.next = handoff.keys.size(); // Stop; the keys stay here
+                batch.callback.complete(reply);
+                return;
+            }
+            for (String key : sent) {
+                remove(key);
+                logDelete(key);
+            }
+            handoff.moved += sent.size();
+        }
+        batch.callback.complete(Reply.integer(sent.size()));
+    }
+
+    /**
+     * Waits until the worker thread has stopped, after {@link #shutdown()}.
+     */
+    void awaitTermination() throws InterruptedException {
+        workerThread.join();
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close " + log.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    private void execute(CacheCommand cmd) {
+        long start = System.nanoTime();
+        queueWait.record(start - cmd.enqueuedAt);
+        commands++;
+        Reply result;
+        boolean write = false; // Appended to the log, so the reply waits for the commit
+
+        switch (cmd.type) {
+            case SET -> {
+                put(cmd.key, cmd.value);
+                setExpiry(cmd.key, cmd.expireAt);
+                logSet(cmd.key, cmd.value);
+                if (cmd.expireAt != 0) logExpire(cmd.key, cmd.expireAt);
+                evictIfNeeded();
+                result = Reply.OK;
+                write = true;
+            }
+            case GET -> {
+                byte[] value = read(cmd.key);
+                if (cmd.tracking != null) tracking.track(cmd.key, cmd.tracking);
+                result = value != null ? Reply.bulk(value) : Reply.NIL;
+            }
+            case MSET -> {
+                for (int i = 0; i < cmd.keys.length; i++) {
+                    put(cmd.keys[i], cmd.values[i]);
+                    setExpiry(cmd.keys[i], 0);
+                    logSet(cmd.keys[i], cmd.values[i]);
+                }
+                evictIfNeeded();
+                result = Reply.OK;
+                write = true;
+            }
+            case MGET -> {
+                for (int i = 0; i < cmd.keys.length; i++) {
+                    byte[] value = read(cmd.keys[i]);
+                    cmd.results[cmd.positions[i]] = value != null ? Reply.bulk(value) : Reply.NIL;
+                    if (cmd.tracking != null) tracking.track(cmd.keys[i], cmd.tracking);
+                }
+                result = Reply.OK;
+            }
+            case EXPIRE -> {
+                if (lookup(cmd.key) == null) {
+                    result = Reply.integer(0);
+                } else {
+                    setExpiry(cmd.key, cmd.expireAt);
+                    logExpire(cmd.key, cmd.expireAt);
+                    result = Reply.integer(1);
+                    write = true;
+                }
+            }
+            case TTL -> {
+                TimingWheel.Timer timer = expires.get(cmd.key);
+                if (lookup(cmd.key) == null) {
+                    result = Reply.integer(-2);
+                } else if (timer == null) {
+                    result = Reply.integer(-1);
+                } else {
+                    result = Reply.integer((timer.deadline - System.currentTimeMillis() + 500) / 1000);
+                }
+            }
+            case PERSIST -> {
+                if (lookup(cmd.key) != null && setExpiry(cmd.key, 0)) {
+                    logExpire(cmd.key, 0);
+                    result = Reply.integer(1);
+                    write = true;
+                } else {
+                    result = Reply.integer(0);
+                }
+            }
+            case DELETE -> {
+                if (lookup(cmd.key) == null) {
+                    result = Reply.integer(0);
+                } else {
+                    remove(cmd.key);
+                    logDelete(cmd.key);
+                    result = Reply.integer(1);
+                    write = true;
+                }
+            }
+            case REWRITELOG -> {
+                if (log == null) {
+                    result = Reply.error("Error: worker " + workerId + " has no log.");
+                } else {
+                    result = startBackgroundWrite(false) ? Reply.OK : Reply.status("already in progress");
+                }
+            }
+            case BGSAVE -> {
+                if (log == null) {
+                    result = Reply.error("Error: worker " + workerId + " has no log.");
+                } else {
+                    result = startBackgroundWrite(true) ? Reply.OK : Reply.status("already in progress");
+                }
+            }
+            case SAVE -> result = save();
+            case JSONSET -> {
+                result = jsonSet((JsonSet) cmd);
+                write = !result.isError();
+            }
+            case JSONGET -> result = jsonGet((JsonGet) cmd);
+            case INCR -> {
+                result = increment((Increment) cmd);
+                write = !result.isError();
+            }
+            case FIND -> result = find((Find) cmd);
+            case SCAN -> result = scan((Scan) cmd);
+            case INDEX -> result = changeIndex((IndexChange) cmd);
+            default -> {
+                result = Reply.error("Invalid command");
+            }
+        }
+
+        long end = System.nanoTime();
+        execution.record(end - start);
+
+        if (write && log != null) {
+            awaitingCommit.add(new Unacknowledged(cmd, result));
+        } else {
             cmd.callback.complete(result);
+            endToEnd.record(end - cmd.enqueuedAt);
+        }
+    }
+
+    /**
+     * Sets the value at a path of the key's document, or the whole document at the root path.
+     * The changed document is parsed again and logged whole, so the log and snapshots only
+     * ever hold plain SETs. The key keeps its expiry.
+     */
+    private Reply jsonSet(JsonSet cmd) {
+        byte[] current = lookup(cmd.key);
+        byte[] text = cmd.value;
+        JsonDocument document = cmd.document;
+        if (!cmd.path.isRoot()) {
+            if (current == null) return Reply.error("Error: new documents must be set at the root path ($).");
+            JsonDocument tree = document(cmd.key, current);
+            if (tree == null) return Reply.error("Error: the value of " + cmd.key + " is not a JSON document.");
+            try {
+                text = tree.with(current, cmd.path, cmd.value);
+                document = JsonDocument.parse(text);
+            } catch (IllegalArgumentException e) {
+                return Reply.error("Error: " + e.getMessage());
+            }
+        }
+        put(cmd.key, text, document);
+        logSet(cmd.key, text);
+        TimingWheel.Timer timer = expires.get(cmd.key);
+        if (timer != null) logExpire(cmd.key, timer.deadline);
+        evictIfNeeded();
+        return Reply.OK;
+    }
+
+    /**
+     * Adds to the number a key holds, 0 if it is missing, and answers the new value. The
+     * result is logged and replicated as a plain SET of its text; the key keeps its expiry.
+     */
+    private Reply increment(Increment cmd) {
+        byte[] value = lookup(cmd.key);
+        Counter counter = value == null ? null : counters.get(cmd.key);
+        if (counter == null) {
+            counter = value == null ? Counter.zero() : Counter.parse(value);
+            if (counter == null) {
+                return Reply.error(cmd.isFloat ? "Error: value is not a valid float." : "Error: value is not an integer or out of range.");
+            }
+        }
+        Reply result;
+        try {
+            if (cmd.isFloat) {
+                counter.add(cmd.floatDelta);
+                result = null;
+            } else if (!counter.isInteger()) {
+                return Reply.error("Error: value is not an integer or out of range.");
+            } else {
+                result = Reply.integer(counter.add(cmd.delta));
+            }
+        } catch (ArithmeticException e) {
+            return Reply.error(cmd.isFloat ? "Error: " + e.getMessage() + "." : "Error: increment or decrement would overflow.");
+        }
+        byte[] text = counter.encode();
+        put(cmd.key, text, null, counter);
+        logSet(cmd.key, text);
+        TimingWheel.Timer timer = expires.get(cmd.key);
+        if (timer != null) logExpire(cmd.key, timer.deadline);
+        evictIfNeeded();
+        return result != null ? result : Reply.bulk(text);
+    }
+
+    private Reply jsonGet(JsonGet cmd) {
+        byte[] text = read(cmd.key);
+        if (cmd.tracking != null) tracking.track(cmd.key, cmd.tracking);
+        if (text == null) return Reply.NIL;
+        JsonDocument document = document(cmd.key, text);
+        if (document == null) return Reply.error("Error: the value of " + cmd.key + " is not a JSON document.");
+        byte[] value = document.get(text, cmd.path);
+        return value != null ? Reply.bulk(value) : Reply.NIL;
+    }
+
+    /** The tree of a key's value {@code text}: the one kept, else parsed now; null if it is no document. */
+    private JsonDocument document(String key, byte[] text) {
+        JsonDocument document = documents.get(key);
+        return document != null ? document : JsonDocument.tryParse(text);
+    }
+
+    /**
+     * Collects the keys of this worker's live documents that meet every condition. The
+     * smallest answer of the indexes on the conditions' fields gives the candidates, or every
+     * document if none is indexed; each candidate is then checked against all conditions.
+     * Without any index, not every document has a tree: then every value is a candidate.
+     */
+    private Reply find(Find cmd) {
+        Collection<String> candidates = indexes.isEmpty() ? null : documents.keySet();
+        for (JsonPredicate condition : cmd.conditions) {
+            for (SecondaryIndex index : indexes) {
+                if (!index.field.equals(condition.field())) continue;
+                Set<String> keys = index.lookup(condition);
+                if (keys != null && keys.size() < candidates.size()) candidates = keys;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (candidates == null) {
+            for (Map.Entry<String, byte[]> entry : store.view().entrySet()) {
+                TimingWheel.Timer timer = expires.get(entry.getKey());
+                if (timer != null && timer.deadline <= now) continue;
+                JsonDocument document = document(entry.getKey(), entry.getValue());
+                if (document != null && matchesAll(cmd.conditions, document, entry.getValue())) cmd.matches.add(entry.getKey());
+            }
+            return Reply.OK;
+        }
+        for (String key : candidates) {
+            TimingWheel.Timer timer = expires.get(key);
+            if (timer != null && timer.deadline <= now) continue;
+            if (matchesAll(cmd.conditions, documents.get(key), store.get(key))) cmd.matches.add(key);
+        }
+        return Reply.OK;
+    }
+
+    private static boolean matchesAll(List<JsonPredicate> conditions, JsonDocument document, byte[] text) {
+        for (JsonPredicate condition : conditions) {
+            if (!condition.matches(document, text)) return false;
+        }
+        return true;
+    }
+
+    /** Walks a bounded part of the store from the command's cursor; expired keys are skipped. */
+    private Reply scan(Scan cmd) {
+        long now = System.currentTimeMillis();
+        cmd.next = store.scan(cmd.cursor, cmd.count, key -> {
+            TimingWheel.Timer timer = expires.get(key);
+            if (timer != null && timer.deadline <= now) return;
+            if (cmd.pattern == null || cmd.pattern.matcher(key).matches()) cmd.keys.add(key);
         });
+        return Reply.OK;
+    }
+
+    /** Builds or drops an index; a new one replies with how many documents have the field. */
+    private Reply changeIndex(IndexChange cmd) {
+        indexes.removeIf(index -> index.field.equals(cmd.field));
+        if (cmd.kind == null) return Reply.OK;
+        if (indexes.isEmpty()) parseDocuments();
+        SecondaryIndex index = new SecondaryIndex(cmd.field, cmd.kind);
+        long indexed = 0;
+        for (Map.Entry<String, JsonDocument> entry : documents.entrySet()) {
+            if (index.add(entry.getKey(), entry.getValue(), store.get(entry.getKey()))) indexed++;
+        }
+        indexes.add(index);
+        return Reply.integer(indexed);
+    }
+
+    /**
+     * Gives every JSON value without a tree its tree, as the first index needs: until then
+     * only the values written with {@code JSON.SET} have one.
+     */
+    private void parseDocuments() {
+        for (Map.Entry<String, byte[]> entry : store.view().entrySet()) {
+            String key = entry.getKey();
+            if (documents.containsKey(key)) continue;
+            JsonDocument document = JsonDocument.tryParse(entry.getValue());
+            if (document == null) continue;
+            documents.put(key, document);
+            usedBytes += document.treeBytes();
+            if (policy != null) policy.onUpdate(key, entrySize(key, entry.getValue().length, document));
+        }
     }
 
+    /**
+     * Stops the worker once it has run and committed everything submitted before this call.
+     */
     public void shutdown() {
-        workerThread.shutdownNow();
+        inbox.offer(SHUTDOWN);
     }
 }
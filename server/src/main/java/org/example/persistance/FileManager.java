@@ -3,7 +3,11 @@ package org.example.persistance;
 import org.example.core.MemoryStore;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p><strong>FileManager.java</strong></p>
@@ -32,7 +36,7 @@ import java.util.HashMap;
 public class FileManager {
 
     /** Stores mapping of client names to their corresponding log files. */
-    private static final HashMap<String, File> hashmap = new HashMap<>();
+    private static final ConcurrentHashMap<String, File> hashmap = new ConcurrentHashMap<>();
 
     /**
      * Initializes or retrieves a log file for a given client name.
@@ -42,11 +46,14 @@ public class FileManager {
      * @return A File object pointing to the log file.
      */
     public static File initLogFile(String name) {
-        return hashmap.computeIfAbsent(name, n -> {
-            File file = new File("data/" + n + "/logs/" + n + ".log");
-            file.getParentFile().mkdirs(); // Ensure directory exists
-            return file;
-        });
+        File cached = hashmap.get(name);
+        if (cached != null) return cached;
+
+        // mkdirs() runs outside the map so no map lock is held across file I/O
+        File file = new File("data/" + name + "/logs/" + name + ".log");
+        file.getParentFile().mkdirs(); // Ensure directory exists
+        File existing = hashmap.putIfAbsent(name, file);
+        return existing != null ? existing : file;
     }
 
     /**
@@ -73,21 +80,42 @@ public class FileManager {
 
     public static void showLogOption(PrintWriter toClient, BufferedReader fromClient, File logFile) throws IOException {
         if (logFile.exists()) {
-            toClient.println("Do you want to open the file " + logFile.getName() + "? (yes/no)");
+            toClient.println(logPrompt(logFile));
             String confirm = fromClient.readLine();
             if ("yes".equalsIgnoreCase(confirm)) {
-                toClient.println("--- Begin log ---");
-                try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        toClient.println(line);
-                    }
-                }
-                toClient.println("--- End log ---");
+                printLog(toClient, logFile);
             }
         }
     }
 
+    /**
+     * Builds the yes/no question asked before showing a previous session log.
+     *
+     * @param logFile The log file that would be shown.
+     * @return The prompt line, without a line terminator.
+     */
+    public static String logPrompt(File logFile) {
+        return "Do you want to open the file " + logFile.getName() + "? (yes/no)";
+    }
+
+    /**
+     * Writes the full contents of a log file to the client between begin/end markers.
+     *
+     * @param toClient PrintWriter to send the log to.
+     * @param logFile  The log file to print.
+     * @throws IOException If reading the file fails.
+     */
+    public static void printLog(PrintWriter toClient, File logFile) throws IOException {
+        toClient.println("--- Begin log ---");
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                toClient.println(line);
+            }
+        }
+        toClient.println("--- End log ---");
+    }
+
     /**
      * Recovers in-memory state from the AOF file by replaying SET commands.
      *
@@ -110,4 +138,41 @@ public class FileManager {
             toClient.println("Data recovered.");
         }
     }
+
+    /**
+     * Replays every client's AOF into the {@link MemoryStore} once, at server start, in
+     * parallel chunks. Sessions no longer replay their AOF while connecting.
+     *
+     * @return The number of SET lines applied.
+     * @throws IOException If a file cannot be read.
+     */
+    public static long recoverAllClients() throws IOException {
+        File[] clients = new File("data").listFiles(File::isDirectory);
+        if (clients == null) return 0;
+        Arrays.sort(clients);
+
+        List<File> aofFiles = new ArrayList<>();
+        for (File client : clients) {
+            File aof = new File(client, "aof/" + client.getName() + ".aof");
+            if (aof.isFile()) aofFiles.add(aof);
+        }
+        ParallelReplay replay = new ParallelReplay(ParallelReplay.Format.TEXT_LINES, 1, key -> 0,
+                new ParallelReplay.PartitionSink() {
+                    @Override
+                    public void set(int partition, String key, byte[] value) {
+                        MemoryStore.put(key, new String(value, StandardCharsets.UTF_8));
+                    }
+
+                    @Override
+                    public void expire(int partition, String key, long expireAt) {
+                        // Client AOFs have no expiry or delete records
+                    }
+
+                    @Override
+                    public void delete(int partition, String key) {
+                    }
+                },
+                "client AOFs");
+        return replay.replay(aofFiles);
+    }
 }
@@ -0,0 +1,440 @@
+package org.example.persistance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * <p><strong>ParallelReplay.java</strong></p>
+ *
+ * Replays append-only files on a fork-join pool instead of one record at a time on a
+ * single thread.
+ *
+ * <p><strong>How it works:</strong></p>
+ * <ol>
+ *     <li><strong>Split</strong>: each file is cut into chunks of about {@code 8 MB} at record
+ *         boundaries. For {@link Format#RECORDS} this only reads the length prefixes; for
+ *         {@link Format#TEXT_LINES} it seeks and moves to the next newline.</li>
+ *     <li><strong>Parse</strong>: chunks are checked (CRC) and decoded in parallel. Each chunk
+ *         sorts its records by target partition, keeping file order within a partition.</li>
+ *     <li><strong>Apply</strong>: one task per partition applies its records chunk by chunk,
+ *         in file order. A key always maps to the same partition, so every key sees its
+ *         writes in the order they were logged, while partitions load in parallel.</li>
+ * </ol>
+ *
+ * <p>Records are routed either by key or, when every file already holds one partition's
+ * records, by file: the i-th file then feeds partition i, and waves take chunks of all
+ * files in turn so the partitions still load side by side.</p>
+ *
+ * <p>Chunks are processed in waves so only a bounded number of decoded records is held
+ * in memory at once. A damaged record ends the replay of its file at that record, exactly
+ * like {@link WorkerLog#replay}; later files are still replayed. Progress is printed in 10%
+ * steps.</p>
+ */
+public class ParallelReplay {
+
+    /** Layout of the files being replayed. */
+    public enum Format {
+        /** CRC-framed {@link WorkerLog} records. */
+        RECORDS,
+        /** Legacy client AOF: one {@code SET key value} line per write. */
+        TEXT_LINES
+    }
+
+    /** Receives replayed records; called concurrently, but never concurrently for one partition. */
+    public interface PartitionSink {
+        void set(int partition, String key, byte[] value);
+
+        /** See {@link WorkerLog.RecordHandler#expire}; text AOFs never produce these. */
+        void expire(int partition, String key, long expireAt);
+
+        /** See {@link WorkerLog.RecordHandler#delete}; text AOFs never produce these. */
+        void delete(int partition, String key);
+    }
+
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final Format format;
+    private int partitions;
+    // Null when routing by file
+    private final ToIntFunction<String> partitionOf;
+    private final PartitionSink sink;
+    private final String label;
+    private final ForkJoinPool pool;
+
+    private long totalBytes;
+    private final AtomicLong parsedBytes = new AtomicLong();
+    private final AtomicInteger reportedStep = new AtomicInteger();
+
+    /**
+     * @param format      Layout of the files.
+     * @param partitions  Number of partitions records are routed to.
+     * @param partitionOf Maps a key to its partition.
+     * @param sink        Where records end up.
+     * @param label       Name used in progress messages.
+     */
+    public ParallelReplay(Format format, int partitions, ToIntFunction<String> partitionOf,
+                          PartitionSink sink, String label) {
+        this.format = format;
+        this.partitions = partitions;
+        this.partitionOf = partitionOf;
+        this.sink = sink;
+        this.label = label;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Routes by file: the records of the i-th file given to {@link #replay} go to partition
+     * i, whatever their key.
+     */
+    public ParallelReplay(Format format, PartitionSink sink, String label) {
+        this(format, 0, null, sink, label);
+    }
+
+    /** A byte range of one file, starting and ending on record boundaries. */
+    private static final class Chunk {
+        final File file;
+        // Partition of every record in the chunk when routing by file, else -1
+        final int partition;
+        final long start;
+        final long end;
+        // Filled in by the parse phase; a value is a byte[] for a SET, a Long expiry time, or null for a DELETE
+        List<List<String>> keys;
+        List<List<Object>> values;
+        String problem;
+
+        Chunk(File file, int partition, long start, long end) {
+            this.file = file;
+            this.partition = partition;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Replays the files in the given order.
+     *
+     * @return The number of records applied.
+     */
+    public long replay(List<File> files) throws IOException {
+        if (partitionOf == null) partitions = files.size();
+        List<List<Chunk>> perFile = new ArrayList<>();
+        for (int f = 0; f < files.size(); f++) {
+            File file = files.get(f);
+            if (!file.exists()) continue;
+            int partition = partitionOf == null ? f : -1;
+            List<Chunk> chunks = format == Format.RECORDS ? splitRecords(file, partition) : splitLines(file, partition);
+            for (Chunk chunk : chunks) {
+                totalBytes += chunk.end - chunk.start;
+            }
+            perFile.add(chunks);
+        }
+        if (totalBytes == 0) return 0;
+
+        int wave = Math.max(4, pool.getParallelism() * 4);
+        if (partitionOf == null) return replayByFile(perFile, wave);
+        long applied = 0;
+        for (List<Chunk> chunks : perFile) {
+            for (int from = 0; from < chunks.size(); from += wave) {
+                List<Chunk> batch = chunks.subList(from, Math.min(chunks.size(), from + wave));
+                pool.invoke(new ParseTask(batch, 0, batch.size()));
+                applied += apply(batch);
+
+                Chunk damaged = batch.stream().filter(c -> c.problem != null).findFirst().orElse(null);
+                if (damaged != null) {
+                    System.err.println("Log " + damaged.file + ": " + damaged.problem
+                            + ", ignoring the rest of the file");
+                    break;
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Files do not share partitions, so a wave may mix them: chunks are taken from each
+     * file in turn, and a damaged chunk only stops the rest of its own file.
+     */
+    private long replayByFile(List<List<Chunk>> perFile, int wave) {
+        int longest = 0;
+        for (List<Chunk> chunks : perFile) {
+            longest = Math.max(longest, chunks.size());
+        }
+        List<Chunk> order = new ArrayList<>();
+        for (int i = 0; i < longest; i++) {
+            for (List<Chunk> chunks : perFile) {
+                if (i < chunks.size()) order.add(chunks.get(i));
+            }
+        }
+
+        long applied = 0;
+        Set<File> damaged = new HashSet<>();
+        for (int from = 0; from < order.size(); from += wave) {
+            List<Chunk> batch = new ArrayList<>();
+            for (Chunk chunk : order.subList(from, Math.min(order.size(), from + wave))) {
+                if (!damaged.contains(chunk.file)) batch.add(chunk);
+            }
+            if (batch.isEmpty()) continue;
+            pool.invoke(new ParseTask(batch, 0, batch.size()));
+            applied += apply(batch);
+
+            for (Chunk chunk : batch) {
+                if (chunk.problem != null && damaged.add(chunk.file)) {
+                    System.err.println("Log " + chunk.file + ": " + chunk.problem + ", ignoring the rest of the file");
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Walks the length prefixes to find chunk boundaries. A prefix pointing past the end
+     * of the file ends the last chunk there; the parse phase reports it.
+     */
+    private List<Chunk> splitRecords(File file, int partition) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            long chunkStart = 0;
+            long position = 0;
+            while (position + 4 <= size) {
+                if (window == null || position + 4 > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, WINDOW_SIZE));
+                }
+                int payload = window.getInt((int) (position - windowStart));
+                if (payload < 5 || payload > WorkerLog.MAX_RECORD_SIZE) break;
+                position += WorkerLog.HEADER_SIZE + payload;
+                if (position - chunkStart >= CHUNK_SIZE && position < size) {
+                    chunks.add(new Chunk(file, partition, chunkStart, position));
+                    chunkStart = position;
+                }
+            }
+            // The rest, including a damaged tail, is parsed (and reported) with the last chunk
+            if (chunkStart < size) {
+                chunks.add(new Chunk(file, partition, chunkStart, size));
+            }
+        }
+        return chunks;
+    }
+
+    /** Cuts a text file about every {@link #CHUNK_SIZE} bytes, right after a newline. */
+    private List<Chunk> splitLines(File file, int partition) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long chunkStart = 0;
+            while (chunkStart < size) {
+                long cut = Math.min(size, chunkStart + CHUNK_SIZE);
+                scan:
+                while (cut < size) {
+                    probe.clear();
+                    int read = channel.read(probe, cut);
+                    if (read <= 0) {
+                        cut = size;
+                        break;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (probe.get(i) == '\n') {
+                            cut += i + 1;
+                            break scan;
+                        }
+                    }
+                    cut += read;
+                }
+                cut = Math.min(cut, size);
+                chunks.add(new Chunk(file, partition, chunkStart, cut));
+                chunkStart = cut;
+            }
+        }
+        return chunks;
+    }
+
+    /** Parses a range of chunks, splitting it in halves until one chunk is left. */
+    private final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(chunks, from, mid), new ParseTask(chunks, mid, to));
+                return;
+            }
+            Chunk chunk = chunks.get(from);
+            try {
+                parse(chunk);
+            } catch (IOException e) {
+                chunk.problem = e.getMessage();
+            }
+            reportProgress(chunk.end - chunk.start);
+        }
+    }
+
+    private void parse(Chunk chunk) throws IOException {
+        chunk.keys = new ArrayList<>(partitions);
+        chunk.values = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            chunk.keys.add(new ArrayList<>());
+            chunk.values.add(new ArrayList<>());
+        }
+
+        try (FileChannel channel = FileChannel.open(chunk.file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+            WorkerLog.RecordHandler collect = new WorkerLog.RecordHandler() {
+                @Override
+                public void set(String key, byte[] value) {
+                    add(key, value);
+                }
+
+                @Override
+                public void expire(String key, long expireAt) {
+                    add(key, expireAt);
+                }
+
+                @Override
+                public void delete(String key) {
+                    add(key, null);
+                }
+
+                private void add(String key, Object value) {
+                    int p = chunk.partition >= 0 ? chunk.partition : partitionOf.applyAsInt(key);
+                    chunk.keys.get(p).add(key);
+                    chunk.values.get(p).add(value);
+                }
+            };
+            if (format == Format.RECORDS) {
+                parseRecords(chunk, data, collect);
+            } else {
+                parseLines(data, collect);
+            }
+        }
+    }
+
+    private static void parseRecords(Chunk chunk, MappedByteBuffer data, WorkerLog.RecordHandler collect) {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        int limit = data.limit();
+        while (position < limit) {
+            long offset = chunk.start + position;
+            if (limit - position < WorkerLog.HEADER_SIZE) {
+                chunk.problem = "truncated record at offset " + offset;
+                return;
+            }
+            int payload = data.getInt(position);
+            if (payload < 5 || payload > limit - position - WorkerLog.HEADER_SIZE) {
+                chunk.problem = (payload < 5 ? "bad record length " + payload : "truncated record")
+                        + " at offset " + offset;
+                return;
+            }
+            int expectedCrc = data.getInt(position + 4);
+            String problem = WorkerLog.applyRecord(data.slice(position + WorkerLog.HEADER_SIZE, payload), expectedCrc, crc, collect);
+            if (problem != null) {
+                chunk.problem = problem + " at offset " + offset;
+                return;
+            }
+            position += WorkerLog.HEADER_SIZE + payload;
+        }
+    }
+
+    /** Same rules as {@link FileManager#recoverFromAOF}: only {@code SET key value} lines count. */
+    private static void parseLines(MappedByteBuffer data, WorkerLog.RecordHandler collect) {
+        byte[] bytes = new byte[data.limit()];
+        data.get(0, bytes);
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd > lineStart) {
+                String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                String[] parts = line.split("\\s+", 3);
+                if (parts.length == 3 && "SET".equalsIgnoreCase(parts[0])) {
+                    collect.set(parts[1], parts[2].getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            lineStart = i + 1;
+        }
+    }
+
+    /**
+     * Applies a wave of parsed chunks with one task per partition. Each task walks the
+     * chunks in order, stopping after the first damaged one of its file like the
+     * sequential replay.
+     */
+    private long apply(List<Chunk> chunks) {
+        AtomicLong applied = new AtomicLong();
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            int partition = p;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    long count = 0;
+                    for (Chunk chunk : chunks) {
+                        List<String> keys = chunk.keys.get(partition);
+                        List<Object> values = chunk.values.get(partition);
+                        for (int i = 0; i < keys.size(); i++) {
+                            switch (values.get(i)) {
+                                case byte[] value -> sink.set(partition, keys.get(i), value);
+                                case Long expireAt -> sink.expire(partition, keys.get(i), expireAt);
+                                case null -> sink.delete(partition, keys.get(i));
+                                default -> throw new IllegalStateException();
+                            }
+                        }
+                        count += keys.size();
+                        if (chunk.problem != null && (chunk.partition < 0 || chunk.partition == partition)) break;
+                    }
+                    applied.addAndGet(count);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        for (Chunk chunk : chunks) {
+            chunk.keys = null; // Let the decoded records go before the next wave
+            chunk.values = null;
+        }
+        return applied.get();
+    }
+
+    private void reportProgress(long bytes) {
+        long done = parsedBytes.addAndGet(bytes);
+        int step = (int) (done * 10 / totalBytes);
+        int previous = reportedStep.get();
+        if (step > previous && reportedStep.compareAndSet(previous, step)) {
+            System.out.printf("Recovering %s: %d%% (%,d of %,d bytes)%n", label, step * 10, done, totalBytes);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.persistance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * <p><strong>SnapshotFile.java</strong></p>
+ *
+ * Point-in-time dump of one worker's partition, written by {@code SAVE}/{@code BGSAVE}.
+ * <p>
+ * Each worker has its own snapshot next to its log, so partitions are saved and loaded
+ * independently and in parallel. Loading maps the file with {@link FileChannel#map} and
+ * decodes records straight out of the page cache, without copying the file through a
+ * stream buffer first.
+ * </p>
+ *
+ * <p>Files are stored under {@code data/cachebases/<cachebase>/worker-<id>.snap}.</p>
+ *
+ * <p><strong>Format</strong> (big-endian): magic {@code RFXS}, version (int), record count
+ * (long), then one {@link WorkerLog} SET record per entry followed by one EXPIRE record per
+ * key with an expiry. Version 1 files (written before expiry existed) have SET records only.</p>
+ */
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x52465853; // "RFXS"
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 16;
+    // Mapped in windows so files beyond 2 GB (the limit of a single mapping) load too
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Returns the snapshot file of one worker of a cachebase.
+     */
+    public static File fileFor(String cachebase, int workerId) {
+        return new File("data/cachebases/" + cachebase + "/worker-" + workerId + ".snap");
+    }
+
+    /**
+     * Writes all entries and expiries to {@code target} and forces it to disk. The maps must
+     * not change while they are written: pass copies, or call from the thread that owns them.
+     */
+    public static void write(File target, Map<String, byte[]> entries, Map<String, Long> expiries) throws IOException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(entries.size() + expiries.size()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            WorkerLog.writeRecords(channel, entries, expiries);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Loads a snapshot through memory-mapped windows.
+     *
+     * @return The number of records loaded, 0 if there is no snapshot.
+     * @throws IOException If the file is not a snapshot or is damaged; entries before the
+     *                     damage have already been passed to {@code handler}.
+     */
+    public static long load(File file, WorkerLog.RecordHandler handler) throws IOException {
+        if (!file.exists()) return 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FILE_HEADER_SIZE) {
+                throw new IOException(file + " is too short to be a snapshot");
+            }
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE));
+            int version = window.getInt(4);
+            if (window.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException(file + " is not a snapshot of version " + VERSION + " or older");
+            }
+            long expected = window.getLong(8);
+
+            CRC32C crc = new CRC32C();
+            long windowStart = 0;
+            long position = FILE_HEADER_SIZE;
+            long loaded = 0;
+            while (loaded < expected) {
+                if (position + WorkerLog.HEADER_SIZE > windowStart + window.limit()) {
+                    window = map(channel, file, position, WorkerLog.HEADER_SIZE, size);
+                    windowStart = position;
+                }
+                int offset = (int) (position - windowStart);
+                int payload = window.getInt(offset);
+                if (payload < 5 || payload > WorkerLog.MAX_RECORD_SIZE) {
+                    throw new IOException(file + ": bad record length " + payload + " at offset " + position);
+                }
+                int recordSize = WorkerLog.HEADER_SIZE + payload;
+                if (position + recordSize > windowStart + window.limit()) {
+                    window = map(channel, file, position, recordSize, size);
+                    windowStart = position;
+                    offset = 0;
+                }
+
+                int expectedCrc = window.getInt(offset + 4);
+                String problem = WorkerLog.applyRecord(window.slice(offset + WorkerLog.HEADER_SIZE, payload), expectedCrc, crc, handler);
+                if (problem != null) {
+                    throw new IOException(file + ": " + problem + " at offset " + position);
+                }
+                position += recordSize;
+                loaded++;
+            }
+            return loaded;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, File file, long position, int needed, long size) throws IOException {
+        if (position + needed > size) {
+            throw new IOException(file + " is truncated at offset " + position);
+        }
+        long length = Math.min(size - position, Math.max(WINDOW_SIZE, needed));
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+}
@@ -0,0 +1,552 @@
+package org.example.persistance;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * <p><strong>WorkerLog.java</strong></p>
+ *
+ * Append-only log segment owned by a single cachebase {@code Worker}.
+ * <p>
+ * The worker appends one record per write while it runs a batch of commands and calls
+ * {@link #commit()} once at the end of the batch, so a batch of writes costs one
+ * {@code write} (and at most one {@code fsync}) instead of one per command. Every worker
+ * has its own file, so workers never contend on a lock and their fsyncs run in parallel.
+ * </p>
+ *
+ * <p><strong>Fsync policies</strong> ({@code --appendfsync}):</p>
+ * <ul>
+ *     <li><strong>always</strong>: {@code commit()} forces the file to disk before the
+ *         worker acknowledges the batch's writes.</li>
+ *     <li><strong>everysec</strong> (default): writes reach the OS at commit; a background
+ *         thread forces dirty logs once a second, so a crash loses at most about a second.</li>
+ *     <li><strong>no</strong>: the OS decides when to flush.</li>
+ * </ul>
+ *
+ * <p><strong>Rewrite:</strong> every overwrite of a key adds a record, so the file grows with
+ * write volume rather than with the data. A rewrite ({@code REWRITELOG}, or automatically once
+ * the file has grown by {@code --aof-rewrite-percentage} since the last rewrite and is at least
+ * {@code --aof-rewrite-min-mb}) writes one record per live key to a temporary file on a
+ * background thread. Records committed meanwhile still go to the current file and are also
+ * kept in a side buffer; the worker appends that buffer to the new file and atomically renames
+ * it over the old one.</p>
+ *
+ * <p><strong>Snapshots:</strong> {@code SAVE}/{@code BGSAVE} work the same way but write the
+ * live data to a {@link SnapshotFile}; once it is in place the log is replaced by just the
+ * records committed while the snapshot was written. Startup loads the snapshot and then
+ * replays the log on top of it. Every record is a full SET, so replaying a record the
+ * snapshot already contains is harmless; a crash between the two renames loses nothing.</p>
+ *
+ * <p>Files are stored under {@code data/cachebases/<cachebase>/worker-<id>.aof}.</p>
+ *
+ * <p><strong>Record format</strong> (big-endian): payload length (int), CRC32C of the payload
+ * (int), payload. A SET payload is {@code 'S'}, key length (int), key (UTF-8), value bytes
+ * (the rest of the payload); a SET also clears the key's expiry. An EXPIRE payload is
+ * {@code 'E'}, key length (int), key, expiry time (long, epoch milliseconds; 0 removes the
+ * expiry). A DELETE payload is {@code 'D'}, key length (int), key; it records an eviction.
+ * Replay stops at the first truncated or corrupt record.</p>
+ */
+public class WorkerLog implements Closeable {
+
+    /** When appended records are forced to stable storage. */
+    public enum FsyncPolicy {
+        ALWAYS, EVERYSEC, NO;
+
+        public static FsyncPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown appendfsync policy '" + value + "', using everysec.");
+                return EVERYSEC;
+            }
+        }
+    }
+
+    /** Receives the records of a log being replayed. */
+    public interface RecordHandler {
+        /** Stores a value; the key no longer expires. */
+        void set(String key, byte[] value);
+
+        /** Makes the key expire at {@code expireAt} (epoch milliseconds), or never if 0. */
+        void expire(String key, long expireAt);
+
+        /** Removes the key. */
+        void delete(String key);
+    }
+
+    private static final byte SET_RECORD = 'S';
+    private static final byte EXPIRE_RECORD = 'E';
+    private static final byte DELETE_RECORD = 'D';
+    static final int HEADER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_RECORD_SIZE = Integer.MAX_VALUE - 64;
+
+    private static volatile FsyncPolicy defaultPolicy = FsyncPolicy.EVERYSEC;
+    private static volatile int rewritePercentage = 100;
+    private static volatile long rewriteMinBytes = 64L * 1024 * 1024;
+    private static ScheduledExecutorService syncer;
+
+    private final File file;
+    private volatile FileChannel channel;
+    private final FsyncPolicy policy;
+    private final ScheduledFuture<?> syncTask;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // Written to the channel but not yet forced; only used by everysec
+    private volatile boolean dirty;
+    // Set once close() starts, so the sync thread ignores the channel closing under it
+    private volatile boolean closed;
+
+    // Size now and right after the last rewrite (or open), for the automatic rewrite threshold
+    private long size;
+    private long baseSize;
+    // Non-null while a rewrite or snapshot is running: records committed since it started
+    private ByteArrayOutputStream tailBuffer;
+
+    /**
+     * Sets the policy used by logs opened from now on.
+     */
+    public static void setFsyncPolicy(FsyncPolicy policy) {
+        defaultPolicy = policy;
+    }
+
+    public static FsyncPolicy fsyncPolicy() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Sets when logs rewrite themselves: once they have grown by {@code percentage} percent
+     * since the last rewrite and are at least {@code minBytes} long. A percentage of 0
+     * disables automatic rewrites.
+     */
+    public static void setRewriteThreshold(int percentage, long minBytes) {
+        rewritePercentage = percentage;
+        rewriteMinBytes = minBytes;
+    }
+
+    /**
+     * Returns the log file of one worker of a cachebase.
+     */
+    public static File fileFor(String cachebase, int workerId) {
+        return new File("data/cachebases/" + cachebase + "/worker-" + workerId + ".aof");
+    }
+
+    /**
+     * Opens (or creates) a log for appending, using the current default policy.
+     */
+    public WorkerLog(File file) throws IOException {
+        file.getParentFile().mkdirs(); // Ensure directory exists
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.size = channel.size();
+        this.baseSize = size;
+        this.policy = defaultPolicy;
+        this.syncTask = policy == FsyncPolicy.EVERYSEC
+                ? syncer().scheduleWithFixedDelay(this::syncIfDirty, 1, 1, TimeUnit.SECONDS)
+                : null;
+    }
+
+    private static synchronized ScheduledExecutorService syncer() {
+        if (syncer == null) {
+            syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "aof-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return syncer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Buffers a SET record; nothing reaches the file until {@link #commit()}.
+     * Only called from the owning worker thread.
+     */
+    public void appendSet(String key, byte[] value) {
+        buffer = encodeSet(buffer, crc, key, value);
+    }
+
+    /**
+     * Buffers an EXPIRE record; {@code expireAt} 0 records that the key no longer expires.
+     * Only called from the owning worker thread.
+     */
+    public void appendExpire(String key, long expireAt) {
+        buffer = encodeExpire(buffer, crc, key, expireAt);
+    }
+
+    /**
+     * Buffers a DELETE record. Only called from the owning worker thread.
+     */
+    public void appendDelete(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 4 + keyBytes.length;
+        buffer = ensureCapacity(buffer, HEADER_SIZE + payload);
+
+        int recordStart = buffer.position();
+        buffer.putInt(payload);
+        buffer.putInt(0);
+        int payloadStart = buffer.position();
+        buffer.put(DELETE_RECORD);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + payloadStart, payload);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Appends one framed SET record to {@code buffer}, growing it if needed.
+     *
+     * @return The buffer that now holds the record (a larger copy if it had to grow).
+     */
+    private static ByteBuffer encodeSet(ByteBuffer buffer, CRC32C crc, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 4 + keyBytes.length + value.length;
+        buffer = ensureCapacity(buffer, HEADER_SIZE + payload);
+
+        int recordStart = buffer.position();
+        buffer.putInt(payload);
+        buffer.putInt(0); // CRC, filled in below
+        int payloadStart = buffer.position();
+        buffer.put(SET_RECORD);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.put(value);
+
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + payloadStart, payload);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    private static ByteBuffer encodeExpire(ByteBuffer buffer, CRC32C crc, String key, long expireAt) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 4 + keyBytes.length + 8;
+        buffer = ensureCapacity(buffer, HEADER_SIZE + payload);
+
+        int recordStart = buffer.position();
+        buffer.putInt(payload);
+        buffer.putInt(0);
+        int payloadStart = buffer.position();
+        buffer.put(EXPIRE_RECORD);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putLong(expireAt);
+
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + payloadStart, payload);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    /** {@code true} if records were appended since the last commit. */
+    public boolean hasPending() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Writes all buffered records in one go and, under {@code always}, forces them to disk.
+     * Only called from the owning worker thread. If it throws, the batch must not be
+     * acknowledged as written.
+     */
+    public void commit() throws IOException {
+        if (buffer.position() == 0) return;
+        buffer.flip();
+        try {
+            if (tailBuffer != null) {
+                tailBuffer.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+            }
+            size += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+
+        switch (policy) {
+            case ALWAYS -> channel.force(false);
+            case EVERYSEC -> dirty = true;
+            case NO -> { }
+        }
+    }
+
+    /** {@code true} if the log has outgrown the automatic rewrite threshold. */
+    public boolean shouldRewrite() {
+        int percentage = rewritePercentage;
+        return percentage > 0 && tailBuffer == null
+                && size >= rewriteMinBytes
+                && size - baseSize >= baseSize / 100 * percentage;
+    }
+
+    /** {@code true} while a rewrite or snapshot is being written in the background. */
+    public boolean isRewriting() {
+        return tailBuffer != null;
+    }
+
+    /**
+     * Starts a rewrite: from now on committed records are also kept for the new file.
+     * Only called from the owning worker thread, which must then pass a copy of its
+     * current store and expiries to {@link #writeRecords} on another thread.
+     *
+     * @return The temporary file the rewritten log is written to.
+     */
+    public File beginRewrite() {
+        tailBuffer = new ByteArrayOutputStream();
+        return new File(file.getPath() + ".rewrite");
+    }
+
+    /**
+     * Starts a snapshot: like {@link #beginRewrite()}, but the worker writes its data with
+     * {@link SnapshotFile#write} and completes with {@link #finishSnapshot}.
+     *
+     * @param snapshot The final snapshot file.
+     * @return The temporary file the snapshot is written to.
+     */
+    public File beginSnapshot(File snapshot) {
+        tailBuffer = new ByteArrayOutputStream();
+        return new File(snapshot.getPath() + ".tmp");
+    }
+
+    /**
+     * Writes one SET record per entry, then one EXPIRE record per expiry, to {@code target}
+     * and forces it to disk. Runs on a background thread; touches no state of the live log.
+     */
+    public static void writeRecords(File target, Map<String, byte[]> entries, Map<String, Long> expiries) throws IOException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeRecords(channel, entries, expiries);
+            channel.force(true);
+        }
+    }
+
+    static void writeRecords(FileChannel channel, Map<String, byte[]> entries, Map<String, Long> expiries) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer out = ByteBuffer.allocate(1024 * 1024);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            out = encodeSet(out, crc, entry.getKey(), entry.getValue());
+            if (out.position() >= 512 * 1024) {
+                drain(channel, out);
+            }
+        }
+        for (Map.Entry<String, Long> expiry : expiries.entrySet()) {
+            out = encodeExpire(out, crc, expiry.getKey(), expiry.getValue());
+            if (out.position() >= 512 * 1024) {
+                drain(channel, out);
+            }
+        }
+        drain(channel, out);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Completes a rewrite on the owning worker thread: appends the records committed since
+     * {@link #beginRewrite()} to the new file, forces it, and atomically replaces the live log.
+     * Records buffered but not yet committed go to the new file at the next commit.
+     */
+    public void finishRewrite(File rewritten) throws IOException {
+        replaceLog(rewritten);
+    }
+
+    /**
+     * Completes a snapshot on the owning worker thread: moves the snapshot into place, then
+     * replaces the live log with the records committed since {@link #beginSnapshot}.
+     */
+    public void finishSnapshot(File written, File snapshot) throws IOException {
+        Files.move(written.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        File tail = new File(file.getPath() + ".rewrite");
+        Files.deleteIfExists(tail.toPath());
+        replaceLog(tail);
+    }
+
+    private void replaceLog(File replacement) throws IOException {
+        byte[] tail = tailBuffer.toByteArray();
+        tailBuffer = null;
+        try (FileChannel channel = FileChannel.open(replacement.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer out = ByteBuffer.wrap(tail);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        FileChannel previous = channel;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        previous.close();
+        size = channel.size();
+        baseSize = size;
+    }
+
+    /**
+     * Abandons a rewrite or snapshot that failed; the live log was never touched.
+     */
+    public void abortRewrite(File rewritten) {
+        tailBuffer = null;
+        rewritten.delete();
+    }
+
+    /**
+     * Replays every intact record of a log file, in order. A truncated or corrupt record
+     * (for example a write cut short by a crash) ends the replay with a warning; everything
+     * before it is kept.
+     *
+     * @return The number of records replayed.
+     */
+    public static long replay(File file, RecordHandler handler) throws IOException {
+        if (!file.exists()) return 0;
+
+        CRC32C crc = new CRC32C();
+        long records = 0;
+        long offset = 0;
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int payload;
+                try {
+                    payload = in.readInt();
+                } catch (EOFException e) {
+                    return records; // Clean end of file
+                }
+
+                String problem = null;
+                try {
+                    if (payload < 5 || payload > MAX_RECORD_SIZE) {
+                        problem = "bad record length " + payload;
+                    } else if (payload > fileLength - offset - HEADER_SIZE) {
+                        // Checked before allocating: a corrupt length must not cost up to MAX_RECORD_SIZE
+                        problem = "record length " + payload + " runs past the end of the file";
+                    } else {
+                        int expectedCrc = in.readInt();
+                        byte[] data = new byte[payload];
+                        in.readFully(data);
+                        problem = applyRecord(ByteBuffer.wrap(data), expectedCrc, crc, handler);
+                    }
+                } catch (EOFException e) {
+                    problem = "truncated record";
+                }
+
+                if (problem != null) {
+                    System.err.println("Log " + file + ": " + problem + " at offset " + offset
+                            + ", ignoring the rest of the file (" + records + " records replayed)");
+                    return records;
+                }
+                records++;
+                offset += HEADER_SIZE + payload;
+            }
+        }
+    }
+
+    /**
+     * Checks and applies one record payload (position to limit of {@code payload}).
+     *
+     * @return {@code null} on success, otherwise what is wrong with the record.
+     */
+    static String applyRecord(ByteBuffer payload, int expectedCrc, CRC32C crc, RecordHandler handler) {
+        crc.reset();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != expectedCrc) return "checksum mismatch";
+
+        byte type = payload.get();
+        if (type != SET_RECORD && type != EXPIRE_RECORD && type != DELETE_RECORD) return "unknown record";
+        int keyLength = payload.getInt();
+        if (keyLength < 0 || keyLength > payload.remaining()) return "bad key length " + keyLength;
+        byte[] key = new byte[keyLength];
+        payload.get(key);
+        if (type == DELETE_RECORD) {
+            if (payload.hasRemaining()) return "bad delete record";
+            handler.delete(new String(key, StandardCharsets.UTF_8));
+            return null;
+        }
+        if (type == EXPIRE_RECORD) {
+            if (payload.remaining() != 8) return "bad expire record";
+            handler.expire(new String(key, StandardCharsets.UTF_8), payload.getLong());
+            return null;
+        }
+        byte[] value = new byte[payload.remaining()];
+        payload.get(value);
+        handler.set(new String(key, StandardCharsets.UTF_8), value);
+        return null;
+    }
+
+    private void syncIfDirty() {
+        if (!dirty) return;
+        dirty = false;
+        FileChannel current = channel;
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // Closed under us by close(), which forces it itself, or replaced by a rewrite or
+            // snapshot, whose new file already holds these records on disk
+            if (current != channel || closed) return;
+            dirty = true;
+            System.err.println("Failed to fsync " + file + ": channel closed");
+        } catch (IOException e) {
+            dirty = true; // Try again on the next tick
+            System.err.println("Failed to fsync " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) return buffer;
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < needed) {
+            capacity *= 2;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Forces anything not yet on disk and closes the file. Called by the owning worker
+     * when it stops.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (syncTask != null) {
+            syncTask.cancel(false);
+        }
+        try {
+            commit();
+            if (policy != FsyncPolicy.NO) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
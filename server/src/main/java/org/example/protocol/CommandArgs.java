@@ -0,0 +1,174 @@
+package org.example.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The arguments of one parsed request, kept as slices of the buffer they were read into.
+ * <p>
+ * Nothing is copied or decoded while parsing. Command implementations pull out exactly
+ * what they need ({@link #string}, {@link #bytes}, {@link #longValue}) and must do so
+ * before returning, because the session reuses both this object and the underlying
+ * buffer for the next request.
+ * </p>
+ *
+ * <p>For text-protocol (inline) requests, {@link #rest} also gives access to everything
+ * from a given argument to the end of the line, which is how {@code SET} has always
+ * accepted values containing spaces.</p>
+ */
+public final class CommandArgs {
+
+    private byte[] buffer;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count;
+    private boolean inline;
+    private int lineEnd;
+
+    void reset(byte[] buffer, boolean inline) {
+        this.buffer = buffer;
+        this.inline = inline;
+        this.count = 0;
+        this.lineEnd = 0;
+    }
+
+    void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    void lineEnd(int lineEnd) {
+        this.lineEnd = lineEnd;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** {@code true} if this request came in as a text line rather than a RESP array. */
+    public boolean isInline() {
+        return inline;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return ends[index] - starts[index];
+    }
+
+    public String string(int index) {
+        return new String(buffer, starts[index], ends[index] - starts[index], StandardCharsets.UTF_8);
+    }
+
+    public byte[] bytes(int index) {
+        return Arrays.copyOfRange(buffer, starts[index], ends[index]);
+    }
+
+    /**
+     * Returns argument {@code index} and, for inline requests, everything after it up to
+     * the end of the line (trailing whitespace removed). For RESP requests this is just
+     * the single argument.
+     */
+    public byte[] rest(int index) {
+        if (!inline) return bytes(index);
+        return Arrays.copyOfRange(buffer, starts[index], lineEnd);
+    }
+
+    /**
+     * Like {@link #rest}, but stops at the end of argument {@code last} instead of the end
+     * of the line, so trailing options can follow the value.
+     */
+    public byte[] range(int first, int last) {
+        if (!inline) return bytes(first);
+        return Arrays.copyOfRange(buffer, starts[first], ends[last]);
+    }
+
+    /** Case-insensitive comparison of an argument with an ASCII keyword, without decoding it. */
+    public boolean equalsIgnoreCase(int index, String keyword) {
+        int len = ends[index] - starts[index];
+        if (len != keyword.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (toUpper(buffer[starts[index] + i]) != toUpper((byte) keyword.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses an argument as a signed decimal long: an optional minus sign and digits, as
+     * Redis takes them (no plus sign). The whole {@code long} range is accepted.
+     *
+     * @throws NumberFormatException if it is not a valid integer.
+     */
+    public long longValue(int index) {
+        int pos = starts[index];
+        int end = ends[index];
+        if (pos == end) throw new NumberFormatException("empty");
+        boolean negative = buffer[pos] == '-';
+        if (negative) pos++;
+        if (pos == end || end - pos > 19) throw new NumberFormatException(string(index));
+
+        // Accumulated negatively, so Long.MIN_VALUE fits too
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer[pos] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException(string(index));
+            if (value < (Long.MIN_VALUE + digit) / 10) throw new NumberFormatException(string(index)); // overflow
+            value = value * 10 - digit;
+        }
+        if (negative) return value;
+        if (value == Long.MIN_VALUE) throw new NumberFormatException(string(index)); // overflow
+        return -value;
+    }
+
+    /**
+     * A copy holding just the bytes of this request, which stays valid while the session
+     * reads the next one, so the request can be executed on another thread.
+     */
+    public CommandArgs copy() {
+        CommandArgs copy = new CommandArgs();
+        copy.inline = inline;
+        copy.count = count;
+        if (count == 0) return copy;
+        int from = starts[0];
+        int to = Math.max(ends[count - 1], lineEnd);
+        copy.buffer = Arrays.copyOfRange(buffer, from, to);
+        copy.starts = new int[count];
+        copy.ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            copy.starts[i] = starts[i] - from;
+            copy.ends[i] = ends[i] - from;
+        }
+        copy.lineEnd = inline ? lineEnd - from : 0;
+        return copy;
+    }
+
+    static byte toUpper(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+
+    /** Renders the request as a single line, for the per-client command log. */
+    @Override
+    public String toString() {
+        if (count == 0) return "";
+        if (inline) {
+            return new String(buffer, starts[0], lineEnd - starts[0], StandardCharsets.UTF_8);
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) line.append(' ');
+            line.append(string(i));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.protocol;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a client sends bytes that cannot be parsed as a request. The session
+ * reports it to the client and closes the connection, since it can no longer tell
+ * where the next request starts.
+ */
+public class ProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super("Protocol error: " + message);
+    }
+}
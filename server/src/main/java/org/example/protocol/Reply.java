@@ -0,0 +1,223 @@
+package org.example.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * <p><strong>Reply.java</strong></p>
+ *
+ * A typed command result that can be written in either wire protocol.
+ *
+ * <p><strong>Rendering:</strong></p>
+ * <ul>
+ *     <li><strong>Text protocol</strong>: one line per value, exactly what the line-based
+ *         clients have always seen ({@code OK}, the raw value, {@code (nil)}, usage messages).</li>
+ *     <li><strong>RESP2</strong>: simple strings, errors, integers, bulk strings and arrays,
+ *         so standard Redis tooling can talk to ReflexServer.</li>
+ * </ul>
+ *
+ * <p>Replies are immutable and may be shared between sessions.</p>
+ */
+public final class Reply {
+
+    public enum Kind { STATUS, ERROR, BULK, NIL, INTEGER, ARRAY }
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_NIL = "(nil)".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_EMPTY = "(empty)".getBytes(StandardCharsets.US_ASCII);
+
+    public static final Reply OK = status("OK");
+    public static final Reply NIL = new Reply(Kind.NIL, null, null, 0, null);
+
+    private final Kind kind;
+    private final String text;
+    private final byte[] bulk;
+    private final long integer;
+    private final List<Reply> items;
+
+    private Reply(Kind kind, String text, byte[] bulk, long integer, List<Reply> items) {
+        this.kind = kind;
+        this.text = text;
+        this.bulk = bulk;
+        this.integer = integer;
+        this.items = items;
+    }
+
+    /** A short single-line status such as {@code OK} or {@code pong}. */
+    public static Reply status(String text) {
+        return new Reply(Kind.STATUS, text, null, 0, null);
+    }
+
+    /** An error or usage message, shown verbatim to text clients. */
+    public static Reply error(String message) {
+        return new Reply(Kind.ERROR, message, null, 0, null);
+    }
+
+    /** A binary-safe value. */
+    public static Reply bulk(byte[] value) {
+        return new Reply(Kind.BULK, null, value, 0, null);
+    }
+
+    /** A free-form (possibly multi-line) text block, sent as a bulk string over RESP. */
+    public static Reply bulk(String value) {
+        return bulk(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Reply integer(long value) {
+        return new Reply(Kind.INTEGER, null, null, value, null);
+    }
+
+    public static Reply array(List<Reply> items) {
+        return new Reply(Kind.ARRAY, null, null, 0, List.copyOf(items));
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public boolean isError() {
+        return kind == Kind.ERROR;
+    }
+
+    /** The bulk value, or {@code null} for any other kind. */
+    public byte[] bulkValue() {
+        return bulk;
+    }
+
+    public long integerValue() {
+        return integer;
+    }
+
+    public List<Reply> items() {
+        return items;
+    }
+
+    /**
+     * Writes this reply for a text-protocol client. Every value ends with a line
+     * terminator; the session adds the {@code <END>} marker.
+     */
+    public void writeText(OutputStream out) throws IOException {
+        writeTextValue(out);
+        out.write(NL);
+    }
+
+    private void writeTextValue(OutputStream out) throws IOException {
+        switch (kind) {
+            case STATUS, ERROR -> out.write(text.getBytes(StandardCharsets.UTF_8));
+            case BULK -> out.write(bulk);
+            case NIL -> out.write(TEXT_NIL);
+            case INTEGER -> writeDecimal(out, integer);
+            case ARRAY -> {
+                if (items.isEmpty()) {
+                    out.write(TEXT_EMPTY);
+                }
+                // One value per line; nested arrays are flattened
+                for (int i = 0; i < items.size(); i++) {
+                    if (i > 0) out.write(NL);
+                    items.get(i).writeTextValue(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes this reply in RESP2 framing.
+     */
+    public void writeResp(OutputStream out) throws IOException {
+        switch (kind) {
+            case STATUS -> {
+                out.write('+');
+                out.write(singleLine(text).getBytes(StandardCharsets.UTF_8));
+                out.write(CRLF);
+            }
+            case ERROR -> {
+                String message = text.startsWith("Error: ") ? text.substring(7) : text;
+                out.write('-');
+                out.write((hasErrorCode(message) ? singleLine(message) : "ERR " + singleLine(message))
+                        .getBytes(StandardCharsets.UTF_8));
+                out.write(CRLF);
+            }
+            case BULK -> {
+                out.write('$');
+                writeDecimal(out, bulk.length);
+                out.write(CRLF);
+                out.write(bulk);
+                out.write(CRLF);
+            }
+            case NIL -> {
+                out.write('$');
+                out.write('-');
+                out.write('1');
+                out.write(CRLF);
+            }
+            case INTEGER -> {
+                out.write(':');
+                writeDecimal(out, integer);
+                out.write(CRLF);
+            }
+            case ARRAY -> {
+                out.write('*');
+                writeDecimal(out, items.size());
+                out.write(CRLF);
+                for (Reply item : items) {
+                    item.writeResp(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether an error message starts with its own code, an upper-case word such as
+     * {@code MOVED} or {@code READONLY} that clients act on; other messages get {@code ERR}.
+     */
+    private static boolean hasErrorCode(String message) {
+        int space = message.indexOf(' ');
+        if (space < 2) return false;
+        for (int i = 0; i < space; i++) {
+            char c = message.charAt(i);
+            if (c < 'A' || c > 'Z') return false;
+        }
+        return true;
+    }
+
+    private static String singleLine(String s) {
+        return s.indexOf('\r') < 0 && s.indexOf('\n') < 0 ? s : s.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    // Writes a long as ASCII digits without going through a String
+    static void writeDecimal(OutputStream out, long value) throws IOException {
+        if (value == 0) {
+            out.write('0');
+            return;
+        }
+        if (value == Long.MIN_VALUE) {
+            out.write("-9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        byte[] digits = new byte[19];
+        int pos = digits.length;
+        while (value > 0) {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case STATUS, ERROR -> text;
+            case BULK -> new String(bulk, StandardCharsets.UTF_8);
+            case NIL -> "(nil)";
+            case INTEGER -> Long.toString(integer);
+            case ARRAY -> items.toString();
+        };
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p><strong>ReplyParser.java</strong></p>
+ *
+ * Incremental RESP2 reply parser for non-blocking clients, the counterpart of
+ * {@link RequestParser}: {@link #parse} reads one reply from a buffer, or returns
+ * {@link #INCOMPLETE} if the buffer does not hold all of it yet, and the caller retries
+ * once more bytes arrive. {@link ReplyReader} does the same for blocking streams.
+ *
+ * <p>Error replies keep their text without the leading {@code -}, as with {@link ReplyReader}.
+ * A RESP3 push ({@code >}), such as a key invalidation, is read as an array and flagged by
+ * {@link #isPush()}: it answers no request.
+ * A reply that is still incomplete is parsed again from its start next time, which only
+ * costs anything for large arrays that arrive in many pieces.</p>
+ */
+public final class ReplyParser {
+
+    /** Returned by {@link #parse} when more input is needed. */
+    public static final int INCOMPLETE = -1;
+
+    // Position after the last line read by readLine()
+    private int cursor;
+    private Reply reply;
+    private boolean push;
+
+    /**
+     * Parses one reply from {@code buffer[start, end)}; {@link #reply()} returns it.
+     *
+     * @return The offset just past the reply, or {@link #INCOMPLETE}.
+     * @throws ProtocolException If the bytes cannot be a valid reply.
+     */
+    public int parse(byte[] buffer, int start, int end) throws ProtocolException {
+        Reply parsed = parseValue(buffer, start, end);
+        if (parsed == null) return INCOMPLETE;
+        reply = parsed;
+        push = buffer[start] == '>';
+        return cursor;
+    }
+
+    /** The reply read by the last successful {@link #parse}. */
+    public Reply reply() {
+        return reply;
+    }
+
+    /** Whether the last reply parsed was a push rather than the answer to a request. */
+    public boolean isPush() {
+        return push;
+    }
+
+    // Null if incomplete; otherwise the position after the reply is in cursor
+    private Reply parseValue(byte[] buffer, int start, int end) throws ProtocolException {
+        if (start >= end) return null;
+        byte type = buffer[start];
+        int lineEnd = lineEnd(buffer, start + 1, end);
+        if (lineEnd < 0) return null;
+        int next = lineEnd + 2;
+        switch (type) {
+            case '+' -> {
+                cursor = next;
+                return Reply.status(text(buffer, start + 1, lineEnd));
+            }
+            case '-' -> {
+                cursor = next;
+                return Reply.error(text(buffer, start + 1, lineEnd));
+            }
+            case ':' -> {
+                cursor = next;
+                return Reply.integer(number(buffer, start + 1, lineEnd));
+            }
+            case '$' -> {
+                long length = number(buffer, start + 1, lineEnd);
+                if (length < 0) {
+                    cursor = next;
+                    return Reply.NIL;
+                }
+                if (length > RequestParser.MAX_REQUEST_BYTES) throw new ProtocolException("bulk reply too long: " + length);
+                if (end - next < length + 2) return null;
+                int valueEnd = next + (int) length;
+                if (buffer[valueEnd] != '\r' || buffer[valueEnd + 1] != '\n') {
+                    throw new ProtocolException("bulk reply not terminated by CRLF");
+                }
+                byte[] value = new byte[(int) length];
+                System.arraycopy(buffer, next, value, 0, value.length);
+                cursor = valueEnd + 2;
+                return Reply.bulk(value);
+            }
+            case '*', '>' -> {
+                long count = number(buffer, start + 1, lineEnd);
+                if (count < 0) {
+                    cursor = next;
+                    return Reply.NIL;
+                }
+                List<Reply> items = new ArrayList<>((int) Math.min(count, 1024));
+                int pos = next;
+                for (long i = 0; i < count; i++) {
+                    Reply item = parseValue(buffer, pos, end);
+                    if (item == null) return null;
+                    items.add(item);
+                    pos = cursor;
+                }
+                cursor = pos;
+                return Reply.array(items);
+            }
+            default -> throw new ProtocolException("unexpected reply type '" + (char) type + "'");
+        }
+    }
+
+    // Offset of the CR of the CRLF ending the line that starts at pos, or -1 if it has not arrived
+    private static int lineEnd(byte[] buffer, int pos, int end) {
+        for (int i = pos; i + 1 < end; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static String text(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static long number(byte[] buffer, int start, int end) throws ProtocolException {
+        try {
+            return Long.parseLong(text(buffer, start, end));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("not a number: " + text(buffer, start, end));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RESP2 replies from a server, for connections where ReflexServer is the client's
+ * peer, such as a follower's link to its leader.
+ * <p>
+ * Error replies keep their text without the leading {@code -}, e.g. {@code "ERR no such key"}.
+ * </p>
+ */
+public final class ReplyReader {
+
+    private final InputStream in;
+
+    public ReplyReader(InputStream in) {
+        this.in = new BufferedInputStream(in, 64 * 1024);
+    }
+
+    /**
+     * Reads the next reply, blocking until it is complete.
+     *
+     * @throws EOFException      If the server closed the connection.
+     * @throws ProtocolException If the bytes are not a RESP reply.
+     */
+    public Reply read() throws IOException {
+        int type = in.read();
+        if (type < 0) throw new EOFException("connection closed");
+        String line = readLine();
+        return switch (type) {
+            case '+' -> Reply.status(line);
+            case '-' -> Reply.error(line);
+            case ':' -> Reply.integer(number(line));
+            case '$' -> {
+                long length = number(line);
+                if (length < 0) yield Reply.NIL;
+                if (length > RequestParser.MAX_REQUEST_BYTES) throw new ProtocolException("bulk reply too long: " + length);
+                byte[] value = in.readNBytes((int) length);
+                if (value.length < length || in.read() != '\r' || in.read() != '\n') {
+                    throw new EOFException("connection closed inside a bulk reply");
+                }
+                yield Reply.bulk(value);
+            }
+            case '*' -> {
+                long count = number(line);
+                if (count < 0) yield Reply.NIL;
+                List<Reply> items = new ArrayList<>((int) Math.min(count, 1024));
+                for (long i = 0; i < count; i++) {
+                    items.add(read());
+                }
+                yield Reply.array(items);
+            }
+            default -> throw new ProtocolException("unexpected reply type '" + (char) type + "'");
+        };
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) throw new EOFException("connection closed inside a reply");
+            line.append((char) b);
+        }
+        if (in.read() != '\n') throw new ProtocolException("expected CRLF after a reply line");
+        return new String(line.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    private static long number(String line) throws ProtocolException {
+        try {
+            return Long.parseLong(line);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("not a number: " + line);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.protocol;
+
+/**
+ * <p><strong>RequestParser.java</strong></p>
+ *
+ * Incremental, allocation-free request parser for both wire protocols.
+ *
+ * <p>The protocol is chosen per request from its first byte:</p>
+ * <ul>
+ *     <li>{@code '*'} starts a RESP2 array of bulk strings
+ *         ({@code *2\r\n$3\r\nGET\r\n$1\r\nk\r\n}). Arguments are length-prefixed, so
+ *         values may contain spaces, newlines or arbitrary bytes.</li>
+ *     <li>Anything else is a text line, split on whitespace: the original ReflexCLI
+ *         protocol.</li>
+ * </ul>
+ *
+ * <p>{@link #parse} never copies: it records argument offsets in a {@link CommandArgs}
+ * that point into the caller's buffer. If the buffer does not yet hold a whole request
+ * it returns {@link #INCOMPLETE} and the caller retries once more bytes arrive.</p>
+ */
+public final class RequestParser {
+
+    /** Returned by {@link #parse} when more input is needed. */
+    public static final int INCOMPLETE = -1;
+
+    /** Largest request (line or RESP array) a session will buffer. */
+    public static final int MAX_REQUEST_BYTES = 64 * 1024 * 1024;
+
+    private static final int MAX_ARGS = 1024 * 1024;
+
+    // Position after the last number read by readNumber()
+    private int cursor;
+
+    /**
+     * Parses one request from {@code buffer[start, end)}.
+     *
+     * @return The offset just past the request, or {@link #INCOMPLETE}.
+     * @throws ProtocolException If the bytes cannot be a valid request.
+     */
+    public int parse(byte[] buffer, int start, int end, CommandArgs args) throws ProtocolException {
+        if (start >= end) return INCOMPLETE;
+        return buffer[start] == '*'
+                ? parseResp(buffer, start, end, args)
+                : parseInline(buffer, start, end, args);
+    }
+
+    private int parseInline(byte[] buffer, int start, int end, CommandArgs args) throws ProtocolException {
+        int newline = -1;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) {
+            if (end - start > MAX_REQUEST_BYTES) throw new ProtocolException("line too long");
+            return INCOMPLETE;
+        }
+
+        int lineEnd = newline;
+        while (lineEnd > start && isWhitespace(buffer[lineEnd - 1])) lineEnd--; // also drops '\r'
+
+        args.reset(buffer, true);
+        int pos = start;
+        while (pos < lineEnd) {
+            while (pos < lineEnd && isWhitespace(buffer[pos])) pos++;
+            if (pos == lineEnd) break;
+            int tokenStart = pos;
+            while (pos < lineEnd && !isWhitespace(buffer[pos])) pos++;
+            args.add(tokenStart, pos);
+        }
+        args.lineEnd(lineEnd);
+        return newline + 1;
+    }
+
+    private int parseResp(byte[] buffer, int start, int end, CommandArgs args) throws ProtocolException {
+        long count = readNumber(buffer, start + 1, end);
+        if (count == Long.MIN_VALUE) return INCOMPLETE;
+        if (count > MAX_ARGS) throw new ProtocolException("invalid multibulk length");
+        int pos = cursor;
+
+        args.reset(buffer, false);
+        for (long i = 0; i < count; i++) {
+            if (pos >= end) return INCOMPLETE;
+            if (buffer[pos] != '$') {
+                throw new ProtocolException("expected '$', got '" + (char) buffer[pos] + "'");
+            }
+            long length = readNumber(buffer, pos + 1, end);
+            if (length == Long.MIN_VALUE) return INCOMPLETE;
+            if (length < 0 || length > MAX_REQUEST_BYTES) throw new ProtocolException("invalid bulk length");
+            pos = cursor;
+
+            if (end - pos < length + 2) return INCOMPLETE;
+            int valueEnd = pos + (int) length;
+            if (buffer[valueEnd] != '\r' || buffer[valueEnd + 1] != '\n') {
+                throw new ProtocolException("bulk string not terminated by CRLF");
+            }
+            args.add(pos, valueEnd);
+            pos = valueEnd + 2;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads a signed decimal terminated by CRLF starting at {@code pos}. Returns
+     * {@code Long.MIN_VALUE} if the terminator has not arrived yet; otherwise leaves
+     * the offset after the CRLF in {@link #cursor}.
+     */
+    private long readNumber(byte[] buffer, int pos, int end) throws ProtocolException {
+        boolean negative = false;
+        if (pos < end && buffer[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < end) {
+            byte b = buffer[pos];
+            if (b == '\r') {
+                if (pos + 1 >= end) return Long.MIN_VALUE;
+                if (buffer[pos + 1] != '\n' || digits == 0) throw new ProtocolException("invalid length line");
+                cursor = pos + 2;
+                return negative ? -value : value;
+            }
+            if (b < '0' || b > '9' || ++digits > 18) throw new ProtocolException("invalid length");
+            value = value * 10 + (b - '0');
+            pos++;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+}
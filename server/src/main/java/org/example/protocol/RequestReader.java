@@ -0,0 +1,105 @@
+package org.example.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered request reader for blocking sessions.
+ * <p>
+ * Reads straight from the socket into one reusable byte array and parses requests in
+ * place with a {@link RequestParser}. The buffer only grows when a single request is
+ * larger than it, up to {@link RequestParser#MAX_REQUEST_BYTES}.
+ * </p>
+ */
+public final class RequestReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final RequestParser parser = new RequestParser();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start;
+    private int end;
+
+    public RequestReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next request into {@code args}, blocking until a whole request is available.
+     *
+     * @return {@code false} if the client closed the connection.
+     */
+    public boolean next(CommandArgs args) throws IOException {
+        while (true) {
+            int next = parser.parse(buffer, start, end, args);
+            if (next != RequestParser.INCOMPLETE) {
+                start = next;
+                return true;
+            }
+            if (!fill()) return false;
+        }
+    }
+
+    /**
+     * Reads one text line, used for the handshake prompts.
+     *
+     * @return The line without its terminator, or {@code null} at end of stream.
+     */
+    public String readLine() throws IOException {
+        int scanned = 0; // relative to start, since fill() may move the data
+        while (true) {
+            for (int i = start + scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+                    start = i + 1;
+                    return line;
+                }
+            }
+            scanned = end - start;
+            if (!fill()) return null;
+        }
+    }
+
+    /**
+     * Returns the next byte without consuming it, blocking until one arrives.
+     * Honours the socket's read timeout, so it can be used to wait briefly for a
+     * client that speaks first.
+     *
+     * @throws EOFException If the connection was closed.
+     */
+    public int peek() throws IOException {
+        if (start == end && !fill()) throw new EOFException("connection closed");
+        return buffer[start] & 0xFF;
+    }
+
+    /**
+     * {@code true} if more input is already waiting, so the caller can keep reading
+     * instead of flushing replies first.
+     */
+    public boolean hasBufferedInput() throws IOException {
+        return start < end || in.available() > 0;
+    }
+
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            if (buffer.length >= RequestParser.MAX_REQUEST_BYTES) {
+                throw new ProtocolException("request too large");
+            }
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, RequestParser.MAX_REQUEST_BYTES));
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read <= 0) return false;
+        end += read;
+        return true;
+    }
+}
@@ -2,10 +2,24 @@ package org.example.serverMain;
 
 import org.example.persistance.FileManager;
 import org.example.core.CommandProcessor;
+import org.example.core.SessionContext;
+import org.example.protocol.CommandArgs;
+import org.example.protocol.ProtocolException;
+import org.example.protocol.Reply;
+import org.example.protocol.RequestReader;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -19,7 +33,6 @@ import java.time.LocalTime;
  * <ul>
  *     <li>Greets the client and asks for a unique name.</li>
  *     <li>Initializes log and AOF (Append Only File) files per client.</li>
- *     <li>Restores state from previous sessions if AOF is available.</li>
  *     <li>Processes commands (SET, GET, FLUSHALL, etc.) using {@link CommandProcessor}.</li>
  *     <li>Maintains logs of all client inputs with timestamps.</li>
  *     <li>Sends server responses and command result termination markers (&lt;END&gt;).</li>
@@ -28,11 +41,15 @@ import java.time.LocalTime;
  * <p><strong>Protocol:</strong></p>
  * <ol>
  *     <li>Client connects via socket.</li>
+ *     <li>If the client speaks first with a RESP array ({@code *...}), the handshake is skipped
+ *         and the connection is served as a plain RESP session (e.g. {@code redis-cli}).</li>
  *     <li>Server sends welcome messages and asks for a name.</li>
  *     <li>Log and AOF files are initialized using {@link FileManager}.</li>
- *     <li>If available, session state is recovered.</li>
+ *     <li>Saved data was already recovered once at server start, so the session starts right away.</li>
  *     <li>Client enters command loop and issues supported commands.</li>
- *     <li>Each command is logged and passed to {@code CommandProcessor}.</li>
+ *     <li>Each command is logged and passed to {@code CommandProcessor}. Each request may be a
+ *         text line or a RESP array; the reply uses the same protocol as the request.
+ *         Back-to-back requests are pipelined and answered in request order.</li>
  *     <li>Loop continues until client disconnects or issues "exit".</li>
  * </ol>
  *
@@ -40,15 +57,15 @@ import java.time.LocalTime;
  *
  * <p><strong>Input:</strong></p>
  * <ul>
- *     <li>Client socket stream (BufferedReader)</li>
- *     <li>Command strings sent by the client</li>
+ *     <li>Client socket stream, parsed in place by a {@link RequestReader}</li>
+ *     <li>Command lines or RESP arrays sent by the client</li>
  * </ul>
  *
  * <p><strong>Output:</strong></p>
  * <ul>
- *     <li>Server messages to client (PrintWriter)</li>
+ *     <li>Server messages to client (PrintWriter during the handshake, raw bytes afterwards)</li>
  *     <li>Execution results of commands</li>
- *     <li>&lt;END&gt; marker after each command</li>
+ *     <li>&lt;END&gt; marker after each text-protocol command</li>
  * </ul>
  *
  * @author Raghavendra R
@@ -57,9 +74,20 @@ import java.time.LocalTime;
 
 public class ClientSessionHandler implements Runnable {
 
+    private static final byte[] END_MARKER = ("<END>" + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII);
+
     private final Socket clientSocket;
     private String clientName;
 
+    // Pushes (CLIENT TRACKING invalidations) come from worker threads, which must not wait
+    // for this socket: a virtual thread writes them between two replies, under outputLock.
+    // A reply written first takes the queued ones ahead of it, so none overtakes a push
+    // that was queued before it completed.
+    private final ReentrantLock outputLock = new ReentrantLock();
+    private final Queue<byte[]> pushes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pushWriterScheduled = new AtomicBoolean();
+    private OutputStream toClient;
+
     public ClientSessionHandler(Socket socket, String clientName) {
         this.clientSocket = socket;
         this.clientName = clientName;  // Correct assignment here
@@ -75,70 +103,234 @@ public class ClientSessionHandler implements Runnable {
     @Override
     public void run() {
         try (
-                BufferedReader fromClient = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter toClient = new PrintWriter(clientSocket.getOutputStream(), true)
+                InputStream in = clientSocket.getInputStream();
+                OutputStream toClient = new BufferedOutputStream(clientSocket.getOutputStream())
         ) {
-            // ASCII Banner
-            toClient.println("██████╗ ███████╗███████╗██╗     ███████╗██╗  ██╗");
-            toClient.println("██╔══██╗██╔════╝██╔════╝██║     ██╔════╝╚██╗██╔╝");
-            toClient.println("██████╔╝█████╗  █████╗  ██║     █████╗   ╚███╔╝ ");
-            toClient.println("██║██╗  ██╔══╝  ██╔══╝  ██║     ██╔══╝   ██╔██╗ ");
-            toClient.println("██║ ██╗ ███████╗███████╗███████╗███████╗██╔╝ ██╗");
-            toClient.println("╚═╝ ╚═╝ ╚══════╝╚══════╝╚══════╝╚══════╝╚═╝  ╚═╝");
-            toClient.println();
-            toClient.println(" ██████╗ █████╗  ██████╗██╗  ██╗███████╗");
-            toClient.println("██╔════╝██╔══██╗██╔════╝██║  ██║██╔════╝");
-            toClient.println("██║     ███████║██║     ███████║█████╗  ");
-            toClient.println("██║     ██╔══██║██║     ██╔══██║██╔══╝  ");
-            toClient.println("╚██████╗██║  ██║╚██████╗██║  ██║███████╗");
-            toClient.println(" ╚═════╝╚═╝  ╚═╝ ╚═════╝╚═╝  ╚═╝╚══════╝");
-            toClient.println();
-
-            // System Info
-            toClient.println("System Info:");
-            toClient.println("  OS      : " + System.getProperty("os.name"));
-            toClient.println("  Java    : " + System.getProperty("java.version"));
-            toClient.println("  Threads : " + Thread.activeCount());
-            toClient.println();
-
-            toClient.println("Welcome to ReflexCLI Server!");
-            toClient.println("Enter your unique name:");
+            RequestReader fromClient = new RequestReader(in);
+            this.toClient = toClient;
+
+            if (clientSpeaksResp(fromClient)) {
+                this.clientName = "resp@" + clientSocket.getRemoteSocketAddress();
+                serve(fromClient, toClient, new SessionContext(clientName, null, null));
+                return;
+            }
+
+            PrintWriter text = new PrintWriter(new OutputStreamWriter(toClient, StandardCharsets.UTF_8));
+            text.print(greeting());
+            text.flush();
             this.clientName = fromClient.readLine();
             // fromClient.readLine(); // Discard extra if old client
+            if (clientName == null) return;
 
             File logFile = FileManager.initLogFile(clientName);
             File aofFile = FileManager.initAOFFile(clientName);
 
-            FileManager.showLogOption(toClient, fromClient, logFile);
-            FileManager.recoverFromAOF(toClient, aofFile);
+            if (logFile.exists()) {
+                text.println(FileManager.logPrompt(logFile));
+                text.flush();
+                if ("yes".equalsIgnoreCase(fromClient.readLine())) {
+                    FileManager.printLog(text, logFile);
+                }
+            }
 
-            toClient.println("Hello, " + clientName + "! You're now connected.");
-            toClient.println("Type commands like SET, GET, PING, TIME, FILE, FLUSHALL, EXIT.");
+            text.print(connectedMessage(clientName));
+            text.flush();
 
             try (BufferedWriter logWriter = new BufferedWriter(new FileWriter(logFile, true))) {
-                String input;
-                while ((input = fromClient.readLine()) != null) {
-                    logWriter.write("[" + LocalTime.now() + "] " + input);
-                    logWriter.newLine();
-                    logWriter.flush();
+                serve(fromClient, toClient, new SessionContext(clientName, aofFile, logWriter));
+            }
 
-                    CommandProcessor.process(input, toClient, fromClient, aofFile, logWriter, clientName);
+        } catch (IOException e) {
+            System.out.println("Client '" + clientName + "' disconnected or error occurred: " + e.getMessage());
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {}
+        }
+    }
 
-                    toClient.println("<END>");
-                    toClient.flush();
+    /** A submitted request whose reply has not been written yet. */
+    private record Pending(CompletableFuture<Reply> reply, boolean inline, boolean closesSession) {}
 
-                    if (input.equalsIgnoreCase("exit")) {
+    /**
+     * Runs the command loop until the client disconnects or asks to exit.
+     * <p>
+     * Requests are pipelined: while more input is already waiting, each request is
+     * submitted without waiting for the previous reply, up to {@code max-in-flight}.
+     * Then the replies are written in request order and flushed once for the whole batch.
+     * A client that sends one command at a time sees exactly the old behaviour.
+     * </p>
+     */
+    private void serve(RequestReader fromClient, OutputStream toClient, SessionContext session) throws IOException {
+        CommandArgs args = new CommandArgs();
+        BufferedWriter logWriter = session.getLogWriter();
+        int maxInFlight = ServerConfig.maxInFlight();
+        ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+        session.setPushChannel(this::push);
+        try {
+            boolean open = true;
+            while (open && !session.isCloseRequested()) {
+                do {
+                    if (!fromClient.next(args)) {
+                        open = false;
                         break;
                     }
+                    if (logWriter != null) {
+                        logWriter.write("[" + LocalTime.now() + "] " + args);
+                        logWriter.newLine();
+                    }
+                    CompletableFuture<Reply> reply = CommandProcessor.execute(args, session);
+                    inFlight.add(new Pending(reply, args.isInline(), session.isCloseRequested()));
+                } while (!session.isCloseRequested() && inFlight.size() < maxInFlight && fromClient.hasBufferedInput());
+
+                if (logWriter != null) {
+                    logWriter.flush();
                 }
+                writeReplies(toClient, inFlight);
+            }
+        } catch (ProtocolException e) {
+            // The stream is out of sync; answer what was accepted, report and drop the connection
+            writeReplies(toClient, inFlight);
+            outputLock.lock();
+            try {
+                Reply.error(e.getMessage()).writeResp(toClient);
+                toClient.flush();
+            } finally {
+                outputLock.unlock();
             }
+        } finally {
+            session.close();
+        }
+    }
 
+    /** Waits for each pending reply in order, then flushes them to the client in one go. */
+    private void writeReplies(OutputStream toClient, ArrayDeque<Pending> inFlight) throws IOException {
+        Pending pending;
+        while ((pending = inFlight.poll()) != null) {
+            Reply reply;
+            try {
+                reply = pending.reply().join();
+            } catch (CompletionException e) {
+                reply = Reply.error("Error: " + e.getCause().getMessage());
+            }
+            outputLock.lock();
+            try {
+                writePushes(toClient); // Those queued before this reply completed go first
+                writeReply(toClient, reply, pending.inline(), pending.closesSession());
+            } finally {
+                outputLock.unlock();
+            }
+        }
+        outputLock.lock();
+        try {
+            toClient.flush();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /** Queues a push such as a key invalidation, from any thread. */
+    private void push(byte[] message) {
+        pushes.add(message);
+        if (pushWriterScheduled.compareAndSet(false, true)) {
+            Thread.startVirtualThread(this::flushPushes);
+        }
+    }
+
+    private void flushPushes() {
+        outputLock.lock();
+        try {
+            pushWriterScheduled.set(false);
+            writePushes(toClient);
+            toClient.flush();
         } catch (IOException e) {
-            System.out.println("Client '" + clientName + "' disconnected or error occurred: " + e.getMessage());
+            // The session notices the broken connection itself
         } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException ignored) {}
+            outputLock.unlock();
         }
     }
+
+    private void writePushes(OutputStream toClient) throws IOException {
+        byte[] message;
+        while ((message = pushes.poll()) != null) {
+            toClient.write(message);
+        }
+    }
+
+    /**
+     * Encodes a reply in the protocol the request used. Text replies are followed by the
+     * {@code <END>} marker, except the final reply of a session, as before.
+     */
+    static void writeReply(OutputStream out, Reply reply, boolean inline, boolean lastReply) throws IOException {
+        if (!inline) {
+            reply.writeResp(out);
+            return;
+        }
+        reply.writeText(out);
+        if (!lastReply) {
+            out.write(END_MARKER);
+        }
+    }
+
+    /**
+     * Waits briefly for the client to send the first byte. Line-protocol clients wait for
+     * the banner and never speak first; RESP tooling sends its first command right away.
+     */
+    private boolean clientSpeaksResp(RequestReader fromClient) throws IOException {
+        int detectMillis = ServerConfig.protocolDetectMillis();
+        if (detectMillis <= 0) return false;
+
+        clientSocket.setSoTimeout(detectMillis);
+        try {
+            return fromClient.peek() == '*';
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            clientSocket.setSoTimeout(0);
+        }
+    }
+
+    /**
+     * Builds the banner, system info and name prompt sent to every new connection.
+     * Shared by all server modes so clients see the same handshake.
+     */
+    static String greeting() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        // ASCII Banner
+        out.println("██████╗ ███████╗███████╗██╗     ███████╗██╗  ██╗");
+        out.println("██╔══██╗██╔════╝██╔════╝██║     ██╔════╝╚██╗██╔╝");
+        out.println("██████╔╝█████╗  █████╗  ██║     █████╗   ╚███╔╝ ");
+        out.println("██║██╗  ██╔══╝  ██╔══╝  ██║     ██╔══╝   ██╔██╗ ");
+        out.println("██║ ██╗ ███████╗███████╗███████╗███████╗██╔╝ ██╗");
+        out.println("╚═╝ ╚═╝ ╚══════╝╚══════╝╚══════╝╚══════╝╚═╝  ╚═╝");
+        out.println();
+        out.println(" ██████╗ █████╗  ██████╗██╗  ██╗███████╗");
+        out.println("██╔════╝██╔══██╗██╔════╝██║  ██║██╔════╝");
+        out.println("██║     ███████║██║     ███████║█████╗  ");
+        out.println("██║     ██╔══██║██║     ██╔══██║██╔══╝  ");
+        out.println("╚██████╗██║  ██║╚██████╗██║  ██║███████╗");
+        out.println(" ╚═════╝╚═╝  ╚═╝ ╚═════╝╚═╝  ╚═╝╚══════╝");
+        out.println();
+
+        // System Info
+        out.println("System Info:");
+        out.println("  OS      : " + System.getProperty("os.name"));
+        out.println("  Java    : " + System.getProperty("java.version"));
+        out.println("  Threads : " + Thread.activeCount());
+        out.println();
+
+        out.println("Welcome to ReflexCLI Server!");
+        out.println("Enter your unique name:");
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Builds the lines that tell the client the handshake is complete.
+     */
+    static String connectedMessage(String clientName) {
+        return "Hello, " + clientName + "! You're now connected." + System.lineSeparator()
+                + "Type commands like SET, GET, PING, TIME, FILE, FLUSHALL, EXIT." + System.lineSeparator();
+    }
 }
@@ -0,0 +1,156 @@
+package org.example.serverMain;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single selector thread that owns a set of {@link NioSession}s.
+ * <p>
+ * All reads, writes and session state changes happen on this thread. Other threads
+ * (the acceptor, cachebase workers completing a reply) hand work over with
+ * {@link #execute(Runnable)}, which queues the task and wakes the selector at most
+ * once until the loop gets around to it.
+ * </p>
+ * <p>
+ * A task, timer or session that throws does not take the loop down with it: the failure
+ * is logged, the session it came from is closed, and the other sessions carry on.
+ * </p>
+ */
+public class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Only touched on the loop thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSequence;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final String name;
+    // Set by start(), so the loop is not handed to its thread before it is constructed
+    private volatile Thread thread;
+
+    public NioEventLoop(int id) throws IOException {
+        this.selector = Selector.open();
+        this.name = "reflex-nio-" + id;
+    }
+
+    public void start() {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on this loop's thread. Safe to call from any thread.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on this loop's thread after a delay. Must be called from the loop thread.
+     */
+    public void schedule(long delayMillis, Runnable task) {
+        timers.add(new Timer(System.nanoTime() + delayMillis * 1_000_000, timerSequence++, task));
+    }
+
+    private record Timer(long deadline, long sequence, Runnable task) implements Comparable<Timer> {
+        @Override
+        public int compareTo(Timer other) {
+            int byDeadline = Long.compare(deadline, other.deadline);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Hands a freshly accepted connection to this loop.
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioSession session = new NioSession(this, channel, key);
+                key.attach(session);
+                session.open();
+            } catch (IOException e) {
+                System.out.println("Failed to register connection: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Timer next = timers.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long waitMillis = (next.deadline() - System.nanoTime()) / 1_000_000;
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Selector error: " + e.getMessage());
+                break;
+            }
+
+            wakeupPending.set(false);
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runTask(task);
+            }
+
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline() - now <= 0) {
+                runTask(timers.poll().task());
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioSession session = (NioSession) key.attachment();
+                if (!key.isValid() || session == null) continue;
+
+                try {
+                    if (key.isWritable()) {
+                        session.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        session.onReadable();
+                    }
+                } catch (RuntimeException e) {
+                    session.fail(e);
+                }
+            }
+        }
+    }
+
+    // Tasks that belong to a session close it themselves on failure (see NioSession#fail);
+    // anything else is only logged
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Event loop task failed: " + e);
+        }
+    }
+}
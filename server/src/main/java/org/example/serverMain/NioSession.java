@@ -0,0 +1,456 @@
+package org.example.serverMain;
+
+import org.example.core.CommandProcessor;
+import org.example.core.SessionContext;
+import org.example.persistance.FileManager;
+import org.example.protocol.CommandArgs;
+import org.example.protocol.ProtocolException;
+import org.example.protocol.Reply;
+import org.example.protocol.RequestParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p><strong>NioSession.java</strong></p>
+ *
+ * Non-blocking counterpart of {@link ClientSessionHandler}, driven by a {@link NioEventLoop}.
+ * It speaks exactly the same protocols: banner and name prompt, optional log preview,
+ * then text commands with every reply terminated by {@code <END>}, or RESP when the client
+ * sends a RESP array before the banner goes out.
+ *
+ * <p><strong>How it differs from the blocking handler:</strong></p>
+ * <ul>
+ *     <li>Input is read into a reusable {@code ByteBuffer} and parsed in place by a
+ *         {@link RequestParser}, so a request may arrive across several reads.</li>
+ *     <li>SET/GET are submitted to the cachebase without waiting; replies are written
+ *         in request order once they complete, so back-to-back commands overlap.</li>
+ *     <li>Output is queued and written when the socket is writable. When too much output
+ *         or too many commands are pending, the session stops reading from the socket until
+ *         the client catches up.</li>
+ *     <li>A command that may block ({@link CommandProcessor#blocks}, e.g. creating a cachebase)
+ *         runs on a virtual thread instead of the event loop; the session takes no further
+ *         request until it is done, so requests still run in order.</li>
+ * </ul>
+ *
+ * <p>All methods except the reply completion callback run on the owning event loop thread.</p>
+ */
+public class NioSession {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long OUTPUT_HIGH_WATER = 1024 * 1024;
+    private static final long OUTPUT_LOW_WATER = 256 * 1024;
+    private static final String NL = System.lineSeparator();
+    // Runs the commands that would stall the event loop and all its other sessions
+    private static final ExecutorService BLOCKING_COMMANDS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private enum State { DETECT, NAME, LOG_CONFIRM, COMMANDS }
+
+    /** A reply that has to be written before any reply issued after it. */
+    private record Pending(CompletableFuture<Reply> reply, boolean inline, boolean closesSession) {}
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final RequestParser parser = new RequestParser();
+    private final CommandArgs args = new CommandArgs();
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private long queuedBytes;
+    private final ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Pushes from worker threads (CLIENT TRACKING invalidations), written before any reply
+    // that completed after them
+    private final Queue<byte[]> pushes = new ConcurrentLinkedQueue<>();
+    private final int maxInFlight = ServerConfig.maxInFlight();
+    // The reply of the blocking command last handed off; input waits until it completes
+    private CompletableFuture<Reply> blockingReply;
+
+    private State state = State.NAME;
+    private String clientName;
+    private File logFile;
+    private File aofFile;
+    private BufferedWriter logWriter;
+    private SessionContext session;
+
+    private boolean readPaused;
+    private boolean inputStalled;
+    private boolean processing;
+    private boolean inputDone;
+    private boolean closeAfterFlush;
+    private boolean closed;
+
+    public NioSession(NioEventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Called once right after registration. Gives the client a short window to speak
+     * first (RESP tooling does) before falling back to the text handshake.
+     */
+    void open() {
+        int detectMillis = ServerConfig.protocolDetectMillis();
+        if (detectMillis > 0) {
+            state = State.DETECT;
+            loop.schedule(detectMillis, guarded(this::detectTimedOut));
+        } else {
+            sendGreeting();
+            flush();
+        }
+    }
+
+    private void detectTimedOut() {
+        if (closed || state != State.DETECT) return;
+        sendGreeting();
+        flush();
+    }
+
+    private void sendGreeting() {
+        state = State.NAME;
+        enqueueOutput(ClientSessionHandler.greeting());
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close(e.getMessage());
+            return;
+        }
+        if (read == -1) {
+            close("connection closed");
+            return;
+        }
+        processInput();
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /** Parses buffered requests and handles them until input runs out or the session must pause. */
+    private void processInput() {
+        if (processing || closed) return;
+        processing = true;
+        inputStalled = false;
+        try {
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (!canAcceptMore()) {
+                    inputStalled = true;
+                    break;
+                }
+                if (!handleNext()) break;
+                if (closed) return;
+            }
+            readBuffer.compact();
+
+            if (!readBuffer.hasRemaining() && !inputStalled) {
+                if (readBuffer.capacity() >= RequestParser.MAX_REQUEST_BYTES) {
+                    throw new ProtocolException("request too large");
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, RequestParser.MAX_REQUEST_BYTES));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+
+            if (logWriter != null) {
+                logWriter.flush();
+            }
+        } catch (ProtocolException e) {
+            // The stream is out of sync; report and drop the connection once queued replies are out
+            readBuffer.clear();
+            inputDone = true;
+            inFlight.add(new Pending(CompletableFuture.completedFuture(Reply.error(e.getMessage())), false, true));
+        } catch (IOException e) {
+            close(e.getMessage());
+            return;
+        } finally {
+            processing = false;
+        }
+        drainReplies();
+    }
+
+    /**
+     * Consumes one handshake line or one request from the read buffer.
+     *
+     * @return {@code false} if more input is needed.
+     */
+    private boolean handleNext() throws IOException {
+        switch (state) {
+            case DETECT -> {
+                if (readBuffer.get(readBuffer.position()) == '*') {
+                    clientName = "resp@" + channel.socket().getRemoteSocketAddress();
+                    session = new SessionContext(clientName, null, null);
+                    session.setPushChannel(this::push);
+                    state = State.COMMANDS;
+                } else {
+                    // Spoke first but not RESP: greet anyway and take the input as the name
+                    sendGreeting();
+                }
+                return true;
+            }
+            case NAME, LOG_CONFIRM -> {
+                String line = nextLine();
+                if (line == null) return false;
+                handleHandshakeLine(line);
+                return true;
+            }
+            default -> {
+                int start = readBuffer.arrayOffset() + readBuffer.position();
+                int end = readBuffer.arrayOffset() + readBuffer.limit();
+                int next = parser.parse(readBuffer.array(), start, end, args);
+                if (next == RequestParser.INCOMPLETE) return false;
+                readBuffer.position(next - readBuffer.arrayOffset());
+                handleCommand();
+                return true;
+            }
+        }
+    }
+
+    private String nextLine() {
+        int lineEnd = -1;
+        for (int i = readBuffer.position(); i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\n') {
+                lineEnd = i;
+                break;
+            }
+        }
+        if (lineEnd < 0) return null;
+
+        int start = readBuffer.position();
+        int end = lineEnd;
+        if (end > start && readBuffer.get(end - 1) == '\r') end--;
+        String line = new String(readBuffer.array(), readBuffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        readBuffer.position(lineEnd + 1);
+        return line;
+    }
+
+    private void handleHandshakeLine(String line) throws IOException {
+        if (state == State.NAME) {
+            clientName = line;
+            logFile = FileManager.initLogFile(clientName);
+            aofFile = FileManager.initAOFFile(clientName);
+            if (logFile.exists()) {
+                enqueueOutput(FileManager.logPrompt(logFile) + NL);
+                state = State.LOG_CONFIRM;
+            } else {
+                finishHandshake(false);
+            }
+        } else {
+            finishHandshake("yes".equalsIgnoreCase(line));
+        }
+    }
+
+    private void finishHandshake(boolean showLog) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        if (showLog) {
+            FileManager.printLog(out, logFile);
+        }
+        out.print(ClientSessionHandler.connectedMessage(clientName));
+        out.flush();
+        enqueueOutput(text.toString());
+
+        logWriter = new BufferedWriter(new FileWriter(logFile, true));
+        session = new SessionContext(clientName, aofFile, logWriter);
+        session.setPushChannel(this::push);
+        state = State.COMMANDS;
+    }
+
+    private void handleCommand() throws IOException {
+        if (logWriter != null) {
+            logWriter.write("[" + LocalTime.now() + "] " + args);
+            logWriter.newLine();
+        }
+
+        CompletableFuture<Reply> reply;
+        if (CommandProcessor.blocks(args)) {
+            CommandArgs request = args.copy(); // args and its buffer are reused for the next request
+            reply = CompletableFuture.supplyAsync(() -> CommandProcessor.execute(request, session), BLOCKING_COMMANDS)
+                    .thenCompose(result -> result);
+            blockingReply = reply;
+        } else {
+            reply = CommandProcessor.execute(args, session);
+        }
+        inFlight.add(new Pending(reply, args.isInline(), session.isCloseRequested()));
+        if (session.isCloseRequested()) {
+            // Nothing after EXIT is executed
+            inputDone = true;
+            readBuffer.position(readBuffer.limit());
+        } else if (!reply.isDone()) {
+            reply.whenComplete((result, error) -> scheduleDrain());
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            loop.execute(guarded(() -> {
+                drainScheduled.set(false);
+                drainReplies();
+            }));
+        }
+    }
+
+    /** Writes every completed reply at the head of the queue, coalesced into a single buffer. */
+    private void drainReplies() {
+        if (closed) return;
+
+        byte[] message;
+        while ((message = pushes.poll()) != null) {
+            enqueueOutput(message);
+        }
+        ByteArrayOutputStream out = null;
+        Pending head;
+        while ((head = inFlight.peek()) != null && head.reply().isDone()) {
+            inFlight.poll();
+            if (out == null) out = new ByteArrayOutputStream();
+
+            Reply result;
+            try {
+                result = head.reply().join();
+            } catch (CompletionException e) {
+                result = Reply.error("Error: " + e.getCause().getMessage());
+            }
+            try {
+                ClientSessionHandler.writeReply(out, result, head.inline(), head.closesSession());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // ByteArrayOutputStream does not throw
+            }
+
+            if (head.closesSession()) {
+                closeAfterFlush = true;
+                inFlight.clear();
+                break;
+            }
+        }
+
+        if (out != null) {
+            enqueueOutput(out.toByteArray());
+        }
+        flush();
+
+        if (inputStalled && canAcceptMore()) {
+            processInput();
+        }
+    }
+
+    /** Queues a push such as a key invalidation, from any thread; it goes out between two replies. */
+    private void push(byte[] message) {
+        pushes.add(message);
+        scheduleDrain();
+    }
+
+    private boolean canAcceptMore() {
+        return !inputDone && !closeAfterFlush && inFlight.size() < maxInFlight && queuedBytes < OUTPUT_HIGH_WATER
+                && !awaitingBlocking();
+    }
+
+    private boolean awaitingBlocking() {
+        return blockingReply != null && !blockingReply.isDone();
+    }
+
+    private void enqueueOutput(String text) {
+        enqueueOutput(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void enqueueOutput(byte[] bytes) {
+        writeQueue.add(ByteBuffer.wrap(bytes));
+        queuedBytes += bytes.length;
+    }
+
+    private void flush() {
+        if (closed) return;
+        try {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                int written = channel.write(buffer);
+                queuedBytes -= written;
+                if (buffer.hasRemaining()) break; // Socket send buffer is full
+                writeQueue.poll();
+            }
+        } catch (IOException e) {
+            close(e.getMessage());
+            return;
+        }
+
+        if (writeQueue.isEmpty() && closeAfterFlush) {
+            close("session ended");
+            return;
+        }
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        // Stop reading while the client is not draining its replies, resume once it has caught up
+        if (readPaused) {
+            readPaused = inputDone || closeAfterFlush || queuedBytes > OUTPUT_LOW_WATER || inFlight.size() >= maxInFlight
+                    || awaitingBlocking();
+        } else {
+            readPaused = !canAcceptMore();
+        }
+
+        int ops = readPaused ? 0 : SelectionKey.OP_READ;
+        if (!writeQueue.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Closes the session after an unexpected exception while handling it, so the event loop
+     * and its other sessions keep running.
+     */
+    void fail(RuntimeException e) {
+        System.err.println("Session of client '" + clientName + "' failed: " + e);
+        close("internal error: " + e);
+    }
+
+    /** A task of this session for the loop, which closes the session if it throws. */
+    private Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        };
+    }
+
+    private void close(String reason) {
+        if (closed) return;
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        if (logWriter != null) {
+            try {
+                logWriter.close();
+            } catch (IOException ignored) {}
+        }
+        inFlight.clear();
+        writeQueue.clear();
+        if (session != null) {
+            session.close();
+        }
+        System.out.println("Client '" + clientName + "' disconnected or error occurred: " + reason);
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.serverMain;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often virtual session threads pin their carrier thread.
+ * <p>
+ * A virtual thread that blocks while pinned (inside {@code synchronized}, or in native
+ * code) holds on to its carrier, which defeats the point of the virtual thread mode.
+ * This monitor streams the JFR {@code jdk.VirtualThreadPinned} event in-process,
+ * keeps running totals, and prints each distinct pinning site once so it can be fixed.
+ * </p>
+ *
+ * <p>The reporting threshold is {@code --pinning-threshold-ms} (default 1 ms).</p>
+ */
+public class PinningMonitor {
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static final LongAdder pinnedCount = new LongAdder();
+    private static final LongAdder pinnedNanos = new LongAdder();
+    private static final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts the event stream on a background thread. Calling it again has no effect.
+     */
+    public static void start() {
+        if (!started.compareAndSet(false, true)) return;
+
+        long thresholdMillis = ServerConfig.getInt("pinning-threshold-ms", 1);
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+            stream.onEvent(EVENT, PinningMonitor::record);
+            stream.startAsync();
+        } catch (RuntimeException e) {
+            // JFR may be unavailable (e.g. disabled in the runtime image); the server works without it
+            System.err.println("Pinning monitor unavailable: " + e.getMessage());
+        }
+    }
+
+    private static void record(RecordedEvent event) {
+        pinnedCount.increment();
+        pinnedNanos.add(event.getDuration().toNanos());
+
+        String site = topFrame(event.getStackTrace());
+        if (reportedSites.add(site)) {
+            System.out.println("[Pinning] carrier pinned for " + event.getDuration().toMillis()
+                    + " ms at " + site + " (further events from this site are only counted)");
+        }
+    }
+
+    private static String topFrame(RecordedStackTrace trace) {
+        if (trace == null) return "<unknown>";
+        for (RecordedFrame frame : trace.getFrames()) {
+            if (!frame.isJavaFrame()) continue;
+            String type = frame.getMethod().getType().getName();
+            // Skip JDK frames so the site points at our code
+            if (type.startsWith("java.") || type.startsWith("jdk.") || type.startsWith("sun.")) continue;
+            return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+        }
+        return "<jdk internal>";
+    }
+
+    /** Number of pinning events at or above the threshold since start. */
+    public static long pinnedCount() {
+        return pinnedCount.sum();
+    }
+
+    /** Total time carriers spent pinned, in milliseconds, across those events. */
+    public static long pinnedMillis() {
+        return pinnedNanos.sum() / 1_000_000;
+    }
+}
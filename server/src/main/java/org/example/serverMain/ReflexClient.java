@@ -1,12 +1,29 @@
 package org.example.serverMain;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.example.ReflexApiTest;
+import org.example.core.SlotTable;
+import org.example.protocol.Reply;
+import org.example.protocol.ReplyReader;
 import org.example.serverMain.AuthManager;
 import org.example.ReflexTest;
 import org.example.ReflexApiTest;
@@ -20,6 +37,9 @@ import static org.example.ReflexApiTest.runTest;
  * This client enables users to send commands such as {@code SET}, {@code GET}, {@code DISPLAY}, etc.,
  * and displays responses from the server in real-time.
  * </p>
+ *
+ * <p>Started with {@code --cluster=host:port[,host:port...]} it talks RESP to a cluster
+ * instead, through a {@link Cluster} that sends each key to the node owning it.</p>
  */
 public class ReflexClient {
 
@@ -87,7 +107,40 @@ public class ReflexClient {
         }
     }
 
+    /**
+     * Runs the command loop against a cluster: each line is split on spaces, except that
+     * the value of a {@code SET} or {@code JSON.SET} runs to the end of the line.
+     */
+    public static void startCluster(String... seeds) {
+        try (Cluster cluster = new Cluster(seeds);
+             BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in))) {
+            System.out.println("Connected to a cluster of " + cluster.nodes().size() + " nodes");
+            while (true) {
+                System.out.print("You > ");
+                String input = userInput.readLine();
+                if (input == null || input.equalsIgnoreCase("exit")) break;
+                if (input.isBlank()) continue;
+                String name = input.trim().split("\\s+", 2)[0].toUpperCase(Locale.ROOT);
+                int limit = name.equals("SET") ? 4 : name.equals("JSON.SET") ? 5 : 0;
+                try {
+                    Reply reply = cluster.execute(input.trim().split("\\s+", limit));
+                    System.out.print("Server > ");
+                    reply.writeText(System.out);
+                    System.out.flush();
+                } catch (IOException e) {
+                    System.out.println("Server > " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not connect to the cluster: " + e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].startsWith("--cluster=")) {
+            startCluster(args[0].substring("--cluster=".length()).split(","));
+            return;
+        }
         // Create a scanner for input
         java.util.Scanner scanner = new java.util.Scanner(System.in);
 
@@ -142,4 +195,297 @@ public class ReflexClient {
         // Start the client after successful authentication
 //        start(port, clientName);
     }
+
+    /**
+     * A client of a ReflexServer cluster (see {@code ClusterState}). It keeps the slot map,
+     * sends each key command straight to the node that owns the key and follows the
+     * redirections of a changing cluster: {@code MOVED} reloads the slot map, {@code ASK}
+     * retries once on the named node after {@code ASKING}.
+     * <p>
+     * {@code MGET} and {@code MSET} are split by node and fall back to single keys while
+     * their slots move; {@code FIND} asks every node and merges the keys; commands that
+     * change a cachebase as a whole ({@code CREATE}, {@code REMOVE}, {@code MAXMEMORY}, ...)
+     * go to every node. Anything else goes to one node.
+     * </p>
+     *
+     * <p>Not thread-safe: one connection per node, one request at a time.</p>
+     */
+    public static final class Cluster implements Closeable {
+        private static final int MAX_REDIRECTS = 5;
+        private static final long TRY_AGAIN_DELAY_MS = 20;
+        private static final int CONNECT_TIMEOUT_MS = 5000;
+        private static final Set<String> KEY_COMMANDS = Set.of("SET", "GET", "EXPIRE", "TTL", "PERSIST", "INCR", "DECR",
+                "INCRBY", "DECRBY", "INCRBYFLOAT", "JSON.SET", "JSON.GET");
+        private static final Set<String> EVERY_NODE = Set.of("CREATE", "REMOVE", "MAXMEMORY", "REWRITELOG", "SAVE", "BGSAVE", "RESHARD");
+
+        private final String[] owners = new String[SlotTable.SLOTS];
+        private final Set<String> nodes = new LinkedHashSet<>();
+        private final Map<String, NodeConnection> connections = new LinkedHashMap<>();
+
+        /**
+         * Loads the slot map from the first of {@code seeds} that answers.
+         *
+         * @param seeds Nodes as {@code host:port}; any one of the cluster will do.
+         */
+        public Cluster(String... seeds) throws IOException {
+            nodes.addAll(Arrays.asList(seeds));
+            refreshSlots();
+        }
+
+        /** Every node in the slot map. */
+        public Set<String> nodes() {
+            return Set.copyOf(nodes);
+        }
+
+        /** The node the slot map gives {@code key} to. */
+        public String nodeFor(String key) {
+            String owner = owners[SlotTable.slotOf(key)];
+            return owner != null ? owner : nodes.iterator().next();
+        }
+
+        /** Reloads the slot map ({@code CLUSTER SLOTS}) from the first node that answers. */
+        public void refreshSlots() throws IOException {
+            IOException failure = null;
+            for (String node : new ArrayList<>(nodes)) {
+                try {
+                    Reply slots = connection(node).call(List.of("CLUSTER", "SLOTS"));
+                    if (slots.isError()) throw new IOException(node + ": " + slots);
+                    Arrays.fill(owners, null);
+                    for (Reply range : slots.items()) {
+                        String owner = range.items().get(2).toString();
+                        Arrays.fill(owners, (int) range.items().get(0).integerValue(),
+                                (int) range.items().get(1).integerValue() + 1, owner);
+                        nodes.add(owner);
+                    }
+                    return;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure != null ? failure : new IOException("no cluster nodes given");
+        }
+
+        public String get(String cachebase, String key) throws IOException {
+            Reply reply = check(execute("GET", cachebase, key));
+            return reply.kind() == Reply.Kind.NIL ? null : reply.toString();
+        }
+
+        public void set(String cachebase, String key, String value) throws IOException {
+            check(execute("SET", cachebase, key, value));
+        }
+
+        /**
+         * Runs a command on the node or nodes it belongs to. Errors other than redirections
+         * come back as error replies.
+         *
+         * @throws IOException If a node cannot be reached, or a key keeps being redirected.
+         */
+        public Reply execute(String... request) throws IOException {
+            List<String> command = List.of(request);
+            String name = command.isEmpty() ? "" : command.get(0).toUpperCase(Locale.ROOT);
+            if (KEY_COMMANDS.contains(name) && command.size() >= 3) {
+                return onOwner(command, command.get(2));
+            }
+            if (name.equals("MGET") && command.size() >= 3) {
+                return mget(command);
+            }
+            if (name.equals("MSET") && command.size() >= 4 && command.size() % 2 == 0) {
+                return mset(command);
+            }
+            if (name.equals("FIND")) {
+                return find(command);
+            }
+            if (EVERY_NODE.contains(name)) {
+                Reply first = null;
+                for (String node : new ArrayList<>(nodes)) {
+                    Reply reply = connection(node).call(command);
+                    if (first == null || (reply.isError() && !first.isError())) first = reply;
+                }
+                return first;
+            }
+            return connection(nodes.iterator().next()).call(command);
+        }
+
+        /** Sends a command to the owner of {@code key}, following MOVED, ASK and TRYAGAIN. */
+        private Reply onOwner(List<String> command, String key) throws IOException {
+            String node = nodeFor(key);
+            boolean asking = false;
+            for (int attempt = 0; attempt <= MAX_REDIRECTS; attempt++) {
+                Reply reply = asking ? connection(node).callAsking(command) : connection(node).call(command);
+                asking = false;
+                if (!reply.isError()) return reply;
+                String[] error = reply.toString().split(" ");
+                switch (error[0]) {
+                    case "MOVED" -> {
+                        owners[Integer.parseInt(error[1])] = error[2];
+                        nodes.add(error[2]);
+                        refreshSlots(); // Slots move in ranges: one MOVED usually means many
+                        node = error[2];
+                    }
+                    case "ASK" -> {
+                        node = error[2];
+                        asking = true;
+                    }
+                    case "TRYAGAIN" -> sleep(TRY_AGAIN_DELAY_MS);
+                    default -> {
+                        return reply;
+                    }
+                }
+            }
+            throw new IOException("too many redirections for key " + key);
+        }
+
+        private Reply mget(List<String> command) throws IOException {
+            Map<String, List<Integer>> byNode = new LinkedHashMap<>();
+            for (int i = 2; i < command.size(); i++) {
+                byNode.computeIfAbsent(nodeFor(command.get(i)), node -> new ArrayList<>()).add(i);
+            }
+            Reply[] values = new Reply[command.size() - 2];
+            for (Map.Entry<String, List<Integer>> group : byNode.entrySet()) {
+                List<String> part = new ArrayList<>(List.of("MGET", command.get(1)));
+                group.getValue().forEach(i -> part.add(command.get(i)));
+                Reply reply = connection(group.getKey()).call(part);
+                for (int n = 0; n < group.getValue().size(); n++) {
+                    int i = group.getValue().get(n);
+                    // Redirected or moving: key by key instead
+                    values[i - 2] = reply.isError() ? onOwner(List.of("GET", command.get(1), command.get(i)), command.get(i))
+                            : reply.items().get(n);
+                }
+            }
+            return Reply.array(Arrays.asList(values));
+        }
+
+        private Reply mset(List<String> command) throws IOException {
+            Map<String, List<Integer>> byNode = new LinkedHashMap<>();
+            for (int i = 2; i < command.size(); i += 2) {
+                byNode.computeIfAbsent(nodeFor(command.get(i)), node -> new ArrayList<>()).add(i);
+            }
+            for (Map.Entry<String, List<Integer>> group : byNode.entrySet()) {
+                List<String> part = new ArrayList<>(List.of("MSET", command.get(1)));
+                group.getValue().forEach(i -> part.addAll(command.subList(i, i + 2)));
+                if (!connection(group.getKey()).call(part).isError()) continue;
+                for (int i : group.getValue()) {
+                    Reply reply = onOwner(List.of("SET", command.get(1), command.get(i), command.get(i + 1)), command.get(i));
+                    if (reply.isError()) return reply;
+                }
+            }
+            return Reply.OK;
+        }
+
+        /** FIND on every node; the keys are merged in order and cut to the LIMIT, if any. */
+        private Reply find(List<String> command) throws IOException {
+            int limit = Integer.MAX_VALUE;
+            if (command.size() >= 5 && command.get(command.size() - 2).equalsIgnoreCase("LIMIT")) {
+                try {
+                    limit = Integer.parseInt(command.get(command.size() - 1));
+                } catch (NumberFormatException e) {
+                    limit = -1; // The nodes answer with the error
+                }
+            }
+            TreeSet<String> keys = new TreeSet<>();
+            for (String node : new LinkedHashSet<>(Arrays.asList(owners))) {
+                if (node == null) continue;
+                Reply reply = connection(node).call(command);
+                if (reply.isError()) return reply;
+                reply.items().forEach(key -> keys.add(key.toString()));
+            }
+            List<Reply> merged = new ArrayList<>();
+            for (String key : keys) {
+                if (merged.size() >= limit) break;
+                merged.add(Reply.bulk(key));
+            }
+            return Reply.array(merged);
+        }
+
+        private NodeConnection connection(String node) throws IOException {
+            NodeConnection connection = connections.get(node);
+            if (connection == null) {
+                connection = new NodeConnection(node);
+                connections.put(node, connection);
+            }
+            return connection;
+        }
+
+        private static Reply check(Reply reply) throws IOException {
+            if (reply.isError()) throw new IOException(reply.toString());
+            return reply;
+        }
+
+        private static void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (NodeConnection connection : connections.values()) {
+                connection.socket.close();
+            }
+            connections.clear();
+        }
+
+        /** One RESP connection to a node; closed and dropped from the pool when it fails. */
+        private final class NodeConnection {
+            final String node;
+            final Socket socket = new Socket();
+            final ReplyReader in;
+            final OutputStream out;
+
+            NodeConnection(String node) throws IOException {
+                this.node = node;
+                int colon = node.lastIndexOf(':');
+                try {
+                    socket.connect(new InetSocketAddress(node.substring(0, colon),
+                            Integer.parseInt(node.substring(colon + 1))), CONNECT_TIMEOUT_MS);
+                    socket.setTcpNoDelay(true);
+                } catch (IOException | RuntimeException e) {
+                    socket.close();
+                    throw new IOException("cannot connect to " + node + ": " + e.getMessage());
+                }
+                in = new ReplyReader(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+            }
+
+            Reply call(List<String> command) throws IOException {
+                try {
+                    write(command);
+                    out.flush();
+                    return in.read();
+                } catch (IOException e) {
+                    fail();
+                    throw e;
+                }
+            }
+
+            /** {@code ASKING} and the command in one write; the first reply is always OK. */
+            Reply callAsking(List<String> command) throws IOException {
+                try {
+                    write(List.of("ASKING"));
+                    write(command);
+                    out.flush();
+                    in.read();
+                    return in.read();
+                } catch (IOException e) {
+                    fail();
+                    throw e;
+                }
+            }
+
+            private void write(List<String> command) throws IOException {
+                List<Reply> items = new ArrayList<>(command.size());
+                for (String part : command) {
+                    items.add(Reply.bulk(part.getBytes(StandardCharsets.UTF_8)));
+                }
+                Reply.array(items).writeResp(out);
+            }
+
+            private void fail() throws IOException {
+                connections.remove(node);
+                socket.close();
+            }
+        }
+    }
 }
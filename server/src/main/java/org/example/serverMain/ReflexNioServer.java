@@ -0,0 +1,49 @@
+package org.example.serverMain;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Event-loop variant of {@link ReflexServer}.
+ * <p>
+ * Instead of a thread per connection, a fixed set of {@link NioEventLoop}s each
+ * multiplex many non-blocking connections over one {@code Selector}. The calling
+ * thread only accepts connections and hands them out round-robin.
+ * </p>
+ *
+ * <p>Selected with {@code --io=nio}; see {@link ServerConfig}.</p>
+ */
+public class ReflexNioServer {
+
+    /**
+     * Starts the event loops and accepts connections until the process exits.
+     *
+     * @param port       The port to listen on.
+     * @param loopCount  The number of selector threads.
+     */
+    public static void start(int port, int loopCount) {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), ServerConfig.backlog());
+
+            NioEventLoop[] loops = new NioEventLoop[loopCount];
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new NioEventLoop(i);
+                loops[i].start();
+            }
+            System.out.println("ReflexServer (nio, " + loopCount + " event loops) running on port " + port);
+
+            int next = 0;
+            while (true) {
+                SocketChannel client = server.accept();
+                System.out.println("Client connected from: " + client.socket().getInetAddress());
+                loops[next].register(client);
+                next = (next + 1) % loopCount;
+            }
+
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,20 @@
 package org.example.serverMain;
 
+import org.example.core.Cachebase;
+import org.example.core.CachebaseManager;
+import org.example.core.ClientTracking;
+import org.example.core.ClusterState;
+import org.example.core.CommandProcessor;
+import org.example.core.ReplicaLink;
+import org.example.core.ReplicationFeed;
+import org.example.persistance.FileManager;
+import org.example.persistance.WorkerLog;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * The {@code ReflexServer} class acts as the entry point for starting the ReflexDB server.
@@ -33,16 +45,39 @@ public class ReflexServer {
      * @throws RuntimeException if the server fails to start due to an {@link IOException}
      */
     public static void start(int port) {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("ReflexServer running on port " + port);
+        start(port, false);
+    }
+
+    /**
+     * Starts the ReflexDB server, running each session either on its own platform thread
+     * or on a virtual thread.
+     * <p>
+     * With virtual threads a session that blocks on the socket or on a cachebase reply
+     * only parks; the carrier thread is free to run other sessions, so idle connections
+     * cost a small heap object instead of a full thread stack.
+     * </p>
+     *
+     * @param port           The port to listen on.
+     * @param virtualThreads {@code true} to run sessions on virtual threads.
+     */
+    public static void start(int port, boolean virtualThreads) {
+        Thread.Builder sessionThreads = virtualThreads
+                ? Thread.ofVirtual().name("session-", 0)
+                : Thread.ofPlatform().name("session-", 0);
+
+        try (ServerSocket serverSocket = new ServerSocket(port, ServerConfig.backlog())) {
+            System.out.println("ReflexServer (" + (virtualThreads ? "virtual" : "blocking")
+                    + " threads) running on port " + port);
 
             // Listen for incoming client connections indefinitely
             while (true) {
                 Socket clientSocket = serverSocket.accept();
+                // Replies are flushed once per batch already; Nagle would hold back the next batch
+                clientSocket.setTcpNoDelay(true);
                 System.out.println("Client connected from: " + clientSocket.getInetAddress());
 
                 // Create and run a new client session handler for each client
-                new Thread(() -> new ClientSessionHandler(clientSocket).run()).start();
+                sessionThreads.start(new ClientSessionHandler(clientSocket));
             }
 
         } catch (IOException e) {
@@ -50,8 +85,63 @@ public class ReflexServer {
         }
     }
 
+    /**
+     * Entry point. Accepts {@code [port] [--io=blocking|virtual|nio] [--event-loops=N]};
+     * see {@link ServerConfig} for all options.
+     */
     public static void main(String[] args) {
-        int port = 8080; // Default port for server
-        start(port); // Start server on the specified port
+        ServerConfig.load(args);
+        int port = ServerConfig.port(); // Default port for server is 8080
+        WorkerLog.setFsyncPolicy(ServerConfig.appendFsync());
+        WorkerLog.setRewriteThreshold(ServerConfig.aofRewritePercentage(), ServerConfig.aofRewriteMinBytes());
+        Cachebase.setDefaultEviction(ServerConfig.maxMemory(), ServerConfig.maxMemoryPolicy());
+        Cachebase.setValueStorage(ServerConfig.valueStorage());
+        ReplicationFeed.setBacklogBytes(ServerConfig.replBacklogBytes());
+        ClientTracking.setMaxKeysPerWorker(ServerConfig.trackingMaxKeys());
+        ReplicaLink.setListeningPort(port);
+        CommandProcessor.setServerInfo(() -> "io_mode:" + ServerConfig.ioMode().name().toLowerCase(Locale.ROOT) + "\n"
+                + "pinned_carriers:" + PinningMonitor.pinnedCount() + "\n"
+                + "pinned_carrier_ms:" + PinningMonitor.pinnedMillis() + "\n");
+        // Recover before accepting clients, so nobody sees half-loaded data
+        try {
+            CachebaseManager.loadAll();
+            long lines = FileManager.recoverAllClients();
+            if (lines > 0) {
+                System.out.println("Recovered " + lines + " entries from client AOF files.");
+            }
+        } catch (IOException e) {
+            System.err.println("Recovery failed: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<String> clusterNodes = ServerConfig.clusterNodes();
+        if (!clusterNodes.isEmpty()) {
+            String self = ServerConfig.clusterAnnounce();
+            if (self == null || !clusterNodes.contains(self)) {
+                System.err.println("Cluster mode needs --cluster-announce=host:port, one of --cluster-nodes.");
+                return;
+            }
+            ClusterState.start(self, clusterNodes);
+        }
+        String leader = ServerConfig.replicaOf();
+        if (leader != null) {
+            int colon = leader.lastIndexOf(':');
+            try {
+                System.out.println(ReplicaLink.follow(leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring invalid replicaof, expected host:port: " + leader);
+            }
+        }
+
+        switch (ServerConfig.ioMode()) {
+            case NIO -> ReflexNioServer.start(port, ServerConfig.eventLoops());
+            case BLOCKING -> start(port); // Start server on the specified port
+            case VIRTUAL -> {
+                PinningMonitor.start();
+                start(port, true);
+            }
+        }
     }
 }
@@ -0,0 +1,211 @@
+package org.example.serverMain;
+
+import org.example.core.Cachebase;
+import org.example.core.EvictionPolicy;
+import org.example.persistance.WorkerLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p><strong>ServerConfig.java</strong></p>
+ *
+ * Startup options for ReflexServer.
+ * <p>
+ * Options are given on the command line as {@code --name=value}; a bare number is
+ * taken as the port. Anything not given on the command line falls back to the
+ * system property {@code reflex.<name>} and then to the built-in default, so
+ * {@code java -Dreflex.io=nio ...} and {@code ... --io=nio} are equivalent.
+ * </p>
+ *
+ * <p><strong>Options:</strong></p>
+ * <ul>
+ *     <li><strong>port</strong>: TCP port to listen on (default 8080).</li>
+ *     <li><strong>io</strong>: {@code blocking} (platform thread per connection, default),
+ *         {@code virtual} (virtual thread per connection) or {@code nio} (selector event loops).</li>
+ *     <li><strong>event-loops</strong>: Number of selector threads in {@code nio} mode
+ *         (default: available processors).</li>
+ *     <li><strong>protocol-detect-ms</strong>: How long a new connection waits for the client to
+ *         speak first before sending the banner (default 50). A client whose first byte is
+ *         {@code '*'} is served as a RESP session without the name handshake; 0 disables this.</li>
+ *     <li><strong>backlog</strong>: Pending-connection queue length for the listening socket
+ *         (default 1024). Connection storms beyond this are dropped by the OS.</li>
+ *     <li><strong>max-in-flight</strong>: Pipelined commands a single connection may have
+ *         submitted but not yet answered (default 1024). Reading from that client pauses at the cap.</li>
+ *     <li><strong>appendfsync</strong>: When cachebase writes are forced to disk: {@code always}
+ *         (before the write is acknowledged), {@code everysec} (default) or {@code no}.</li>
+ *     <li><strong>aof-rewrite-percentage</strong> / <strong>aof-rewrite-min-mb</strong>: A worker
+ *         log is rewritten in the background once it has grown by this percentage since its last
+ *         rewrite (default 100, 0 disables) and is at least this large (default 64).</li>
+ *     <li><strong>maxmemory</strong>: Default memory budget of a cachebase, e.g. {@code 512mb}
+ *         (suffixes kb, mb, gb; default 0, unlimited). {@code MAXMEMORY} changes it per cachebase.</li>
+ *     <li><strong>maxmemory-policy</strong>: What a full cachebase evicts: {@code lru} (default),
+ *         {@code lfu} or {@code tinylfu}.</li>
+ *     <li><strong>value-storage</strong>: Where cachebase values live: {@code heap} (default) or
+ *         {@code offheap} (native memory slabs, outside the garbage collector's reach).</li>
+ *     <li><strong>replicaof</strong>: {@code host:port} of a leader to follow from startup, as
+ *         {@code REPLICAOF} does (default: none, this server is a leader).</li>
+ *     <li><strong>repl-backlog-mb</strong>: Recent writes a leader keeps for followers that
+ *         reconnect, in megabytes (default 64). A follower further behind syncs in full.</li>
+ *     <li><strong>cluster-nodes</strong>: Comma-separated {@code host:port} of every node, this one
+ *         included, to run in cluster mode; the same list on every node (default: none, no cluster).</li>
+ *     <li><strong>cluster-announce</strong>: This node's {@code host:port} in that list (default:
+ *         the entry with this server's port).</li>
+ *     <li><strong>tracking-max-keys</strong>: Keys each worker remembers for {@code CLIENT TRACKING}
+ *         connections (default 100000); past that, the oldest are invalidated early.</li>
+ * </ul>
+ */
+public class ServerConfig {
+
+    /** How client connections are served. */
+    public enum IoMode { BLOCKING, VIRTUAL, NIO }
+
+    private static final Map<String, String> options = new HashMap<>();
+
+    /**
+     * Parses command-line arguments. Unknown options are kept and simply never read.
+     *
+     * @param args Arguments passed to {@code main}.
+     */
+    public static void load(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq > 2) {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                } else {
+                    options.put(arg.substring(2), "true");
+                }
+            } else if (!arg.isBlank()) {
+                options.put("port", arg.trim());
+            }
+        }
+    }
+
+    public static String get(String name, String defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            value = System.getProperty("reflex." + name);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static int port() {
+        return getInt("port", 8080);
+    }
+
+    public static IoMode ioMode() {
+        String mode = get("io", "blocking").toUpperCase(Locale.ROOT);
+        try {
+            return IoMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown io mode '" + mode + "', using blocking.");
+            return IoMode.BLOCKING;
+        }
+    }
+
+    public static int protocolDetectMillis() {
+        return Math.max(0, getInt("protocol-detect-ms", 50));
+    }
+
+    public static int backlog() {
+        return Math.max(50, getInt("backlog", 1024));
+    }
+
+    public static int eventLoops() {
+        return Math.max(1, getInt("event-loops", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static int maxInFlight() {
+        return Math.max(1, getInt("max-in-flight", 1024));
+    }
+
+    public static WorkerLog.FsyncPolicy appendFsync() {
+        return WorkerLog.FsyncPolicy.parse(get("appendfsync", "everysec"));
+    }
+
+    public static int aofRewritePercentage() {
+        return Math.max(0, getInt("aof-rewrite-percentage", 100));
+    }
+
+    public static long aofRewriteMinBytes() {
+        return Math.max(0, getInt("aof-rewrite-min-mb", 64)) * 1024L * 1024L;
+    }
+
+    public static long maxMemory() {
+        String value = get("maxmemory", "0");
+        try {
+            return Cachebase.parseMemory(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value for maxmemory: " + value);
+            return 0;
+        }
+    }
+
+    public static EvictionPolicy.Kind maxMemoryPolicy() {
+        String value = get("maxmemory-policy", "lru");
+        try {
+            return EvictionPolicy.Kind.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown maxmemory-policy '" + value + "', using lru.");
+            return EvictionPolicy.Kind.LRU;
+        }
+    }
+
+    public static String valueStorage() {
+        return get("value-storage", "heap");
+    }
+
+    /** The leader given by {@code --replicaof=host:port}, or null. */
+    public static String replicaOf() {
+        return get("replicaof", null);
+    }
+
+    /** The nodes given by {@code --cluster-nodes}, empty outside cluster mode. */
+    public static List<String> clusterNodes() {
+        List<String> nodes = new ArrayList<>();
+        for (String node : get("cluster-nodes", "").split(",")) {
+            if (!node.isBlank()) nodes.add(node.trim());
+        }
+        return nodes;
+    }
+
+    /**
+     * This node's address among the {@link #clusterNodes()}: {@code --cluster-announce}, or
+     * the only node with this server's port; null if that is not one node.
+     */
+    public static String clusterAnnounce() {
+        String announced = get("cluster-announce", null);
+        if (announced != null) return announced.trim();
+        String self = null;
+        for (String node : clusterNodes()) {
+            if (node.endsWith(":" + port())) {
+                if (self != null) return null;
+                self = node;
+            }
+        }
+        return self;
+    }
+
+    public static long replBacklogBytes() {
+        return Math.max(1, getInt("repl-backlog-mb", 64)) * 1024L * 1024L;
+    }
+
+    public static int trackingMaxKeys() {
+        return Math.max(1, getInt("tracking-max-keys", 100_000));
+    }
+}